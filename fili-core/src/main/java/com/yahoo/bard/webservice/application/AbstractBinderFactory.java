@@ -45,6 +45,7 @@ import com.yahoo.bard.webservice.data.cache.TupleDataCache;
 import com.yahoo.bard.webservice.data.cache.HashDataCache;
 import com.yahoo.bard.webservice.data.cache.MemDataCache;
 import com.yahoo.bard.webservice.data.cache.MemTupleDataCache;
+import com.yahoo.bard.webservice.data.cache.TieredTupleDataCache;
 import com.yahoo.bard.webservice.data.cache.StubDataCache;
 import com.yahoo.bard.webservice.data.config.ConfigurationLoader;
 import com.yahoo.bard.webservice.data.config.DefaultConfigurationLoader;
@@ -68,6 +69,9 @@ import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
 import com.yahoo.bard.webservice.druid.client.DruidWebService;
 import com.yahoo.bard.webservice.druid.client.impl.AsyncDruidWebServiceImpl;
 import com.yahoo.bard.webservice.druid.client.impl.HeaderNestingJsonBuilderStrategy;
+import com.yahoo.bard.webservice.druid.client.impl.CoalescingDruidWebService;
+import com.yahoo.bard.webservice.druid.client.impl.ConcurrencyLimitingDruidWebService;
+import com.yahoo.bard.webservice.druid.client.impl.LoadBalancingDruidWebService;
 import com.yahoo.bard.webservice.druid.model.builders.DefaultDruidHavingBuilder;
 import com.yahoo.bard.webservice.druid.model.builders.DruidFilterBuilder;
 import com.yahoo.bard.webservice.druid.model.builders.DruidHavingBuilder;
@@ -98,6 +102,7 @@ import com.yahoo.bard.webservice.table.resolver.DefaultPhysicalTableResolver;
 import com.yahoo.bard.webservice.table.resolver.PhysicalTableResolver;
 import com.yahoo.bard.webservice.util.DefaultingDictionary;
 import com.yahoo.bard.webservice.util.SimplifiedIntervalList;
+import com.yahoo.bard.webservice.web.ArrowResponseWriter;
 import com.yahoo.bard.webservice.web.CsvResponseWriter;
 import com.yahoo.bard.webservice.web.DefaultResponseFormatResolver;
 import com.yahoo.bard.webservice.web.DimensionApiRequestMapper;
@@ -241,6 +246,8 @@ public abstract class AbstractBinderFactory implements BinderFactory {
     protected DataSourceMetadataService dataSourceMetadataService;
     private ConfigurationLoader loader;
 
+    private TupleDataCache<String, Long, byte[]> localSignatureCache;
+
     private final TaskScheduler loaderScheduler = new TaskScheduler(LOADER_SCHEDULER_THREAD_POOL_SIZE);
 
     /**
@@ -351,11 +358,11 @@ public abstract class AbstractBinderFactory implements BinderFactory {
 
                 bind(querySigningService).to(QuerySigningService.class);
 
-                bind(buildQuerySignedCacheService(
-                        buildLocalSignatureCache(),
-                        querySigningService,
-                        getMapper()
-                )).to(CacheService.class);
+                QuerySignedCacheService querySignedCacheService =
+                        buildQuerySignedCacheService(buildLocalSignatureCache(), querySigningService, getMapper());
+                bind(querySignedCacheService).to(CacheService.class);
+                bind(buildResultSetCacheService(querySignedCacheService, loader.getDimensionDictionary()))
+                        .to(ResultSetCacheService.class);
 
                 bind(buildJobRowBuilder()).to(JobRowBuilder.class);
 
@@ -888,12 +895,36 @@ public abstract class AbstractBinderFactory implements BinderFactory {
             ObjectMapper objectMapper
     ) throws ClassCastException {
         return new QuerySignedCacheService(
-                (TupleDataCache<String, Long, String>) dataCache,
+                (TupleDataCache<String, Long, byte[]>) dataCache,
                 (QuerySigningService<Long>) querySigningService,
                 objectMapper
         );
     }
 
+    /**
+     * Build a ResultSetCacheService.
+     *
+     * @param querySignedCacheService  The service to read and write the cached result sets with
+     * @param dimensionDictionary  The dimensions to look the rows of cached result sets up in
+     *
+     * @return A ResultSetCacheService
+     */
+    protected ResultSetCacheService buildResultSetCacheService(
+            QuerySignedCacheService querySignedCacheService,
+            DimensionDictionary dimensionDictionary
+    ) {
+        return new ResultSetCacheService(
+                querySignedCacheService,
+                initializePreResponseDeserializer(
+                        dimensionDictionary,
+                        getMapper(),
+                        getMapper(),
+                        new StandardGranularityParser(getGranularityDictionary())
+                ),
+                getMapper()
+        );
+    }
+
     /**
      * Build a Map of Class to Function that should be used to get requestedIntervals from the DruidQuery.
      *
@@ -1066,9 +1097,18 @@ public abstract class AbstractBinderFactory implements BinderFactory {
                     "use the new configuration parameter to set desired caching strategy"
             );
         }
+        if (localSignatureCache != null) {
+            return localSignatureCache;
+        }
         try {
-            MemTupleDataCache<Long, String> cache = new MemTupleDataCache<>();
+            TupleDataCache<String, Long, byte[]> cache = new MemTupleDataCache<>();
             LOG.info("MemcachedClient Version 2 started {}", cache);
+            if (TieredTupleDataCache.DEFAULT_MAX_BYTES > 0) {
+                cache = new TieredTupleDataCache<>(cache);
+                LOG.info("L1 cache of {} bytes started in front of memcached", TieredTupleDataCache.DEFAULT_MAX_BYTES);
+            }
+            // The request handlers and the response processors share the cache, and with it the L1 tier
+            localSignatureCache = cache;
             return cache;
         } catch (IOException e) {
             LOG.error("MemcachedClient Version 2 failed to start {}", e);
@@ -1234,7 +1274,8 @@ public abstract class AbstractBinderFactory implements BinderFactory {
                 new FiliResponseWriterSelector(
                         new CsvResponseWriter(mappers),
                         new JsonResponseWriter(mappers),
-                        new JsonApiResponseWriter(mappers)
+                        new JsonApiResponseWriter(mappers),
+                        new ArrowResponseWriter()
                 )
         );
     }
@@ -1319,7 +1360,7 @@ public abstract class AbstractBinderFactory implements BinderFactory {
      */
     protected DruidWebService buildDruidWebService(DruidServiceConfig druidServiceConfig, ObjectMapper mapper) {
         Supplier<Map<String, String>> supplier = buildDruidWebServiceHeaderSupplier();
-        return DRUID_UNCOVERED_INTERVAL_LIMIT > 0
+        DruidWebService webService = DRUID_UNCOVERED_INTERVAL_LIMIT > 0
                 ? new AsyncDruidWebServiceImpl(
                     druidServiceConfig,
                     mapper,
@@ -1329,6 +1370,9 @@ public abstract class AbstractBinderFactory implements BinderFactory {
                     )
             )
                 : new AsyncDruidWebServiceImpl(druidServiceConfig, mapper, supplier);
+        return ConcurrencyLimitingDruidWebService.CONCURRENCY_LIMIT_ENABLED
+                ? new ConcurrencyLimitingDruidWebService(webService)
+                : webService;
     }
 
     /**
@@ -1367,7 +1411,18 @@ public abstract class AbstractBinderFactory implements BinderFactory {
      * @return A DruidWebService
      */
     protected DruidWebService buildDruidWebService(ObjectMapper mapper) {
-        return buildDruidWebService(DruidClientConfigHelper.getServiceConfig(), mapper);
+        List<DruidServiceConfig> brokerPool = DruidClientConfigHelper.getBrokerPoolServiceConfigs();
+        DruidWebService webService = brokerPool.isEmpty()
+                ? buildDruidWebService(DruidClientConfigHelper.getServiceConfig(), mapper)
+                : new LoadBalancingDruidWebService(
+                        DruidClientConfigHelper.getBrokerPoolServiceConfig(),
+                        brokerPool.stream()
+                                .map(brokerConfig -> buildDruidWebService(brokerConfig, mapper))
+                                .collect(Collectors.toList())
+                );
+        return CoalescingDruidWebService.COALESCING_ENABLED
+                ? new CoalescingDruidWebService(webService, mapper)
+                : webService;
     }
 
     /**
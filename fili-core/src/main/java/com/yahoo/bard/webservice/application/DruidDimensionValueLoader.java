@@ -169,16 +169,18 @@ public class DruidDimensionValueLoader implements DimensionValueLoader {
      */
     private SuccessCallback buildDruidDimensionsSuccessCallback(Dimension dimension) {
         return rootNode -> {
+            Set<String> values = new LinkedHashSet<>();
             rootNode.forEach(intervalNode -> {
-                intervalNode.get("result").forEach(dim -> {
-                    String value = dim.get("value").asText();
-                    if (dimension.findDimensionRowByKeyValue(value) == null) {
-                        DimensionRow dimRow = dimension.createEmptyDimensionRow(value);
-                        updateDimensionWithValue(dimension, dimRow);
-                    }
-                });
+                intervalNode.get("result").forEach(dim -> values.add(dim.get("value").asText()));
             });
 
+            // Look up all the values at once, and only add the ones the dimension does not know yet
+            values.removeAll(dimension.findDimensionRowsByKeyValues(values).keySet());
+            for (String value : values) {
+                DimensionRow dimRow = dimension.createEmptyDimensionRow(value);
+                updateDimensionWithValue(dimension, dimRow);
+            }
+
             updateDimension(dimension);
         };
     }
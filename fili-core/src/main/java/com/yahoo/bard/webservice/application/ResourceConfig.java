@@ -8,6 +8,7 @@ import com.yahoo.bard.webservice.web.filters.BardLoggingFilter;
 import com.yahoo.bard.webservice.web.filters.HealthCheckFilter;
 import com.yahoo.bard.webservice.web.filters.QueryParameterNormalizationFilter;
 import com.yahoo.bard.webservice.web.filters.RateLimitFilter;
+import com.yahoo.bard.webservice.web.filters.ResponseCompressionFilter;
 import com.yahoo.bard.webservice.web.filters.ResponseCorsFilter;
 
 import com.codahale.metrics.jersey2.InstrumentedResourceMethodApplicationListener;
@@ -73,6 +74,9 @@ public class ResourceConfig extends org.glassfish.jersey.server.ResourceConfig {
 
         // Register HealthCheckFilter
         register(HealthCheckFilter.class, 5);
+
+        // Register response compression, inside the logging filter so it logs the compressed length
+        register(ResponseCompressionFilter.class, 6);
     }
 
     /**
@@ -25,7 +25,17 @@ public enum BardFeatureFlag implements FeatureFlag {
     @Deprecated DRUID_CACHE_V2("druid_cache_v2_enabled"),
     QUERY_SPLIT("query_split_enabled"),
     CACHE_PARTIAL_DATA("cache_partial_data"),
+    /** If true, the LocalSignature cache stores responses per time bucket, and druid is only asked for new buckets. */
+    CACHE_TIME_BUCKETS("cache_time_buckets_enabled"),
+    /** If true, the LocalSignature cache also stores mapped result sets, so repeated requests skip parsing. */
+    CACHE_RESULT_SETS("cache_result_sets_enabled"),
     TOP_N("top_n_enabled"),
+    /** If true, pages of sorted groupBy requests are cut out by druid rather than from the full result set. */
+    PAGINATION_PUSHDOWN("pagination_pushdown_enabled"),
+    /** If true, rows of synchronous requests without whole result set mappers are streamed into the response. */
+    STREAMING_RESPONSES("streaming_responses_enabled"),
+    /** If true, responses are compressed with gzip or zstd when the client accepts it. */
+    RESPONSE_COMPRESSION("response_compression_enabled"),
     DATA_FILTER_SUBSTRING_OPERATIONS("data_filter_substring_operations_enabled"),
     INTERSECTION_REPORTING("intersection_reporting_enabled"),
     UPDATED_METADATA_COLLECTION_NAMES("updated_metadata_collection_names_enabled"),
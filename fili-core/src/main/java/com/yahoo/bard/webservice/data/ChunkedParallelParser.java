@@ -0,0 +1,146 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Parses a sequence of raw rows in chunks, in parallel once there are enough of them, passing on the parsed rows in
+ * their original order.
+ * <p>
+ * Rows are buffered until the row threshold is reached. Sequences shorter than the threshold are parsed as one chunk
+ * on the calling thread, since handing them to other threads costs more than it saves. Longer sequences are split into
+ * chunks which are parsed on the pool while the caller keeps adding rows. A bounded number of chunks is outstanding at
+ * a time, so a streamed sequence is never held in memory in full.
+ *
+ * @param <T>  Type of the raw rows
+ * @param <R>  Type of the parsed rows
+ */
+public class ChunkedParallelParser<T, R> {
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedParallelParser.class);
+
+    private final ForkJoinPool pool;
+    private final int rowThreshold;
+    private final int chunkSize;
+    private final Function<List<T>, List<R>> chunkParser;
+    private final Consumer<R> results;
+
+    private final Deque<Future<List<R>>> pending = new ArrayDeque<>();
+    private List<T> chunk = new ArrayList<>();
+    private boolean parallel = false;
+
+    /**
+     * Constructor.
+     *
+     * @param pool  The pool parsing the chunks
+     * @param rowThreshold  The number of rows from which chunks are parsed in parallel
+     * @param chunkSize  The number of rows parsed together
+     * @param chunkParser  Parses a chunk of raw rows, keeping their order
+     * @param results  Receives the parsed rows in order
+     */
+    public ChunkedParallelParser(
+            ForkJoinPool pool,
+            int rowThreshold,
+            int chunkSize,
+            Function<List<T>, List<R>> chunkParser,
+            Consumer<R> results
+    ) {
+        this.pool = pool;
+        this.rowThreshold = rowThreshold;
+        this.chunkSize = Math.max(chunkSize, 1);
+        this.chunkParser = chunkParser;
+        this.results = results;
+    }
+
+    /**
+     * Add a raw row.
+     *
+     * @param row  The raw row
+     */
+    public void add(T row) {
+        chunk.add(row);
+        if (parallel) {
+            if (chunk.size() >= chunkSize) {
+                submit();
+            }
+        } else if (chunk.size() >= rowThreshold) {
+            parallel = true;
+            List<T> buffered = chunk;
+            chunk = new ArrayList<>(chunkSize);
+            for (int start = 0; start < buffered.size(); start += chunkSize) {
+                chunk.addAll(buffered.subList(start, Math.min(start + chunkSize, buffered.size())));
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Parse the remaining rows and wait until every parsed row has been passed on.
+     */
+    public void finish() {
+        if (!parallel) {
+            chunkParser.apply(chunk).forEach(results);
+            chunk = new ArrayList<>();
+            return;
+        }
+        if (!chunk.isEmpty()) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            drainOldest();
+        }
+    }
+
+    /**
+     * Hand the current chunk to the pool, first passing on the oldest chunks if too many are outstanding.
+     */
+    private void submit() {
+        List<T> rows = chunk;
+        chunk = new ArrayList<>(chunkSize);
+        while (pending.size() >= 2 * pool.getParallelism()) {
+            drainOldest();
+        }
+        pending.add(pool.submit(() -> chunkParser.apply(rows)));
+    }
+
+    /**
+     * Wait for the oldest outstanding chunk and pass on its parsed rows.
+     */
+    private void drainOldest() {
+        Future<List<R>> oldest = pending.remove();
+        try {
+            oldest.get().forEach(results);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelPending();
+            LOG.error("Interrupted while parsing rows in parallel", e);
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            cancelPending();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            LOG.error("Unable to parse rows in parallel", e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Cancel the chunks which are still outstanding after a chunk failed.
+     */
+    private void cancelPending() {
+        pending.forEach(future -> future.cancel(true));
+        pending.clear();
+    }
+}
@@ -0,0 +1,755 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.dimension.DimensionColumn;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.data.metric.MetricColumn;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * An immutable ResultSet which stores its rows by column rather than as {@link Result} objects.
+ * <p>
+ * Timestamps are kept as epoch milliseconds, numeric metrics as primitive arrays with null bitmaps and dimension
+ * rows as indexes into a per column dictionary, which takes a fraction of the memory of a list of results. Rows are
+ * read back as {@link Result} views built on access, so code working on lists of results keeps working unchanged.
+ * Code which only needs a few cells can read them directly with the row and column accessors instead.
+ */
+public class ColumnarResultSet extends ResultSet {
+
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * Whether result sets parsed from druid responses, and mapped from columnar result sets, are stored by column.
+     */
+    public static final boolean COLUMNAR_RESULT_SETS_ENABLED = SYSTEM_CONFIG.getBooleanProperty(
+            SYSTEM_CONFIG.getPackageVariableName("columnar_result_sets"),
+            false
+    );
+
+    private final int size;
+    private final long[] timestamps;
+    private final BitSet nullTimestamps;
+    private final Chronology chronology;
+    private final Chronology[] chronologies;
+    private final Map<DimensionColumn, DimensionValues> dimensions;
+    private final Map<MetricColumn, MetricValues> metrics;
+
+    /**
+     * The rows of the result set as result views.
+     */
+    private final List<Result> rows = new AbstractList<Result>() {
+        @Override
+        public Result get(int index) {
+            return ColumnarResultSet.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param builder  The builder holding the columns
+     */
+    ColumnarResultSet(Builder builder) {
+        super(builder.schema);
+        this.size = builder.size;
+        this.timestamps = Arrays.copyOf(builder.timestamps, size);
+        this.nullTimestamps = builder.nullTimestamps;
+        this.chronology = builder.chronology;
+        this.chronologies = builder.chronologies == null ? null : Arrays.copyOf(builder.chronologies, size);
+        this.dimensions = new LinkedHashMap<>(builder.dimensions.size());
+        builder.dimensions.forEach((column, values) -> dimensions.put(column, values.trim(size)));
+        this.metrics = new LinkedHashMap<>(builder.metrics.size());
+        builder.metrics.forEach((column, values) -> metrics.put(column, values.trim(size)));
+    }
+
+    /**
+     * Get the timestamp of a row.
+     *
+     * @param row  The index of the row
+     *
+     * @return the timestamp of the row
+     */
+    public DateTime getTimeStamp(int row) {
+        checkRow(row);
+        if (nullTimestamps.get(row)) {
+            return null;
+        }
+        return new DateTime(timestamps[row], chronologies == null ? chronology : chronologies[row]);
+    }
+
+    /**
+     * Get the timestamp of a row as epoch milliseconds, without building a DateTime.
+     *
+     * @param row  The index of the row
+     *
+     * @return the timestamp of the row in milliseconds since the epoch
+     */
+    public long getTimeStampMillis(int row) {
+        checkRow(row);
+        return timestamps[row];
+    }
+
+    /**
+     * Get the dimension row of a row.
+     *
+     * @param row  The index of the row
+     * @param column  The dimension column
+     *
+     * @return the dimension row, or null if the row has none for the column
+     */
+    public DimensionRow getDimensionRow(int row, DimensionColumn column) {
+        checkRow(row);
+        DimensionValues values = dimensions.get(column);
+        return values == null ? null : values.get(row);
+    }
+
+    /**
+     * Get a metric value of a row.
+     *
+     * @param row  The index of the row
+     * @param column  The metric column
+     *
+     * @return the metric value, or null if the row has none for the column
+     */
+    public Object getMetricValue(int row, MetricColumn column) {
+        checkRow(row);
+        MetricValues values = metrics.get(column);
+        return values == null ? null : values.get(row);
+    }
+
+    /**
+     * Get a numeric metric value of a row as a double, without boxing when the column is stored as primitives.
+     *
+     * @param row  The index of the row
+     * @param column  The metric column
+     *
+     * @return the metric value as a double, or NaN if the row has no numeric value for the column
+     */
+    public double getMetricValueAsDouble(int row, MetricColumn column) {
+        checkRow(row);
+        MetricValues values = metrics.get(column);
+        return values == null ? Double.NaN : values.getAsDouble(row);
+    }
+
+    /**
+     * Build the result view of a row.
+     *
+     * @param row  The index of the row
+     *
+     * @return a result holding the values of the row
+     */
+    private Result buildResult(int row) {
+        Map<DimensionColumn, DimensionRow> dimensionRows = new LinkedHashMap<>(dimensions.size() * 2);
+        dimensions.forEach((column, values) -> {
+            if (values.isPresent(row)) {
+                dimensionRows.put(column, values.get(row));
+            }
+        });
+        Map<MetricColumn, Object> metricValues = new LinkedHashMap<>(metrics.size() * 2);
+        metrics.forEach((column, values) -> {
+            if (values.isPresent(row)) {
+                metricValues.put(column, values.get(row));
+            }
+        });
+        return new Result(dimensionRows, metricValues, getTimeStamp(row));
+    }
+
+    /**
+     * Check that a row index is within the result set.
+     *
+     * @param row  The index of the row
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Result get(int index) {
+        checkRow(index);
+        return buildResult(index);
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return rows.iterator();
+    }
+
+    @Override
+    public ListIterator<Result> listIterator() {
+        return rows.listIterator();
+    }
+
+    @Override
+    public ListIterator<Result> listIterator(int index) {
+        return rows.listIterator(index);
+    }
+
+    @Override
+    public List<Result> subList(int fromIndex, int toIndex) {
+        return rows.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public Spliterator<Result> spliterator() {
+        return rows.spliterator();
+    }
+
+    @Override
+    public void forEach(Consumer<? super Result> action) {
+        for (int row = 0; row < size; row++) {
+            action.accept(buildResult(row));
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        return rows.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        return rows.toArray(a);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return rows.contains(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        return rows.containsAll(c);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return rows.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return rows.lastIndexOf(o);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return rows.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return rows.hashCode();
+    }
+
+    @Override
+    public Object clone() {
+        return new ResultSet(getSchema(), rows);
+    }
+
+    @Override
+    public boolean add(Result result) {
+        throw immutable();
+    }
+
+    @Override
+    public void add(int index, Result element) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Result> c) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Result> c) {
+        throw immutable();
+    }
+
+    @Override
+    public Result set(int index, Result element) {
+        throw immutable();
+    }
+
+    @Override
+    public Result remove(int index) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Result> filter) {
+        throw immutable();
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Result> operator) {
+        throw immutable();
+    }
+
+    @Override
+    public void sort(Comparator<? super Result> c) {
+        throw immutable();
+    }
+
+    @Override
+    public void clear() {
+        throw immutable();
+    }
+
+    @Override
+    public String toString() {
+        return "Columnar " + super.toString() + ", " + size + " rows";
+    }
+
+    /**
+     * Build the exception thrown on attempts to modify the result set.
+     *
+     * @return the exception to throw
+     */
+    private static UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException("Columnar result sets cannot be modified");
+    }
+
+    /**
+     * Serialize the rows as a plain result set, since the columns live outside the list the parent class serializes.
+     *
+     * @return a result set holding the same rows
+     */
+    private Object writeReplace() {
+        return new ResultSet(getSchema(), new ArrayList<>(rows));
+    }
+
+    /**
+     * Builds a columnar result set one result at a time.
+     */
+    public static class Builder {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final ResultSetSchema schema;
+        private int size = 0;
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private final BitSet nullTimestamps = new BitSet();
+        private Chronology chronology;
+        private Chronology[] chronologies;
+        private final Map<DimensionColumn, DimensionValues> dimensions = new LinkedHashMap<>();
+        private final Map<MetricColumn, MetricValues> metrics = new LinkedHashMap<>();
+
+        /**
+         * Constructor.
+         *
+         * @param schema  The schema of the result set
+         */
+        public Builder(ResultSetSchema schema) {
+            this.schema = schema;
+        }
+
+        /**
+         * Append a result as the next row.
+         *
+         * @param result  The result to append
+         *
+         * @return the builder
+         */
+        public Builder add(Result result) {
+            int row = size++;
+            if (row == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, row * 2);
+            }
+
+            DateTime timeStamp = result.getTimeStamp();
+            if (timeStamp == null) {
+                nullTimestamps.set(row);
+            } else {
+                timestamps[row] = timeStamp.getMillis();
+                addChronology(row, timeStamp.getChronology());
+            }
+
+            result.getDimensionRows().forEach((column, value) ->
+                    dimensions.computeIfAbsent(column, ignored -> new DimensionValues()).set(row, value)
+            );
+            result.getMetricValues().forEach((column, value) ->
+                    metrics.computeIfAbsent(column, ignored -> new MetricValues()).set(row, value)
+            );
+            return this;
+        }
+
+        /**
+         * Append results as the next rows.
+         *
+         * @param results  The results to append
+         *
+         * @return the builder
+         */
+        public Builder addAll(Iterable<Result> results) {
+            results.forEach(this::add);
+            return this;
+        }
+
+        /**
+         * Record the chronology of a row's timestamp, only keeping one per row once the rows disagree.
+         *
+         * @param row  The index of the row
+         * @param rowChronology  The chronology of the row's timestamp
+         */
+        private void addChronology(int row, Chronology rowChronology) {
+            if (chronology == null) {
+                chronology = rowChronology;
+            }
+            if (chronologies == null && !chronology.equals(rowChronology)) {
+                chronologies = new Chronology[timestamps.length];
+                Arrays.fill(chronologies, 0, row, chronology);
+            }
+            if (chronologies != null) {
+                if (row >= chronologies.length) {
+                    chronologies = Arrays.copyOf(chronologies, timestamps.length);
+                }
+                chronologies[row] = rowChronology;
+            }
+        }
+
+        /**
+         * Build the result set.
+         *
+         * @return the columnar result set holding the added rows
+         */
+        public ColumnarResultSet build() {
+            return new ColumnarResultSet(this);
+        }
+    }
+
+    /**
+     * A dictionary encoded column of dimension rows.
+     */
+    private static class DimensionValues {
+        private static final int ABSENT = -1;
+
+        private final Map<DimensionRow, Integer> codes = new HashMap<>();
+        private final List<DimensionRow> dictionary = new ArrayList<>();
+        private int[] rows = new int[0];
+
+        /**
+         * Set the dimension row of a row.
+         *
+         * @param row  The index of the row
+         * @param value  The dimension row
+         */
+        void set(int row, DimensionRow value) {
+            if (row >= rows.length) {
+                int oldLength = rows.length;
+                rows = Arrays.copyOf(rows, Math.max(row + 1, oldLength * 2));
+                Arrays.fill(rows, oldLength, rows.length, ABSENT);
+            }
+            rows[row] = codes.computeIfAbsent(value, ignored -> {
+                dictionary.add(value);
+                return dictionary.size() - 1;
+            });
+        }
+
+        /**
+         * Check whether a row has a dimension row in this column.
+         *
+         * @param row  The index of the row
+         *
+         * @return true if the row has a value
+         */
+        boolean isPresent(int row) {
+            return row < rows.length && rows[row] != ABSENT;
+        }
+
+        /**
+         * Get the dimension row of a row.
+         *
+         * @param row  The index of the row
+         *
+         * @return the dimension row, or null if there is none
+         */
+        DimensionRow get(int row) {
+            return isPresent(row) ? dictionary.get(rows[row]) : null;
+        }
+
+        /**
+         * Size the column to the final number of rows and drop the encoding map.
+         *
+         * @param size  The number of rows
+         *
+         * @return the trimmed column
+         */
+        DimensionValues trim(int size) {
+            int oldLength = rows.length;
+            rows = Arrays.copyOf(rows, size);
+            if (oldLength < size) {
+                Arrays.fill(rows, oldLength, size, ABSENT);
+            }
+            codes.clear();
+            return this;
+        }
+    }
+
+    /**
+     * A column of metric values, stored as primitives while every value has the same numeric type.
+     * <p>
+     * Longs and doubles are stored as themselves, and big decimals whose unscaled value fits in a long as that value
+     * and a scale. Other values, or columns mixing value types, fall back to an array of objects.
+     */
+    private static class MetricValues {
+
+        /**
+         * How the values of the column are stored.
+         */
+        private enum Kind {
+            NONE, LONG, DOUBLE, DECIMAL, OBJECT
+        }
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private Kind kind = Kind.NONE;
+        private int length = 0;
+        private long[] longs;
+        private double[] doubles;
+        private int[] scales;
+        private Object[] objects;
+        private final BitSet present = new BitSet();
+        private final BitSet nulls = new BitSet();
+
+        /**
+         * Set the value of a row.
+         *
+         * @param row  The index of the row
+         * @param value  The metric value
+         */
+        void set(int row, Object value) {
+            present.set(row);
+            if (value == null) {
+                nulls.set(row);
+                return;
+            }
+            Kind valueKind = kindOf(value);
+            if (kind == Kind.NONE) {
+                kind = valueKind;
+            } else if (kind != valueKind && kind != Kind.OBJECT) {
+                toObjects();
+            }
+            ensureCapacity(row + 1);
+            switch (kind) {
+                case LONG:
+                    longs[row] = (Long) value;
+                    break;
+                case DOUBLE:
+                    doubles[row] = (Double) value;
+                    break;
+                case DECIMAL:
+                    BigDecimal decimal = (BigDecimal) value;
+                    longs[row] = decimal.unscaledValue().longValue();
+                    scales[row] = decimal.scale();
+                    break;
+                default:
+                    objects[row] = value;
+            }
+        }
+
+        /**
+         * Find how a value would be stored.
+         *
+         * @param value  The metric value
+         *
+         * @return the storage kind for the value
+         */
+        private static Kind kindOf(Object value) {
+            if (value instanceof Long) {
+                return Kind.LONG;
+            }
+            if (value instanceof Double) {
+                return Kind.DOUBLE;
+            }
+            if (value instanceof BigDecimal && ((BigDecimal) value).unscaledValue().bitLength() < Long.SIZE) {
+                return Kind.DECIMAL;
+            }
+            return Kind.OBJECT;
+        }
+
+        /**
+         * Switch the column to storing objects, boxing the values stored so far.
+         */
+        private void toObjects() {
+            Object[] boxed = new Object[Math.max(length, INITIAL_CAPACITY)];
+            for (int row = 0; row < length; row++) {
+                boxed[row] = get(row);
+            }
+            longs = null;
+            doubles = null;
+            scales = null;
+            objects = boxed;
+            kind = Kind.OBJECT;
+        }
+
+        /**
+         * Grow the storage of the column to hold at least the given number of rows.
+         *
+         * @param capacity  The number of rows to hold
+         */
+        private void ensureCapacity(int capacity) {
+            if (capacity <= length) {
+                return;
+            }
+            int newLength = Math.max(capacity, Math.max(length * 2, INITIAL_CAPACITY));
+            resize(newLength);
+        }
+
+        /**
+         * Resize the storage of the column.
+         *
+         * @param newLength  The number of rows to hold
+         */
+        private void resize(int newLength) {
+            switch (kind) {
+                case LONG:
+                    longs = longs == null ? new long[newLength] : Arrays.copyOf(longs, newLength);
+                    break;
+                case DOUBLE:
+                    doubles = doubles == null ? new double[newLength] : Arrays.copyOf(doubles, newLength);
+                    break;
+                case DECIMAL:
+                    longs = longs == null ? new long[newLength] : Arrays.copyOf(longs, newLength);
+                    scales = scales == null ? new int[newLength] : Arrays.copyOf(scales, newLength);
+                    break;
+                case OBJECT:
+                    objects = objects == null ? new Object[newLength] : Arrays.copyOf(objects, newLength);
+                    break;
+                default:
+                    return;
+            }
+            length = newLength;
+        }
+
+        /**
+         * Check whether a row has a value, possibly null, in this column.
+         *
+         * @param row  The index of the row
+         *
+         * @return true if the row has a value
+         */
+        boolean isPresent(int row) {
+            return present.get(row);
+        }
+
+        /**
+         * Get the value of a row.
+         *
+         * @param row  The index of the row
+         *
+         * @return the metric value, or null if there is none
+         */
+        Object get(int row) {
+            if (!present.get(row) || nulls.get(row)) {
+                return null;
+            }
+            switch (kind) {
+                case LONG:
+                    return longs[row];
+                case DOUBLE:
+                    return doubles[row];
+                case DECIMAL:
+                    return BigDecimal.valueOf(longs[row], scales[row]);
+                default:
+                    return objects[row];
+            }
+        }
+
+        /**
+         * Get the value of a row as a double.
+         *
+         * @param row  The index of the row
+         *
+         * @return the value as a double, or NaN if the row has no numeric value
+         */
+        double getAsDouble(int row) {
+            if (!present.get(row) || nulls.get(row)) {
+                return Double.NaN;
+            }
+            switch (kind) {
+                case LONG:
+                    return longs[row];
+                case DOUBLE:
+                    return doubles[row];
+                case DECIMAL:
+                    return BigDecimal.valueOf(longs[row], scales[row]).doubleValue();
+                default:
+                    return objects[row] instanceof Number ? ((Number) objects[row]).doubleValue() : Double.NaN;
+            }
+        }
+
+        /**
+         * Size the column to the final number of rows.
+         *
+         * @param size  The number of rows
+         *
+         * @return the trimmed column
+         */
+        MetricValues trim(int size) {
+            if (length != size && kind != Kind.NONE) {
+                resize(size);
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " column of " + length + " rows";
+        }
+    }
+}
@@ -34,6 +34,7 @@ import com.yahoo.bard.webservice.table.resolver.PhysicalTableResolver;
 import com.yahoo.bard.webservice.table.resolver.QueryPlanningConstraint;
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 import com.yahoo.bard.webservice.web.filters.ApiFilters;
+import com.yahoo.bard.webservice.web.util.PaginationParameters;
 
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
@@ -41,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -116,6 +118,16 @@ public class DruidQueryBuilder {
                 // We don't expect to reach this point. This is checked in DataApiRequest. Here for completeness
                 throw new UnsupportedOperationException(TOP_N_UNSORTED.format(request.getTopN()));
             }
+        } else if (canPushDownPagination(request, template)) {
+            //This is a paginated groupBy query, fetching the requested page and one row to tell if another follows
+            PaginationParameters pagination = request.getPaginationParameters().get();
+            int perPage = pagination.getPerPage();
+            druidOrderBy = new LimitSpec(
+                    request.getSorts(),
+                    Optional.of(perPage + 1),
+                    Optional.of((pagination.getPage(0) - 1) * perPage)
+            );
+            druidTopNMetric = null;
         } else if (request.getSorts().isEmpty() && !request.getCount().isPresent()) {
             //This is an arbitrary groupBy query
             druidOrderBy = null;
@@ -427,6 +439,30 @@ public class DruidQueryBuilder {
                 apiRequest.getHavings().isEmpty();
     }
 
+    /**
+     * Determine if the requested page can be cut out of the results by druid rather than from the full result set.
+     * <p>
+     * The page is pushed down into the limitSpec as an offset and a limit of one row more than the page holds. Requests
+     * whose rows are further limited, split or reordered after druid returns them keep being paged in memory.
+     *
+     * @param apiRequest  The request data
+     * @param templateDruidQuery  The template query
+     *
+     * @return true if the pagination can be pushed down, false if it can't
+     */
+    protected boolean canPushDownPagination(DataApiRequest apiRequest, TemplateDruidQuery templateDruidQuery) {
+        if (!BardFeatureFlag.PAGINATION_PUSHDOWN.isOn() || BardFeatureFlag.QUERY_SPLIT.isOn()) {
+            return false;
+        }
+        Optional<PaginationParameters> pagination = apiRequest.getPaginationParameters();
+        return pagination.isPresent() &&
+                !pagination.get().isLastPage() &&
+                (long) pagination.get().getPage(0) * pagination.get().getPerPage() < Integer.MAX_VALUE &&
+                !apiRequest.getTopN().isPresent() &&
+                !apiRequest.getCount().isPresent() &&
+                !apiRequest.getDateTimeSort().isPresent();
+    }
+
     /**
      * Determine if the optimization to a Timeseries query can be done.
      *
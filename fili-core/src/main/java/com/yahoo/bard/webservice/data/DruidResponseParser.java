@@ -2,16 +2,24 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data;
 
+import static com.yahoo.bard.webservice.web.ErrorMessageFormat.DRUID_RESPONSE_NOT_ARRAY;
 import static com.yahoo.bard.webservice.web.ErrorMessageFormat.RESULT_SET_ERROR;
 
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.data.dimension.DimensionColumn;
 import com.yahoo.bard.webservice.data.dimension.DimensionRow;
 import com.yahoo.bard.webservice.data.metric.MetricColumn;
+import com.yahoo.bard.webservice.data.metric.MetricColumnWithValueType;
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback;
 import com.yahoo.bard.webservice.druid.model.DefaultQueryType;
+import com.yahoo.bard.webservice.druid.model.MetricField;
 import com.yahoo.bard.webservice.druid.model.QueryType;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
 import com.yahoo.bard.webservice.table.Column;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.joda.time.DateTime;
@@ -19,10 +27,23 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.inject.Singleton;
@@ -35,6 +56,103 @@ import javax.inject.Singleton;
 public class DruidResponseParser {
 
     private static final Logger LOG = LoggerFactory.getLogger(DruidResponseParser.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * Whether numeric metric values are decoded as longs or doubles, based on their aggregation, instead of as
+     * BigDecimals.
+     */
+    public static final boolean PRIMITIVE_METRIC_VALUES = SYSTEM_CONFIG.getBooleanProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_primitive_metric_values"),
+            false
+    );
+
+    /**
+     * Names of the druid metrics which are always decoded as BigDecimals, to keep their exact decimal values.
+     */
+    public static final List<String> DECIMAL_METRICS = SYSTEM_CONFIG.getListProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_decimal_metrics"),
+            Collections.emptyList()
+    );
+
+    /**
+     * The number of result rows whose dimension rows are looked up together.
+     */
+    public static final int DIMENSION_LOOKUP_BATCH_SIZE = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_dimension_lookup_batch_size"),
+            10000
+    );
+
+    /**
+     * Whether the rows of large groupBy and topN responses are parsed in parallel.
+     */
+    public static final boolean PARALLEL_PARSING_ENABLED = SYSTEM_CONFIG.getBooleanProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_parallel_parsing_enabled"),
+            false
+    );
+
+    /**
+     * The number of rows a response needs to have for its rows to be parsed in parallel.
+     */
+    public static final int PARALLEL_PARSING_ROW_THRESHOLD = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_parallel_parsing_row_threshold"),
+            50000
+    );
+
+    /**
+     * The number of threads parsing response rows in parallel, shared by all responses.
+     */
+    public static final int PARALLEL_PARSING_THREADS = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_parallel_parsing_threads"),
+            Runtime.getRuntime().availableProcessors()
+    );
+
+    private final boolean primitiveMetricValues;
+    private final Set<String> decimalMetrics;
+    private final ForkJoinPool parsingPool;
+    private final int parallelRowThreshold;
+
+    /**
+     * Constructor using the configured numeric metric decoding and parallel parsing.
+     */
+    public DruidResponseParser() {
+        this(PRIMITIVE_METRIC_VALUES, DECIMAL_METRICS);
+    }
+
+    /**
+     * Constructor using the configured parallel parsing.
+     *
+     * @param primitiveMetricValues  Whether numeric metric values are decoded as longs or doubles
+     * @param decimalMetrics  Names of the metrics which are always decoded as BigDecimals
+     */
+    public DruidResponseParser(boolean primitiveMetricValues, Collection<String> decimalMetrics) {
+        this(
+                primitiveMetricValues,
+                decimalMetrics,
+                PARALLEL_PARSING_ENABLED ? ParsingPoolHolder.PARSING_POOL : null,
+                PARALLEL_PARSING_ROW_THRESHOLD
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param primitiveMetricValues  Whether numeric metric values are decoded as longs or doubles
+     * @param decimalMetrics  Names of the metrics which are always decoded as BigDecimals
+     * @param parsingPool  The pool parsing the rows of large responses in parallel, or null to parse sequentially
+     * @param parallelRowThreshold  The number of rows a response needs to have to be parsed in parallel
+     */
+    public DruidResponseParser(
+            boolean primitiveMetricValues,
+            Collection<String> decimalMetrics,
+            ForkJoinPool parsingPool,
+            int parallelRowThreshold
+    ) {
+        this.primitiveMetricValues = primitiveMetricValues;
+        this.decimalMetrics = new HashSet<>(decimalMetrics);
+        this.parsingPool = parsingPool;
+        this.parallelRowThreshold = parallelRowThreshold;
+    }
 
     /**
      * Parse Druid GroupBy result into ResultSet.
@@ -56,6 +174,99 @@ public class DruidResponseParser {
 
         LOG.trace("Parsing druid query {} by json result: {} using schema: {}", queryType, jsonResult, schema);
 
+        return parseRecords(jsonResult, schema, queryType, dateTimeZone);
+    }
+
+    /**
+     * Parse a stream of Druid response tokens into a ResultSet.
+     * <p>
+     * Only one top level record of the response is held as a tree at a time, so the response is never materialized
+     * in full alongside the results built from it.
+     *
+     * @param parser  Parser positioned before the start of the Druid response array
+     * @param schema  Schema for results
+     * @param queryType  the type of query, note that this implementation only supports instances of
+     * {@link DefaultQueryType}
+     * @param dateTimeZone the time zone used for format the results
+     *
+     * @return the set of results
+     */
+    public ResultSet parse(
+            JsonParser parser,
+            ResultSetSchema schema,
+            QueryType queryType,
+            DateTimeZone dateTimeZone
+    ) {
+        LOG.trace("Parsing druid query {} from json stream using schema: {}", queryType, schema);
+
+        return parseRecords(streamRecords(parser), schema, queryType, dateTimeZone);
+    }
+
+    /**
+     * Parse a stream of Druid response tokens, passing on each result as soon as it is parsed.
+     * <p>
+     * No result set is built, so the results are only held in memory for as long as the consumer holds on to them.
+     *
+     * @param parser  Parser positioned before the start of the Druid response array
+     * @param schema  Schema for results
+     * @param queryType  the type of query, note that this implementation only supports instances of
+     * {@link DefaultQueryType}
+     * @param dateTimeZone the time zone used for format the results
+     * @param results  Receives the results in the order of the response
+     */
+    public void parse(
+            JsonParser parser,
+            ResultSetSchema schema,
+            QueryType queryType,
+            DateTimeZone dateTimeZone,
+            Consumer<Result> results
+    ) {
+        LOG.trace("Streaming druid query {} results from json stream using schema: {}", queryType, schema);
+
+        parseRecords(streamRecords(parser), schema, queryType, dateTimeZone, results);
+    }
+
+    /**
+     * Build a ResultSet from the top level records of a Druid response.
+     *
+     * @param records  The top level records of the Druid response
+     * @param schema  Schema for results
+     * @param queryType  the type of query
+     * @param dateTimeZone the time zone used for format the results
+     *
+     * @return the set of results
+     */
+    private ResultSet parseRecords(
+            Iterable<JsonNode> records,
+            ResultSetSchema schema,
+            QueryType queryType,
+            DateTimeZone dateTimeZone
+    ) {
+        List<Result> results = ColumnarResultSet.COLUMNAR_RESULT_SETS_ENABLED ? null : new ArrayList<>();
+        ColumnarResultSet.Builder columns = results == null ? new ColumnarResultSet.Builder(schema) : null;
+        parseRecords(records, schema, queryType, dateTimeZone, results == null ? columns::add : results::add);
+
+        ResultSet resultSet = results == null ? columns.build() : new ResultSet(schema, results);
+        LOG.trace("Parsed druid query {} results: {}", queryType, resultSet);
+        return resultSet;
+    }
+
+    /**
+     * Parse the top level records of a Druid response into results.
+     *
+     * @param records  The top level records of the Druid response
+     * @param schema  Schema for results
+     * @param queryType  the type of query
+     * @param dateTimeZone the time zone used for format the results
+     * @param sink  Receives the results in the order of the response
+     */
+    private void parseRecords(
+            Iterable<JsonNode> records,
+            ResultSetSchema schema,
+            QueryType queryType,
+            DateTimeZone dateTimeZone,
+            Consumer<Result> sink
+    ) {
         if (!(queryType instanceof DefaultQueryType)) {
             // Throw an exception for unsupported query types
             unsupportedQueryType(queryType);
@@ -66,27 +277,88 @@ public class DruidResponseParser {
         Set<DimensionColumn> dimensionColumns = schema.getColumns(DimensionColumn.class);
         Set<MetricColumn> metricColumns = schema.getColumns(MetricColumn.class);
 
-        List<Result> results = null;
         switch (defaultQueryType) {
             case GROUP_BY:
-                results = makeGroupByResults(jsonResult, dimensionColumns, metricColumns, dateTimeZone);
+                makeGroupByResults(records, dimensionColumns, metricColumns, dateTimeZone, sink);
                 break;
             case TOP_N:
-                results = makeTopNResults(jsonResult, dimensionColumns, metricColumns, dateTimeZone);
+                makeTopNResults(records, dimensionColumns, metricColumns, dateTimeZone, sink);
                 break;
             case TIMESERIES:
-                results = makeTimeSeriesResults(jsonResult, metricColumns, dateTimeZone);
+                makeTimeSeriesResults(records, metricColumns, dateTimeZone, sink);
                 break;
             case LOOKBACK:
-                results = makeLookbackResults(jsonResult, dimensionColumns, metricColumns, dateTimeZone);
+                makeLookbackResults(records, dimensionColumns, metricColumns, dateTimeZone, sink);
                 break;
             default:
                 // Throw an exception for unsupported query types
                 unsupportedQueryType(queryType);
         }
+    }
+
+    /**
+     * Read the elements of the top level Druid response array one at a time.
+     * <p>
+     * The returned iterable can only be traversed once, since it consumes the parser as it goes.
+     *
+     * @param parser  Parser positioned before the start of the Druid response array
+     *
+     * @return the top level records of the response, each read as its own tree
+     */
+    private Iterable<JsonNode> streamRecords(JsonParser parser) {
+        try {
+            if (parser.getCodec() == null) {
+                parser.setCodec(StreamingSuccessCallback.TREE_CODEC);
+            }
+            JsonToken start = parser.currentToken() == null ? parser.nextToken() : parser.currentToken();
+            if (start != JsonToken.START_ARRAY) {
+                String msg = DRUID_RESPONSE_NOT_ARRAY.logFormat(start);
+                LOG.error(msg);
+                throw new IllegalStateException(msg);
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+
+        return () -> new Iterator<JsonNode>() {
+            private JsonToken next = advance();
 
-        LOG.trace("Parsed druid query {} results: {}", queryType, results);
-        return new ResultSet(schema, results);
+            @Override
+            public boolean hasNext() {
+                return next != JsonToken.END_ARRAY;
+            }
+
+            @Override
+            public JsonNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    JsonNode record = parser.readValueAsTree();
+                    next = advance();
+                    return record;
+                } catch (IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
+            }
+
+            /**
+             * Move the parser to the start of the next record.
+             *
+             * @return the token the parser is positioned on
+             */
+            private JsonToken advance() {
+                try {
+                    JsonToken token = parser.nextToken();
+                    if (token == null) {
+                        throw new IllegalStateException(DRUID_RESPONSE_NOT_ARRAY.format("end of input"));
+                    }
+                    return token;
+                } catch (IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
+            }
+        };
     }
 
     /**
@@ -103,168 +375,188 @@ public class DruidResponseParser {
     /**
      * Create a list of results from a JsonNode of a groupBy response.
      *
-     * @param jsonResult  current results to parse in json
+     * @param jsonResult  current results to parse
      * @param dimensionColumns  set of dimension columns
      * @param metricColumns  set of metric columns
      * @param dateTimeZone  The date time zone to apply to timestamps
-     *
-     * @return list of results
+     * @param results  Receives the results
      */
-    private List<Result> makeGroupByResults(
-            JsonNode jsonResult,
+    private void makeGroupByResults(
+            Iterable<JsonNode> jsonResult,
             Set<DimensionColumn> dimensionColumns,
             Set<MetricColumn> metricColumns,
-            DateTimeZone dateTimeZone
+            DateTimeZone dateTimeZone,
+            Consumer<Result> results
     ) {
-        List<Result> results = new ArrayList<>();
-
-        for (JsonNode record : jsonResult) {
-            DateTime timeStamp = new DateTime(record.get("timestamp").asText(), dateTimeZone);
-
-            JsonNode event = record.get("event");
-            LinkedHashMap<DimensionColumn, DimensionRow> dimensionRows = extractDimensionRows(dimensionColumns, event);
-            LinkedHashMap<MetricColumn, Object> metricValues = extractMetricValues(metricColumns, event);
-
-            results.add(new Result(dimensionRows, metricValues, timeStamp));
-        }
-
-        return results;
+        parseRows(
+                rows -> {
+                    for (JsonNode record : jsonResult) {
+                        rows.accept(new RawRow(record.get("timestamp").asText(), record.get("event")));
+                    }
+                },
+                dimensionColumns,
+                metricColumns,
+                dateTimeZone,
+                results
+        );
     }
 
     /**
      * Create a list of results from a JsonNode of a topN response.
      *
-     * @param jsonResult  current record to parse
+     * @param jsonResult  current results to parse
      * @param dimensionColumns  set of dimension columns
      * @param metricColumns  set of metric columns
      * @param dateTimeZone  The date time zone to apply to timestamps
-     *
-     * @return list of results
+     * @param results  Receives the results
      */
-    private List<Result> makeTopNResults(
-            JsonNode jsonResult,
+    private void makeTopNResults(
+            Iterable<JsonNode> jsonResult,
             Set<DimensionColumn> dimensionColumns,
             Set<MetricColumn> metricColumns,
-            DateTimeZone dateTimeZone
+            DateTimeZone dateTimeZone,
+            Consumer<Result> results
     ) {
-        List<Result> results = new ArrayList<>();
-
-        /* loop over all records */
-        for (JsonNode record : jsonResult) {
-            DateTime timeStamp = new DateTime(record.get("timestamp").asText(), dateTimeZone);
-            JsonNode result = record.get("result");
-
-            /* loop over records per timebucket */
-            for (final JsonNode entry : result) {
-                LinkedHashMap<DimensionColumn, DimensionRow> dimensionRows = extractDimensionRows(
-                        dimensionColumns,
-                        entry
-                );
-                LinkedHashMap<MetricColumn, Object> metricValues = extractMetricValues(metricColumns, entry);
-
-                results.add(new Result(dimensionRows, metricValues, timeStamp));
-            }
-        }
-
-        return results;
+        parseRows(
+                rows -> {
+                    /* loop over all records */
+                    for (JsonNode record : jsonResult) {
+                        String timeStamp = record.get("timestamp").asText();
+                        JsonNode result = record.get("result");
+
+                        /* loop over records per timebucket */
+                        for (final JsonNode entry : result) {
+                            rows.accept(new RawRow(timeStamp, entry));
+                        }
+                    }
+                },
+                dimensionColumns,
+                metricColumns,
+                dateTimeZone,
+                results
+        );
     }
 
     /**
-     * Create a list of results from a JsonNode of a timeseries response.
+     * Turn the rows of a groupBy or topN response into results, in parallel if the response is large enough.
      *
-     * @param jsonResult  current record to parse
+     * @param rowSource  Passes the rows of the response to the consumer it is given, in order
+     * @param dimensionColumns  set of dimension columns
      * @param metricColumns  set of metric columns
      * @param dateTimeZone  The date time zone to apply to timestamps
-     *
-     * @return list of results
+     * @param results  Receives the results, in the order of the rows
      */
-    private List<Result> makeTimeSeriesResults(
-            JsonNode jsonResult,
+    private void parseRows(
+            Consumer<Consumer<RawRow>> rowSource,
+            Set<DimensionColumn> dimensionColumns,
             Set<MetricColumn> metricColumns,
-            DateTimeZone dateTimeZone
+            DateTimeZone dateTimeZone,
+            Consumer<Result> results
     ) {
-        List<Result> results = new ArrayList<>();
-
-        /* loop over all records */
-        for (JsonNode record : jsonResult) {
-            DateTime timeStamp = new DateTime(record.get("timestamp").asText(), dateTimeZone);
-
-            JsonNode result = record.get("result");
-            LinkedHashMap<MetricColumn, Object> metricValues = extractMetricValues(metricColumns, result);
-
-            results.add(new Result(new LinkedHashMap<>(), metricValues, timeStamp));
+        if (parsingPool == null) {
+            parseRows(rowSource, dimensionColumns, metricColumns, dateTimeZone, DIMENSION_LOOKUP_BATCH_SIZE, results);
+            return;
         }
-
-        return results;
+        ChunkedParallelParser<RawRow, Result> parser = new ChunkedParallelParser<>(
+                parsingPool,
+                parallelRowThreshold,
+                DIMENSION_LOOKUP_BATCH_SIZE,
+                chunk -> {
+                    List<Result> parsed = new ArrayList<>(chunk.size());
+                    parseRows(chunk::forEach, dimensionColumns, metricColumns, dateTimeZone, chunk.size(), parsed::add);
+                    return parsed;
+                },
+                results
+        );
+        rowSource.accept(parser::add);
+        parser.finish();
     }
 
     /**
-     * Create a list of results from a JsonNode of a lookback response.
+     * Turn rows of a groupBy or topN response into results on the calling thread.
      *
-     * @param jsonResult  current results to parse in json
+     * @param rowSource  Passes the rows to the consumer it is given, in order
      * @param dimensionColumns  set of dimension columns
      * @param metricColumns  set of metric columns
      * @param dateTimeZone  The date time zone to apply to timestamps
-     *
-     * @return list of results
+     * @param batchSize  The number of rows whose dimension rows are looked up together
+     * @param results  Receives the results, in the order of the rows
      */
-    private List<Result> makeLookbackResults(
-            JsonNode jsonResult,
+    private void parseRows(
+            Consumer<Consumer<RawRow>> rowSource,
             Set<DimensionColumn> dimensionColumns,
             Set<MetricColumn> metricColumns,
-            DateTimeZone dateTimeZone
+            DateTimeZone dateTimeZone,
+            int batchSize,
+            Consumer<Result> results
     ) {
-        List<Result> results = new ArrayList<>();
+        DimensionRowBatch batch = new DimensionRowBatch(dimensionColumns, batchSize, results);
+        // Rows of a topN time bucket share their timestamp, so only parse it when it changes
+        String[] lastTimeStampText = new String[1];
+        DateTime[] lastTimeStamp = new DateTime[1];
+        rowSource.accept(row -> {
+            if (!row.timeStamp.equals(lastTimeStampText[0])) {
+                lastTimeStampText[0] = row.timeStamp;
+                lastTimeStamp[0] = new DateTime(row.timeStamp, dateTimeZone);
+            }
+            batch.add(lastTimeStamp[0], row.entry, extractMetricValues(metricColumns, row.entry));
+        });
+        batch.flush();
+    }
 
+    /**
+     * Create a list of results from a JsonNode of a timeseries response.
+     *
+     * @param jsonResult  current results to parse
+     * @param metricColumns  set of metric columns
+     * @param dateTimeZone  The date time zone to apply to timestamps
+     * @param results  Receives the results
+     */
+    private void makeTimeSeriesResults(
+            Iterable<JsonNode> jsonResult,
+            Set<MetricColumn> metricColumns,
+            DateTimeZone dateTimeZone,
+            Consumer<Result> results
+    ) {
+        /* loop over all records */
         for (JsonNode record : jsonResult) {
             DateTime timeStamp = new DateTime(record.get("timestamp").asText(), dateTimeZone);
 
             JsonNode result = record.get("result");
             LinkedHashMap<MetricColumn, Object> metricValues = extractMetricValues(metricColumns, result);
 
-
-            LinkedHashMap<DimensionColumn, DimensionRow> dimensionRows;
-
-            dimensionRows = dimensionColumns == null ?
-                    new LinkedHashMap<>() :
-                    extractDimensionRows(dimensionColumns, result);
-
-
-            results.add(new Result(dimensionRows, metricValues, timeStamp));
+            results.accept(new Result(new LinkedHashMap<>(), metricValues, timeStamp));
         }
-        return results;
     }
 
     /**
-     * Extract the dimension rows for a json object given the set of all available dimension columns and the json
-     * object.
-     *
-     * @param dimensionColumns  the set of dimension columns
-     * @param entry  the json object
+     * Create a list of results from a JsonNode of a lookback response.
      *
-     * @return map of dimension columns to dimension rows
+     * @param jsonResult  current results to parse
+     * @param dimensionColumns  set of dimension columns
+     * @param metricColumns  set of metric columns
+     * @param dateTimeZone  The date time zone to apply to timestamps
+     * @param results  Receives the results
      */
-    private LinkedHashMap<DimensionColumn, DimensionRow> extractDimensionRows(
+    private void makeLookbackResults(
+            Iterable<JsonNode> jsonResult,
             Set<DimensionColumn> dimensionColumns,
-            JsonNode entry
+            Set<MetricColumn> metricColumns,
+            DateTimeZone dateTimeZone,
+            Consumer<Result> results
     ) {
-        LinkedHashMap<DimensionColumn, DimensionRow> dimensionRows = new LinkedHashMap<>();
-
-        for (DimensionColumn dc : dimensionColumns) {
-            JsonNode fieldNode = entry.get(dc.getName());
-            String fieldValue = "";
-            if (fieldNode != null) {
-                fieldValue = fieldNode.asText("");
-            }
+        DimensionRowBatch batch = new DimensionRowBatch(
+                dimensionColumns == null ? Collections.emptySet() : dimensionColumns,
+                DIMENSION_LOOKUP_BATCH_SIZE,
+                results
+        );
+        for (JsonNode record : jsonResult) {
+            DateTime timeStamp = new DateTime(record.get("timestamp").asText(), dateTimeZone);
 
-            DimensionRow drow = dc.getDimension().findDimensionRowByKeyValue(fieldValue);
-            if (drow == null) {
-                drow = dc.getDimension().createEmptyDimensionRow(fieldValue);
-            }
-            dimensionRows.put(dc, drow);
+            JsonNode result = record.get("result");
+            batch.add(timeStamp, result, extractMetricValues(metricColumns, result));
         }
-
-        return dimensionRows;
+        batch.flush();
     }
 
     /**
@@ -286,7 +578,7 @@ public class DruidResponseParser {
             if (fieldNode == null) {
                 LOG.warn("Found null node for metric column {}", mc.getName());
             } else {
-                metricValues.put(mc, getNodeValue(fieldNode));
+                metricValues.put(mc, getNodeValue(fieldNode, mc));
             }
         }
 
@@ -297,20 +589,49 @@ public class DruidResponseParser {
      * Extracts the value from a JsonNode.
      *
      * @param node  The node whose value is to be extracted
+     * @param column  The metric column the value belongs to
      *
-     * @return the value as a BigDecimal if the node is a number, the value as a String if the node is textual,
-     * the value as a boolean if the node is a boolean, null if the node is null, and node otherwise.
+     * @return the value as a number of the column's value type (BigDecimal by default) if the node is a number, the
+     * value as a String if the node is textual, the value as a boolean if the node is a boolean, null if the node is
+     * null, and node otherwise.
      */
-    private Object getNodeValue(JsonNode node) {
-        return node.isNumber() ? node.decimalValue() :
+    private Object getNodeValue(JsonNode node, MetricColumn column) {
+        return node.isNumber() ? getNumericValue(node, column) :
                 node.isTextual() ? node.textValue() :
                 node.isBoolean() ? node.booleanValue() :
                 node.isNull() ? null :
                 node;
     }
 
+    /**
+     * Extracts the value of a numeric node as the value type of its column.
+     * <p>
+     * Long columns holding a value which is not a whole number fall back to a double.
+     *
+     * @param node  The numeric node whose value is to be extracted
+     * @param column  The metric column the value belongs to
+     *
+     * @return the value as a Long or Double if the column has that value type, and a BigDecimal otherwise
+     */
+    private Object getNumericValue(JsonNode node, MetricColumn column) {
+        Class<?> valueType = column instanceof MetricColumnWithValueType
+                ? ((MetricColumnWithValueType) column).getClassType()
+                : null;
+        if (valueType == Long.class && node.isIntegralNumber() && node.canConvertToLong()) {
+            return node.longValue();
+        }
+        if (valueType == Long.class || valueType == Double.class) {
+            return node.doubleValue();
+        }
+        return node.decimalValue();
+    }
+
     /**
      * Produce the schema-defining columns for a given druid query.
+     * <p>
+     * When primitive metric values are enabled, the metric columns of aggregations and post aggregations carry the
+     * value type their values are decoded as: Long for integer aggregations, Double for floating point ones. Sketch
+     * metrics and the configured decimal metrics keep plain metric columns, and so BigDecimal values.
      *
      * @param druidQuery  The query being modelled.
      *
@@ -318,6 +639,146 @@ public class DruidResponseParser {
      */
     public Stream<Column> buildSchemaColumns(DruidAggregationQuery<?> druidQuery) {
         // Pass through to druid query to allow for possible behavior customization on injected DruidResponseParsers.
-        return druidQuery.buildSchemaColumns();
+        Stream<Column> columns = druidQuery.buildSchemaColumns();
+        if (!primitiveMetricValues) {
+            return columns;
+        }
+        Map<String, MetricField> metricFields = Stream.concat(
+                druidQuery.getAggregations().stream(),
+                druidQuery.getPostAggregations().stream()
+        ).collect(Collectors.toMap(MetricField::getName, Function.identity(), (first, second) -> first));
+
+        return columns.map(column -> {
+            MetricField field = metricFields.get(column.getName());
+            if (!(column instanceof MetricColumn) || field == null || field.isSketch()
+                    || decimalMetrics.contains(column.getName())) {
+                return column;
+            }
+            Class<?> valueType = field.isFloatingPoint() ? Double.class : Long.class;
+            return new MetricColumnWithValueType(column.getName(), valueType.getName());
+        });
+    }
+
+    /**
+     * Holds the pool parsing response rows in parallel, so that the pool is created the first time a parser is built
+     * with parallel parsing enabled, rather than whenever the parser class is loaded.
+     */
+    private static class ParsingPoolHolder {
+        private static final ForkJoinPool PARSING_POOL = new ForkJoinPool(PARALLEL_PARSING_THREADS);
+    }
+
+    /**
+     * Result rows waiting for their dimension rows, which are looked up in one batch per dimension.
+     * <p>
+     * Each batch collects the distinct key values of its rows first, so a dimension is asked once for every value
+     * rather than once for every row. Results are passed on in the order their rows were added.
+     */
+    private static class DimensionRowBatch {
+        private final Set<DimensionColumn> dimensionColumns;
+        private final int size;
+        private final Consumer<Result> results;
+
+        private final List<DateTime> timeStamps;
+        private final List<JsonNode> entries;
+        private final List<LinkedHashMap<MetricColumn, Object>> metricValues;
+
+        /**
+         * Constructor.
+         *
+         * @param dimensionColumns  The dimension columns of the results
+         * @param size  The number of rows to collect before their dimension rows are looked up
+         * @param results  Receives the results
+         */
+        DimensionRowBatch(Set<DimensionColumn> dimensionColumns, int size, Consumer<Result> results) {
+            this.dimensionColumns = dimensionColumns;
+            this.size = Math.max(size, 1);
+            this.results = results;
+            this.timeStamps = new ArrayList<>();
+            this.entries = new ArrayList<>();
+            this.metricValues = new ArrayList<>();
+        }
+
+        /**
+         * Add a result row, looking up the dimension rows of the batch if it is full.
+         *
+         * @param timeStamp  The timestamp of the result
+         * @param entry  The json object holding the dimension key values of the result
+         * @param metrics  The metric values of the result
+         */
+        void add(DateTime timeStamp, JsonNode entry, LinkedHashMap<MetricColumn, Object> metrics) {
+            timeStamps.add(timeStamp);
+            entries.add(entry);
+            metricValues.add(metrics);
+            if (entries.size() >= size) {
+                flush();
+            }
+        }
+
+        /**
+         * Look up the dimension rows of the collected result rows and pass their results on.
+         */
+        void flush() {
+            if (entries.isEmpty()) {
+                return;
+            }
+            Map<DimensionColumn, Map<String, DimensionRow>> dimensionRowsByColumn = new LinkedHashMap<>();
+            for (DimensionColumn dc : dimensionColumns) {
+                Set<String> keyValues = new LinkedHashSet<>();
+                for (JsonNode entry : entries) {
+                    keyValues.add(getKeyValue(entry, dc));
+                }
+                Map<String, DimensionRow> rows = new HashMap<>(
+                        dc.getDimension().findDimensionRowsByKeyValues(keyValues)
+                );
+                for (String keyValue : keyValues) {
+                    rows.computeIfAbsent(keyValue, dc.getDimension()::createEmptyDimensionRow);
+                }
+                dimensionRowsByColumn.put(dc, rows);
+            }
+
+            for (int i = 0; i < entries.size(); i++) {
+                LinkedHashMap<DimensionColumn, DimensionRow> dimensionRows = new LinkedHashMap<>();
+                for (Map.Entry<DimensionColumn, Map<String, DimensionRow>> column : dimensionRowsByColumn.entrySet()) {
+                    String keyValue = getKeyValue(entries.get(i), column.getKey());
+                    dimensionRows.put(column.getKey(), column.getValue().get(keyValue));
+                }
+                results.accept(new Result(dimensionRows, metricValues.get(i), timeStamps.get(i)));
+            }
+            timeStamps.clear();
+            entries.clear();
+            metricValues.clear();
+        }
+
+        /**
+         * Get the key value of a dimension column from a json object.
+         *
+         * @param entry  The json object
+         * @param dc  The dimension column
+         *
+         * @return the key value, or the empty string if the json object has none
+         */
+        private static String getKeyValue(JsonNode entry, DimensionColumn dc) {
+            JsonNode fieldNode = entry.get(dc.getName());
+            return fieldNode == null ? "" : fieldNode.asText("");
+        }
+    }
+
+    /**
+     * A row of a groupBy or topN response which has not been parsed yet.
+     */
+    private static class RawRow {
+        private final String timeStamp;
+        private final JsonNode entry;
+
+        /**
+         * Constructor.
+         *
+         * @param timeStamp  The unparsed timestamp of the row
+         * @param entry  The json object holding the dimension key values and metric values of the row
+         */
+        RawRow(String timeStamp, JsonNode entry) {
+            this.timeStamp = timeStamp;
+            this.entry = entry;
+        }
     }
 }
@@ -44,6 +44,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -213,6 +214,62 @@ public class PreResponseDeserializer {
         return new ResultSet(resultSetSchema, results);
     }
 
+    /**
+     * Deserialize a serialized ResultSet on its own, such as a mapped result set read from a cache.
+     * <p>
+     * The dimension rows of the results are looked up by key value in one batch per dimension, so each distinct key
+     * value is looked up once rather than once per result. Key values the dimension no longer has get empty rows, as
+     * they do when a druid response is parsed.
+     *
+     * @param serializedResultSet  JsonNode which contains the serialized ResultSet
+     *
+     * @return ResultSet object generated from JsonNode
+     */
+    public ResultSet deserializeResultSet(JsonNode serializedResultSet) {
+        ResultSetSchema resultSetSchema = getResultSetSchema(serializedResultSet.get(SCHEMA_KEY));
+        Set<DimensionColumn> dimensionColumns = resultSetSchema.getColumns(DimensionColumn.class);
+        Set<MetricColumnWithValueType> metricColumns = resultSetSchema.getColumns(MetricColumnWithValueType.class);
+        JsonNode serializedResults = serializedResultSet.get(RESULTS_KEY);
+
+        Map<DimensionColumn, Map<String, DimensionRow>> dimensionRowsByColumn = new HashMap<>();
+        for (DimensionColumn dimensionColumn : dimensionColumns) {
+            Dimension dimension = dimensionColumn.getDimension();
+            Set<String> keyValues = Streams.stream(serializedResults)
+                    .map(serializedResult -> getKeyValue(serializedResult, dimensionColumn))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            Map<String, DimensionRow> dimensionRows = new HashMap<>(dimension.findDimensionRowsByKeyValues(keyValues));
+            keyValues.forEach(keyValue -> dimensionRows.computeIfAbsent(keyValue, dimension::createEmptyDimensionRow));
+            dimensionRowsByColumn.put(dimensionColumn, dimensionRows);
+        }
+
+        List<Result> results = Streams.stream(serializedResults)
+                .map(serializedResult -> new Result(
+                        dimensionColumns.stream().collect(Collectors.toMap(
+                                Function.identity(),
+                                column -> dimensionRowsByColumn.get(column).get(getKeyValue(serializedResult, column)),
+                                (row1, row2) -> row1,
+                                LinkedHashMap::new
+                        )),
+                        extractMetricValues(serializedResult.get(METRIC_VALUES_KEY), metricColumns),
+                        DateTime.parse(serializedResult.get(TIMESTAMP_KEY).asText())
+                ))
+                .collect(Collectors.toList());
+
+        return new ResultSet(resultSetSchema, results);
+    }
+
+    /**
+     * Get the key value a serialized result has for a dimension column.
+     *
+     * @param serializedResult  JsonNode which contains the serialized result
+     * @param dimensionColumn  The dimension column
+     *
+     * @return the key value of the result's dimension row
+     */
+    private String getKeyValue(JsonNode serializedResult, DimensionColumn dimensionColumn) {
+        return serializedResult.get(DIMENSION_VALUES_KEY).get(dimensionColumn.getDimension().getApiName()).asText();
+    }
+
     /**
      * Generates ZonedSchema object from given JsonNode.
      *
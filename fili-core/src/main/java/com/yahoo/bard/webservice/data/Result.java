@@ -115,14 +115,37 @@ public class Result {
 
     /**
      * Fetch the value of the specified numeric metric.
+     * <p>
+     * Metrics decoded as primitive longs or doubles are converted to a BigDecimal, so callers which do not need exact
+     * decimals should prefer {@link #getMetricValueAsDouble(MetricColumn)}.
      *
      * @param metricColumn  The metric column whose value is desired
      *
      * @return The value associated to the desired metric as a BigDecimal
-     * @throws ClassCastException if the value keyed to metricColumn is not a BigDecimal
+     * @throws ClassCastException if the value keyed to metricColumn is not a number
      */
     public BigDecimal getMetricValueAsNumber(MetricColumn metricColumn) {
-        return (BigDecimal) metricValues.get(metricColumn);
+        Object value = metricValues.get(metricColumn);
+        if (value instanceof Long) {
+            return BigDecimal.valueOf((Long) value);
+        }
+        if (value instanceof Double) {
+            return BigDecimal.valueOf((Double) value);
+        }
+        return (BigDecimal) value;
+    }
+
+    /**
+     * Fetch the value of the specified numeric metric as a double.
+     *
+     * @param metricColumn  The metric column whose value is desired
+     *
+     * @return The value associated to the desired metric as a double, or NaN if the metric has no value
+     * @throws ClassCastException if the value keyed to metricColumn is not a number
+     */
+    public double getMetricValueAsDouble(MetricColumn metricColumn) {
+        Number value = (Number) metricValues.get(metricColumn);
+        return value == null ? Double.NaN : value.doubleValue();
     }
 
     /**
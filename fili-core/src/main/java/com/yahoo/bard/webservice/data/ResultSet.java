@@ -23,6 +23,15 @@ public class ResultSet extends ArrayList<Result> {
         this.schema = schema;
     }
 
+    /**
+     * Constructor for subclasses which hold their results outside of the list.
+     *
+     * @param schema  The associated schema
+     */
+    protected ResultSet(ResultSetSchema schema) {
+        this.schema = schema;
+    }
+
     /**
      * Getter for ResultSet schema.
      *
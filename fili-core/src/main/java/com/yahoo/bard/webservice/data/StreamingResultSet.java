@@ -0,0 +1,266 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * An immutable ResultSet whose rows are produced on demand by a row source, such as a parser over a druid response.
+ * <p>
+ * {@link #forEach(Consumer)} passes the rows on as the source produces them, without ever holding them all, which lets
+ * a response writer write each row out as soon as it is parsed and mapped. The source can only be read once though, so
+ * the rows can be streamed at most once. Every other list operation reads the source into a list first, and works on
+ * that list from then on, so code which needs random access or several passes keeps working at the cost of holding
+ * the rows in memory.
+ */
+public class StreamingResultSet extends ResultSet {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingResultSet.class);
+
+    private final Consumer<Consumer<Result>> rowSource;
+    private boolean sourceRead = false;
+    private List<Result> rows;
+
+    /**
+     * Constructor.
+     *
+     * @param schema  The associated schema
+     * @param rowSource  Passes every row of the result set, in order, to the consumer it is given, null for no rows
+     */
+    public StreamingResultSet(ResultSetSchema schema, Consumer<Consumer<Result>> rowSource) {
+        super(schema);
+        this.rowSource = rowSource == null ? action -> { } : rowSource;
+    }
+
+    /**
+     * Whether the rows have been read into memory, and so can be read any number of times.
+     *
+     * @return true if the rows are held in memory, false if they are still to be produced by the row source
+     */
+    public boolean isMaterialized() {
+        return rows != null;
+    }
+
+    /**
+     * Get the rows, reading them from the row source the first time they are needed.
+     *
+     * @return the unmodifiable rows of the result set
+     */
+    private List<Result> rows() {
+        if (rows == null) {
+            List<Result> read = new ArrayList<>();
+            readSource(read::add);
+            rows = Collections.unmodifiableList(read);
+        }
+        return rows;
+    }
+
+    /**
+     * Pass the rows of the row source to a consumer, making sure the source is only read once.
+     *
+     * @param action  Receives the rows in order
+     */
+    private void readSource(Consumer<Result> action) {
+        if (sourceRead) {
+            String message = "The rows of a streaming result set have already been streamed";
+            LOG.error(message);
+            throw new IllegalStateException(message);
+        }
+        sourceRead = true;
+        rowSource.accept(action);
+    }
+
+    /**
+     * Pass every row to an action, streaming them from the row source if they have not been read into memory.
+     *
+     * @param action  The action to perform on each row
+     *
+     * @throws IllegalStateException if the rows have already been streamed
+     */
+    @Override
+    public void forEach(Consumer<? super Result> action) {
+        if (rows != null) {
+            rows.forEach(action);
+        } else {
+            readSource(action::accept);
+        }
+    }
+
+    @Override
+    public int size() {
+        return rows().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return rows().isEmpty();
+    }
+
+    @Override
+    public Result get(int index) {
+        return rows().get(index);
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return rows().iterator();
+    }
+
+    @Override
+    public ListIterator<Result> listIterator() {
+        return rows().listIterator();
+    }
+
+    @Override
+    public ListIterator<Result> listIterator(int index) {
+        return rows().listIterator(index);
+    }
+
+    @Override
+    public List<Result> subList(int fromIndex, int toIndex) {
+        return rows().subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public Spliterator<Result> spliterator() {
+        return rows().spliterator();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return rows().toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        return rows().toArray(a);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return rows().contains(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        return rows().containsAll(c);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return rows().indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return rows().lastIndexOf(o);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return rows().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return rows().hashCode();
+    }
+
+    @Override
+    public Object clone() {
+        return new ResultSet(getSchema(), rows());
+    }
+
+    @Override
+    public boolean add(Result result) {
+        throw immutable();
+    }
+
+    @Override
+    public void add(int index, Result element) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Result> c) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Result> c) {
+        throw immutable();
+    }
+
+    @Override
+    public Result set(int index, Result element) {
+        throw immutable();
+    }
+
+    @Override
+    public Result remove(int index) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw immutable();
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Result> filter) {
+        throw immutable();
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Result> operator) {
+        throw immutable();
+    }
+
+    @Override
+    public void sort(Comparator<? super Result> c) {
+        throw immutable();
+    }
+
+    @Override
+    public void clear() {
+        throw immutable();
+    }
+
+    @Override
+    public String toString() {
+        // Never read the rows just to log them, that would defeat streaming them
+        return "Streaming " + super.toString() + (rows == null ? "" : ", " + rows.size() + " rows");
+    }
+
+    /**
+     * Build the exception thrown on attempts to modify the result set.
+     *
+     * @return the exception to throw
+     */
+    private static UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException("Streaming result sets cannot be modified");
+    }
+}
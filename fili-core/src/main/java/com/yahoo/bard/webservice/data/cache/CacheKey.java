@@ -0,0 +1,122 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.cache;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * The key of a druid query's cache entry, built once per query and shared by the cache reads and writes for it.
+ * <p>
+ * It holds the canonical form of the query, which the cache entry stores to tell colliding keys apart, the digest of
+ * the canonical form, under which the cache stores the entry, and the segment signature of the query, which the
+ * cache entry needs to match to be valid.
+ */
+public class CacheKey {
+
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+
+    private final String key;
+    private final byte[] bytes;
+    private final String digest;
+    private final Long segmentSetId;
+
+    /**
+     * Constructor.
+     *
+     * @param key  The canonical form of the query
+     * @param segmentSetId  The segment signature of the query, null if it has none
+     */
+    public CacheKey(String key, Long segmentSetId) {
+        this.key = key;
+        this.bytes = key.getBytes(StandardCharsets.UTF_8);
+        this.digest = digest(bytes);
+        this.segmentSetId = segmentSetId;
+    }
+
+    /**
+     * Get the digest a cache stores the entry of a key under.
+     * <p>
+     * The digest is the Base64 encoding of the 128 bit MurmurHash3 of the key. It is not cryptographic, so readers
+     * must check the key stored in the entry before using it.
+     *
+     * @param key  The canonical form of the query
+     *
+     * @return the digest of the key
+     */
+    public static String digest(String key) {
+        return digest(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the digest a cache stores the entry of a key under.
+     *
+     * @param bytes  The UTF-8 encoding of the key
+     *
+     * @return the digest of the key
+     */
+    private static String digest(byte[] bytes) {
+        return ENCODER.encodeToString(Hashing.murmur3_128().hashBytes(bytes).asBytes());
+    }
+
+    /**
+     * Get the canonical form of the query.
+     *
+     * @return the full key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the UTF-8 encoding of the canonical form of the query.
+     *
+     * @return a copy of the key's bytes
+     */
+    public byte[] getBytes() {
+        return Arrays.copyOf(bytes, bytes.length);
+    }
+
+    /**
+     * Get the length of the UTF-8 encoding of the key.
+     *
+     * @return the number of bytes in the key
+     */
+    public int getLength() {
+        return bytes.length;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public Long getSegmentSetId() {
+        return segmentSetId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey that = (CacheKey) o;
+        return Objects.equals(key, that.key) && Objects.equals(segmentSetId, that.segmentSetId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, segmentSetId);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheKey{digest=" + digest + ", segmentSetId=" + segmentSetId + "}";
+    }
+}
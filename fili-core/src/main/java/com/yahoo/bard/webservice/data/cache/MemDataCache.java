@@ -25,6 +25,9 @@ import net.spy.memcached.MemcachedClient;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -123,6 +126,24 @@ public class MemDataCache<T extends Serializable> implements DataCache<T> {
         }
     }
 
+    /**
+     * Read the values of several keys from memcached in one round trip.
+     *
+     * @param keys  The keys whose associated values are to be returned
+     *
+     * @return the values found, by key, without the keys memcached holds no value for, or empty if the read failed
+     */
+    protected Map<String, T> getBulk(Collection<String> keys) {
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, T> values = (Map<String, T>) (Map<String, ?>) client.getBulk(keys);
+            return values;
+        } catch (RuntimeException warnThenIgnore) {
+            LOG.warn("get failed for {} keys, {}", keys.size(), warnThenIgnore.getMessage(), warnThenIgnore);
+            return Collections.emptyMap();
+        }
+    }
+
     //(Deprecate this return type to be void)
     @Override
     public boolean set(String key, T value) throws IllegalStateException {
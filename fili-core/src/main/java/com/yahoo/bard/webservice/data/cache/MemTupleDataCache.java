@@ -9,10 +9,10 @@ import net.spy.memcached.MemcachedClient;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import javax.inject.Singleton;
 
@@ -28,25 +28,6 @@ public class MemTupleDataCache<T extends Serializable, V extends Serializable>
         implements TupleDataCache<String, T, V> {
 
     private static final Logger LOG = LoggerFactory.getLogger(MemTupleDataCache.class);
-    private static final String DEFAULT_HASH_ALGORITHM = "SHA-512";
-
-    // To reuse a MessageDigest and avoiding locking, every thread puts its hash generator in thread local storage
-    private static final ThreadLocal<MessageDigest> HASH_GENERATOR = ThreadLocal.withInitial(
-            () -> {
-                try {
-                    return MessageDigest.getInstance(DEFAULT_HASH_ALGORITHM);
-                } catch (NoSuchAlgorithmException nsae) {
-                    String msg = "Unable to initialize hash generator with default algorithm: " +
-                            DEFAULT_HASH_ALGORITHM;
-
-                    LOG.warn(msg, nsae);
-                    throw new IllegalStateException(msg, nsae);
-                }
-            }
-    );
-
-    private static final Base64.Encoder ENCODER = Base64.getEncoder();
-
     /**
      * Constructor using a default memcached client.
      *
@@ -70,21 +51,10 @@ public class MemTupleDataCache<T extends Serializable, V extends Serializable>
      *
      * @param key  The input string to encode.
      *
-     * @return The hash encoding of the key as string. Returns null if the method fails to produce a hash.
+     * @return The hash encoding of the key as string, the 128 bit MurmurHash3 digest of the key.
      */
     protected String hash(String key) {
-        try {
-            MessageDigest gen = HASH_GENERATOR.get();
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-            gen.update(keyBytes, 0, keyBytes.length);
-            byte[] binaryhash = gen.digest();
-
-            return ENCODER.encodeToString(binaryhash);
-        } catch (Exception e) {
-            LOG.warn("Failed to get hash encoding for key: {}", key, e);
-        }
-
-        return null;
+        return CacheKey.digest(key);
     }
 
     @Override
@@ -112,12 +82,51 @@ public class MemTupleDataCache<T extends Serializable, V extends Serializable>
         return super.get(hash(key));
     }
 
+    /**
+     * Retrieve the entry stored under the digest the cache key already holds.
+     *
+     * @param key  The cache key of the query
+     * @param expectedMeta  The metadata of an entry the reader accepts
+     *
+     * @return The complete data entry, or {@code null} if the cache contains no mapping for the key
+     */
+    @Override
+    public TupleDataCache.DataEntry<String, T, V> get(CacheKey key, T expectedMeta) {
+        return super.get(key.getDigest());
+    }
+
+    /**
+     * Retrieve the entries stored under the digests the cache keys already hold, in one memcached round trip.
+     *
+     * @param keys  The cache keys of the queries, each with the metadata of an entry the reader accepts
+     *
+     * @return the entries found, by cache key, without the keys the cache contains no mapping for
+     */
+    @Override
+    public Map<CacheKey, TupleDataCache.DataEntry<String, T, V>> getAll(Map<CacheKey, T> keys) {
+        List<String> digests = keys.keySet().stream().map(CacheKey::getDigest).distinct().collect(Collectors.toList());
+        Map<String, TupleDataCache.DataEntry<String, T, V>> values = getBulk(digests);
+        Map<CacheKey, TupleDataCache.DataEntry<String, T, V>> entries = new LinkedHashMap<>(values.size());
+        for (CacheKey key : keys.keySet()) {
+            TupleDataCache.DataEntry<String, T, V> entry = values.get(key.getDigest());
+            if (entry != null) {
+                entries.put(key, entry);
+            }
+        }
+        return entries;
+    }
+
     //(Deprecate this return type to be void)
     @Override
     public boolean set(String key, T meta, V value) {
         return set(hash(key), new DataEntry<>(key, meta, value));
     }
 
+    @Override
+    public boolean set(CacheKey key, T meta, V value) {
+        return set(key.getDigest(), new DataEntry<>(key.getKey(), meta, value));
+    }
+
     /**
      * Memcached implementation of the data cache entry of the tuple data cache.
      *
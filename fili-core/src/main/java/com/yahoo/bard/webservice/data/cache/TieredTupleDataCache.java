@@ -0,0 +1,581 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.cache;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A tuple data cache keeping the entries it reads and writes most often in a bounded in-process tier (L1), in front
+ * of another tuple data cache, typically memcached (L2).
+ * <p>
+ * The L1 tier is bounded by the estimated heap size of its entries, and evicts the least recently used entries first.
+ * Entries only get into the L1 tier if they are used at least as often as the entry they would evict, which keeps
+ * the one off queries of a burst from flushing out the entries used over and over. Use frequencies are kept
+ * approximately, in a count-min sketch which is halved periodically so that old use counts fade out (TinyLFU).
+ * <p>
+ * Writes go through to the L2 tier. Readers which know the metadata a valid entry must have, such as the segment
+ * signature of a query, should read with {@link #get(String, Serializable)}: an L1 entry with other metadata is stale,
+ * and is dropped and read again from the L2 tier.
+ *
+ * @param <M>  The metadata type of the cache.
+ * @param <V>  The raw data type of the cache.
+ */
+public class TieredTupleDataCache<M extends Serializable, V extends Serializable>
+        implements TupleDataCache<String, M, V> {
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The estimated heap size in bytes the L1 tier may take up, 0 to read and write the L2 tier directly.
+     */
+    public static final long DEFAULT_MAX_BYTES = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("l1_cache_max_bytes"),
+            0L
+    );
+
+    public static final String TIER_L1 = "L1";
+    public static final String TIER_L2 = "L2";
+
+    public static final Meter L1_HITS = REGISTRY.meter("queries.meter.cache.l1.hits");
+    public static final Meter L1_MISSES = REGISTRY.meter("queries.meter.cache.l1.misses");
+    public static final Meter L1_STALE = REGISTRY.meter("queries.meter.cache.l1.stale");
+    public static final Meter L1_REJECTIONS = REGISTRY.meter("queries.meter.cache.l1.rejections");
+    public static final Meter L2_HITS = REGISTRY.meter("queries.meter.cache.l2.hits");
+    public static final Meter L2_MISSES = REGISTRY.meter("queries.meter.cache.l2.misses");
+
+    /**
+     * Estimated heap size of an L1 entry besides its key and value.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * Estimated average heap size of an L1 entry, used to size the frequency sketch.
+     */
+    private static final int AVERAGE_ENTRY_BYTES = 4096;
+
+    private final TupleDataCache<String, M, V> next;
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedEntry<M, V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch frequencies;
+    private long bytes = 0;
+
+    /**
+     * Constructor, with an L1 tier of the configured size.
+     *
+     * @param next  The L2 tier
+     */
+    public TieredTupleDataCache(TupleDataCache<String, M, V> next) {
+        this(next, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param next  The L2 tier
+     * @param maxBytes  The estimated heap size in bytes the L1 tier may take up, 0 to disable it
+     */
+    public TieredTupleDataCache(TupleDataCache<String, M, V> next, long maxBytes) {
+        this.next = next;
+        this.maxBytes = maxBytes;
+        this.frequencies = new FrequencySketch(maxBytes / AVERAGE_ENTRY_BYTES);
+    }
+
+    /**
+     * Get the tier a cache entry was read from.
+     *
+     * @param entry  An entry read from a cache
+     *
+     * @return {@link #TIER_L1} if the entry was read from an L1 tier, {@link #TIER_L2} otherwise
+     */
+    public static String tierOf(TupleDataCache.DataEntry<?, ?, ?> entry) {
+        return entry instanceof CachedEntry ? TIER_L1 : TIER_L2;
+    }
+
+    /**
+     * Retrieve an entry, from the L1 tier if it holds one, without checking its metadata.
+     *
+     * @param key  The key associated with data entry to be retrieved
+     *
+     * @return The complete data entry containing metadata and raw data, or {@code null} if the cache contains no
+     * mapping for the key
+     */
+    @Override
+    public TupleDataCache.DataEntry<String, M, V> get(String key) {
+        if (maxBytes <= 0) {
+            return next.get(key);
+        }
+        CachedEntry<M, V> cached = lookup(key);
+        if (cached != null) {
+            L1_HITS.mark();
+            return cached;
+        }
+        L1_MISSES.mark();
+        return readThrough(key, null, false, () -> next.get(key));
+    }
+
+    /**
+     * Retrieve an entry whose metadata is expected to be a given value, from the L1 tier if it holds a valid one.
+     * <p>
+     * An L1 entry with other metadata is dropped and the entry is read from the L2 tier instead, so that an entry
+     * rewritten by another process replaces the stale one. Entries read from the L2 tier are only admitted to the L1
+     * tier if their metadata is the expected one.
+     *
+     * @param key  The key associated with data entry to be retrieved
+     * @param expectedMeta  The metadata of a valid entry
+     *
+     * @return The complete data entry, which may still be stale if read from the L2 tier, or {@code null} if the
+     * cache contains no mapping for the key
+     */
+    @Override
+    public TupleDataCache.DataEntry<String, M, V> get(String key, M expectedMeta) {
+        if (maxBytes <= 0) {
+            return next.get(key, expectedMeta);
+        }
+        return get(key, expectedMeta, () -> next.get(key, expectedMeta));
+    }
+
+    /**
+     * Retrieve the entry of a query's cache key, from the L1 tier if it holds one with the key's segment signature.
+     *
+     * @param key  The cache key of the query
+     * @param expectedMeta  The metadata of a valid entry
+     *
+     * @return The complete data entry, or {@code null} if the cache contains no mapping for the key
+     *
+     * @see #get(String, Serializable)
+     */
+    @Override
+    public TupleDataCache.DataEntry<String, M, V> get(CacheKey key, M expectedMeta) {
+        if (maxBytes <= 0) {
+            return next.get(key, expectedMeta);
+        }
+        return get(key.getKey(), expectedMeta, () -> next.get(key, expectedMeta));
+    }
+
+    /**
+     * Retrieve an entry with the expected metadata from the L1 tier, or else from the L2 tier.
+     *
+     * @param key  The key associated with data entry to be retrieved
+     * @param expectedMeta  The metadata of a valid entry
+     * @param l2Reader  Reads the entry from the L2 tier
+     *
+     * @return The complete data entry, or {@code null} if the cache contains no mapping for the key
+     */
+    private TupleDataCache.DataEntry<String, M, V> get(
+            String key,
+            M expectedMeta,
+            Supplier<TupleDataCache.DataEntry<String, M, V>> l2Reader
+    ) {
+        CachedEntry<M, V> cached = lookupValid(key, expectedMeta);
+        return cached != null ? cached : readThrough(key, expectedMeta, true, l2Reader);
+    }
+
+    /**
+     * Retrieve the entries of several query cache keys, from the L1 tier for the keys it holds a valid entry for, and
+     * from the L2 tier in one batch for the others.
+     *
+     * @param keys  The cache keys of the queries, each with the metadata of a valid entry
+     *
+     * @return the entries found, by cache key, without the keys the cache contains no mapping for
+     *
+     * @see #get(String, Serializable)
+     */
+    @Override
+    public Map<CacheKey, TupleDataCache.DataEntry<String, M, V>> getAll(Map<CacheKey, M> keys) {
+        if (maxBytes <= 0) {
+            return next.getAll(keys);
+        }
+        Map<CacheKey, TupleDataCache.DataEntry<String, M, V>> found = new LinkedHashMap<>(keys.size());
+        Map<CacheKey, M> misses = new LinkedHashMap<>();
+        keys.forEach((key, expectedMeta) -> {
+            CachedEntry<M, V> cached = lookupValid(key.getKey(), expectedMeta);
+            if (cached != null) {
+                found.put(key, cached);
+            } else {
+                misses.put(key, expectedMeta);
+            }
+        });
+        if (misses.isEmpty()) {
+            return found;
+        }
+        Map<CacheKey, TupleDataCache.DataEntry<String, M, V>> l2Entries = next.getAll(misses);
+        misses.forEach((key, expectedMeta) -> {
+            TupleDataCache.DataEntry<String, M, V> entry = readThrough(
+                    key.getKey(),
+                    expectedMeta,
+                    true,
+                    () -> l2Entries.get(key)
+            );
+            if (entry != null) {
+                found.put(key, entry);
+            }
+        });
+        return found;
+    }
+
+    @Override
+    public V getDataValue(String key) {
+        TupleDataCache.DataEntry<String, M, V> entry = get(key);
+        return entry == null || !key.equals(entry.getKey()) ? null : entry.getValue();
+    }
+
+    /**
+     * Write an entry through to the L2 tier, and offer it to the L1 tier.
+     *
+     * @param key  The key of the cache entry.
+     * @param meta  The metadata associated with the raw data.
+     * @param value  The raw data to store in to the cache.
+     *
+     * @return the result of writing the entry to the L2 tier
+     */
+    @Override
+    public boolean set(String key, M meta, V value) {
+        boolean stored = next.set(key, meta, value);
+        if (maxBytes > 0) {
+            admit(new CachedEntry<>(key, meta, value));
+        }
+        return stored;
+    }
+
+    @Override
+    public boolean set(CacheKey key, M meta, V value) {
+        boolean stored = next.set(key, meta, value);
+        if (maxBytes > 0) {
+            admit(new CachedEntry<>(key.getKey(), meta, value));
+        }
+        return stored;
+    }
+
+    /**
+     * Write an entry to the L2 tier under a key of the L2 tier's choosing, dropping any L1 entry for its key.
+     *
+     * @param key  The key under which the L2 tier stores the entry
+     * @param value  The entry
+     *
+     * @return the result of writing the entry to the L2 tier
+     */
+    @Override
+    public boolean set(String key, TupleDataCache.DataEntry<String, M, V> value) {
+        boolean stored = next.set(key, value);
+        if (maxBytes > 0 && value != null && value.getKey() != null) {
+            remove(value.getKey(), null);
+        }
+        return stored;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            bytes = 0;
+        }
+        next.clear();
+    }
+
+    /**
+     * Get the number of entries in the L1 tier.
+     *
+     * @return the number of L1 entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated heap size of the entries in the L1 tier.
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Look a key up in the L1 tier, counting the use of the key.
+     *
+     * @param key  The key of the entry
+     *
+     * @return the L1 entry, or null if the L1 tier holds none
+     */
+    private synchronized CachedEntry<M, V> lookup(String key) {
+        frequencies.increment(key);
+        return entries.get(key);
+    }
+
+    /**
+     * Look a key up in the L1 tier, dropping its entry if the entry does not have the expected metadata.
+     *
+     * @param key  The key of the entry
+     * @param expectedMeta  The metadata of a valid entry
+     *
+     * @return the valid L1 entry, or null if the L1 tier holds none
+     */
+    private CachedEntry<M, V> lookupValid(String key, M expectedMeta) {
+        CachedEntry<M, V> cached = lookup(key);
+        if (cached != null) {
+            if (Objects.equals(cached.getMeta(), expectedMeta)) {
+                L1_HITS.mark();
+                return cached;
+            }
+            L1_STALE.mark();
+            remove(key, cached);
+        }
+        L1_MISSES.mark();
+        return null;
+    }
+
+    /**
+     * Read an entry from the L2 tier and offer it to the L1 tier.
+     *
+     * @param key  The key of the entry
+     * @param expectedMeta  The metadata of a valid entry
+     * @param checkMeta  Whether only entries with the expected metadata may be admitted to the L1 tier
+     * @param l2Reader  Reads the entry from the L2 tier
+     *
+     * @return the L2 entry, or null if the L2 tier holds none
+     */
+    private TupleDataCache.DataEntry<String, M, V> readThrough(
+            String key,
+            M expectedMeta,
+            boolean checkMeta,
+            Supplier<TupleDataCache.DataEntry<String, M, V>> l2Reader
+    ) {
+        TupleDataCache.DataEntry<String, M, V> entry = l2Reader.get();
+        if (entry == null) {
+            L2_MISSES.mark();
+            return null;
+        }
+        L2_HITS.mark();
+        // Entries stored under another key have collided in the L2 tier, and do not belong to this key
+        if (key.equals(entry.getKey()) && (!checkMeta || Objects.equals(entry.getMeta(), expectedMeta))) {
+            admit(new CachedEntry<>(key, entry.getMeta(), entry.getValue()));
+        }
+        return entry;
+    }
+
+    /**
+     * Put an entry into the L1 tier if it is used at least as often as the least recently used entry it would evict.
+     *
+     * @param candidate  The entry to admit
+     */
+    private synchronized void admit(CachedEntry<M, V> candidate) {
+        if (candidate.weight > maxBytes) {
+            L1_REJECTIONS.mark();
+            return;
+        }
+        String key = candidate.getKey();
+        CachedEntry<M, V> previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= previous.weight;
+        } else if (bytes + candidate.weight > maxBytes && !entries.isEmpty()) {
+            String victim = entries.keySet().iterator().next();
+            if (frequencies.frequency(key) < frequencies.frequency(victim)) {
+                L1_REJECTIONS.mark();
+                return;
+            }
+        }
+
+        entries.put(key, candidate);
+        bytes += candidate.weight;
+        Iterator<CachedEntry<M, V>> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drop the L1 entry of a key.
+     *
+     * @param key  The key of the entry
+     * @param expected  The entry to drop, or null to drop whatever entry the key has
+     */
+    private synchronized void remove(String key, CachedEntry<M, V> expected) {
+        CachedEntry<M, V> entry = entries.get(key);
+        if (entry != null && (expected == null || entry == expected)) {
+            entries.remove(key);
+            bytes -= entry.weight;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TieredTupleDataCache{entries=" + entries.size() + ", bytes=" + bytes + ", maxBytes=" + maxBytes +
+                ", next=" + next + "}";
+    }
+
+    /**
+     * Estimate the heap size of a cached value.
+     *
+     * @param value  The value
+     *
+     * @return the estimated size in bytes
+     */
+    private static long weigh(Serializable value) {
+        if (value instanceof String) {
+            return 2L * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        return ENTRY_OVERHEAD;
+    }
+
+    /**
+     * An entry of the L1 tier, with its estimated size.
+     *
+     * @param <M>  The metadata type of the cache.
+     * @param <V>  The raw data type of the cache.
+     */
+    private static class CachedEntry<M extends Serializable, V extends Serializable>
+            implements TupleDataCache.DataEntry<String, M, V> {
+        private static final long serialVersionUID = 3349236728452791370L;
+
+        private final String key;
+        private final M meta;
+        private final V value;
+        private final long weight;
+
+        /**
+         * Constructor.
+         *
+         * @param key  The key of this entry
+         * @param meta  The metadata of this entry
+         * @param value  The raw data of this entry
+         */
+        CachedEntry(String key, M meta, V value) {
+            this.key = key;
+            this.meta = meta;
+            this.value = value;
+            this.weight = ENTRY_OVERHEAD + 2L * key.length() + weigh(meta) + weigh(value);
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public M getMeta() {
+            return meta;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * An approximate count of how often keys are used, in a count-min sketch of 4 bit counters.
+     * <p>
+     * Every key has a counter in each of 4 rows, and its frequency is the smallest of them. Once the sketch has
+     * counted 10 uses for each of its slots, every counter is halved, so that the counts favor recent uses.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xc3a5c85c};
+
+        private final byte[][] counts;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param expectedEntries  The number of entries the L1 tier is expected to hold
+         */
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.min(Math.max(expectedEntries, 256), 1 << 20) * 2 - 1);
+            this.counts = new byte[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        /**
+         * Count a use of a key.
+         *
+         * @param key  The key used
+         */
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean incremented = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(hash, row);
+                if (counts[row][index] < MAX_COUNT) {
+                    counts[row][index]++;
+                    incremented = true;
+                }
+            }
+            if (incremented && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        /**
+         * Estimate how often a key has been used recently.
+         *
+         * @param key  The key
+         *
+         * @return the estimated use count, which may overcount but never undercounts
+         */
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counts[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        /**
+         * Halve every counter.
+         */
+        private void reset() {
+            for (byte[] row : counts) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        /**
+         * Get the slot of a key in a row of the sketch.
+         *
+         * @param hash  The spread hash of the key
+         * @param row  The row of the sketch
+         *
+         * @return the index of the key's counter in the row
+         */
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        /**
+         * Spread the bits of a hash code, so that keys with similar hash codes land in different slots.
+         *
+         * @param hashCode  The hash code of a key
+         *
+         * @return the spread hash
+         */
+        private static int spread(int hashCode) {
+            int h = hashCode * 0x9e3779b9;
+            return h ^ (h >>> 15);
+        }
+    }
+}
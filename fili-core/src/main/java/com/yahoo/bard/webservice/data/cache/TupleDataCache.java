@@ -3,6 +3,8 @@
 package com.yahoo.bard.webservice.data.cache;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Versatile data cache interface that allows for parametrized types for the key, the metadata and the raw data value
@@ -25,6 +27,61 @@ public interface TupleDataCache<K, M extends Serializable, V extends Serializabl
     @Override
     DataEntry<K, M, V> get(String key);
 
+    /**
+     * Retrieve the complete data entry from the cache, for a reader which only accepts entries with the given
+     * metadata.
+     * <p>
+     * Caches holding several copies of an entry can use the metadata to skip copies which are out of date. The
+     * returned entry is not guaranteed to have the expected metadata, so the reader still needs to check it.
+     *
+     * @param key  The key associated with data entry to be retrieved
+     * @param expectedMeta  The metadata of an entry the reader accepts
+     *
+     * @return The complete data entry containing metadata and raw data, or {@code null} if the cache contains no
+     * mapping for the key
+     */
+    default DataEntry<K, M, V> get(String key, M expectedMeta) {
+        return get(key);
+    }
+
+    /**
+     * Retrieve the complete data entry of a query's cache key, expecting it to have the key's segment signature.
+     * <p>
+     * Caches which store entries under the digest of their key can use the digest the cache key already holds.
+     *
+     * @param key  The cache key of the query
+     * @param expectedMeta  The metadata of an entry the reader accepts
+     *
+     * @return The complete data entry containing metadata and raw data, or {@code null} if the cache contains no
+     * mapping for the key
+     */
+    default DataEntry<K, M, V> get(CacheKey key, M expectedMeta) {
+        return get(key.getKey(), expectedMeta);
+    }
+
+    /**
+     * Retrieve the complete data entries of several query cache keys in one batch, expecting each to have the given
+     * metadata.
+     * <p>
+     * Caches backed by a remote store should override this to fetch the entries in one round trip. As with
+     * {@link #get(CacheKey, Serializable)}, the returned entries may have other metadata, and may belong to other keys
+     * whose digests collide, so the reader still needs to check them.
+     *
+     * @param keys  The cache keys of the queries, each with the metadata of an entry the reader accepts
+     *
+     * @return the entries found, by cache key, without the keys the cache contains no mapping for
+     */
+    default Map<CacheKey, DataEntry<K, M, V>> getAll(Map<CacheKey, M> keys) {
+        Map<CacheKey, DataEntry<K, M, V>> entries = new LinkedHashMap<>(keys.size());
+        keys.forEach((key, expectedMeta) -> {
+            DataEntry<K, M, V> entry = get(key, expectedMeta);
+            if (entry != null) {
+                entries.put(key, entry);
+            }
+        });
+        return entries;
+    }
+
     /**
      * Read the raw data from cache.
      *
@@ -48,6 +105,24 @@ public interface TupleDataCache<K, M extends Serializable, V extends Serializabl
      */
     boolean set(K key, M meta, V value);
 
+    /**
+     * Put a complete data entry in the data cache under a query's cache key.
+     * <p>
+     * Only caches keyed by the canonical form of the query, a String, can store entries under a cache key.
+     *
+     * @param key  The cache key of the query.
+     * @param meta  The metadata associated with the raw data.
+     * @param value  The raw data to store in to the cache.
+     *
+     * @return true if the entry is stored successfully; false otherwise.
+     *
+     * @throws IllegalStateException in the rare circumstance where queue is too full to accept any more requests
+     */
+    @SuppressWarnings("unchecked")
+    default boolean set(CacheKey key, M meta, V value) {
+        return set((K) key.getKey(), meta, value);
+    }
+
     /**
      * A data cache entry defined as a tuple consisting of key, metadata, and value fields.
      *
@@ -9,6 +9,8 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import org.joda.time.DateTime;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -111,6 +113,27 @@ public interface Dimension {
      */
     DimensionRow findDimensionRowByKeyValue(String value);
 
+    /**
+     * Get the dimension rows of several key values in one batch.
+     * <p>
+     * Dimensions backed by a remote or disk based store should override this to look the rows up together. The rows
+     * returned are meant to be read, and may be shared between callers and not allow modification.
+     *
+     * @param values  The key values
+     *
+     * @return the rows found, by key value, without the key values which have no matching row
+     */
+    default Map<String, DimensionRow> findDimensionRowsByKeyValues(Collection<String> values) {
+        Map<String, DimensionRow> rows = new LinkedHashMap<>(values.size());
+        for (String value : values) {
+            DimensionRow row = findDimensionRowByKeyValue(value);
+            if (row != null) {
+                rows.put(value, row);
+            }
+        }
+        return rows;
+    }
+
     /**
      * Get primary key field for this dimension.
      *
@@ -4,9 +4,14 @@ package com.yahoo.bard.webservice.data.dimension;
 
 import com.yahoo.bard.webservice.util.StreamUtils;
 
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import javax.validation.constraints.NotNull;
 
@@ -91,4 +96,148 @@ public class DimensionRow extends LinkedHashMap<DimensionField, String> implemen
         newRow.replaceAll(mapper);
         return newRow;
     }
+
+    /**
+     * Copies a DimensionRow into one which can be modified.
+     *
+     * @param row  The row to be copied
+     *
+     * @return A modifiable copy of the DimensionRow
+     */
+    public static DimensionRow modifiableCopy(DimensionRow row) {
+        return new DimensionRow(row);
+    }
+
+    /**
+     * Copies a DimensionRow into one which cannot be modified, so that it can be shared between callers.
+     *
+     * @param row  The row to be copied
+     *
+     * @return An unmodifiable copy of the DimensionRow, or the row itself if it already cannot be modified
+     */
+    public static DimensionRow unmodifiableCopy(DimensionRow row) {
+        return row instanceof UnmodifiableDimensionRow ? row : new UnmodifiableDimensionRow(row);
+    }
+
+    /**
+     * A dimension row which rejects modification.
+     * <p>
+     * Use {@link #copyWithReplace(DimensionRow, BiFunction)} to derive a modifiable row from it.
+     */
+    private static class UnmodifiableDimensionRow extends DimensionRow {
+
+        /**
+         * Read only view of the row's entries.
+         */
+        private final Map<DimensionField, String> view = Collections.unmodifiableMap(
+                new AbstractMap<DimensionField, String>() {
+                    @Override
+                    public Set<Map.Entry<DimensionField, String>> entrySet() {
+                        return UnmodifiableDimensionRow.super.entrySet();
+                    }
+                }
+        );
+
+        /**
+         * Constructor.
+         *
+         * @param row  The row to be copied
+         */
+        UnmodifiableDimensionRow(DimensionRow row) {
+            super(row);
+        }
+
+        @Override
+        public Set<Map.Entry<DimensionField, String>> entrySet() {
+            return view.entrySet();
+        }
+
+        @Override
+        public Set<DimensionField> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<String> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public String put(DimensionField key, String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void putAll(Map<? extends DimensionField, ? extends String> m) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String remove(Object key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super DimensionField, ? super String, ? extends String> function) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String putIfAbsent(DimensionField key, String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean replace(DimensionField key, String oldValue, String newValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String replace(DimensionField key, String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String computeIfAbsent(
+                DimensionField key,
+                Function<? super DimensionField, ? extends String> mappingFunction
+        ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String computeIfPresent(
+                DimensionField key,
+                BiFunction<? super DimensionField, ? super String, ? extends String> remappingFunction
+        ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String compute(
+                DimensionField key,
+                BiFunction<? super DimensionField, ? super String, ? extends String> remappingFunction
+        ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String merge(
+                DimensionField key,
+                String value,
+                BiFunction<? super String, ? super String, ? extends String> remappingFunction
+        ) {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -0,0 +1,252 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A bounded, least recently used cache of decoded dimension rows, keyed by the store row key of their key values,
+ * so that key values the store treats as the same, such as values differing only by case, share an entry.
+ * <p>
+ * The cache is bounded by the estimated heap size of its rows rather than their number, since rows of different
+ * dimensions vary widely in size. Rows are cached as unmodifiable copies, and so can be shared between callers.
+ * Row keys without a row are cached too, since druid responses often hold values the dimension does not know.
+ * <p>
+ * Rows loaded while the cache is being invalidated are not cached, so a lookup racing an update can not put the
+ * row it read before the update back into the cache.
+ */
+public class DimensionRowCache {
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The default estimated heap size in bytes the cached rows of a dimension may take up, 0 to disable caching.
+     */
+    public static final long DEFAULT_MAX_BYTES = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("dimension_row_cache_max_bytes"),
+            8L * 1024 * 1024
+    );
+
+    /**
+     * Estimated heap size of a cache entry besides the strings it holds.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * Estimated heap size of a field of a row besides its value.
+     */
+    private static final int FIELD_OVERHEAD = 64;
+
+    private static final Meter HITS = REGISTRY.meter("dimensions.rows.cache.hits");
+    private static final Meter MISSES = REGISTRY.meter("dimensions.rows.cache.misses");
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long generation = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes  The estimated heap size in bytes the cached rows may take up, 0 to disable caching
+     */
+    public DimensionRowCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the row for a row key, loading and caching it if it is not cached.
+     *
+     * @param rowKey  The store row key of the row
+     * @param loader  Loads the row for a row key, returning null if there is none
+     *
+     * @return the unmodifiable row, or null if there is no row for the row key
+     */
+    public DimensionRow get(String rowKey, Function<String, DimensionRow> loader) {
+        if (maxBytes <= 0) {
+            return loader.apply(rowKey);
+        }
+        long observedGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(rowKey);
+            if (entry != null) {
+                HITS.mark();
+                return entry.row;
+            }
+            observedGeneration = generation;
+        }
+        MISSES.mark();
+
+        DimensionRow loaded = loader.apply(rowKey);
+        DimensionRow row = loaded == null ? null : DimensionRow.unmodifiableCopy(loaded);
+        put(rowKey, row, observedGeneration);
+        return row;
+    }
+
+    /**
+     * Get the rows for several row keys, loading the ones which are not cached in one batch.
+     *
+     * @param rowKeys  The store row keys of the rows
+     * @param loader  Loads the rows for a batch of row keys, leaving out the row keys which have no row
+     *
+     * @return the unmodifiable rows by row key, without the row keys which have no row
+     */
+    public Map<String, DimensionRow> getAll(
+            Collection<String> rowKeys,
+            Function<Collection<String>, Map<String, DimensionRow>> loader
+    ) {
+        if (maxBytes <= 0) {
+            return loader.apply(rowKeys);
+        }
+        Map<String, DimensionRow> rows = new LinkedHashMap<>(rowKeys.size());
+        Set<String> misses = new LinkedHashSet<>();
+        long observedGeneration;
+        synchronized (this) {
+            for (String rowKey : rowKeys) {
+                Entry entry = entries.get(rowKey);
+                if (entry == null) {
+                    misses.add(rowKey);
+                } else if (entry.row != null) {
+                    rows.put(rowKey, entry.row);
+                }
+            }
+            observedGeneration = generation;
+        }
+        HITS.mark(rowKeys.size() - misses.size());
+        if (misses.isEmpty()) {
+            return rows;
+        }
+        MISSES.mark(misses.size());
+
+        Map<String, DimensionRow> loaded = loader.apply(misses);
+        for (String rowKey : misses) {
+            DimensionRow row = loaded.get(rowKey);
+            row = row == null ? null : DimensionRow.unmodifiableCopy(row);
+            put(rowKey, row, observedGeneration);
+            if (row != null) {
+                rows.put(rowKey, row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Cache a row, unless the cache was invalidated since the row was loaded.
+     *
+     * @param rowKey  The store row key of the row
+     * @param row  The row, or null if there is none
+     * @param observedGeneration  The generation of the cache when the row started loading
+     */
+    private synchronized void put(String rowKey, DimensionRow row, long observedGeneration) {
+        if (observedGeneration != generation) {
+            return;
+        }
+        Entry entry = new Entry(row, weigh(rowKey, row));
+        Entry previous = entries.put(rowKey, entry);
+        bytes += entry.weight - (previous == null ? 0 : previous.weight);
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drop the cached rows of some row keys.
+     *
+     * @param rowKeys  The store row keys of the rows
+     */
+    public synchronized void invalidate(Collection<String> rowKeys) {
+        generation++;
+        for (String rowKey : rowKeys) {
+            Entry entry = entries.remove(rowKey);
+            if (entry != null) {
+                bytes -= entry.weight;
+            }
+        }
+    }
+
+    /**
+     * Drop every cached row.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the number of cached row keys.
+     *
+     * @return the number of cached row keys, with or without a row
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated heap size of the cached rows.
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Estimate the heap size of a cached row.
+     *
+     * @param rowKey  The store row key of the row
+     * @param row  The row, or null if there is none
+     *
+     * @return the estimated size in bytes
+     */
+    private static long weigh(String rowKey, DimensionRow row) {
+        long weight = ENTRY_OVERHEAD + 2L * rowKey.length();
+        if (row != null) {
+            for (Map.Entry<?, String> field : row.entrySet()) {
+                weight += FIELD_OVERHEAD + (field.getValue() == null ? 0 : 2L * field.getValue().length());
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DimensionRowCache{rows=" + entries.size() + ", bytes=" + bytes + ", maxBytes=" + maxBytes + "}";
+    }
+
+    /**
+     * A cached row and its estimated size.
+     */
+    private static class Entry {
+        private final DimensionRow row;
+        private final long weight;
+
+        /**
+         * Constructor.
+         *
+         * @param row  The row, or null if there is none
+         * @param weight  The estimated size in bytes
+         */
+        Entry(DimensionRow row, long weight) {
+            this.row = row;
+            this.weight = weight;
+        }
+    }
+}
@@ -23,11 +23,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -69,6 +72,8 @@ public class KeyValueStoreDimension implements Dimension {
     private final boolean isAggregatable;
     private final StorageStrategy storageStrategy;
 
+    private final DimensionRowCache rowCache = new DimensionRowCache(DimensionRowCache.DEFAULT_MAX_BYTES);
+
     /**
      * Constructor.
      *
@@ -362,6 +367,8 @@ public class KeyValueStoreDimension implements Dimension {
         } else {
             keyValueStore.put(lastUpdatedKey, lastUpdated.toString());
         }
+        // The store may have been loaded by another process, so start over from its current rows
+        rowCache.invalidateAll();
     }
 
     @Override
@@ -441,6 +448,7 @@ public class KeyValueStoreDimension implements Dimension {
     public void addAllDimensionRows(Set<DimensionRow> dimensionRows) {
         Map<String, String> storeRows = new LinkedHashMap<>(dimensionRows.size());
         Map<String, Pair<DimensionRow, DimensionRow>> indexRows = new LinkedHashMap<>(dimensionRows.size());
+        List<String> changedRowKeys = new ArrayList<>(dimensionRows.size());
 
         for (DimensionRow dimensionRow : dimensionRows) {
             try {
@@ -474,6 +482,7 @@ public class KeyValueStoreDimension implements Dimension {
 
                 //update indexes
                 indexRows.put(rowIdKey, new Pair<>(dimensionRow, dimensionRowOld));
+                changedRowKeys.add(rowIdKey);
 
             } catch (IOException e) {
                 LOG.error("Exception while adding dimension row", e);
@@ -482,6 +491,7 @@ public class KeyValueStoreDimension implements Dimension {
         }
 
         keyValueStore.putAll(storeRows);
+        rowCache.invalidate(changedRowKeys);
         searchProvider.refreshIndex(indexRows);
     }
 
@@ -503,14 +513,78 @@ public class KeyValueStoreDimension implements Dimension {
         return new DimensionRow(key, dimensionFieldValueMap);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Rows are served from a cache of decoded rows where possible. Each caller gets a copy of the row of its own,
+     * which it may modify.
+     */
     @Override
     public DimensionRow findDimensionRowByKeyValue(String value) {
-        /*
-         * Key to fetch row from keyValueStore
-         * eg: if key column is ID and value is 12345
-         * rowKey would be id_12345_row_key
-         */
-        String rowKey = DimensionStoreKeyUtils.getRowKey(getKey().getName(), value);
+        DimensionRow row = rowCache.get(
+                DimensionStoreKeyUtils.getRowKey(getKey().getName(), value),
+                this::loadDimensionRowByRowKey
+        );
+        return row == null ? null : DimensionRow.modifiableCopy(row);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Rows which are not cached are read from the key value store in one batch. The rows are the cached ones, shared
+     * between callers, and cannot be modified.
+     */
+    @Override
+    public Map<String, DimensionRow> findDimensionRowsByKeyValues(Collection<String> values) {
+        // Key values differing only by case share a row key unless keys are case sensitive, and each gets the row
+        Map<String, List<String>> rowKeys = new LinkedHashMap<>(values.size());
+        for (String value : values) {
+            rowKeys.computeIfAbsent(
+                    DimensionStoreKeyUtils.getRowKey(getKey().getName(), value),
+                    ignored -> new ArrayList<>(1)
+            ).add(value);
+        }
+        Map<String, DimensionRow> rowsByRowKey = rowCache.getAll(rowKeys.keySet(), this::loadDimensionRowsByRowKeys);
+
+        Map<String, DimensionRow> rows = new LinkedHashMap<>(values.size());
+        rowsByRowKey.forEach((rowKey, row) -> rowKeys.get(rowKey).forEach(value -> rows.put(value, row)));
+        return rows;
+    }
+
+    /**
+     * Read and decode the dimension rows of several row keys from the key value store in one batch.
+     *
+     * @param rowKeys  The store row keys of the rows
+     *
+     * @return the dimension rows by row key, without the row keys the store has no row for
+     */
+    private Map<String, DimensionRow> loadDimensionRowsByRowKeys(Collection<String> rowKeys) {
+        Map<String, String> dimRowJsons = keyValueStore.getAll(rowKeys);
+
+        Map<String, DimensionRow> rows = new LinkedHashMap<>(dimRowJsons.size());
+        try {
+            for (Map.Entry<String, String> dimRowJson : dimRowJsons.entrySet()) {
+                Map<String, String> dimensionRowMap = objectMapper.readValue(
+                        dimRowJson.getValue(),
+                        new TypeReference<LinkedHashMap<String, String>>() { }
+                );
+                rows.put(dimRowJson.getKey(), parseDimensionRow(dimensionRowMap));
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot map string to DimensionRow object.", e);
+            throw new UncheckedIOException(e);
+        }
+        return rows;
+    }
+
+    /**
+     * Read and decode the dimension row of a row key from the key value store.
+     *
+     * @param rowKey  The store row key of the row, e.g. id_12345_row_key if the key column is ID and its value 12345
+     *
+     * @return the dimension row, or null if the store has none for the row key
+     */
+    private DimensionRow loadDimensionRowByRowKey(String rowKey) {
         DimensionRow drByKey = null;
         try {
             String dimRowJson = keyValueStore.get(rowKey);
@@ -554,6 +628,7 @@ public class KeyValueStoreDimension implements Dimension {
             // Reset list to empty
             String allValuesKey = DimensionStoreKeyUtils.getAllValuesKey();
             keyValueStore.put(allValuesKey, "[]");
+            rowCache.invalidateAll();
 
         } catch (IOException e) {
             LOG.error("Exception while reading dimension rows", e);
@@ -11,12 +11,9 @@ import com.yahoo.bard.webservice.logging.RequestLog;
 import org.joda.time.DateTime;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
 
 /**
  *  Mapper to sort the result set based on dateTime column sort direction.
@@ -36,6 +33,10 @@ public class DateTimeSortMapper extends ResultSetMapper {
 
     /**
      *  Sorting the resultSet based on dateTime column sort direction.
+     * <p>
+     * The result set is read as a sequence of runs which are already in order, such as the results of each query of a
+     * split query, and the runs are merged. Rows sharing a timestamp keep their relative order. A result set which is
+     * already in order is returned as is.
      *
      * @param resultSet  The result set need to be sorted in ascending or descending order
      *
@@ -43,28 +44,48 @@ public class DateTimeSortMapper extends ResultSetMapper {
      */
     @Override
     public ResultSet map(ResultSet resultSet) {
-
-        Map<DateTime, List<Result>> bucketizedResultsMap = new LinkedHashMap<>();
+        Comparator<DateTime> order = direction == SortDirection.ASC ?
+                Comparator.naturalOrder() :
+                Comparator.reverseOrder();
 
         RequestLog.startTiming("sortResultSet");
         try {
-            for (Result result : resultSet) {
-                bucketizedResultsMap.computeIfAbsent(result.getTimeStamp(), ignored -> new ArrayList<>()).add(result);
+            // Find the runs of rows which are in order, by the index of the first row of each run
+            List<Integer> runStarts = new ArrayList<>();
+            DateTime previous = null;
+            for (int i = 0; i < resultSet.size(); i++) {
+                DateTime timeStamp = resultSet.get(i).getTimeStamp();
+                if (previous == null || order.compare(previous, timeStamp) > 0) {
+                    runStarts.add(i);
+                }
+                previous = timeStamp;
             }
+            if (runStarts.size() <= 1) {
+                return resultSet;
+            }
+            runStarts.add(resultSet.size());
 
-            List<DateTime> dateTimeList = new ArrayList<>(bucketizedResultsMap.keySet());
-
-            Collections.sort(dateTimeList, direction == SortDirection.ASC ?
-                    Comparator.naturalOrder() :
-                    Comparator.reverseOrder());
+            // Merge the runs, taking the next row of the earliest run among those with the first timestamp in order
+            Comparator<Run> heads = Comparator.<Run, DateTime>comparing(run -> run.head, order)
+                    .thenComparingInt(run -> run.start);
+            PriorityQueue<Run> runs = new PriorityQueue<>(runStarts.size(), heads);
+            for (int i = 0; i + 1 < runStarts.size(); i++) {
+                runs.add(new Run(resultSet, runStarts.get(i), runStarts.get(i + 1)));
+            }
 
-            return new ResultSet(
-                    resultSet.getSchema(),
-                    dateTimeList.stream()
-                            .map(bucketizedResultsMap::get)
-                            .flatMap(List::stream)
-                            .collect(Collectors.toList())
-            );
+            List<Result> sorted = new ArrayList<>(resultSet.size());
+            while (!runs.isEmpty()) {
+                Run run = runs.poll();
+                // Take every row of the run sharing the head timestamp, so buckets are not interleaved row by row
+                DateTime bucket = run.head;
+                do {
+                    sorted.add(resultSet.get(run.start));
+                } while (run.advance(resultSet) && run.head.equals(bucket));
+                if (!run.isEmpty()) {
+                    runs.add(run);
+                }
+            }
+            return new ResultSet(resultSet.getSchema(), sorted);
         } finally {
             RequestLog.stopTiming("sortResultSet");
         }
@@ -82,4 +103,48 @@ public class DateTimeSortMapper extends ResultSetMapper {
         //Because this method is not necessary, it just returns the schema unchanged.
         return schema;
     }
+
+    /**
+     * The rest of a run of rows which are in order.
+     */
+    private static class Run {
+        private int start;
+        private final int end;
+        private DateTime head;
+
+        /**
+         * Constructor.
+         *
+         * @param resultSet  The result set holding the run
+         * @param start  The index of the first row of the run
+         * @param end  The index after the last row of the run
+         */
+        Run(ResultSet resultSet, int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.head = start < end ? resultSet.get(start).getTimeStamp() : null;
+        }
+
+        /**
+         * Move past the first row of the run.
+         *
+         * @param resultSet  The result set holding the run
+         *
+         * @return true if the run has rows left
+         */
+        boolean advance(ResultSet resultSet) {
+            start++;
+            head = isEmpty() ? null : resultSet.get(start).getTimeStamp();
+            return !isEmpty();
+        }
+
+        /**
+         * Check whether the run has no rows left.
+         *
+         * @return true if the run has no rows left
+         */
+        boolean isEmpty() {
+            return start >= end;
+        }
+    }
 }
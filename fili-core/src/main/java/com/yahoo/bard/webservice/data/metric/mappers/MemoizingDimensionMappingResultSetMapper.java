@@ -136,6 +136,16 @@ public class MemoizingDimensionMappingResultSetMapper extends ResultSetMapper {
         }
     }
 
+    @Override
+    public boolean isRowLocal() {
+        return true;
+    }
+
+    @Override
+    public boolean keepsRows() {
+        return true;
+    }
+
     @Override
     protected ResultSetSchema map(ResultSetSchema schema) {
         return schema;
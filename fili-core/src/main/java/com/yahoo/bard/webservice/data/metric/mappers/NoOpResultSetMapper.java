@@ -24,4 +24,9 @@ public class NoOpResultSetMapper extends ResultSetMapper {
     protected ResultSetSchema map(ResultSetSchema schema) {
         return schema;
     }
+
+    @Override
+    public boolean keepsRows() {
+        return true;
+    }
 }
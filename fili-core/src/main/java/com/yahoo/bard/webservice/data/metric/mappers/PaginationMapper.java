@@ -6,6 +6,7 @@ import com.yahoo.bard.webservice.data.Result;
 import com.yahoo.bard.webservice.data.ResultSet;
 import com.yahoo.bard.webservice.data.ResultSetSchema;
 import com.yahoo.bard.webservice.util.AllPagesPagination;
+import com.yahoo.bard.webservice.util.LookaheadPagination;
 import com.yahoo.bard.webservice.util.Pagination;
 import com.yahoo.bard.webservice.web.AbstractResponse;
 import com.yahoo.bard.webservice.web.responseprocessors.MappingResponseProcessor;
@@ -17,12 +18,16 @@ import javax.ws.rs.core.UriBuilder;
 /**
  * Extracts the requested page of data from the Druid results. Behavior is undefined if the page requested is
  * less than 1, or the requested number of results on each page is less than 1.
+ * <p>
+ * If the page was pushed down into the druid query, the results hold only the requested page followed by the first
+ * row of the next page, if there is one, and the page is paginated without a count of all the results.
  */
 public class PaginationMapper extends ResultSetMapper {
 
     private final PaginationParameters paginationParameters;
     private final MappingResponseProcessor responseProcessor;
     private final UriBuilder uriBuilder;
+    private final boolean pushedDown;
 
     /**
      * Constructor.
@@ -35,10 +40,28 @@ public class PaginationMapper extends ResultSetMapper {
             @NotNull PaginationParameters paginationParameters,
             @NotNull MappingResponseProcessor responseProcessor,
             UriBuilder uriBuilder
+    ) {
+        this(paginationParameters, responseProcessor, uriBuilder, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param paginationParameters  The parameters needed for pagination
+     * @param responseProcessor  The API response to which we can add the header links.
+     * @param uriBuilder  The builder for creating the pagination links. (Optional)
+     * @param pushedDown  Whether the page was pushed down into the druid query, fetching one row beyond the page
+     */
+    public PaginationMapper(
+            @NotNull PaginationParameters paginationParameters,
+            @NotNull MappingResponseProcessor responseProcessor,
+            UriBuilder uriBuilder,
+            boolean pushedDown
     ) {
         this.paginationParameters = paginationParameters;
         this.responseProcessor = responseProcessor;
         this.uriBuilder = uriBuilder;
+        this.pushedDown = pushedDown;
     }
 
     /**
@@ -50,7 +73,9 @@ public class PaginationMapper extends ResultSetMapper {
      */
     @Override
     public ResultSet map(ResultSet resultSet) {
-        Pagination<Result> pages = new AllPagesPagination<>(resultSet, paginationParameters);
+        Pagination<Result> pages = pushedDown ?
+                new LookaheadPagination<>(resultSet, paginationParameters) :
+                new AllPagesPagination<>(resultSet, paginationParameters);
         if (uriBuilder != null) {
             AbstractResponse.addLinks(pages, uriBuilder, responseProcessor);
         }
@@ -62,6 +62,11 @@ public class PartialDataResultSetMapper extends ResultSetMapper {
                 result;
     }
 
+    @Override
+    public boolean isRowLocal() {
+        return true;
+    }
+
     @Override
     protected ResultSetSchema map(ResultSetSchema schema) {
         return schema;
@@ -2,14 +2,17 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data.metric.mappers;
 
+import com.yahoo.bard.webservice.data.ColumnarResultSet;
 import com.yahoo.bard.webservice.data.Result;
 import com.yahoo.bard.webservice.data.ResultSet;
 import com.yahoo.bard.webservice.data.ResultSetSchema;
+import com.yahoo.bard.webservice.data.StreamingResultSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -19,6 +22,20 @@ abstract public class ResultSetMapper {
 
     private static final Logger LOG = LoggerFactory.getLogger(ResultSetMapper.class);
 
+    /**
+     * Whether each mapper class overrides the result set level map, and so can not be fused with other mappers.
+     */
+    private static final ClassValue<Boolean> MAPS_RESULT_SETS = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("map", ResultSet.class).getDeclaringClass() != ResultSetMapper.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        }
+    };
+
     /**
      * Take a complete result set and replace it with one altered according to the rules of the concrete mapper.
      *
@@ -27,24 +44,116 @@ abstract public class ResultSetMapper {
      * @return The mapped result set
      */
     public ResultSet map(ResultSet resultSet) {
+        return mapRows(Collections.singletonList(this), resultSet);
+    }
+
+    /**
+     * Whether this mapper maps each row on its own, without depending on the other rows or their order.
+     * <p>
+     * Row local mappers which do not override {@link #map(ResultSet)} can be fused with their neighbours in a chain of
+     * mappers, running them all in a single pass over the result set. Mappers which sort, rank, page or number rows
+     * are order dependent, and map the whole result set at once.
+     *
+     * @return true if the mapper is row local, false if it is order dependent
+     */
+    public boolean isRowLocal() {
+        return false;
+    }
 
-        List<Result> newResults = new ArrayList<>();
-        Result newResult;
+    /**
+     * Whether this mapper keeps every row of the result set in its place, neither removing, adding nor reordering rows.
+     * <p>
+     * A page cut out of the results by druid is only the page the user asked for if every mapper keeps the rows.
+     *
+     * @return true if the mapper keeps the rows, false if it may remove, add or reorder rows
+     */
+    public boolean keepsRows() {
+        return false;
+    }
+
+    /**
+     * Check whether a mapper can be run as part of a single pass over a result set along with other mappers.
+     *
+     * @param mapper  The mapper
+     *
+     * @return true if the mapper is row local and maps result sets row by row
+     */
+    public static boolean isFusable(ResultSetMapper mapper) {
+        return mapper.isRowLocal() && !MAPS_RESULT_SETS.get(mapper.getClass());
+    }
+
+    /**
+     * Map a result set through a sequence of mappers row by row, in a single pass with a single output buffer.
+     * <p>
+     * Every row is passed through the mappers in order, until one of them removes it. This is only equivalent to
+     * mapping the result set through each mapper in turn if all but the first of the mappers are
+     * {@link #isFusable(ResultSetMapper) fusable}.
+     * <p>
+     * A {@link StreamingResultSet} is mapped into another streaming result set, which maps each row as it is streamed.
+     *
+     * @param mappers  The mappers, in the order they are applied
+     * @param resultSet  The unmapped result set
+     *
+     * @return The mapped result set
+     */
+    public static ResultSet mapRows(List<ResultSetMapper> mappers, ResultSet resultSet) {
+        // The schema each mapper maps rows from
+        List<ResultSetSchema> schemas = new ArrayList<>(mappers.size());
+        ResultSetSchema newSchema = resultSet.getSchema();
+        for (ResultSetMapper mapper : mappers) {
+            schemas.add(newSchema);
+            newSchema = mapper.map(newSchema);
+        }
+
+        // Map streamed rows as they are streamed, rather than reading them all into memory
+        if (resultSet instanceof StreamingResultSet) {
+            return new StreamingResultSet(newSchema, results -> resultSet.forEach(r -> {
+                Result newResult = mapRow(mappers, schemas, r);
+                if (newResult != null) {
+                    results.accept(newResult);
+                }
+            }));
+        }
+
+        // Keep columnar result sets columnar, rather than holding on to every mapped row as a result
+        boolean columnar = resultSet instanceof ColumnarResultSet;
+        List<Result> newResults = columnar ? null : new ArrayList<>(resultSet.size());
+        ColumnarResultSet.Builder columns = columnar ? new ColumnarResultSet.Builder(newSchema) : null;
 
         for (Result r: resultSet) {
-            newResult = map(r, resultSet.getSchema());
+            Result newResult = mapRow(mappers, schemas, r);
             if (newResult != null) {
-                newResults.add(newResult);
+                if (columnar) {
+                    columns.add(newResult);
+                } else {
+                    newResults.add(newResult);
+                }
             }
         }
 
-        ResultSetSchema newSchema = map(resultSet.getSchema());
-        ResultSet newResultSet = new ResultSet(newSchema, newResults);
+        ResultSet newResultSet = columnar ? columns.build() : new ResultSet(newSchema, newResults);
         LOG.trace("Mapped resultSet: {} to new resultSet {}", resultSet, newResultSet);
 
         return newResultSet;
     }
 
+    /**
+     * Map a row through a sequence of mappers, until one of them removes it.
+     *
+     * @param mappers  The mappers, in the order they are applied
+     * @param schemas  The schema each mapper maps rows from
+     * @param result  The unmapped row
+     *
+     * @return The mapped row, or null if the row is removed
+     */
+    private static Result mapRow(List<ResultSetMapper> mappers, List<ResultSetSchema> schemas, Result result) {
+        Result newResult = result;
+        for (int i = 0; i < mappers.size() && newResult != null; i++) {
+            newResult = mappers.get(i).map(newResult, schemas.get(i));
+        }
+        return newResult;
+    }
+
     /**
      * Returns a transformed result row, or null if the row is removed.
      *
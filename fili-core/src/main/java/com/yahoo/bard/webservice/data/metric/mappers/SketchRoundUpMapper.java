@@ -47,11 +47,15 @@ public class SketchRoundUpMapper extends ResultSetMapper implements RenamableRes
                 () -> new IllegalStateException("Unexpected missing column: " + columnName)
         );
 
-        BigDecimal value = result.getMetricValueAsNumber(metricColumn);
-        if (value == null) {
+        Object value = result.getMetricValue(metricColumn);
+        if (value == null || value instanceof Long) {
             return result;
         }
-        BigDecimal newValue = value.setScale(0, RoundingMode.CEILING);
+        if (value instanceof Double) {
+            // Primitive sketch estimates round up to a whole count without going through BigDecimal
+            return result.withMetricValue(metricColumn, (long) Math.ceil((Double) value));
+        }
+        BigDecimal newValue = result.getMetricValueAsNumber(metricColumn).setScale(0, RoundingMode.CEILING);
         return result.withMetricValue(metricColumn, newValue);
     }
 
@@ -60,6 +64,16 @@ public class SketchRoundUpMapper extends ResultSetMapper implements RenamableRes
         return new SketchRoundUpMapper(newColumnName);
     }
 
+    @Override
+    public boolean isRowLocal() {
+        return true;
+    }
+
+    @Override
+    public boolean keepsRows() {
+        return true;
+    }
+
     @Override
     protected ResultSetSchema map(ResultSetSchema schema) {
         return schema;
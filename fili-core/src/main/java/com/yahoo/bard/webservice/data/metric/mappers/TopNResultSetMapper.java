@@ -5,18 +5,32 @@ package com.yahoo.bard.webservice.data.metric.mappers;
 import com.yahoo.bard.webservice.data.Result;
 import com.yahoo.bard.webservice.data.ResultSet;
 import com.yahoo.bard.webservice.data.ResultSetSchema;
+import com.yahoo.bard.webservice.data.metric.MetricColumn;
+import com.yahoo.bard.webservice.druid.model.orderby.OrderByColumn;
+import com.yahoo.bard.webservice.druid.model.orderby.SortDirection;
 
 import org.joda.time.DateTime;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.function.Consumer;
 
 /**
  * Mapper to truncate a result set produced by a groupby druid query to the requested top N rows.
+ * <p>
+ * Given the order of the rows within a time bucket, each bucket is kept in a priority queue bounded to N rows, so only
+ * N rows per bucket are held at a time, and buckets need not be contiguous, as with the results of split queries.
+ * Without an order, the first N rows of each run of rows sharing a timestamp are kept, relying on druid to have sorted
+ * them.
  */
 public class TopNResultSetMapper extends ResultSetMapper {
     private final int topN;
+    private final Comparator<Result> order;
 
     /**
      * Constructor.
@@ -24,15 +38,108 @@ public class TopNResultSetMapper extends ResultSetMapper {
      * @param topN  The N to use when truncating to the top N in a bucket
      */
     public TopNResultSetMapper(int topN) {
+        this(topN, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param topN  The N to use when truncating to the top N in a bucket
+     * @param order  The order of the rows within a bucket, top rows first, or null to keep the first rows of a bucket
+     */
+    public TopNResultSetMapper(int topN, Comparator<Result> order) {
         this.topN = topN;
+        this.order = order;
+    }
+
+    /**
+     * Build the order of rows given by sorts on metric columns.
+     * <p>
+     * Rows are compared by the numeric values of the sorted metrics, as doubles, in the direction of each sort. Rows
+     * without a numeric value for a metric, or whose value is NaN, sort after the rows which have one, whatever the
+     * direction.
+     *
+     * @param sorts  The metric sorts, most significant first
+     *
+     * @return the order of the rows
+     */
+    public static Comparator<Result> metricOrder(Collection<OrderByColumn> sorts) {
+        Comparator<Result> order = (left, right) -> 0;
+        for (OrderByColumn sort : sorts) {
+            MetricColumn column = new MetricColumn(sort.getDimension());
+            boolean ascending = sort.getDirection() == SortDirection.ASC;
+            order = order.thenComparing((left, right) -> compareValues(
+                    getNumericValue(left, column),
+                    getNumericValue(right, column),
+                    ascending
+            ));
+        }
+        return order;
+    }
+
+    /**
+     * Compare two metric values in a sort direction, with missing values last.
+     *
+     * @param left  The value of the left row, NaN if it has none
+     * @param right  The value of the right row, NaN if it has none
+     * @param ascending  Whether lower values rank first
+     *
+     * @return a negative number, zero, or a positive number as the left value ranks before, with, or after the right
+     */
+    private static int compareValues(double left, double right, boolean ascending) {
+        boolean leftMissing = Double.isNaN(left);
+        boolean rightMissing = Double.isNaN(right);
+        if (leftMissing || rightMissing) {
+            return Boolean.compare(leftMissing, rightMissing);
+        }
+        return ascending ? Double.compare(left, right) : Double.compare(right, left);
+    }
+
+    /**
+     * Get the value of a metric as a double, if it is a number.
+     *
+     * @param result  The result row
+     * @param column  The metric column
+     *
+     * @return the value, or NaN if the row has no numeric value for the metric
+     */
+    private static double getNumericValue(Result result, MetricColumn column) {
+        Object value = result.getMetricValue(column);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
     }
 
     @Override
     public ResultSet map(ResultSet resultSet) {
-        // TODO: Use only native stream operations in RxJava: GroupByTime -> Sort -> Take N -> Concat streams by time
-        TopNAccumulator acc = new TopNAccumulator();
-        resultSet.stream().forEachOrdered(acc);
-        return new ResultSet(resultSet.getSchema(), acc.data);
+        if (order == null) {
+            TopNAccumulator acc = new TopNAccumulator();
+            resultSet.forEach(acc);
+            return new ResultSet(resultSet.getSchema(), acc.data);
+        }
+
+        // Keep the top N rows of each bucket in a queue whose head is the lowest row kept, ties going to earlier rows
+        Comparator<Ranked> ranking = Comparator.<Ranked, Result>comparing(ranked -> ranked.result, order)
+                .thenComparingInt(ranked -> ranked.index)
+                .reversed();
+        Map<DateTime, PriorityQueue<Ranked>> buckets = new LinkedHashMap<>();
+        int index = 0;
+        for (Result result : resultSet) {
+            PriorityQueue<Ranked> bucket = buckets.computeIfAbsent(
+                    result.getTimeStamp(),
+                    ignored -> new PriorityQueue<>(Math.min(topN, 1024) + 1, ranking)
+            );
+            bucket.add(new Ranked(result, index++));
+            if (bucket.size() > topN) {
+                bucket.poll();
+            }
+        }
+
+        List<Result> data = new ArrayList<>();
+        for (PriorityQueue<Ranked> bucket : buckets.values()) {
+            List<Ranked> top = new ArrayList<>(bucket);
+            top.sort(ranking.reversed());
+            top.forEach(ranked -> data.add(ranked.result));
+        }
+        return new ResultSet(resultSet.getSchema(), data);
     }
 
     @Override
@@ -45,6 +152,25 @@ public class TopNResultSetMapper extends ResultSetMapper {
         return schema;
     }
 
+    /**
+     * A result row along with its position in the result set, to keep the order of rows which rank the same.
+     */
+    private static class Ranked {
+        private final Result result;
+        private final int index;
+
+        /**
+         * Constructor.
+         *
+         * @param result  The result row
+         * @param index  The position of the row in the result set
+         */
+        Ranked(Result result, int index) {
+            this.result = result;
+            this.index = index;
+        }
+    }
+
     /**
      * Prunes the result set to at most top N rows per time bucket. It's designed to execute in order on a sequential
      * stream (i.e. using forEachOrdered)
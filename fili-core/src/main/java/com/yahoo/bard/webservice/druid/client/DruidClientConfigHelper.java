@@ -11,7 +11,11 @@ import org.slf4j.LoggerFactory;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Helper to fetch druid url and timeout settings.
@@ -33,6 +37,12 @@ public class DruidClientConfigHelper {
     public static final String DRUID_BROKER_URL_KEY =
             SYSTEM_CONFIG.getPackageVariableName("druid_broker");
 
+    /**
+     * The urls for a pool of equivalent brokers to spread queries across.
+     */
+    public static final String DRUID_BROKER_POOL_URLS_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("druid_broker_pool");
+
     /**
      * The url for the coordinator vip which serves low latency queries.
      */
@@ -44,6 +54,12 @@ public class DruidClientConfigHelper {
     private static final String DRUID_REQUEST_TIMEOUT_KEY =
             SYSTEM_CONFIG.getPackageVariableName("druid_request_timeout");
 
+    /**
+     * Whether data queries are sent to the broker as binary Smile.
+     */
+    private static final String DRUID_SMILE_ENABLED_KEY =
+            SYSTEM_CONFIG.getPackageVariableName("druid_smile_enabled");
+
     /**
      * The default timeout for queries.
      */
@@ -70,6 +86,17 @@ public class DruidClientConfigHelper {
         return url;
     }
 
+    /**
+     * Fetches the URLs of the pool of druid brokers.
+     *
+     * @return druid broker URLs, empty if no pool is configured
+     */
+    public static List<String> getDruidBrokerPoolUrls() {
+        List<String> urls = SYSTEM_CONFIG.getListProperty(DRUID_BROKER_POOL_URLS_KEY, Collections.emptyList());
+        urls.forEach(DruidClientConfigHelper::validateUrl);
+        return urls;
+    }
+
     /**
      * Fetches the URL of the druid coordinator.
      *
@@ -89,13 +116,61 @@ public class DruidClientConfigHelper {
         return time;
     }
 
+    /**
+     * Fetches whether druid data queries should be sent and read as binary Smile.
+     *
+     * @return true if Smile is enabled for the broker
+     */
+    public static boolean getDruidSmileEnabled() {
+        return SYSTEM_CONFIG.getBooleanProperty(DRUID_SMILE_ENABLED_KEY, false);
+    }
+
     /**
      * Create a druid service configuration object.
      *
      * @return a druid service configuration object with all configuration parameters set
      */
     public static DruidServiceConfig getServiceConfig() {
-        return new DruidServiceConfig("Broker", getDruidUrl(), getDruidTimeout(), getDruidPriority());
+        return new DruidServiceConfig(
+                "Broker",
+                getDruidUrl(),
+                getDruidTimeout(),
+                getDruidPriority(),
+                getDruidSmileEnabled()
+        );
+    }
+
+    /**
+     * Create a druid service configuration object for each broker in the broker pool.
+     *
+     * @return druid service configuration objects, empty if no pool is configured
+     */
+    public static List<DruidServiceConfig> getBrokerPoolServiceConfigs() {
+        List<String> urls = getDruidBrokerPoolUrls();
+        return IntStream.range(0, urls.size())
+                .mapToObj(i -> new DruidServiceConfig(
+                        "Broker" + i,
+                        urls.get(i),
+                        getDruidTimeout(),
+                        getDruidPriority(),
+                        getDruidSmileEnabled()
+                ))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Create a druid service configuration object describing the broker pool as a whole.
+     *
+     * @return a druid service configuration object with all configuration parameters set
+     */
+    public static DruidServiceConfig getBrokerPoolServiceConfig() {
+        return new DruidServiceConfig(
+                "BrokerPool",
+                String.join(",", getDruidBrokerPoolUrls()),
+                getDruidTimeout(),
+                getDruidPriority(),
+                getDruidSmileEnabled()
+        );
     }
 
     /**
@@ -11,6 +11,7 @@ public class DruidServiceConfig {
     private final String url;
     private final Integer timeout;
     private final Integer priority;
+    private final boolean smileEnabled;
 
     /**
      * Build the Druid Service Config.
@@ -21,10 +22,24 @@ public class DruidServiceConfig {
      * @param priority  The priority to be sent to the druid router
      */
     public DruidServiceConfig(String name, String url, Integer timeout, Integer priority) {
+        this(name, url, timeout, priority, false);
+    }
+
+    /**
+     * Build the Druid Service Config.
+     *
+     * @param name  The name of the webservice
+     * @param url  The URL for the webservice
+     * @param timeout  The timeout in milliseconds
+     * @param priority  The priority to be sent to the druid router
+     * @param smileEnabled  Whether queries are sent and responses are read as binary Smile rather than JSON
+     */
+    public DruidServiceConfig(String name, String url, Integer timeout, Integer priority, boolean smileEnabled) {
         this.name = name;
         this.url = url;
         this.timeout = timeout;
         this.priority = priority;
+        this.smileEnabled = smileEnabled;
     }
 
     /**
@@ -54,12 +69,22 @@ public class DruidServiceConfig {
         return priority;
     }
 
+    /**
+     * Whether data queries to this service are encoded, and their responses decoded, as binary Smile.
+     *
+     * @return true if Smile is used in place of JSON
+     */
+    public boolean isSmileEnabled() {
+        return smileEnabled;
+    }
+
     @Override
     public String toString() {
         return "Druid Service config for " + name +
                 ": url: " + url +
                 ", timeout: " + timeout +
-                ", priority: " + priority + ".";
+                ", priority: " + priority +
+                ", smile: " + smileEnabled + ".";
     }
 
     /**
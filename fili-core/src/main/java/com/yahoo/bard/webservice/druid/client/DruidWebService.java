@@ -7,6 +7,7 @@ import com.yahoo.bard.webservice.web.handlers.RequestContext;
 
 import org.asynchttpclient.Response;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
 /**
@@ -50,6 +51,19 @@ public interface DruidWebService {
             String resourcePath
     );
 
+    /**
+     * Asks druid to cancel a query it may still be running.
+     * <p>
+     * Web services which are unable to cancel queries ignore the request.
+     *
+     * @param queryId  The druid query id of the query to cancel
+     *
+     * @return a future response to the cancellation request.
+     */
+    default Future<Response> cancelDruidQuery(String queryId) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Returns the service configuration object for this web service.
      *
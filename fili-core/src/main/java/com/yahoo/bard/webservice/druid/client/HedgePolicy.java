@@ -0,0 +1,32 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client;
+
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+
+import com.codahale.metrics.Snapshot;
+
+import java.util.OptionalLong;
+
+/**
+ * Decides whether a druid query should be hedged, that is duplicated to another broker if its broker has not answered
+ * in time, and how long to wait before sending the duplicate.
+ */
+@FunctionalInterface
+public interface HedgePolicy {
+
+    /**
+     * A policy which never hedges.
+     */
+    HedgePolicy NEVER = (query, latency) -> OptionalLong.empty();
+
+    /**
+     * Get the delay after which a duplicate of the query should be sent.
+     *
+     * @param query  The query being sent
+     * @param latency  The recent response latencies of the druid service, in milliseconds
+     *
+     * @return the delay in milliseconds, or empty if the query should not be hedged
+     */
+    OptionalLong getHedgeDelay(DruidQuery<?> query, Snapshot latency);
+}
@@ -0,0 +1,41 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Callback from the async HTTP client on success which consumes the response as a stream of JSON tokens.
+ * <p>
+ * Web services which are able to hand over the raw response body will invoke {@link #invoke(JsonParser)} instead of
+ * building a {@link JsonNode} tree for the whole response.
+ */
+public interface StreamingSuccessCallback extends SuccessCallback {
+
+    /**
+     * Codec used to traverse already built trees when no streaming source is available.
+     */
+    ObjectMapper TREE_CODEC = new ObjectMapper();
+
+    /**
+     * Invoke the success callback code on a stream of JSON tokens.
+     * <p>
+     * The callback takes ownership of the parser, and is responsible for closing it. It may keep reading the parser
+     * after returning, for instance while the response to the original request is written.
+     *
+     * @param parser  Parser positioned before the first token of the response body
+     */
+    void invoke(JsonParser parser);
+
+    /**
+     * Invoke the success callback code on a tree which has already been built by traversing it as a token stream.
+     *
+     * @param rootNode  Root-level JsonNode from the response
+     */
+    @Override
+    default void invoke(JsonNode rootNode) {
+        invoke(rootNode.traverse(TREE_CODEC));
+    }
+}
@@ -0,0 +1,106 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+/**
+ * A limit on concurrent requests which adapts to observed latency by additive increase and multiplicative decrease.
+ * <p>
+ * The limit grows by one for each limit's worth of requests answered in time while the limit is being used, and
+ * shrinks by the backoff ratio whenever a request is dropped or answered much slower than the long term latency.
+ * <p>
+ * This class is thread safe.
+ */
+public class AimdConcurrencyLimit {
+
+    /**
+     * Weight of each new latency in the long term latency average.
+     */
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private double longTermLatency = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param initialLimit  The limit before any request has been observed
+     * @param minLimit  The lowest the limit can shrink to
+     * @param maxLimit  The highest the limit can grow to
+     * @param backoffRatio  The factor, between 0 and 1, applied to the limit when it shrinks
+     * @param latencyTolerance  How many times the long term latency a response may take before the limit shrinks
+     */
+    public AimdConcurrencyLimit(
+            int initialLimit,
+            int minLimit,
+            int maxLimit,
+            double backoffRatio,
+            double latencyTolerance
+    ) {
+        if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio > 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid concurrency limit settings: min %d, max %d, backoff %f",
+                    minLimit,
+                    maxLimit,
+                    backoffRatio
+            ));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Get the current number of requests which may be outstanding at once.
+     *
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Adapt the limit to a request which was answered.
+     *
+     * @param latency  The time the request took, in milliseconds
+     * @param outstanding  The number of requests which were outstanding when it was sent, including itself
+     */
+    public synchronized void onSuccess(long latency, int outstanding) {
+        longTermLatency = longTermLatency == 0
+                ? latency
+                : longTermLatency * (1 - LATENCY_SMOOTHING) + latency * LATENCY_SMOOTHING;
+
+        if (latency > longTermLatency * latencyTolerance) {
+            decrease();
+        } else if (outstanding * 2 >= limit) {
+            // Only grow while the limit is actually in use, so an idle service does not build up a huge limit
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Adapt the limit to a request which failed or was rejected by an overloaded service.
+     */
+    public synchronized void onDropped() {
+        decrease();
+    }
+
+    /**
+     * Shrink the limit by the backoff ratio.
+     */
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AIMD limit %.2f (%d-%d), long term latency %.1fms", limit, minLimit, maxLimit,
+                longTermLatency);
+    }
+}
@@ -14,6 +14,7 @@ import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
 import com.yahoo.bard.webservice.druid.client.DruidWebService;
 import com.yahoo.bard.webservice.druid.client.FailureCallback;
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback;
 import com.yahoo.bard.webservice.druid.client.SuccessCallback;
 import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
 import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
@@ -24,12 +25,16 @@ import com.yahoo.bard.webservice.web.handlers.RequestContext;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.net.UrlEscapers;
 
 import org.asynchttpclient.AsyncCompletionHandler;
 import org.asynchttpclient.AsyncHttpClient;
@@ -41,6 +46,7 @@ import org.asynchttpclient.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
@@ -65,6 +71,7 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
     private final ObjectWriter writer;
     private final Meter httpErrorMeter;
     private final Meter exceptionMeter;
+    private final Meter cancelMeter;
 
     public static final String DRUID_TIMER = "DruidProcessing";
     public static final String DRUID_QUERY_TIMER = DRUID_TIMER + "_Q_";
@@ -77,18 +84,41 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
             "org.asynchttpclient.AsyncHttpClientConfig.enabledCipherSuites"
     );
 
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+    private static final MappingJsonFactory JSON_FACTORY = new MappingJsonFactory();
+    private static final JsonFactory SMILE_FACTORY = new ObjectMapper(new SmileFactory()).getFactory();
+
     /**
      * The default JSON builder puts only response body in the JSON response.
+     * <p>
+     * Responses with a Smile content type are decoded as Smile, everything else is read as JSON text.
      */
     public static final Function<Response, JsonNode> DEFAULT_JSON_NODE_BUILDER_STRATEGY =
             response -> {
-        try (JsonParser parser = new MappingJsonFactory().createParser(response.getResponseBodyAsStream())) {
+        try (JsonParser parser = createResponseParser(response)) {
             return parser.readValueAsTree();
         } catch (IOException ioe) {
             throw new IllegalStateException(ioe);
         }
     };
 
+    /**
+     * The default JSON parser builder opens a token stream over the response body.
+     * <p>
+     * Used in place of {@link #DEFAULT_JSON_NODE_BUILDER_STRATEGY} for callbacks which can consume a stream of tokens,
+     * so that no tree is built for the response.
+     */
+    public static final Function<Response, JsonParser> DEFAULT_JSON_PARSER_BUILDER_STRATEGY =
+            response -> {
+        try {
+            return createResponseParser(response);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    };
+
     private final Supplier<Map<String, String>> headersToAppend;
     private final DruidServiceConfig serviceConfig;
 
@@ -229,10 +259,38 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
         this.writer = mapper.writer();
         this.httpErrorMeter = REGISTRY.meter("druid.errors.http");
         this.exceptionMeter = REGISTRY.meter("druid.errors.exceptions");
+        this.cancelMeter = REGISTRY.meter("druid.queries.cancelled");
 
         this.jsonNodeBuilderStrategy = jsonNodeBuilderStrategy;
     }
 
+    /**
+     * Open a parser over the body of a response, decoding it as Smile or JSON depending on its content type.
+     *
+     * @param response  The response to read
+     *
+     * @return a parser which is able to build trees from the response body
+     *
+     * @throws IOException if the parser cannot be created
+     */
+    public static JsonParser createResponseParser(Response response) throws IOException {
+        return isSmile(response)
+                ? SMILE_FACTORY.createParser(response.getResponseBodyAsStream())
+                : JSON_FACTORY.createParser(response.getResponseBodyAsStream());
+    }
+
+    /**
+     * Check whether a response body is encoded as Smile.
+     *
+     * @param response  The response to check
+     *
+     * @return true if the response has a Smile content type
+     */
+    public static boolean isSmile(Response response) {
+        String contentType = response.getContentType();
+        return contentType != null && contentType.startsWith(SMILE_CONTENT_TYPE);
+    }
+
     /**
      * Initialize the client config.
      *
@@ -290,20 +348,7 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
                 new AsyncCompletionHandler<Response>() {
                     @Override
                     public Response onCompleted(Response response) {
-                        String druidQueryId = response.getHeader("X-Druid-Query-Id");
-                        Status status = Status.fromStatusCode(response.getStatusCode());
-                        logRequest(logCtx, timerName, outstanding, druidQueryId, status);
-
-                        if (hasError(status)) {
-                            markError(status, response, druidQueryId, error);
-                        } else {
-                            try {
-                                success.invoke(jsonNodeBuilderStrategy.apply(response));
-                            } catch (RuntimeException e) {
-                                failure.invoke(e);
-                            }
-
-                        }
+                        handleResponse(response, success, error, failure, logCtx, timerName, outstanding);
 
                         // If we don't return non null, the future will not mark as done
                         return response;
@@ -311,14 +356,7 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
 
                     @Override
                     public void onThrowable(Throwable t) {
-                        RequestLog.restore(logCtx);
-                        RequestLog.stopTiming(timerName);
-                        if (outstanding.decrementAndGet() == 0) {
-                            RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
-                        }
-                        exceptionMeter.mark();
-                        LOG.error("druid {} request failed:", serviceConfig.getNameAndUrl(), t);
-                        failure.invoke(t);
+                        handleThrowable(t, failure, logCtx, timerName, outstanding);
                     }
                 });
         } catch (RuntimeException t) {
@@ -333,6 +371,86 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
         }
     }
 
+    /**
+     * Hand a completed response to the callbacks, after logging the request.
+     *
+     * @param response  The druid response
+     * @param success  callback for handling successful requests.
+     * @param error  callback for handling http errors.
+     * @param failure  callback for handling exception failures.
+     * @param logCtx  The snapshot of the request log of the sending thread
+     * @param timerName  The name that distinguishes this request as part of a druid query or segment metadata request
+     * @param outstanding  The counter that keeps track of the outstanding (in flight) requests for the top level query
+     */
+    private void handleResponse(
+            Response response,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            RequestLog logCtx,
+            String timerName,
+            AtomicLong outstanding
+    ) {
+        String druidQueryId = response.getHeader("X-Druid-Query-Id");
+        Status status = Status.fromStatusCode(response.getStatusCode());
+        logRequest(logCtx, timerName, outstanding, druidQueryId, status);
+
+        if (hasError(status)) {
+            markError(status, response, druidQueryId, error);
+        } else {
+            try {
+                invokeSuccess(success, response);
+            } catch (RuntimeException e) {
+                failure.invoke(e);
+            }
+        }
+    }
+
+    /**
+     * Log a request which failed without a response and hand the failure to the failure callback.
+     *
+     * @param t  The cause of the failure
+     * @param failure  callback for handling exception failures.
+     * @param logCtx  The snapshot of the request log of the sending thread
+     * @param timerName  The name that distinguishes this request as part of a druid query or segment metadata request
+     * @param outstanding  The counter that keeps track of the outstanding (in flight) requests for the top level query
+     */
+    private void handleThrowable(
+            Throwable t,
+            FailureCallback failure,
+            RequestLog logCtx,
+            String timerName,
+            AtomicLong outstanding
+    ) {
+        RequestLog.restore(logCtx);
+        RequestLog.stopTiming(timerName);
+        if (outstanding.decrementAndGet() == 0) {
+            RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+        }
+        exceptionMeter.mark();
+        LOG.error("druid {} request failed:", serviceConfig.getNameAndUrl(), t);
+        failure.invoke(t);
+    }
+
+    /**
+     * Hand a successful response to the success callback.
+     * <p>
+     * Streaming callbacks are fed the response body as a stream of tokens when the default JSON builder is in use.
+     * Custom JSON builders may add content beyond the response body, so their trees are always built. Streaming
+     * callbacks own the parser they are given, and close it once they are done with it.
+     *
+     * @param success  callback for handling successful requests
+     * @param response  The successful druid response
+     */
+    protected void invokeSuccess(SuccessCallback success, Response response) {
+        if (success instanceof StreamingSuccessCallback
+                && jsonNodeBuilderStrategy == DEFAULT_JSON_NODE_BUILDER_STRATEGY) {
+            ((StreamingSuccessCallback) success).invoke(DEFAULT_JSON_PARSER_BUILDER_STRATEGY.apply(response));
+        } else {
+            success.invoke(jsonNodeBuilderStrategy.apply(response));
+        }
+    }
+
     @Override
     public Future<Response> getJsonObject(
             SuccessCallback success,
@@ -364,11 +482,16 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
             DruidQuery<?> druidQuery
     ) {
         long seqNum = druidQuery.getContext().getSequenceNumber();
-        String entityBody;
+        String entityBody = null;
+        byte[] smileBody = null;
         RequestLog.startTiming("DruidQuerySerializationSeq" + seqNum);
         try {
-            entityBody = writer.writeValueAsString(druidQuery);
-        } catch (JsonProcessingException e) {
+            if (serviceConfig.isSmileEnabled()) {
+                smileBody = serializeSmile(druidQuery);
+            } else {
+                entityBody = writer.writeValueAsString(druidQuery);
+            }
+        } catch (IOException e) {
             throw new IllegalStateException(e);
         } finally {
             RequestLog.stopTiming("DruidQuerySerializationSeq" + seqNum);
@@ -390,13 +513,27 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
             timerName = DRUID_WEIGHTED_QUERY_TIMER + String.format(format, seqNum);
         }
 
-        BoundRequestBuilder requestBuilder = webClient.preparePost(serviceConfig.getUrl())
-                .setBody(entityBody)
-                .addHeader("Content-Type", "application/json; charset=UTF-8");
+        BoundRequestBuilder requestBuilder = webClient.preparePost(serviceConfig.getUrl());
+        if (smileBody != null) {
+            requestBuilder.setBody(smileBody)
+                    .addHeader("Content-Type", SMILE_CONTENT_TYPE)
+                    .addHeader("Accept", SMILE_CONTENT_TYPE);
+        } else {
+            requestBuilder.setBody(entityBody)
+                    .addHeader("Content-Type", JSON_CONTENT_TYPE + "; charset=UTF-8");
+        }
 
         headersToAppend.get().forEach(requestBuilder::addHeader);
 
-        LOG.debug("druid json request: {}", entityBody);
+        if (entityBody != null) {
+            LOG.debug("druid json request: {}", entityBody);
+        } else if (LOG.isDebugEnabled()) {
+            try {
+                LOG.debug("druid smile request: {}", writer.writeValueAsString(druidQuery));
+            } catch (JsonProcessingException e) {
+                LOG.debug("druid smile request could not be rendered as json", e);
+            }
+        }
         return sendRequest(
                 success,
                 error,
@@ -407,6 +544,70 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
         );
     }
 
+    /**
+     * Sends a DELETE for the query id to the druid query endpoint, which makes druid stop running the query.
+     * <p>
+     * The outcome is only logged, since there is nobody left to report it to.
+     *
+     * @param queryId  The druid query id of the query to cancel
+     *
+     * @return a future response to the cancellation request
+     */
+    @Override
+    public Future<Response> cancelDruidQuery(String queryId) {
+        String baseUrl = serviceConfig.getUrl().replaceAll("/+$", "");
+        String url = baseUrl + "/" + UrlEscapers.urlPathSegmentEscaper().escape(queryId);
+        cancelMeter.mark();
+        LOG.debug("Cancelling druid {} query {}", serviceConfig.getNameAndUrl(), queryId);
+        try {
+            BoundRequestBuilder requestBuilder = webClient.prepareDelete(url);
+            headersToAppend.get().forEach(requestBuilder::addHeader);
+            return requestBuilder.execute(
+                    new AsyncCompletionHandler<Response>() {
+                        @Override
+                        public Response onCompleted(Response response) {
+                            LOG.debug(
+                                    "druid {} cancellation of query {} returned {}",
+                                    serviceConfig.getNameAndUrl(),
+                                    queryId,
+                                    response.getStatusCode()
+                            );
+                            return response;
+                        }
+
+                        @Override
+                        public void onThrowable(Throwable t) {
+                            LOG.warn(
+                                    "druid {} cancellation of query {} failed",
+                                    serviceConfig.getNameAndUrl(),
+                                    queryId,
+                                    t
+                            );
+                        }
+                    });
+        } catch (RuntimeException e) {
+            LOG.warn("druid {} cancellation of query {} failed", serviceConfig.getNameAndUrl(), queryId, e);
+            return CompletedFuture.throwing(e);
+        }
+    }
+
+    /**
+     * Serialize a query as Smile, using the configuration of the shared object writer.
+     *
+     * @param druidQuery  The query to serialize
+     *
+     * @return the Smile encoded query
+     *
+     * @throws IOException if the query cannot be serialized
+     */
+    protected byte[] serializeSmile(DruidQuery<?> druidQuery) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = SMILE_FACTORY.createGenerator(out)) {
+            writer.writeValue(generator, druidQuery);
+        }
+        return out.toByteArray();
+    }
+
     @Override
     public Integer getTimeout() {
         return serviceConfig.getTimeout();
@@ -494,19 +695,39 @@ public class AsyncDruidWebServiceImpl implements DruidWebService {
      */
     private void markError(Status status, Response response, String druidQueryId, HttpErrorCallback error) {
         getHttpErrorMeter().mark();
+        String responseBody = getResponseBodyAsText(response);
         LOG.debug(
                 "druid {} error: {} {} {} and druid query id: {}",
                 getServiceConfig().getNameAndUrl(),
                 status.getStatusCode(),
                 status.getReasonPhrase(),
-                response.getResponseBody(),
+                responseBody,
                 druidQueryId
         );
 
         error.invoke(
                 status.getStatusCode(),
                 status.getReasonPhrase(),
-                response.getResponseBody()
+                responseBody
         );
     }
+
+    /**
+     * Read a response body as text, rendering Smile encoded bodies as JSON.
+     *
+     * @param response  The druid response
+     *
+     * @return the body of the response as text
+     */
+    protected String getResponseBodyAsText(Response response) {
+        if (!isSmile(response)) {
+            return response.getResponseBody();
+        }
+        try {
+            return writer.writeValueAsString(DEFAULT_JSON_NODE_BUILDER_STRATEGY.apply(response));
+        } catch (JsonProcessingException | RuntimeException e) {
+            LOG.debug("Unable to decode smile response body from druid {}", getServiceConfig().getNameAndUrl(), e);
+            return response.getResponseBody();
+        }
+    }
 }
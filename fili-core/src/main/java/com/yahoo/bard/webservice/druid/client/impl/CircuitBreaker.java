@@ -0,0 +1,124 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker which stops requests to a service after consecutive failures.
+ * <p>
+ * After the configured number of consecutive failures the breaker opens and refuses every request for the open
+ * period. Then a single trial request is let through: if it succeeds the breaker closes, otherwise it opens again.
+ * <p>
+ * This class is thread safe.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of the breaker.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openPeriod;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold  The number of consecutive failures which opens the breaker
+     * @param openPeriod  The time in milliseconds the breaker stays open before a trial request is let through
+     * @param clock  Source of the current time in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openPeriod, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openPeriod = openPeriod;
+        this.clock = clock;
+    }
+
+    /**
+     * What the breaker allows a request to do.
+     */
+    public enum Permit {
+        /** The request may not be sent. */
+        DENIED,
+        /** The request may be sent while the breaker is closed. */
+        REQUEST,
+        /**
+         * The request is the single trial request of a half open breaker. Its outcome must be reported, even if it
+         * is never sent, or the breaker stays half open and refuses every later request.
+         */
+        TRIAL
+    }
+
+    /**
+     * Check whether a request may be sent, claiming the trial request if the open period has passed.
+     *
+     * @return true if the request may be sent
+     */
+    public boolean allowRequest() {
+        return acquire() != Permit.DENIED;
+    }
+
+    /**
+     * Check whether a request may be sent, and whether it is the trial request of a half open breaker.
+     *
+     * @return the permit of the request
+     */
+    public synchronized Permit acquire() {
+        switch (state) {
+            case CLOSED:
+                return Permit.REQUEST;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openPeriod) {
+                    return Permit.DENIED;
+                }
+                state = State.HALF_OPEN;
+                return Permit.TRIAL;
+            default:
+                // A trial request is already in flight
+                return Permit.DENIED;
+        }
+    }
+
+    /**
+     * Record a request which succeeded.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Record a request which failed.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Get the state of the breaker.
+     *
+     * @return the current state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Circuit breaker " + state + " after " + consecutiveFailures + " consecutive failures";
+    }
+}
@@ -0,0 +1,583 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import static com.yahoo.bard.webservice.druid.client.impl.AsyncDruidWebServiceImpl.DRUID_QUERY_TIMER;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.REQUEST_WORKFLOW_TIMER;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback;
+import com.yahoo.bard.webservice.druid.client.SuccessCallback;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.util.Utils;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * A druid web service which lets concurrent identical data queries share a single druid request.
+ * <p>
+ * Queries are identical when their canonical JSON is equal, ignoring only the query id of their context. The rest of
+ * the context is kept, since settings such as the uncovered intervals limit change the shape of the response. While a
+ * query is in flight, identical queries join it instead of being sent. When druid answers, the requests which joined
+ * are answered on a separate executor, each under its own request log, while the request which sent the query is
+ * answered on the thread which received the response.
+ * <p>
+ * A streaming response reaches the sending request as a stream when nobody joined it. Otherwise the tokens of the
+ * response are buffered once, and every request reads them with a parser of its own, or as a tree if its callback does
+ * not stream. A response tree built by the web service is shared, so response processors must treat it as read only.
+ */
+public class CoalescingDruidWebService implements DruidWebService {
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingDruidWebService.class);
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * Whether identical concurrent data queries share a druid request.
+     */
+    public static final boolean COALESCING_ENABLED = SYSTEM_CONFIG.getBooleanProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_coalesce_queries"),
+            false
+    );
+
+    /**
+     * The number of threads answering the requests which joined a query in flight.
+     */
+    public static final int FOLLOWER_THREADS = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_coalesce_follower_threads"),
+            Runtime.getRuntime().availableProcessors()
+    );
+
+    public static final String DRUID_COALESCED_QUERY_TIMER = DRUID_QUERY_TIMER + "Coalesced_";
+
+    /**
+     * Answers the requests which joined a query in flight, so that they are processed alongside the sending request.
+     */
+    private static final Executor FOLLOWER_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(FOLLOWER_THREADS, 1),
+            runnable -> {
+                Thread thread = new Thread(runnable, "druid-coalesced-follower");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    private final DruidWebService webService;
+    private final ObjectMapper mapper;
+    private final Executor followerExecutor;
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Flight> flightsByQueryId = new ConcurrentHashMap<>();
+    private final Meter coalescedMeter;
+
+    /**
+     * Constructor.
+     *
+     * @param webService  The web service which sends the queries to druid
+     * @param mapper  The mapper used to build the canonical form of the queries
+     */
+    public CoalescingDruidWebService(DruidWebService webService, ObjectMapper mapper) {
+        this(webService, mapper, FOLLOWER_EXECUTOR);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param webService  The web service which sends the queries to druid
+     * @param mapper  The mapper used to build the canonical form of the queries and to read buffered responses
+     * @param followerExecutor  The executor answering the requests which joined a query in flight
+     */
+    public CoalescingDruidWebService(DruidWebService webService, ObjectMapper mapper, Executor followerExecutor) {
+        this.webService = webService;
+        this.mapper = mapper;
+        this.followerExecutor = followerExecutor;
+        this.coalescedMeter = REGISTRY.meter("druid.queries.coalesced");
+    }
+
+    @Override
+    public Future<Response> postDruidQuery(
+            RequestContext context,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery
+    ) {
+        if (!(druidQuery instanceof DruidAggregationQuery) || druidQuery instanceof WeightEvaluationQuery) {
+            return webService.postDruidQuery(context, success, error, failure, druidQuery);
+        }
+
+        String key;
+        try {
+            key = getKey(druidQuery);
+        } catch (JsonProcessingException e) {
+            LOG.warn("Query key cannot be built, sending the query without coalescing: ", e);
+            return webService.postDruidQuery(context, success, error, failure, druidQuery);
+        }
+
+        Flight flight = new Flight(key, druidQuery.getContext().getQueryId());
+        for (Flight leader = inFlight.putIfAbsent(key, flight); leader != null;
+                leader = inFlight.putIfAbsent(key, flight)) {
+            if (leader.join(context, success, error, failure, druidQuery)) {
+                coalescedMeter.mark();
+                LOG.debug("Druid query joined an identical query in flight");
+                return leader.result;
+            }
+            // The flight settled while joining it and has left the map, so try to take its place
+        }
+
+        flightsByQueryId.put(flight.queryId, flight);
+        Future<Response> future;
+        try {
+            future = webService.postDruidQuery(
+                    context,
+                    flight.wrapSuccess(success, failure),
+                    flight.wrapError(error),
+                    flight.wrapFailure(failure),
+                    druidQuery
+            );
+        } catch (RuntimeException e) {
+            // The joined requests would otherwise wait forever for a query which was never sent
+            flight.answerAll(flight.settle(), f -> f.failure.invoke(e), () -> { });
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        flight.forward(future);
+        return future;
+    }
+
+    @Override
+    public Future<Response> getJsonObject(
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            String resourcePath
+    ) {
+        return webService.getJsonObject(success, error, failure, resourcePath);
+    }
+
+    /**
+     * Cancels a query unless other requests are waiting for its response.
+     * <p>
+     * Queries which joined another query in flight were never sent, so there is nothing to cancel for them.
+     *
+     * @param queryId  The druid query id of the query to cancel
+     *
+     * @return a future response to the cancellation request
+     */
+    @Override
+    public Future<Response> cancelDruidQuery(String queryId) {
+        Flight flight = flightsByQueryId.get(queryId);
+        if (flight != null && !flight.abandon(queryId)) {
+            LOG.debug("Not cancelling druid query {} which other requests are waiting for", queryId);
+            return CompletableFuture.completedFuture(null);
+        }
+        return webService.cancelDruidQuery(queryId);
+    }
+
+    @Override
+    public DruidServiceConfig getServiceConfig() {
+        return webService.getServiceConfig();
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return webService.getTimeout();
+    }
+
+    /**
+     * Build the key under which identical queries are coalesced.
+     *
+     * @param druidQuery  The query being sent
+     *
+     * @return the canonical JSON of the query, without the query ids of its contexts
+     *
+     * @throws JsonProcessingException if the query cannot be serialized
+     */
+    protected String getKey(DruidQuery<?> druidQuery) throws JsonProcessingException {
+        JsonNode root = mapper.valueToTree(druidQuery);
+        Utils.canonicalize(root, mapper, true);
+        // The query id names a request rather than its result, unlike the rest of the context
+        root.findValues("context").stream()
+                .filter(JsonNode::isObject)
+                .forEach(context -> ((ObjectNode) context).remove("queryId"));
+        return mapper.writer().writeValueAsString(root);
+    }
+
+    /**
+     * Get the number of distinct queries currently in flight.
+     *
+     * @return the number of queries in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * A druid request shared by identical queries, and the requests which joined it.
+     */
+    private class Flight {
+        private final String key;
+        private final String queryId;
+        private final List<Follower> followers = new ArrayList<>();
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private boolean settled = false;
+
+        /**
+         * Constructor.
+         *
+         * @param key  The key of the coalesced query
+         * @param queryId  The druid query id of the query which is sent
+         */
+        Flight(String key, String queryId) {
+            this.key = key;
+            this.queryId = queryId;
+        }
+
+        /**
+         * Add a request to the flight, taking over the bookkeeping the web service does for a sent query.
+         *
+         * @param context  The context of the joining request
+         * @param success  callback for handling successful requests.
+         * @param error  callback for handling http errors.
+         * @param failure  callback for handling exception failures.
+         * @param druidQuery  The query of the joining request
+         *
+         * @return false if the flight had already settled and the request could not join
+         */
+        synchronized boolean join(
+                RequestContext context,
+                SuccessCallback success,
+                HttpErrorCallback error,
+                FailureCallback failure,
+                DruidQuery<?> druidQuery
+        ) {
+            if (settled) {
+                return false;
+            }
+            if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+                RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+            }
+            String timerName = DRUID_COALESCED_QUERY_TIMER + druidQuery.getContext().getSequenceNumber();
+            RequestLog.startTiming(timerName);
+            String followerQueryId = druidQuery.getContext().getQueryId();
+            flightsByQueryId.put(followerQueryId, this);
+            RequestLog logCtx = RequestLog.dump();
+            followers.add(new Follower(context, success, error, failure, timerName, followerQueryId, logCtx));
+            return true;
+        }
+
+        /**
+         * Give up on the flight because the request which sent it has been abandoned, unless others are waiting on it.
+         *
+         * @param abandonedQueryId  The druid query id of the abandoned request
+         *
+         * @return true if the druid query should be cancelled
+         */
+        synchronized boolean abandon(String abandonedQueryId) {
+            if (!queryId.equals(abandonedQueryId) || !followers.isEmpty()) {
+                return false;
+            }
+            // Nobody else is waiting, so stop identical queries from joining a query which is about to be cancelled
+            settled = true;
+            inFlight.remove(key, this);
+            return true;
+        }
+
+        /**
+         * Close the flight to new requests and hand back the requests which joined it.
+         *
+         * @return the requests which joined the flight
+         */
+        synchronized List<Follower> settle() {
+            settled = true;
+            inFlight.remove(key, this);
+            flightsByQueryId.remove(queryId, this);
+            followers.forEach(follower -> flightsByQueryId.remove(follower.queryId, this));
+            return new ArrayList<>(followers);
+        }
+
+        /**
+         * Complete the future returned to the joined requests once the druid request completes.
+         *
+         * @param future  The future of the druid request
+         */
+        void forward(Future<Response> future) {
+            CompletableFuture<Response> completable = future instanceof ListenableFuture
+                    ? ((ListenableFuture<Response>) future).toCompletableFuture()
+                    : future instanceof CompletableFuture ? (CompletableFuture<Response>) future : null;
+            if (completable == null) {
+                // Futures which cannot be observed are left to the sending request
+                result.complete(null);
+                return;
+            }
+            completable.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(response);
+                }
+            });
+        }
+
+        /**
+         * Wrap the success callback of the sending request so that the response also reaches the joined requests.
+         * <p>
+         * A streaming callback stays streaming, so the web service hands over the response body rather than a tree.
+         *
+         * @param success  The success callback of the sending request
+         * @param failure  The failure callback of the sending request
+         *
+         * @return the callback given to the web service
+         */
+        SuccessCallback wrapSuccess(SuccessCallback success, FailureCallback failure) {
+            if (!(success instanceof StreamingSuccessCallback)) {
+                return rootNode -> answerTree(rootNode, success, failure);
+            }
+            StreamingSuccessCallback streaming = (StreamingSuccessCallback) success;
+            return new StreamingSuccessCallback() {
+                @Override
+                public void invoke(JsonParser parser) {
+                    List<Follower> joined = settle();
+                    if (joined.isEmpty()) {
+                        invokeSafely(failure, () -> streaming.invoke(parser));
+                        return;
+                    }
+                    TokenBuffer body;
+                    try {
+                        body = buffer(parser);
+                    } catch (IOException e) {
+                        answerAll(joined, f -> f.failure.invoke(e), () -> failure.invoke(e));
+                        return;
+                    }
+                    answerAll(
+                            joined,
+                            f -> invokeSafely(f.failure, () -> invokeBuffered(f.success, body)),
+                            () -> invokeSafely(failure, () -> streaming.invoke(body.asParser(mapper)))
+                    );
+                }
+
+                @Override
+                public void invoke(JsonNode rootNode) {
+                    answerTree(rootNode, streaming, failure);
+                }
+            };
+        }
+
+        /**
+         * Hand a response tree to the sending request and to the joined requests.
+         *
+         * @param rootNode  The response tree, shared by every request
+         * @param success  The success callback of the sending request
+         * @param failure  The failure callback of the sending request
+         */
+        private void answerTree(JsonNode rootNode, SuccessCallback success, FailureCallback failure) {
+            answerAll(
+                    settle(),
+                    f -> invokeSafely(f.failure, () -> f.success.invoke(rootNode)),
+                    () -> invokeSafely(failure, () -> success.invoke(rootNode))
+            );
+        }
+
+        /**
+         * Read the tokens of a response once, so that every request can read them with a parser of its own.
+         *
+         * @param parser  The parser over the response body, which is closed once read
+         *
+         * @return the buffered tokens of the response
+         *
+         * @throws IOException if the response body cannot be read
+         */
+        private TokenBuffer buffer(JsonParser parser) throws IOException {
+            try (JsonParser source = parser) {
+                TokenBuffer body = new TokenBuffer(source);
+                if (source.nextToken() != null) {
+                    body.copyCurrentStructure(source);
+                }
+                return body;
+            }
+        }
+
+        /**
+         * Hand a buffered response to a success callback, as a stream if it can consume one and as a tree otherwise.
+         *
+         * @param success  The success callback
+         * @param body  The buffered tokens of the response
+         */
+        private void invokeBuffered(SuccessCallback success, TokenBuffer body) {
+            if (success instanceof StreamingSuccessCallback) {
+                ((StreamingSuccessCallback) success).invoke(body.asParser(mapper));
+                return;
+            }
+            try (JsonParser parser = body.asParser(mapper)) {
+                success.invoke(parser.readValueAsTree());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Wrap the error callback of the sending request so that the error also reaches the joined requests.
+         *
+         * @param error  The error callback of the sending request
+         *
+         * @return the callback given to the web service
+         */
+        HttpErrorCallback wrapError(HttpErrorCallback error) {
+            return (statusCode, reasonPhrase, responseBody) -> answerAll(
+                    settle(),
+                    f -> invokeSafely(f.failure, () -> f.error.invoke(statusCode, reasonPhrase, responseBody)),
+                    () -> error.invoke(statusCode, reasonPhrase, responseBody)
+            );
+        }
+
+        /**
+         * Wrap the failure callback of the sending request so that the failure also reaches the joined requests.
+         *
+         * @param failure  The failure callback of the sending request
+         *
+         * @return the callback given to the web service
+         */
+        FailureCallback wrapFailure(FailureCallback failure) {
+            return throwable -> answerAll(settle(), f -> f.failure.invoke(throwable), () -> failure.invoke(throwable));
+        }
+
+        /**
+         * Answer the joined requests on the follower executor, then the sending request on the current thread.
+         * <p>
+         * The joined requests are handed over first so that they are processed alongside the sending request. The
+         * request log of the sending request is kept for its own callback.
+         *
+         * @param joined  The requests which joined the flight
+         * @param outcome  Invokes the callback of a joined request matching the outcome of the shared query
+         * @param leader  Invokes the callback of the sending request
+         */
+        void answerAll(List<Follower> joined, Consumer<Follower> outcome, Runnable leader) {
+            RequestLog leaderLog = RequestLog.dump();
+            for (Follower follower : joined) {
+                Runnable answer = () -> {
+                    try {
+                        follower.answer(outcome);
+                    } finally {
+                        RequestLog.dump();
+                    }
+                };
+                try {
+                    followerExecutor.execute(answer);
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("Coalesced druid query answered on the response thread: ", e);
+                    answer.run();
+                }
+            }
+            RequestLog.restore(leaderLog);
+            leader.run();
+        }
+
+        /**
+         * Run a callback, handing any exception it throws to the failure callback of the same request.
+         *
+         * @param failure  The failure callback of the request
+         * @param callback  The callback to run
+         */
+        private void invokeSafely(FailureCallback failure, Runnable callback) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                failure.invoke(e);
+            }
+        }
+    }
+
+    /**
+     * A request which joined a query in flight instead of sending it.
+     */
+    private static class Follower {
+        private final RequestContext context;
+        private final SuccessCallback success;
+        private final HttpErrorCallback error;
+        private final FailureCallback failure;
+        private final String timerName;
+        private final String queryId;
+        private final RequestLog logCtx;
+
+        /**
+         * Constructor.
+         *
+         * @param context  The context of the request
+         * @param success  callback for handling successful requests.
+         * @param error  callback for handling http errors.
+         * @param failure  callback for handling exception failures.
+         * @param timerName  The timer measuring the wait for the shared query
+         * @param queryId  The druid query id of the request's own query, which is not sent
+         * @param logCtx  The request log of the request
+         */
+        Follower(
+                RequestContext context,
+                SuccessCallback success,
+                HttpErrorCallback error,
+                FailureCallback failure,
+                String timerName,
+                String queryId,
+                RequestLog logCtx
+        ) {
+            this.context = context;
+            this.success = success;
+            this.error = error;
+            this.failure = failure;
+            this.timerName = timerName;
+            this.queryId = queryId;
+            this.logCtx = logCtx;
+        }
+
+        /**
+         * Restore the request log of the request and hand it the outcome of the shared query.
+         *
+         * @param outcome  Invokes the callback matching the outcome of the shared query
+         */
+        void answer(Consumer<Follower> outcome) {
+            RequestLog.restore(logCtx);
+            RequestLog.stopTiming(timerName);
+            if (context.getNumberOfIncoming().decrementAndGet() == 0) {
+                RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+            }
+            try {
+                outcome.accept(this);
+            } catch (RuntimeException e) {
+                LOG.error("Coalesced druid query callback failed: ", e);
+            }
+        }
+    }
+}
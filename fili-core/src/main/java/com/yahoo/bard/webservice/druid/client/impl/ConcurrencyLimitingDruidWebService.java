@@ -0,0 +1,651 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import static com.yahoo.bard.webservice.web.ErrorMessageFormat.DRUID_SERVICE_OVERLOADED;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.REQUEST_WORKFLOW_TIMER;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback;
+import com.yahoo.bard.webservice.druid.client.SuccessCallback;
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import javax.ws.rs.core.Response.Status;
+
+/**
+ * A druid web service which bounds the number of data queries outstanding against a druid service.
+ * <p>
+ * The bound is an {@link AimdConcurrencyLimit} driven by the latency of the service's responses. Queries beyond the
+ * limit wait in a bounded queue until a slot frees up, or until their deadline passes. A {@link CircuitBreaker}
+ * rejects queries straight away while the service keeps failing. Rejected queries are answered with a
+ * 503 Service Unavailable error, so that an overloaded broker is not buried under requests it cannot serve. These
+ * rejections carry the {@link #LOCAL_REJECTION_REASON} reason phrase, so that callers can tell them apart from a
+ * 503 returned by the broker itself.
+ * <p>
+ * Weight evaluation queries and metadata requests are not limited.
+ */
+public class ConcurrencyLimitingDruidWebService implements DruidWebService {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimitingDruidWebService.class);
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The reason phrase of the 503 errors this service answers rejected queries with.
+     */
+    public static final String LOCAL_REJECTION_REASON = "Service Unavailable: rejected by the druid concurrency limit";
+
+    /**
+     * Whether druid services are wrapped in a concurrency limit.
+     */
+    public static final boolean CONCURRENCY_LIMIT_ENABLED = SYSTEM_CONFIG.getBooleanProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_limit_enabled"),
+            false
+    );
+
+    public static final int DEFAULT_INITIAL_LIMIT = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_initial_limit"),
+            20
+    );
+    public static final int DEFAULT_MIN_LIMIT = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_min_limit"),
+            1
+    );
+    public static final int DEFAULT_MAX_LIMIT = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_max_limit"),
+            200
+    );
+    public static final double DEFAULT_BACKOFF_RATIO = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_backoff_ratio"),
+            0.9
+    );
+    public static final double DEFAULT_LATENCY_TOLERANCE = SYSTEM_CONFIG.getDoubleProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_latency_tolerance"),
+            2.0
+    );
+    public static final int DEFAULT_MAX_QUEUE = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_max_queue"),
+            1000
+    );
+    public static final long DEFAULT_MAX_QUEUE_WAIT = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_concurrency_max_queue_wait"),
+            10000L
+    );
+    public static final int DEFAULT_BREAKER_FAILURES = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_circuit_breaker_failures"),
+            10
+    );
+    public static final long DEFAULT_BREAKER_OPEN_PERIOD = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_circuit_breaker_open_period"),
+            10000L
+    );
+
+    /**
+     * Expires queued queries whose deadline has passed.
+     */
+    private static final ScheduledExecutorService DEADLINE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "druid-queue-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    private final DruidWebService webService;
+    private final AimdConcurrencyLimit limit;
+    private final CircuitBreaker breaker;
+    private final int maxQueue;
+    private final long maxQueueWait;
+    private final LongSupplier clock;
+
+    private final Queue<Pending> queue = new ArrayDeque<>();
+    private int outstanding = 0;
+
+    private final Meter queuedMeter;
+    private final Meter rejectedMeter;
+
+    /**
+     * Constructor using the configured limits.
+     *
+     * @param webService  The web service which sends the queries to druid
+     */
+    public ConcurrencyLimitingDruidWebService(DruidWebService webService) {
+        this(
+                webService,
+                new AimdConcurrencyLimit(
+                        DEFAULT_INITIAL_LIMIT,
+                        DEFAULT_MIN_LIMIT,
+                        DEFAULT_MAX_LIMIT,
+                        DEFAULT_BACKOFF_RATIO,
+                        DEFAULT_LATENCY_TOLERANCE
+                ),
+                new CircuitBreaker(DEFAULT_BREAKER_FAILURES, DEFAULT_BREAKER_OPEN_PERIOD, System::currentTimeMillis),
+                DEFAULT_MAX_QUEUE,
+                DEFAULT_MAX_QUEUE_WAIT,
+                System::currentTimeMillis
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param webService  The web service which sends the queries to druid
+     * @param limit  The adaptive limit on outstanding queries
+     * @param breaker  The circuit breaker for the service
+     * @param maxQueue  The number of queries which may wait for a slot
+     * @param maxQueueWait  The longest time in milliseconds a query may wait for a slot
+     * @param clock  Source of the current time in milliseconds
+     */
+    public ConcurrencyLimitingDruidWebService(
+            DruidWebService webService,
+            AimdConcurrencyLimit limit,
+            CircuitBreaker breaker,
+            int maxQueue,
+            long maxQueueWait,
+            LongSupplier clock
+    ) {
+        this.webService = webService;
+        this.limit = limit;
+        this.breaker = breaker;
+        this.maxQueue = maxQueue;
+        this.maxQueueWait = maxQueueWait;
+        this.clock = clock;
+        this.queuedMeter = REGISTRY.meter("druid.queries.queued");
+        this.rejectedMeter = REGISTRY.meter("druid.queries.rejected");
+    }
+
+    @Override
+    public Future<Response> postDruidQuery(
+            RequestContext context,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> druidQuery
+    ) {
+        if (druidQuery instanceof WeightEvaluationQuery) {
+            return webService.postDruidQuery(context, success, error, failure, druidQuery);
+        }
+        Pending pending = new Pending(context, success, error, failure, druidQuery);
+
+        CircuitBreaker.Permit permit = breaker.acquire();
+        if (permit == CircuitBreaker.Permit.DENIED) {
+            return reject(pending, "circuit breaker is open");
+        }
+        pending.trial = permit == CircuitBreaker.Permit.TRIAL;
+
+        boolean queueFull;
+        synchronized (this) {
+            queueFull = outstanding >= limit.getLimit() && queue.size() >= maxQueue;
+            if (!queueFull) {
+                if (outstanding >= limit.getLimit()) {
+                    queue.add(pending);
+                    pending.scheduleDeadline();
+                    queuedMeter.mark();
+                    return pending.result;
+                }
+                outstanding++;
+            }
+        }
+        if (queueFull) {
+            return reject(pending, "queue is full");
+        }
+        return pending.send();
+    }
+
+    @Override
+    public Future<Response> getJsonObject(
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            String resourcePath
+    ) {
+        return webService.getJsonObject(success, error, failure, resourcePath);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Queued copies of the query are dropped, so that a query cancelled while waiting for a slot is never sent.
+     */
+    @Override
+    public Future<Response> cancelDruidQuery(String queryId) {
+        List<Pending> cancelled = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Pending> queued = queue.iterator();
+            while (queued.hasNext()) {
+                Pending pending = queued.next();
+                if (pending.hasQueryId(queryId) && pending.claim()) {
+                    queued.remove();
+                    cancelled.add(pending);
+                }
+            }
+        }
+        cancelled.forEach(Pending::cancel);
+        return webService.cancelDruidQuery(queryId);
+    }
+
+    @Override
+    public DruidServiceConfig getServiceConfig() {
+        return webService.getServiceConfig();
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return webService.getTimeout();
+    }
+
+    /**
+     * Get the number of queries currently sent and not yet answered.
+     *
+     * @return the number of outstanding queries
+     */
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Get the number of queries waiting for a slot.
+     *
+     * @return the number of queued queries
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Get the adaptive limit on outstanding queries.
+     *
+     * @return the concurrency limit
+     */
+    public AimdConcurrencyLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * Get the circuit breaker of the druid service.
+     *
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Check whether an error is a rejection by a concurrency limit rather than an error from the druid service.
+     *
+     * @param statusCode  The status code of the error
+     * @param reasonPhrase  The reason phrase of the error
+     *
+     * @return true if the query was rejected without being sent
+     */
+    public static boolean isLocalRejection(int statusCode, String reasonPhrase) {
+        return statusCode == Status.SERVICE_UNAVAILABLE.getStatusCode() && LOCAL_REJECTION_REASON.equals(reasonPhrase);
+    }
+
+    /**
+     * Answer a query with a 503 Service Unavailable error without sending it.
+     * <p>
+     * A rejected trial request of a half open circuit breaker counts as a failure, so the breaker opens again rather
+     * than waiting forever for the outcome of a request which was never sent.
+     *
+     * @param pending  The query to reject
+     * @param reason  Why the query is rejected
+     *
+     * @return a future holding no response
+     */
+    private Future<Response> reject(Pending pending, String reason) {
+        if (pending.trial) {
+            breaker.onFailure();
+        }
+        rejectedMeter.mark();
+        String message = DRUID_SERVICE_OVERLOADED.format(getServiceConfig().getNameAndUrl(), reason);
+        LOG.warn(message);
+        pending.answer(() -> pending.error.invoke(
+                Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                LOCAL_REJECTION_REASON,
+                message
+        ));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Free the slot of an answered query and send the queued queries which now fit under the limit.
+     */
+    private void release() {
+        List<Pending> ready = new ArrayList<>();
+        synchronized (this) {
+            outstanding--;
+            while (outstanding < limit.getLimit() && !queue.isEmpty()) {
+                Pending next = queue.poll();
+                if (next.claim()) {
+                    outstanding++;
+                    ready.add(next);
+                }
+            }
+        }
+        ready.forEach(Pending::sendFromQueue);
+    }
+
+    /**
+     * A query on its way to the druid service.
+     */
+    private class Pending {
+        private final RequestContext context;
+        private final SuccessCallback success;
+        private final HttpErrorCallback error;
+        private final FailureCallback failure;
+        private final DruidQuery<?> druidQuery;
+
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private RequestLog logCtx;
+        private volatile boolean trial;
+        private volatile boolean completeOnAnswer;
+        private long sentAt;
+        private int outstandingAtSend;
+
+        /**
+         * Constructor.
+         *
+         * @param context  The context for the request
+         * @param success  callback for handling successful requests.
+         * @param error  callback for handling http errors.
+         * @param failure  callback for handling exception failures.
+         * @param druidQuery  The query to send
+         */
+        Pending(
+                RequestContext context,
+                SuccessCallback success,
+                HttpErrorCallback error,
+                FailureCallback failure,
+                DruidQuery<?> druidQuery
+        ) {
+            this.context = context;
+            this.success = success;
+            this.error = error;
+            this.failure = failure;
+            this.druidQuery = druidQuery;
+        }
+
+        /**
+         * Take the request log away from the sending thread and expire the query once its deadline passes.
+         * <p>
+         * The deadline is the configured maximum queue wait, or the query's own timeout if that is shorter.
+         */
+        void scheduleDeadline() {
+            logCtx = RequestLog.dump();
+            long wait = maxQueueWait;
+            Integer timeout = druidQuery.getContext() == null ? null : druidQuery.getContext().getTimeout();
+            if (timeout != null && timeout > 0) {
+                wait = Math.min(wait, timeout);
+            }
+            DEADLINE_SCHEDULER.schedule(this::expire, wait, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Claim the query for sending or expiry.
+         *
+         * @return true if the query had not been claimed yet
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Reject the query if it is still waiting for a slot.
+         */
+        private void expire() {
+            if (!claim()) {
+                return;
+            }
+            synchronized (ConcurrencyLimitingDruidWebService.this) {
+                queue.remove(this);
+            }
+            RequestLog.restore(logCtx);
+            reject(this, "no capacity freed up before the deadline");
+            result.complete(null);
+        }
+
+        /**
+         * Send a query which waited in the queue, from the thread which freed its slot.
+         */
+        void sendFromQueue() {
+            RequestLog.restore(logCtx);
+            try {
+                propagate(send());
+            } catch (RuntimeException e) {
+                LOG.error("druid {} queued query could not be sent: ", getServiceConfig().getNameAndUrl(), e);
+                answer(() -> failure.invoke(e));
+                result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Complete the future handed out for the queued query along with the future of the wrapped web service.
+         * <p>
+         * Futures which can't notify their completion complete it once the query is answered instead, without a
+         * response.
+         *
+         * @param future  The future response of the wrapped web service
+         */
+        private void propagate(Future<Response> future) {
+            CompletableFuture<Response> completable = null;
+            if (future instanceof CompletableFuture) {
+                completable = (CompletableFuture<Response>) future;
+            } else if (future instanceof ListenableFuture) {
+                completable = ((ListenableFuture<Response>) future).toCompletableFuture();
+            }
+            if (completable != null) {
+                completable.whenComplete((response, t) -> result.complete(response));
+                return;
+            }
+            completeOnAnswer = true;
+            if (released.get()) {
+                result.complete(null);
+            }
+        }
+
+        /**
+         * Check whether this is a query with a given druid query id.
+         *
+         * @param queryId  The druid query id
+         *
+         * @return true if the query has the id
+         */
+        boolean hasQueryId(String queryId) {
+            return druidQuery.getContext() != null && queryId.equals(druidQuery.getContext().getQueryId());
+        }
+
+        /**
+         * Drop a query cancelled while waiting for a slot, without answering it, since its request was abandoned.
+         * <p>
+         * A dropped trial request of a half open circuit breaker counts as a failure, as when it is rejected.
+         */
+        void cancel() {
+            LOG.debug("druid {} queued query {} cancelled", getServiceConfig().getNameAndUrl(), druidQuery);
+            if (trial) {
+                breaker.onFailure();
+            }
+            result.complete(null);
+        }
+
+        /**
+         * Send the query through the wrapped web service, tracking its outcome.
+         *
+         * @return the future response of the wrapped web service
+         */
+        Future<Response> send() {
+            synchronized (ConcurrencyLimitingDruidWebService.this) {
+                outstandingAtSend = outstanding;
+            }
+            sentAt = clock.getAsLong();
+            try {
+                return webService.postDruidQuery(context, trackSuccess(), trackError(), trackFailure(), druidQuery);
+            } catch (RuntimeException e) {
+                complete(false);
+                throw e;
+            }
+        }
+
+        /**
+         * Record the outcome of the query, once, and free its slot.
+         * <p>
+         * Queued queries sent from the freed slot run on this thread under their own request logs, so the request
+         * log of this query is set aside meanwhile, for its callback to run under.
+         *
+         * @param succeeded  Whether the service answered the query in a healthy way
+         */
+        private void complete(boolean succeeded) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            if (succeeded) {
+                breaker.onSuccess();
+                limit.onSuccess(clock.getAsLong() - sentAt, outstandingAtSend);
+            } else {
+                breaker.onFailure();
+                limit.onDropped();
+            }
+            RequestLog callbackLog = RequestLog.dump();
+            try {
+                release();
+            } finally {
+                RequestLog.restore(callbackLog);
+            }
+        }
+
+        /**
+         * Complete the future handed out for the queued query once it is answered, if the future of the wrapped web
+         * service can't do so.
+         */
+        private void answered() {
+            if (completeOnAnswer) {
+                result.complete(null);
+            }
+        }
+
+        /**
+         * Wrap the success callback, keeping streaming callbacks streaming.
+         *
+         * @return the wrapped callback
+         */
+        private SuccessCallback trackSuccess() {
+            if (success instanceof StreamingSuccessCallback) {
+                StreamingSuccessCallback streaming = (StreamingSuccessCallback) success;
+                return new StreamingSuccessCallback() {
+                    @Override
+                    public void invoke(JsonParser parser) {
+                        complete(true);
+                        try {
+                            streaming.invoke(parser);
+                        } finally {
+                            answered();
+                        }
+                    }
+
+                    @Override
+                    public void invoke(JsonNode rootNode) {
+                        complete(true);
+                        try {
+                            streaming.invoke(rootNode);
+                        } finally {
+                            answered();
+                        }
+                    }
+                };
+            }
+            return rootNode -> {
+                complete(true);
+                try {
+                    success.invoke(rootNode);
+                } finally {
+                    answered();
+                }
+            };
+        }
+
+        /**
+         * Wrap the error callback, counting server errors against the service.
+         *
+         * @return the wrapped callback
+         */
+        private HttpErrorCallback trackError() {
+            return (statusCode, reasonPhrase, responseBody) -> {
+                complete(statusCode < 500);
+                try {
+                    error.invoke(statusCode, reasonPhrase, responseBody);
+                } finally {
+                    answered();
+                }
+            };
+        }
+
+        /**
+         * Wrap the failure callback, counting the failure against the service.
+         *
+         * @return the wrapped callback
+         */
+        private FailureCallback trackFailure() {
+            return throwable -> {
+                complete(false);
+                try {
+                    failure.invoke(throwable);
+                } finally {
+                    answered();
+                }
+            };
+        }
+
+        /**
+         * Answer the query without sending it, doing the bookkeeping the web service does for a sent query.
+         *
+         * @param callback  Invokes the callback which answers the query
+         */
+        void answer(Runnable callback) {
+            if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+                RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+            }
+            if (context.getNumberOfIncoming().decrementAndGet() == 0) {
+                RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+            }
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                LOG.error("Callback of rejected druid query failed: ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,984 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.REQUEST_WORKFLOW_TIMER;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig;
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HedgePolicy;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback;
+import com.yahoo.bard.webservice.druid.client.SuccessCallback;
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * A druid web service which spreads requests across a pool of equivalent broker endpoints.
+ * <p>
+ * Each request is routed to the healthy broker with the fewest outstanding requests, weighted by the broker's recent
+ * 99th percentile latency. The percentile is recomputed at most once per refresh period, as requests complete, rather
+ * than on every routing decision. Brokers which fail repeatedly at the connection level are ejected from routing for a
+ * cool down period, and requests which fail to connect are retried on another broker.
+ * <p>
+ * Data queries which the hedge policy picks are duplicated to a different broker when their first broker has not
+ * answered them in time. The first broker to answer wins, and the query is cancelled on the other broker. The hedge
+ * policy is given a snapshot of the pool latencies which is also only retaken once per refresh period.
+ */
+public class LoadBalancingDruidWebService implements DruidWebService {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadBalancingDruidWebService.class);
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * Consecutive failures after which a broker is ejected from routing.
+     */
+    public static final int DEFAULT_EJECTION_FAILURES = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_broker_ejection_failures"),
+            3
+    );
+
+    /**
+     * Time in milliseconds an ejected broker is kept out of routing.
+     */
+    public static final long DEFAULT_EJECTION_PERIOD = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_broker_ejection_period"),
+            30000L
+    );
+
+    /**
+     * Number of times a request which failed to reach a broker is retried on another broker.
+     */
+    public static final int DEFAULT_MAX_RETRIES = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_broker_max_retries"),
+            1
+    );
+
+    /**
+     * Time in milliseconds for which the latency percentiles used in routing and hedging are reused before being
+     * recomputed.
+     */
+    public static final long LATENCY_REFRESH_PERIOD = SYSTEM_CONFIG.getLongProperty(
+            SYSTEM_CONFIG.getPackageVariableName("druid_broker_latency_refresh_period"),
+            1000L
+    );
+
+    private final DruidServiceConfig serviceConfig;
+    private final List<Broker> brokers;
+    private final int ejectionFailures;
+    private final long ejectionPeriod;
+    private final int maxRetries;
+    private final LongSupplier clock;
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final Meter retryMeter;
+    private final Meter hedgeMeter;
+    private final Histogram latency;
+    private final AtomicLong nextLatencyRefresh = new AtomicLong(Long.MIN_VALUE);
+    private volatile Snapshot latencySnapshot;
+    private final HedgePolicy hedgePolicy;
+
+    /**
+     * Schedules the duplicates of hedged queries. Its thread only hands requests to the brokers.
+     */
+    private static final ScheduledExecutorService HEDGE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "druid-hedge-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    /**
+     * Constructor using the configured ejection and retry settings.
+     *
+     * @param serviceConfig  The configuration describing the pool as a whole
+     * @param brokers  The web services for each broker endpoint in the pool
+     */
+    public LoadBalancingDruidWebService(DruidServiceConfig serviceConfig, List<? extends DruidWebService> brokers) {
+        this(
+                serviceConfig,
+                brokers,
+                DEFAULT_EJECTION_FAILURES,
+                DEFAULT_EJECTION_PERIOD,
+                DEFAULT_MAX_RETRIES,
+                System::currentTimeMillis
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param serviceConfig  The configuration describing the pool as a whole
+     * @param brokers  The web services for each broker endpoint in the pool
+     * @param ejectionFailures  Consecutive failures after which a broker is ejected from routing
+     * @param ejectionPeriod  Time in milliseconds an ejected broker is kept out of routing
+     * @param maxRetries  Number of times a request which failed to reach a broker is retried on another broker
+     * @param clock  Source of the current time in milliseconds
+     */
+    public LoadBalancingDruidWebService(
+            DruidServiceConfig serviceConfig,
+            List<? extends DruidWebService> brokers,
+            int ejectionFailures,
+            long ejectionPeriod,
+            int maxRetries,
+            LongSupplier clock
+    ) {
+        this(
+                serviceConfig,
+                brokers,
+                ejectionFailures,
+                ejectionPeriod,
+                maxRetries,
+                clock,
+                new PercentileHedgePolicy()
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param serviceConfig  The configuration describing the pool as a whole
+     * @param brokers  The web services for each broker endpoint in the pool
+     * @param ejectionFailures  Consecutive failures after which a broker is ejected from routing
+     * @param ejectionPeriod  Time in milliseconds an ejected broker is kept out of routing
+     * @param maxRetries  Number of times a request which failed to reach a broker is retried on another broker
+     * @param clock  Source of the current time in milliseconds
+     * @param hedgePolicy  Decides which data queries are duplicated to another broker when they are slow to be answered
+     */
+    public LoadBalancingDruidWebService(
+            DruidServiceConfig serviceConfig,
+            List<? extends DruidWebService> brokers,
+            int ejectionFailures,
+            long ejectionPeriod,
+            int maxRetries,
+            LongSupplier clock,
+            HedgePolicy hedgePolicy
+    ) {
+        if (brokers.isEmpty()) {
+            String msg = "A load balanced druid web service needs at least one broker: " + serviceConfig;
+            LOG.error(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.serviceConfig = serviceConfig;
+        this.brokers = Collections.unmodifiableList(
+                brokers.stream().map(Broker::new).collect(Collectors.toList())
+        );
+        this.ejectionFailures = ejectionFailures;
+        this.ejectionPeriod = ejectionPeriod;
+        this.maxRetries = maxRetries;
+        this.clock = clock;
+        this.retryMeter = REGISTRY.meter("druid.broker.retries");
+        this.hedgeMeter = REGISTRY.meter("druid.hedges");
+        this.latency = REGISTRY.histogram("druid.latency." + serviceConfig.getNameAndUrl());
+        this.latencySnapshot = latency.getSnapshot();
+        this.hedgePolicy = hedgePolicy;
+        LOG.info("Configured load balanced druid service {} over {}", serviceConfig, getBrokers());
+    }
+
+    @Override
+    public Future<Response> postDruidQuery(
+            RequestContext context,
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            DruidQuery<?> query
+    ) {
+        OptionalLong hedgeDelay = query instanceof WeightEvaluationQuery || brokers.size() < 2
+                ? OptionalLong.empty()
+                : hedgePolicy.getHedgeDelay(query, latencySnapshot);
+        if (hedgeDelay.isPresent()) {
+            return new HedgedQuery(context, success, error, failure, query).send(hedgeDelay.getAsLong());
+        }
+        return send(
+                attempt -> {
+                    attempt.timed = !(query instanceof WeightEvaluationQuery);
+                    return attempt.getWebService().postDruidQuery(
+                            context,
+                            attempt.track(success),
+                            attempt.track(error),
+                            attempt.trackAndRetry(failure, () -> prepareRetry(context, query)),
+                            query
+                    );
+                },
+                new ArrayList<>()
+        );
+    }
+
+    @Override
+    public Future<Response> getJsonObject(
+            SuccessCallback success,
+            HttpErrorCallback error,
+            FailureCallback failure,
+            String resourcePath
+    ) {
+        return send(
+                attempt -> attempt.getWebService().getJsonObject(
+                        attempt.track(success),
+                        attempt.track(error),
+                        attempt.trackAndRetry(failure, () -> { }),
+                        resourcePath
+                ),
+                new ArrayList<>()
+        );
+    }
+
+    /**
+     * Asks every broker in the pool to cancel the query.
+     * <p>
+     * The pool does not remember which broker ran a query, and brokers ignore cancellations of queries they do not
+     * know about.
+     *
+     * @param queryId  The druid query id of the query to cancel
+     *
+     * @return a completed future, the cancellations themselves are sent asynchronously by each broker
+     */
+    @Override
+    public Future<Response> cancelDruidQuery(String queryId) {
+        brokers.forEach(broker -> broker.webService.cancelDruidQuery(queryId));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Send a request to the best broker which has not already been tried for it.
+     *
+     * @param request  Sends the request to the chosen broker
+     * @param tried  The brokers this request has already been sent to
+     *
+     * @return a future response for the request
+     */
+    private Future<Response> send(Function<Attempt, Future<Response>> request, List<Broker> tried) {
+        Broker broker = selectBroker(tried);
+        tried.add(broker);
+        return request.apply(new Attempt(broker, request, tried));
+    }
+
+    /**
+     * Restore the request context to its state before a failed data query was sent, so that a retry keeps the request
+     * counters and workflow timers consistent.
+     *
+     * @param context  The context for the request
+     * @param query  The query being retried
+     */
+    private void prepareRetry(RequestContext context, DruidQuery<?> query) {
+        if (query instanceof WeightEvaluationQuery) {
+            return;
+        }
+        if (context.getNumberOfOutgoing().getAndIncrement() == 0) {
+            RequestLog.startTiming(REQUEST_WORKFLOW_TIMER);
+        }
+        if (context.getNumberOfIncoming().getAndIncrement() == 0 && RequestLog.isRunning(RESPONSE_WORKFLOW_TIMER)) {
+            RequestLog.stopTiming(RESPONSE_WORKFLOW_TIMER);
+        }
+    }
+
+    /**
+     * Choose the broker to route the next request to.
+     * <p>
+     * Healthy brokers which have not been tried are preferred, scored by outstanding requests weighted by p99 latency.
+     * If every untried broker is ejected, the one whose ejection ends soonest is used rather than failing the request.
+     *
+     * @param tried  Brokers which have already been tried for this request
+     *
+     * @return the broker to use
+     */
+    protected Broker selectBroker(List<Broker> tried) {
+        long now = clock.getAsLong();
+        int size = brokers.size();
+        int offset = Math.floorMod(rotation.getAndIncrement(), size);
+
+        Broker best = null;
+        Broker leastEjected = null;
+        for (int i = 0; i < size; i++) {
+            Broker candidate = brokers.get((offset + i) % size);
+            if (tried.contains(candidate)) {
+                continue;
+            }
+            if (!candidate.isHealthy(now)) {
+                if (leastEjected == null || candidate.ejectedUntil < leastEjected.ejectedUntil) {
+                    leastEjected = candidate;
+                }
+                continue;
+            }
+            if (best == null || candidate.getScore() < best.getScore()) {
+                best = candidate;
+            }
+        }
+        return best != null ? best : leastEjected;
+    }
+
+    /**
+     * Retake the snapshot of the pool latencies given to the hedge policy if the refresh period has passed since it was
+     * last taken.
+     *
+     * @param now  The current time in milliseconds
+     */
+    protected void refreshLatencySnapshot(long now) {
+        long next = nextLatencyRefresh.get();
+        if (now >= next && nextLatencyRefresh.compareAndSet(next, now + LATENCY_REFRESH_PERIOD)) {
+            latencySnapshot = latency.getSnapshot();
+        }
+    }
+
+    /**
+     * Whether a failure means the request never got a response from the broker, and so can be safely sent elsewhere.
+     *
+     * @param error  The error the request failed with
+     *
+     * @return true if the request can be retried on another broker
+     */
+    protected boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the brokers in this pool.
+     *
+     * @return the brokers
+     */
+    public List<Broker> getBrokers() {
+        return brokers;
+    }
+
+    @Override
+    public DruidServiceConfig getServiceConfig() {
+        return serviceConfig;
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return serviceConfig.getTimeout();
+    }
+
+    /**
+     * A request in flight to a particular broker, able to resend itself to another broker.
+     */
+    private class Attempt {
+        private final Broker broker;
+        private final Function<Attempt, Future<Response>> request;
+        private final List<Broker> tried;
+        private final long start;
+        private volatile boolean timed = false;
+        private volatile boolean cancelled = false;
+
+        /**
+         * Constructor.
+         *
+         * @param broker  The broker the request is sent to
+         * @param request  Sends the request to a chosen broker
+         * @param tried  The brokers this request has already been sent to
+         */
+        Attempt(Broker broker, Function<Attempt, Future<Response>> request, List<Broker> tried) {
+            this.broker = broker;
+            this.request = request;
+            this.tried = tried;
+            this.start = System.nanoTime();
+            broker.outstanding.incrementAndGet();
+        }
+
+        /**
+         * The web service of the broker this attempt is sent to.
+         *
+         * @return the web service
+         */
+        DruidWebService getWebService() {
+            return broker.webService;
+        }
+
+        /**
+         * Cancel this attempt, which lost the race of a hedged query and so says nothing about its broker's health.
+         *
+         * @param future  The future response of the attempt, null if it has not been sent yet
+         * @param queryId  The druid query id of the query, null if it has none
+         */
+        void cancel(Future<Response> future, String queryId) {
+            cancelled = true;
+            if (future != null && !future.isDone()) {
+                future.cancel(true);
+            }
+            if (queryId != null) {
+                broker.webService.cancelDruidQuery(queryId);
+            }
+        }
+
+        /**
+         * Record the end of this attempt with its broker.
+         *
+         * @param healthy  Whether the broker handled the request
+         */
+        private void complete(boolean healthy) {
+            broker.outstanding.decrementAndGet();
+            if (healthy) {
+                long elapsed = System.nanoTime() - start;
+                broker.latency.update(elapsed, TimeUnit.NANOSECONDS);
+                broker.refreshLatency(clock.getAsLong());
+                if (timed) {
+                    latency.update(TimeUnit.NANOSECONDS.toMillis(elapsed));
+                    refreshLatencySnapshot(clock.getAsLong());
+                }
+                broker.consecutiveFailures.set(0);
+            } else if (broker.consecutiveFailures.incrementAndGet() >= ejectionFailures) {
+                broker.ejectedUntil = clock.getAsLong() + ejectionPeriod;
+                LOG.warn("Ejecting druid broker {} for {}ms", broker, ejectionPeriod);
+            }
+        }
+
+        /**
+         * Wrap a success callback to record the attempt.
+         *
+         * @param success  The callback to wrap
+         *
+         * @return the wrapped callback, streaming if the original streams
+         */
+        SuccessCallback track(SuccessCallback success) {
+            if (success instanceof StreamingSuccessCallback) {
+                StreamingSuccessCallback streaming = (StreamingSuccessCallback) success;
+                return new StreamingSuccessCallback() {
+                    @Override
+                    public void invoke(JsonParser parser) {
+                        complete(true);
+                        streaming.invoke(parser);
+                    }
+
+                    @Override
+                    public void invoke(JsonNode rootNode) {
+                        complete(true);
+                        streaming.invoke(rootNode);
+                    }
+                };
+            }
+            return rootNode -> {
+                complete(true);
+                success.invoke(rootNode);
+            };
+        }
+
+        /**
+         * Wrap an error callback to record the attempt, counting server errors against the broker's health.
+         * <p>
+         * Queries rejected by the concurrency limit in front of the broker never reached it, so they are not counted
+         * against the broker, and don't eject it.
+         *
+         * @param error  The callback to wrap
+         *
+         * @return the wrapped callback
+         */
+        HttpErrorCallback track(HttpErrorCallback error) {
+            return (statusCode, reasonPhrase, responseBody) -> {
+                if (ConcurrencyLimitingDruidWebService.isLocalRejection(statusCode, reasonPhrase)) {
+                    broker.outstanding.decrementAndGet();
+                } else {
+                    complete(statusCode < 500);
+                }
+                error.invoke(statusCode, reasonPhrase, responseBody);
+            };
+        }
+
+        /**
+         * Wrap a failure callback to record the attempt and retry connection failures on another broker.
+         *
+         * @param failure  The callback to wrap
+         * @param beforeRetry  Hook run before the request is resent
+         *
+         * @return the wrapped callback
+         */
+        FailureCallback trackAndRetry(FailureCallback failure, Runnable beforeRetry) {
+            return throwable -> {
+                if (cancelled || throwable instanceof CancellationException) {
+                    broker.outstanding.decrementAndGet();
+                    failure.invoke(throwable);
+                    return;
+                }
+                complete(false);
+                if (tried.size() <= maxRetries && tried.size() < brokers.size() && isRetryable(throwable)) {
+                    retryMeter.mark();
+                    LOG.warn(
+                            "Retrying druid request failed on {} on another broker",
+                            broker.getServiceConfig().getNameAndUrl(),
+                            throwable
+                    );
+                    beforeRetry.run();
+                    send(request, tried);
+                } else {
+                    failure.invoke(throwable);
+                }
+            };
+        }
+    }
+
+    /**
+     * A data query sent to one broker, and duplicated to a different broker if it has not been answered after the
+     * hedge delay.
+     * <p>
+     * The first copy to be answered, with a response or an http error, reaches the callbacks, and the other copy is
+     * cancelled, both on the http client and on its broker. A copy which fails, or which the concurrency limit in front
+     * of its broker rejects, only settles the query once no other copy is left. Each copy is sent with a context of its
+     * own, so the request counters and workflow timers of the query are settled once, by the copy which answers it.
+     */
+    private class HedgedQuery {
+        private final RequestContext context;
+        private final SuccessCallback success;
+        private final HttpErrorCallback error;
+        private final FailureCallback failure;
+        private final DruidQuery<?> query;
+
+        private final AtomicReference<Copy> settledBy = new AtomicReference<>();
+        private final AtomicInteger live = new AtomicInteger(1);
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private final Copy first;
+        private volatile Copy hedge;
+        private volatile Copy lastMissed;
+        private volatile Runnable lastMiss;
+
+        /**
+         * Constructor.
+         *
+         * @param context  The context for the request
+         * @param success  callback for handling successful requests
+         * @param error  callback for handling http errors
+         * @param failure  callback for handling exception failures
+         * @param query  The query to send
+         */
+        HedgedQuery(
+                RequestContext context,
+                SuccessCallback success,
+                HttpErrorCallback error,
+                FailureCallback failure,
+                DruidQuery<?> query
+        ) {
+            this.context = context;
+            this.success = success;
+            this.error = error;
+            this.failure = failure;
+            this.query = query;
+            this.first = new Copy(new CopyOnWriteArrayList<>());
+        }
+
+        /**
+         * Send the query to the best broker, and schedule its duplicate.
+         *
+         * @param hedgeDelay  The delay in milliseconds after which the duplicate is sent
+         *
+         * @return a future for the response which answers the query
+         */
+        Future<Response> send(long hedgeDelay) {
+            if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+                RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+            }
+            RequestLog logCtx = RequestLog.copy();
+            first.send();
+            HEDGE_SCHEDULER.schedule(() -> sendHedge(logCtx), hedgeDelay, TimeUnit.MILLISECONDS);
+            return result;
+        }
+
+        /**
+         * Send the duplicate of the query to a broker the first copy has not been sent to, unless the query has been
+         * settled or every broker has been tried.
+         *
+         * @param logCtx  The snapshot of the request log the query was sent with
+         */
+        private void sendHedge(RequestLog logCtx) {
+            live.incrementAndGet();
+            List<Broker> tried = new ArrayList<>(first.tried);
+            if (settledBy.get() != null || tried.size() >= brokers.size()) {
+                RequestLog.restore(logCtx);
+                missed(null, null);
+                RequestLog.dump();
+                return;
+            }
+            hedgeMeter.mark();
+            LOG.debug("Hedging druid query {} after no response", query.getContext().getQueryId());
+            RequestLog.restore(logCtx);
+            hedge = new Copy(tried);
+            hedge.send();
+            if (settledBy.get() != null && settledBy.get() != hedge) {
+                hedge.cancel();
+            }
+        }
+
+        /**
+         * Settle the query with a copy, and cancel the other copy.
+         *
+         * @param copy  The copy which settles the query
+         *
+         * @return true if the copy settled the query, false if it was already settled
+         */
+        private boolean settle(Copy copy) {
+            if (!settledBy.compareAndSet(null, copy)) {
+                return false;
+            }
+            if (context.getNumberOfIncoming().decrementAndGet() == 0) {
+                RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+            }
+            Copy other = copy == first ? hedge : first;
+            if (other != null) {
+                other.cancel();
+            }
+            copy.forwardResult();
+            return true;
+        }
+
+        /**
+         * Record that a copy ended without answering the query, and settle the query with the last such outcome once no
+         * copy is left.
+         *
+         * @param copy  The copy, null if it was never sent
+         * @param outcome  Hands the outcome of the copy to the callbacks, null if it has none to hand over
+         */
+        private void missed(Copy copy, Runnable outcome) {
+            if (outcome != null) {
+                lastMissed = copy;
+                lastMiss = outcome;
+            }
+            Copy missedCopy = lastMissed;
+            Runnable missedOutcome = lastMiss;
+            if (live.decrementAndGet() == 0 && missedOutcome != null && settle(missedCopy)) {
+                missedOutcome.run();
+            }
+        }
+
+        /**
+         * One copy of the query, sent to a broker and retried on other brokers if it cannot reach them.
+         */
+        private class Copy {
+            private final List<Broker> tried;
+            private final RequestContext copyContext;
+            private volatile Attempt attempt;
+            private volatile Future<Response> future;
+            private volatile boolean cancelled = false;
+
+            /**
+             * Constructor.
+             *
+             * @param tried  The brokers this copy may not be sent to
+             */
+            Copy(List<Broker> tried) {
+                this.tried = tried;
+                this.copyContext = new CopyContext(context);
+            }
+
+            /**
+             * Send this copy to the best broker it may be sent to.
+             */
+            void send() {
+                LoadBalancingDruidWebService.this.send(this::sendAttempt, tried);
+            }
+
+            /**
+             * Send an attempt of this copy.
+             *
+             * @param sent  The attempt, for the broker it is sent to
+             *
+             * @return the future response of the attempt
+             */
+            private Future<Response> sendAttempt(Attempt sent) {
+                attempt = sent;
+                sent.timed = true;
+                sent.cancelled = cancelled;
+                future = sent.getWebService().postDruidQuery(
+                        copyContext,
+                        sent.track(trackSuccess()),
+                        sent.track(trackError()),
+                        sent.trackAndRetry(trackFailure(), () -> prepareRetry(copyContext, query)),
+                        query
+                );
+                if (cancelled) {
+                    sent.cancel(future, query.getContext().getQueryId());
+                }
+                if (settledBy.get() == this) {
+                    forwardResult();
+                }
+                return future;
+            }
+
+            /**
+             * Cancel this copy, which lost the race to answer the query.
+             */
+            void cancel() {
+                cancelled = true;
+                Attempt current = attempt;
+                if (current != null) {
+                    current.cancel(future, query.getContext().getQueryId());
+                }
+            }
+
+            /**
+             * Complete the result of the query with the response of this copy, once it is known.
+             */
+            void forwardResult() {
+                Future<Response> current = future;
+                CompletableFuture<Response> completable = current instanceof ListenableFuture
+                        ? ((ListenableFuture<Response>) current).toCompletableFuture()
+                        : current instanceof CompletableFuture ? (CompletableFuture<Response>) current : null;
+                if (completable == null) {
+                    // Futures which cannot be observed leave the result to be completed without a response
+                    result.complete(null);
+                    return;
+                }
+                completable.whenComplete((response, throwable) -> {
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else {
+                        result.complete(response);
+                    }
+                });
+            }
+
+            /**
+             * Build the success callback of this copy, which answers the query if no other copy has.
+             *
+             * @return the callback, streaming if the query's callback streams
+             */
+            private SuccessCallback trackSuccess() {
+                if (success instanceof StreamingSuccessCallback) {
+                    StreamingSuccessCallback streaming = (StreamingSuccessCallback) success;
+                    return new StreamingSuccessCallback() {
+                        @Override
+                        public void invoke(JsonParser parser) {
+                            if (settle(Copy.this)) {
+                                streaming.invoke(parser);
+                            } else {
+                                closeQuietly(parser);
+                            }
+                        }
+
+                        @Override
+                        public void invoke(JsonNode rootNode) {
+                            if (settle(Copy.this)) {
+                                streaming.invoke(rootNode);
+                            }
+                        }
+                    };
+                }
+                return rootNode -> {
+                    if (settle(this)) {
+                        success.invoke(rootNode);
+                    }
+                };
+            }
+
+            /**
+             * Build the error callback of this copy.
+             * <p>
+             * An http error from the broker answers the query. A rejection by the concurrency limit in front of the
+             * broker only does if no other copy is left.
+             *
+             * @return the callback
+             */
+            private HttpErrorCallback trackError() {
+                return (statusCode, reasonPhrase, responseBody) -> {
+                    if (ConcurrencyLimitingDruidWebService.isLocalRejection(statusCode, reasonPhrase)) {
+                        missed(this, () -> error.invoke(statusCode, reasonPhrase, responseBody));
+                    } else if (settle(this)) {
+                        error.invoke(statusCode, reasonPhrase, responseBody);
+                    }
+                };
+            }
+
+            /**
+             * Build the failure callback of this copy, which only fails the query if no other copy is left.
+             *
+             * @return the callback
+             */
+            private FailureCallback trackFailure() {
+                return throwable -> {
+                    if (cancelled) {
+                        LOG.debug("Cancelled hedged druid query {}", query.getContext().getQueryId());
+                        missed(this, null);
+                    } else {
+                        missed(this, () -> failure.invoke(throwable));
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Close a response parser nobody is going to read.
+     *
+     * @param parser  The parser
+     */
+    private static void closeQuietly(JsonParser parser) {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            LOG.debug("Unable to close the parser of a discarded druid response", e);
+        }
+    }
+
+    /**
+     * The context of one copy of a hedged query: the context of the request, with request counters of its own.
+     * <p>
+     * The counters start above one so they never run down to zero, and so the brokers never start or stop the
+     * workflow timers of the request on behalf of a copy. The hedged query settles them once, for the copy which
+     * answers it.
+     */
+    private static class CopyContext extends RequestContext {
+        private final RequestContext requestContext;
+
+        /**
+         * Constructor.
+         *
+         * @param requestContext  The context of the request
+         */
+        CopyContext(RequestContext requestContext) {
+            super(null, requestContext.isReadCache());
+            this.requestContext = requestContext;
+            numberOfIncoming.incrementAndGet();
+            numberOfOutgoing.incrementAndGet();
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getHeaders() {
+            return requestContext.getHeaders();
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getHeadersLowerCase() {
+            return requestContext.getHeadersLowerCase();
+        }
+
+        @Override
+        public SecurityContext getSecurityContext() {
+            return requestContext.getSecurityContext();
+        }
+
+        @Override
+        public <T> T getContainerRequestContextProperty(String name) {
+            return requestContext.getContainerRequestContextProperty(name);
+        }
+
+        @Override
+        public UriBuilder getUriBuilder() {
+            return requestContext.getUriBuilder();
+        }
+    }
+
+    /**
+     * A broker endpoint in the pool and its live routing statistics.
+     */
+    public static class Broker {
+        private final DruidWebService webService;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final Timer latency = new Timer();
+        private final AtomicLong nextLatencyRefresh = new AtomicLong(Long.MIN_VALUE);
+        private volatile double p99Latency = 0;
+        private volatile long ejectedUntil = Long.MIN_VALUE;
+
+        /**
+         * Constructor.
+         *
+         * @param webService  The web service for this broker endpoint
+         */
+        protected Broker(DruidWebService webService) {
+            this.webService = webService;
+        }
+
+        public DruidServiceConfig getServiceConfig() {
+            return webService.getServiceConfig();
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * The recent 99th percentile latency of this broker, as of its last refresh.
+         *
+         * @return the latency in milliseconds
+         */
+        public double getP99Latency() {
+            return p99Latency;
+        }
+
+        /**
+         * Recompute the 99th percentile latency of this broker if the refresh period has passed since it was last
+         * computed.
+         * <p>
+         * Taking a snapshot of the latencies copies and sorts them, so it is only done by one completing request per
+         * refresh period instead of on every routing decision.
+         *
+         * @param now  The current time in milliseconds
+         */
+        protected void refreshLatency(long now) {
+            long next = nextLatencyRefresh.get();
+            if (now >= next && nextLatencyRefresh.compareAndSet(next, now + LATENCY_REFRESH_PERIOD)) {
+                p99Latency = TimeUnit.NANOSECONDS.toMillis((long) latency.getSnapshot().get99thPercentile());
+            }
+        }
+
+        /**
+         * Whether this broker can currently be routed to.
+         *
+         * @param now  The current time in milliseconds
+         *
+         * @return true if the broker is not ejected
+         */
+        public boolean isHealthy(long now) {
+            return now >= ejectedUntil;
+        }
+
+        /**
+         * The routing cost of sending one more request to this broker, lower is better.
+         *
+         * @return the score
+         */
+        protected double getScore() {
+            return (outstanding.get() + 1) * Math.max(getP99Latency(), 1.0);
+        }
+
+        @Override
+        public String toString() {
+            return "Broker: " + (webService == null ? null : webService.getServiceConfig()) +
+                    " outstanding: " + outstanding;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.druid.client.HedgePolicy;
+import com.yahoo.bard.webservice.druid.model.DefaultQueryType;
+import com.yahoo.bard.webservice.druid.model.QueryType;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery;
+import com.yahoo.bard.webservice.druid.model.query.TopNQuery;
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery;
+import com.yahoo.bard.webservice.util.IntervalUtils;
+
+import com.codahale.metrics.Snapshot;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Hedges cheap queries of selected types once they have taken longer than a percentile of recent druid latencies.
+ * <p>
+ * The cost of a query is the worst case number of rows it can return: the number of time buckets times the product of
+ * the cardinalities of its grouping dimensions (or the threshold for topN queries). Queries whose cost is above the
+ * configured limit, such as heavy groupBys, are never duplicated.
+ * <p>
+ * The percentile is read once per latency snapshot, so callers which reuse a snapshot across queries, as
+ * {@link LoadBalancingDruidWebService} does between refreshes, pay for it only when the snapshot changes.
+ */
+public class PercentileHedgePolicy implements HedgePolicy {
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    public static final String HEDGE_QUERY_TYPES_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_hedge_query_types");
+    public static final String HEDGE_PERCENTILE_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_hedge_percentile");
+    public static final String HEDGE_MIN_DELAY_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_hedge_min_delay");
+    public static final String HEDGE_MAX_ROWS_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_hedge_max_rows");
+    public static final String HEDGE_MIN_SAMPLES_KEY = SYSTEM_CONFIG.getPackageVariableName(
+            "druid_hedge_min_samples"
+    );
+
+    private final Set<String> queryTypes;
+    private final double percentile;
+    private final long minDelay;
+    private final long maxRows;
+    private final int minSamples;
+    private volatile SnapshotDelay snapshotDelay;
+
+    /**
+     * Constructor using the configured hedging settings.
+     * <p>
+     * No query types are hedged unless they are configured.
+     */
+    public PercentileHedgePolicy() {
+        this(
+                SYSTEM_CONFIG.<String>getListProperty(HEDGE_QUERY_TYPES_KEY, Collections.emptyList()),
+                SYSTEM_CONFIG.getDoubleProperty(HEDGE_PERCENTILE_KEY, 0.95),
+                SYSTEM_CONFIG.getLongProperty(HEDGE_MIN_DELAY_KEY, 50L),
+                SYSTEM_CONFIG.getLongProperty(HEDGE_MAX_ROWS_KEY, 10000L),
+                SYSTEM_CONFIG.getIntProperty(HEDGE_MIN_SAMPLES_KEY, 100)
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param queryTypes  Names of the query types which may be hedged, e.g. "timeseries" or "topN"
+     * @param percentile  The latency quantile, between 0 and 1, after which a query is hedged
+     * @param minDelay  The shortest delay in milliseconds before a query is hedged
+     * @param maxRows  The most expensive query, in worst case rows, which may be hedged
+     * @param minSamples  The number of latencies which must be observed before any query is hedged
+     */
+    public PercentileHedgePolicy(
+            List<String> queryTypes,
+            double percentile,
+            long minDelay,
+            long maxRows,
+            int minSamples
+    ) {
+        this.queryTypes = Collections.unmodifiableSet(new LinkedHashSet<>(queryTypes));
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxRows = maxRows;
+        this.minSamples = minSamples;
+    }
+
+    @Override
+    public OptionalLong getHedgeDelay(DruidQuery<?> query, Snapshot latency) {
+        if (latency.size() < minSamples || !isHedgeable(query)) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(getDelay(latency));
+    }
+
+    /**
+     * Get the hedge delay for a latency snapshot, reusing the delay computed for the previous snapshot if it is the
+     * same one.
+     *
+     * @param latency  The recent response latencies of the druid service, in milliseconds
+     *
+     * @return the delay in milliseconds
+     */
+    private long getDelay(Snapshot latency) {
+        SnapshotDelay current = snapshotDelay;
+        if (current == null || current.snapshot != latency) {
+            current = new SnapshotDelay(latency, Math.max(minDelay, (long) latency.getValue(percentile)));
+            snapshotDelay = current;
+        }
+        return current.delay;
+    }
+
+    /**
+     * Check whether a query is of a hedged type and cheap enough to be duplicated.
+     *
+     * @param query  The query being sent
+     *
+     * @return true if the query may be hedged
+     */
+    protected boolean isHedgeable(DruidQuery<?> query) {
+        if (query instanceof WeightEvaluationQuery || !(query instanceof DruidAggregationQuery)) {
+            return false;
+        }
+        QueryType queryType = query.getQueryType();
+        if (!queryTypes.contains(queryType.toJson())) {
+            return false;
+        }
+        try {
+            return estimateRows((DruidAggregationQuery<?>) query) <= maxRows;
+        } catch (ArithmeticException ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Estimate the worst case number of rows a query can return.
+     *
+     * @param query  The query being estimated
+     *
+     * @return the worst case number of rows
+     *
+     * @throws ArithmeticException if the estimate is larger than {@link Long#MAX_VALUE}
+     */
+    protected long estimateRows(DruidAggregationQuery<?> query) {
+        DruidAggregationQuery<?> innerQuery = query.getInnermostQuery();
+        long periods = IntervalUtils.countSlicedIntervals(innerQuery.getIntervals(), innerQuery.getGranularity());
+
+        long cardinality = innerQuery.getQueryType() == DefaultQueryType.TOP_N
+                ? ((TopNQuery) innerQuery).getThreshold()
+                : innerQuery.getDimensions().stream()
+                        .mapToLong(Dimension::getCardinality)
+                        .filter(dimensionCardinality -> dimensionCardinality > 0)
+                        .reduce(1, Math::multiplyExact);
+
+        return Math.multiplyExact(periods, cardinality);
+    }
+
+    /**
+     * The hedge delay computed for a latency snapshot.
+     */
+    private static class SnapshotDelay {
+        private final Snapshot snapshot;
+        private final long delay;
+
+        /**
+         * Constructor.
+         *
+         * @param snapshot  The latency snapshot
+         * @param delay  The hedge delay for the snapshot, in milliseconds
+         */
+        SnapshotDelay(Snapshot snapshot, long delay) {
+            this.snapshot = snapshot;
+            this.delay = delay;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.Optional;
 import java.util.List;
 
 /**
@@ -234,7 +235,7 @@ public class WeightEvaluationQuery extends GroupByQuery {
     }
 
     /**
-     * Strip the columns from the LimitSpec on the query and return it, if present.
+     * Strip the columns and the offset from the LimitSpec on the query and return it, if present.
      *
      * @param query  Query to strip the columns from within the LimitSpec
      *
@@ -243,6 +244,6 @@ public class WeightEvaluationQuery extends GroupByQuery {
     private static LimitSpec stripColumnsFromLimitSpec(DruidFactQuery query) {
         return ((GroupByQuery) query).getLimitSpec() == null ?
                 null :
-                ((GroupByQuery) query).getLimitSpec().withColumns(new LinkedHashSet<>());
+                ((GroupByQuery) query).getLimitSpec().withColumns(new LinkedHashSet<>()).withOffset(Optional.empty());
     }
 }
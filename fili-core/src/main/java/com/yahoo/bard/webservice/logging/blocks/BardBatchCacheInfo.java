@@ -0,0 +1,46 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.logging.blocks;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+
+/**
+ * Log of a batch of cache reads, such as the reads of the time buckets of one query, counted together rather than
+ * logged one entry per read.
+ */
+@JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
+public class BardBatchCacheInfo extends BardCacheInfo {
+    protected final int reads;
+    protected final int hits;
+    protected final int signatureMismatches;
+    protected final int readFailures;
+
+    /**
+     * Constructor.
+     *
+     * @param opType  Type of activity, like a read of cached buckets
+     * @param cacheKeyLen  The length of the key shared by the reads
+     * @param cacheKeyCksum  The MD5 checksum of the key shared by the reads
+     * @param cacheValLen  The total length of the cached values read
+     * @param reads  The number of values read
+     * @param hits  The number of valid cached values found
+     * @param signatureMismatches  The number of cached values found with an out of date segment signature
+     * @param readFailures  The number of cached values found which could not be decoded
+     */
+    public BardBatchCacheInfo(
+            String opType,
+            int cacheKeyLen,
+            String cacheKeyCksum,
+            int cacheValLen,
+            int reads,
+            int hits,
+            int signatureMismatches,
+            int readFailures
+    ) {
+        super(opType, cacheKeyLen, cacheKeyCksum, null, cacheValLen);
+        this.reads = reads;
+        this.hits = hits;
+        this.signatureMismatches = signatureMismatches;
+        this.readFailures = readFailures;
+    }
+}
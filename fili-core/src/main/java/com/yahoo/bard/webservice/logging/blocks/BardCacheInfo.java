@@ -7,6 +7,7 @@ import com.yahoo.bard.webservice.logging.LogInfo;
 
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 /**
  * Log that keep tracks for cache set failures.
@@ -18,6 +19,8 @@ public class BardCacheInfo implements LogInfo {
     protected final String signatureCksum;
     protected final int cacheKeyLen;
     protected final int cacheValLen;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    protected final String cacheTier;
 
     /**
      * Constructor.
@@ -29,10 +32,32 @@ public class BardCacheInfo implements LogInfo {
      * @param cacheValLen  The cache value length
      */
     public BardCacheInfo(String opType, int cacheKeyLen, String cacheKeyCksum, String signatureCksum, int cacheValLen) {
+        this(opType, cacheKeyLen, cacheKeyCksum, signatureCksum, cacheValLen, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param opType Type of activity like cache hit , miss or potential hit
+     * @param cacheKeyLen The Length of the cache key
+     * @param cacheKeyCksum  The cache Key MD5 checksum value
+     * @param signatureCksum The query signature cksum.
+     * @param cacheValLen  The cache value length
+     * @param cacheTier  The cache tier the entry was read from, like L1 or L2, null if no entry was read
+     */
+    public BardCacheInfo(
+            String opType,
+            int cacheKeyLen,
+            String cacheKeyCksum,
+            String signatureCksum,
+            int cacheValLen,
+            String cacheTier
+    ) {
         this.opType = opType;
         this.cacheKeyLen = cacheKeyLen;
         this.cacheKeyCksum = cacheKeyCksum;
         this.signatureCksum = signatureCksum;
         this.cacheValLen = cacheValLen;
+        this.cacheTier = cacheTier;
     }
 }
@@ -85,6 +85,15 @@ public class BardQueryInfo implements LogInfo {
         getBardQueryInfo().factCacheHitCount.incrementAndGet();
     }
 
+    /**
+     * Increments the number of cache-hit queries by a number of hits.
+     *
+     * @param hits  The number of cache hits
+     */
+    public static void incrementCountCacheHits(int hits) {
+        getBardQueryInfo().factCacheHitCount.addAndGet(hits);
+    }
+
     /**
      * Increments the number of weight check queries.
      */
@@ -11,9 +11,14 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
  */
 @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
 public class Response implements LogInfo {
+    protected static final String IDENTITY = "identity";
+    protected static final int ROWS_UNKNOWN = -1;
+
     protected final int length;
     protected final int code;
     protected final int numberOfRows;
+    protected final String contentEncoding;
+    protected final long uncompressedLength;
 
     /**
      * Constructor.
@@ -23,8 +28,35 @@ public class Response implements LogInfo {
      * @param numberOfRows  Number of rows in the response
      */
     public Response(int length, int code, int numberOfRows) {
+        this(length, code, numberOfRows, IDENTITY, length);
+    }
+
+    /**
+     * Constructor for a response which may have been compressed while it was sent.
+     *
+     * @param length  Length of the response in bytes as sent, so after compression
+     * @param code  Response code
+     * @param contentEncoding  The content coding the response was compressed with, "identity" if it was not
+     * @param uncompressedLength  Length of the response in bytes before compression
+     */
+    public Response(int length, int code, String contentEncoding, long uncompressedLength) {
+        this(length, code, ROWS_UNKNOWN, contentEncoding, uncompressedLength);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param length  Length of the response in bytes as sent, so after compression
+     * @param code  Response code
+     * @param numberOfRows  Number of rows in the response, -1 if unknown
+     * @param contentEncoding  The content coding the response was compressed with, "identity" if it was not
+     * @param uncompressedLength  Length of the response in bytes before compression
+     */
+    public Response(int length, int code, int numberOfRows, String contentEncoding, long uncompressedLength) {
         this.length = length;
         this.code = code;
         this.numberOfRows = numberOfRows;
+        this.contentEncoding = contentEncoding;
+        this.uncompressedLength = uncompressedLength;
     }
 }
@@ -4,6 +4,12 @@ package com.yahoo.bard.webservice.metadata;
 
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
 
+import org.joda.time.Interval;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -23,4 +29,29 @@ public interface QuerySigningService<T> {
      * segment information was available for this query.
      */
     Optional<T> getSegmentSetId(DruidAggregationQuery<?> query);
+
+    /**
+     * Return the identifiers of the sets of segments that a query references in each of several intervals, as if the
+     * query were run over each interval alone.
+     * <p>
+     * Services which look the segment metadata up should override this to look it up once for all the intervals.
+     *
+     * @param query  The druid aggregation query.
+     * @param intervals  The intervals to sign the query over.
+     *
+     * @return the identifier of each interval, empty for intervals without segment information, in interval order
+     */
+    default Map<Interval, Optional<T>> getSegmentSetIds(
+            DruidAggregationQuery<?> query,
+            Collection<Interval> intervals
+    ) {
+        Map<Interval, Optional<T>> segmentSetIds = new LinkedHashMap<>(intervals.size());
+        for (Interval interval : intervals) {
+            segmentSetIds.put(
+                    interval,
+                    getSegmentSetId(query.withAllIntervals(Collections.singletonList(interval)))
+            );
+        }
+        return segmentSetIds;
+    }
 }
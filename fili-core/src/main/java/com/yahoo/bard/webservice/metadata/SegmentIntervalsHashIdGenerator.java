@@ -10,9 +10,13 @@ import com.yahoo.bard.webservice.util.DefaultingDictionary;
 import com.yahoo.bard.webservice.util.SimplifiedIntervalList;
 
 import org.joda.time.DateTime;
+import org.joda.time.Interval;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -70,6 +74,45 @@ public class SegmentIntervalsHashIdGenerator implements QuerySigningService<Long
 
     @Override
     public Optional<Long> getSegmentSetId(DruidAggregationQuery<?> query) {
+        Set<SortedMap<DateTime, Map<String, SegmentInfo>>> tableSegments = getTableSegments(query);
+
+        // Check if we have no tables with segments
+        if (tableSegments.isEmpty()) {
+            return Optional.empty();
+        }
+        return getSegmentSetId(query, tableSegments);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The segments of the query's tables are looked up once, and shared by all the intervals.
+     */
+    @Override
+    public Map<Interval, Optional<Long>> getSegmentSetIds(
+            DruidAggregationQuery<?> query,
+            Collection<Interval> intervals
+    ) {
+        Set<SortedMap<DateTime, Map<String, SegmentInfo>>> tableSegments = getTableSegments(query);
+        Map<Interval, Optional<Long>> segmentSetIds = new LinkedHashMap<>(intervals.size());
+        for (Interval interval : intervals) {
+            DruidAggregationQuery<?> intervalQuery = query.withAllIntervals(Collections.singletonList(interval));
+            segmentSetIds.put(
+                    interval,
+                    tableSegments.isEmpty() ? Optional.empty() : getSegmentSetId(intervalQuery, tableSegments)
+            );
+        }
+        return segmentSetIds;
+    }
+
+    /**
+     * Get all the segments for the data sources of a query's physical tables.
+     *
+     * @param query  The druid aggregation query
+     *
+     * @return the segments of each data source, empty if there is no segment information for any of them
+     */
+    private Set<SortedMap<DateTime, Map<String, SegmentInfo>>> getTableSegments(DruidAggregationQuery<?> query) {
         // Gather the data source names backing the query
         Set<DataSourceName> dataSourceNames = query.getInnermostQuery()
                 .getDataSource()
@@ -78,17 +121,27 @@ public class SegmentIntervalsHashIdGenerator implements QuerySigningService<Long
                 .stream()
                 .collect(Collectors.toSet());
 
-        // Get all the segments for the data sources of the query's physical tables
         Set<SortedMap<DateTime, Map<String, SegmentInfo>>> tableSegments = dataSourceMetadataService.getSegments(
                 dataSourceNames
         );
-
-        // Check if we have no tables with segments
         if (tableSegments.isEmpty()) {
             LOG.warn(DRUID_METADATA_SEGMENTS_MISSING.logFormat(dataSourceNames));
-            return Optional.empty();
         }
+        return tableSegments;
+    }
 
+    /**
+     * Sum the hash codes of the segments a query requests.
+     *
+     * @param query  The druid aggregation query
+     * @param tableSegments  The segments of each data source of the query's physical tables
+     *
+     * @return A hash of the requested segments
+     */
+    private Optional<Long> getSegmentSetId(
+            DruidAggregationQuery<?> query,
+            Set<SortedMap<DateTime, Map<String, SegmentInfo>>> tableSegments
+    ) {
         // Get requested intervals, then their segments, and sum their hash codes into a long
         return getSegmentHash(
                 requestedIntervalsQueryExtractionFunctions.get(query.getClass()).apply(query).stream()
@@ -0,0 +1,95 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.util;
+
+import com.yahoo.bard.webservice.web.PageNotFoundException;
+import com.yahoo.bard.webservice.web.util.PaginationParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Pagination over a page of data fetched along with the first row of the following page, if there is one.
+ * <p>
+ * The total number of results is not counted. The row beyond the page tells whether a next page exists, so the number
+ * of results is only known on the last page. On every other page it is reported as unknown, and the number of results
+ * is a lower bound counting the rows up to the one beyond the page. The last page is not linked to, since it is only
+ * known once it has been reached, and then it is the current page.
+ *
+ * @param <T>  The type of the data being paginated
+ */
+public class LookaheadPagination<T> implements Pagination<T> {
+
+    private final List<T> pageOfData;
+    private final int pageToFetch;
+    private final int countPerPage;
+    private final boolean hasNextPage;
+    private final int numResults;
+
+    /**
+     * Constructor.
+     *
+     * @param fetchedRows  The rows of the requested page, followed by the first row of the next page if there is one
+     * @param paginationParameters  The parameters needed for pagination, not requesting the last page
+     */
+    public LookaheadPagination(List<T> fetchedRows, PaginationParameters paginationParameters) {
+        this.pageToFetch = paginationParameters.getPage(fetchedRows.size());
+        this.countPerPage = paginationParameters.getPerPage();
+        this.hasNextPage = fetchedRows.size() > countPerPage;
+        this.numResults = (pageToFetch - 1) * countPerPage + fetchedRows.size();
+
+        if ((fetchedRows.isEmpty() && pageToFetch > FIRST_PAGE) || pageToFetch < FIRST_PAGE) {
+            // The rows before an empty page are not counted, so the previous page is the last one that may exist
+            throw new PageNotFoundException(pageToFetch, countPerPage, Math.max(pageToFetch - 1, FIRST_PAGE));
+        }
+        this.pageOfData = new ArrayList<>(fetchedRows.subList(0, Math.min(fetchedRows.size(), countPerPage)));
+    }
+
+    @Override
+    public int getPage() {
+        return pageToFetch;
+    }
+
+    @Override
+    public int getPerPage() {
+        return countPerPage;
+    }
+
+    @Override
+    public OptionalInt getFirstPage() {
+        return FIRST_PAGE != pageToFetch ? OptionalInt.of(FIRST_PAGE) : OptionalInt.empty();
+    }
+
+    @Override
+    public OptionalInt getLastPage() {
+        // The last page is only known once it is reached, and then it is the current page
+        return OptionalInt.empty();
+    }
+
+    @Override
+    public OptionalInt getNextPage() {
+        return hasNextPage ? OptionalInt.of(pageToFetch + 1) : OptionalInt.empty();
+    }
+
+    @Override
+    public OptionalInt getPreviousPage() {
+        return pageToFetch > FIRST_PAGE ? OptionalInt.of(pageToFetch - 1) : OptionalInt.empty();
+    }
+
+    @Override
+    public List<T> getPageOfData() {
+        return pageOfData;
+    }
+
+    @Override
+    public int getNumResults() {
+        return numResults;
+    }
+
+    @Override
+    public boolean isNumResultsUnknown() {
+        // Without a next page, the rows before this page and the rows of this page are all the rows there are
+        return hasNextPage;
+    }
+}
@@ -68,7 +68,16 @@ public interface Pagination<T> extends Serializable {
     /**
      * Get the size of all the data.
      *
-     * @return The data size
+     * @return The data size, or a lower bound of it if the size is not known
      */
     int getNumResults();
+
+    /**
+     * Whether the size of all the data is unknown, in which case the number of results is only a lower bound of it.
+     *
+     * @return true if the number of results is not the size of all the data
+     */
+    default boolean isNumResultsUnknown() {
+        return false;
+    }
 }
@@ -205,6 +205,24 @@ public class Utils {
         }
     }
 
+    /**
+     * Serialize an object to JSON in canonical form: object fields sorted and context blocks replaced with empty nodes.
+     * <p>
+     * Queries which only differ in their context have the same canonical JSON.
+     *
+     * @param value  The object to serialize, typically a druid query
+     * @param mapper  The object mapper used to serialize the object
+     *
+     * @return the canonical JSON text
+     *
+     * @throws JsonProcessingException if the object cannot be serialized to JSON
+     */
+    public static String canonicalJson(Object value, ObjectMapper mapper) throws JsonProcessingException {
+        JsonNode root = mapper.valueToTree(value);
+        canonicalize(root, mapper, false);
+        return mapper.writer().writeValueAsString(root);
+    }
+
     /**
      * Find the minimum value between two comparable objects.
      *
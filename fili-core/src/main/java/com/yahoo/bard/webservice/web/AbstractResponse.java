@@ -210,6 +210,22 @@ public abstract class AbstractResponse<T> implements ResponseStream {
         bodyLinks.put(link.getBodyName(), pageLink.build());
     }
 
+    /**
+     * Writes the number of results of a paginated response, or null if only a lower bound of it is known.
+     *
+     * @param generator  The JsonGenerator used to build the JSON response.
+     * @param pages  The paginated set of results.
+     *
+     * @throws IOException if the generator throws an IOException.
+     */
+    public static void writeNumberOfResults(JsonGenerator generator, Pagination<?> pages) throws IOException {
+        if (pages.isNumResultsUnknown()) {
+            generator.writeNullField("numberOfResults");
+        } else {
+            generator.writeNumberField("numberOfResults", pages.getNumResults());
+        }
+    }
+
     /**
      * Builds the meta data entry of the page if such data is present.
      * Currently it contains only the pagination related metadata.
@@ -247,7 +263,7 @@ public abstract class AbstractResponse<T> implements ResponseStream {
 
         generator.writeNumberField("currentPage", pages.getPage());
         generator.writeNumberField("rowsPerPage", pages.getPerPage());
-        generator.writeNumberField("numberOfResults", pages.getNumResults());
+        writeNumberOfResults(generator, pages);
         generator.writeEndObject();
         generator.writeEndObject();
     }
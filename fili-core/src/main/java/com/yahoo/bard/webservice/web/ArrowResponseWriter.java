@@ -0,0 +1,518 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.Result;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.dimension.DimensionColumn;
+import com.yahoo.bard.webservice.data.dimension.DimensionField;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.data.metric.LogicalMetric;
+import com.yahoo.bard.webservice.data.metric.MetricColumn;
+import com.yahoo.bard.webservice.data.metric.MetricColumnWithValueType;
+import com.yahoo.bard.webservice.web.ArrowStreamWriter.FieldType;
+import com.yahoo.bard.webservice.web.apirequest.ApiRequest;
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer for the Apache Arrow IPC stream format.
+ * <p>
+ * The response is a single table with a {@code dateTime} millisecond timestamp column in the time zone of the
+ * results, a dictionary encoded string column for each requested dimension field, and a column for each requested
+ * metric. Metric columns are typed from the schema, by the value type of their column or else the type of their logical
+ * metric, before any value is seen: numbers of any kind are written as doubles, since an integer metric may still
+ * produce fractional values, and metrics of unknown type as strings. Only a metric whose values contradict its
+ * declared type in the first record batch is widened to strings, so later batches hold values of the declared kind.
+ * <p>
+ * Rows are written in record batches of a configurable size, so only one batch of rows is held at a time. Values new
+ * to a dimension's dictionary are sent as a dictionary delta ahead of the batch which first uses them. Pagination
+ * links and response metadata are not part of the Arrow stream.
+ */
+public class ArrowResponseWriter implements ResponseWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArrowResponseWriter.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    /**
+     * The default number of rows in each record batch.
+     */
+    public static final int DEFAULT_BATCH_ROWS = SYSTEM_CONFIG.getIntProperty(
+            SYSTEM_CONFIG.getPackageVariableName("arrow_record_batch_rows"),
+            65536
+    );
+
+    private static final String DATE_TIME_COLUMN_NAME = "dateTime";
+
+    private final int batchRows;
+
+    /**
+     * Constructor.
+     */
+    public ArrowResponseWriter() {
+        this(DEFAULT_BATCH_ROWS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param batchRows  The number of rows in each record batch
+     */
+    public ArrowResponseWriter(int batchRows) {
+        this.batchRows = Math.max(batchRows, 1);
+    }
+
+    @Override
+    public void write(
+            ApiRequest request,
+            ResponseData responseData,
+            OutputStream outputStream
+    ) throws IOException {
+        Map<String, String> logicalMetricTypes = new HashMap<>();
+        if (request instanceof DataApiRequest) {
+            for (LogicalMetric logicalMetric : ((DataApiRequest) request).getLogicalMetrics()) {
+                logicalMetricTypes.put(logicalMetric.getName(), logicalMetric.getType());
+            }
+        }
+        BatchWriter batches = new BatchWriter(
+                responseData,
+                logicalMetricTypes,
+                new ArrowStreamWriter(outputStream),
+                batchRows
+        );
+        try {
+            responseData.getResultSet().forEach(result -> {
+                try {
+                    batches.add(result);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+            batches.finish();
+        } catch (UncheckedIOException uioe) {
+            LOG.error("Unable to write Arrow record batch", uioe.getCause());
+            throw uioe.getCause();
+        } catch (IOException ioe) {
+            LOG.error("Unable to write Arrow record batch", ioe);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Buffers the rows of a response into record batches and writes them, with the schema and dictionaries they need.
+     */
+    private static class BatchWriter {
+        private final ArrowStreamWriter stream;
+        private final int batchRows;
+        private final List<DimensionFieldColumn> dimensionFieldColumns = new ArrayList<>();
+        private final List<MetricFieldColumn> metricFieldColumns = new ArrayList<>();
+        private final List<Result> rows;
+        private boolean started = false;
+
+        /**
+         * Constructor.
+         *
+         * @param responseData  Data object containing the requested dimension fields and metric columns
+         * @param logicalMetricTypes  The types of the requested logical metrics, by name
+         * @param stream  The stream to write the batches to
+         * @param batchRows  The number of rows in each record batch
+         */
+        BatchWriter(
+                ResponseData responseData,
+                Map<String, String> logicalMetricTypes,
+                ArrowStreamWriter stream,
+                int batchRows
+        ) {
+            this.stream = stream;
+            this.batchRows = batchRows;
+            this.rows = new ArrayList<>(Math.min(batchRows, 1024));
+            for (Map.Entry<Dimension, LinkedHashSet<DimensionField>> entry
+                    : responseData.getRequestedApiDimensionFields().entrySet()) {
+                DimensionColumn dimensionColumn = new DimensionColumn(entry.getKey());
+                for (DimensionField field : entry.getValue()) {
+                    dimensionFieldColumns.add(new DimensionFieldColumn(
+                            ResponseData.getDimensionColumnName(entry.getKey(), field),
+                            dimensionColumn,
+                            field
+                    ));
+                }
+            }
+            for (MetricColumn metricColumn : responseData.getApiMetricColumns()) {
+                metricFieldColumns.add(
+                        new MetricFieldColumn(metricColumn, logicalMetricTypes.get(metricColumn.getName()))
+                );
+            }
+        }
+
+        /**
+         * Add a row, writing the batch once it is full.
+         *
+         * @param result  The row
+         *
+         * @throws IOException if the batch cannot be written
+         */
+        void add(Result result) throws IOException {
+            rows.add(result);
+            if (rows.size() >= batchRows) {
+                flush();
+            }
+        }
+
+        /**
+         * Write the remaining rows and the end of the stream.
+         * <p>
+         * At least one batch is always written, so an empty response still carries its schema and dictionaries.
+         *
+         * @throws IOException if the stream cannot be written
+         */
+        void finish() throws IOException {
+            if (!rows.isEmpty() || !started) {
+                flush();
+            }
+            stream.writeEndOfStream();
+        }
+
+        /**
+         * Write the buffered rows as a record batch, preceded by the schema and dictionaries if they are not sent yet.
+         *
+         * @throws IOException if the batch cannot be written
+         */
+        private void flush() throws IOException {
+            if (!started) {
+                writeSchema();
+            }
+            ArrowStreamWriter.Body body = new ArrowStreamWriter.Body();
+            addTimestampVector(body);
+            for (DimensionFieldColumn column : dimensionFieldColumns) {
+                column.addIndexVector(body, rows);
+            }
+            for (MetricFieldColumn column : metricFieldColumns) {
+                column.addVector(body, rows);
+            }
+            writeDictionaries();
+            stream.writeRecordBatch(rows.size(), body);
+            started = true;
+            rows.clear();
+        }
+
+        /**
+         * Add the vector of the timestamps of the buffered rows.
+         *
+         * @param body  The body of the record batch
+         */
+        private void addTimestampVector(ArrowStreamWriter.Body body) {
+            int length = rows.size();
+            long[] timestamps = new long[length];
+            for (int i = 0; i < length; i++) {
+                timestamps[i] = rows.get(i).getTimeStamp().getMillis();
+            }
+            BitSet valid = new BitSet(length);
+            valid.set(0, length);
+            body.addInt64Vector(timestamps, length, valid);
+        }
+
+        /**
+         * Write every dictionary if none is sent yet, or else the values added to each dictionary by the buffered rows.
+         * <p>
+         * Dictionaries have to be complete before the batch using them.
+         *
+         * @throws IOException if a dictionary batch cannot be written
+         */
+        private void writeDictionaries() throws IOException {
+            for (int i = 0; i < dimensionFieldColumns.size(); i++) {
+                List<String> added = dimensionFieldColumns.get(i).added;
+                if (!started || !added.isEmpty()) {
+                    stream.writeDictionaryBatch(i, added, started);
+                    added.clear();
+                }
+            }
+        }
+
+        /**
+         * Type the metric columns and write the schema.
+         *
+         * @throws IOException if the schema cannot be written
+         */
+        private void writeSchema() throws IOException {
+            String timezone = rows.isEmpty() ? "UTC" : rows.get(0).getTimeStamp().getZone().getID();
+            List<ArrowStreamWriter.Field> fields = new ArrayList<>();
+            fields.add(new ArrowStreamWriter.Field(DATE_TIME_COLUMN_NAME, FieldType.TIMESTAMP_MILLIS, timezone, null));
+            for (int i = 0; i < dimensionFieldColumns.size(); i++) {
+                fields.add(new ArrowStreamWriter.Field(
+                        dimensionFieldColumns.get(i).name,
+                        FieldType.UTF8,
+                        null,
+                        (long) i
+                ));
+            }
+            for (MetricFieldColumn column : metricFieldColumns) {
+                column.type = column.resolveType(rows);
+                fields.add(new ArrowStreamWriter.Field(column.metricColumn.getName(), column.type, null, null));
+            }
+            stream.writeSchema(fields);
+        }
+    }
+
+    /**
+     * A metric written as a column of the type its values are declared with.
+     * <p>
+     * The type is declared by the value type of a {@link MetricColumnWithValueType}, or else by the type of the
+     * logical metric: doubles for numbers of any kind, booleans, and strings. Integer metrics are written as doubles
+     * because their values are not guaranteed to be whole, for instance when a primitive long metric value falls back
+     * to a double. Since the schema is sent with the first batch, a value of a later batch which contradicts the
+     * declared type of its column fails the response rather than being written as null or truncated.
+     */
+    private static class MetricFieldColumn {
+        private final MetricColumn metricColumn;
+        private final FieldType declaredType;
+        private FieldType type;
+
+        /**
+         * Constructor.
+         *
+         * @param metricColumn  The metric column
+         * @param logicalMetricType  The type of the logical metric of the column, null if unknown
+         */
+        MetricFieldColumn(MetricColumn metricColumn, String logicalMetricType) {
+            this.metricColumn = metricColumn;
+            Class<?> valueType = metricColumn instanceof MetricColumnWithValueType
+                    ? ((MetricColumnWithValueType) metricColumn).getClassType()
+                    : null;
+            this.declaredType = valueType != null ? classType(valueType) : logicalType(logicalMetricType);
+        }
+
+        /**
+         * Resolve the type of the column: the declared type, or strings if a value of the first batch contradicts it.
+         * <p>
+         * A column without a declared type is written as strings, which hold anything, rather than guessing a type from
+         * the first batch which a later batch may not fit.
+         *
+         * @param firstBatch  The rows of the first batch
+         *
+         * @return the type of the column
+         */
+        FieldType resolveType(List<Result> firstBatch) {
+            if (declaredType == null) {
+                return FieldType.UTF8;
+            }
+            for (Result row : firstBatch) {
+                if (!fits(declaredType, row.getMetricValue(metricColumn))) {
+                    return FieldType.UTF8;
+                }
+            }
+            return declaredType;
+        }
+
+        /**
+         * Add the vector of the column for some rows.
+         *
+         * @param body  The body of the record batch
+         * @param rows  The rows
+         */
+        void addVector(ArrowStreamWriter.Body body, List<Result> rows) {
+            List<Object> values = new ArrayList<>(rows.size());
+            for (Result row : rows) {
+                values.add(row.getMetricValue(metricColumn));
+            }
+            BitSet valid = new BitSet(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                valid.set(i, values.get(i) != null);
+            }
+            switch (type) {
+                case FLOAT64:
+                    body.addFloat64Vector(toDoubles(values), values.size(), valid);
+                    break;
+                case BOOL:
+                    body.addBoolVector(toBooleans(values), values.size(), valid);
+                    break;
+                default:
+                    body.addUtf8Vector(toStrings(values), valid);
+            }
+        }
+
+        /**
+         * Convert the values of a double column.
+         *
+         * @param values  The values, with nulls for null slots
+         *
+         * @return the values as doubles
+         */
+        private double[] toDoubles(List<Object> values) {
+            double[] doubles = new double[values.size()];
+            for (int i = 0; i < doubles.length; i++) {
+                Object value = values.get(i);
+                if (value != null) {
+                    doubles[i] = ((Number) checkFits(value)).doubleValue();
+                }
+            }
+            return doubles;
+        }
+
+        /**
+         * Convert the values of a boolean column.
+         *
+         * @param values  The values, with nulls for null slots
+         *
+         * @return the slots which are true
+         */
+        private BitSet toBooleans(List<Object> values) {
+            BitSet booleans = new BitSet(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                Object value = values.get(i);
+                if (value != null) {
+                    booleans.set(i, (Boolean) checkFits(value));
+                }
+            }
+            return booleans;
+        }
+
+        /**
+         * Convert the values of a string column, which holds anything.
+         *
+         * @param values  The values, with nulls for null slots
+         *
+         * @return the values as strings
+         */
+        private static List<String> toStrings(List<Object> values) {
+            List<String> strings = new ArrayList<>(values.size());
+            for (Object value : values) {
+                strings.add(value == null ? null : value.toString());
+            }
+            return strings;
+        }
+
+        /**
+         * Fail if a value does not fit the type of the column.
+         *
+         * @param value  The value
+         *
+         * @return the value
+         */
+        private Object checkFits(Object value) {
+            if (!fits(type, value)) {
+                String message = String.format(
+                        "Value of metric %s does not fit its %s arrow column",
+                        metricColumn.getName(),
+                        type
+                );
+                LOG.error(message);
+                throw new IllegalStateException(message);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Get the column type of a metric value type.
+     *
+     * @param valueType  The class of the metric values
+     *
+     * @return the column type which holds the values
+     */
+    private static FieldType classType(Class<?> valueType) {
+        if (valueType == Boolean.class) {
+            return FieldType.BOOL;
+        }
+        return Number.class.isAssignableFrom(valueType) ? FieldType.FLOAT64 : FieldType.UTF8;
+    }
+
+    /**
+     * Get the column type of a logical metric type.
+     *
+     * @param logicalMetricType  The type of a logical metric, null if unknown
+     *
+     * @return the column type, or null if the logical metric type does not say
+     */
+    private static FieldType logicalType(String logicalMetricType) {
+        if ("number".equalsIgnoreCase(logicalMetricType)) {
+            return FieldType.FLOAT64;
+        }
+        if ("boolean".equalsIgnoreCase(logicalMetricType)) {
+            return FieldType.BOOL;
+        }
+        return "string".equalsIgnoreCase(logicalMetricType) ? FieldType.UTF8 : null;
+    }
+
+    /**
+     * Check whether a value fits a column type: any number fits a double column, and only booleans a boolean column.
+     *
+     * @param type  The column type
+     * @param value  The value
+     *
+     * @return true if the value is null or can be written to the column type without losing it
+     */
+    private static boolean fits(FieldType type, Object value) {
+        if (value == null || type == FieldType.UTF8) {
+            return true;
+        }
+        if (type == FieldType.FLOAT64) {
+            return value instanceof Number;
+        }
+        return type == FieldType.BOOL && value instanceof Boolean;
+    }
+
+    /**
+     * A field of a dimension written as a dictionary encoded column of its own.
+     */
+    private static class DimensionFieldColumn {
+        private final String name;
+        private final DimensionColumn dimensionColumn;
+        private final DimensionField field;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> added = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param name  The name of the column in the response
+         * @param dimensionColumn  The column of the dimension in the result set
+         * @param field  The field of the dimension
+         */
+        DimensionFieldColumn(String name, DimensionColumn dimensionColumn, DimensionField field) {
+            this.name = name;
+            this.dimensionColumn = dimensionColumn;
+            this.field = field;
+        }
+
+        /**
+         * Add the vector of dictionary indexes of the column for some rows, adding values new to the dictionary.
+         *
+         * @param body  The body of the record batch
+         * @param rows  The rows
+         */
+        void addIndexVector(ArrowStreamWriter.Body body, List<Result> rows) {
+            int length = rows.size();
+            int[] indexes = new int[length];
+            BitSet valid = new BitSet(length);
+            for (int i = 0; i < length; i++) {
+                DimensionRow dimensionRow = rows.get(i).getDimensionRows().get(dimensionColumn);
+                String value = dimensionRow == null ? null : dimensionRow.get(field);
+                if (value != null) {
+                    Integer index = dictionary.get(value);
+                    if (index == null) {
+                        index = dictionary.size();
+                        dictionary.put(value, index);
+                        added.add(value);
+                    }
+                    indexes[i] = index;
+                    valid.set(i);
+                }
+            }
+            body.addInt32Vector(indexes, length, valid);
+        }
+    }
+}
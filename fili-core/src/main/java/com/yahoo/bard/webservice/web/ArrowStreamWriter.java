@@ -0,0 +1,663 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Writes the messages of an Apache Arrow IPC stream: a schema, dictionary batches, record batches and the end of
+ * stream marker.
+ * <p>
+ * Only the parts of the format needed for tabular responses are supported: flat fields of UTF-8 strings, 64 bit
+ * integers, doubles, booleans and millisecond timestamps, with UTF-8 fields optionally dictionary encoded by 32 bit
+ * indexes. The flatbuffer metadata of each message is encoded by hand, so no Arrow library is needed at runtime.
+ * Body buffers are uncompressed and padded to 8 bytes, as the format requires.
+ */
+public class ArrowStreamWriter {
+
+    private static final int CONTINUATION_MARKER = 0xFFFFFFFF;
+    private static final short METADATA_VERSION_V5 = 4;
+
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_DICTIONARY_BATCH = 2;
+    private static final byte HEADER_RECORD_BATCH = 3;
+
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_FLOATING_POINT = 3;
+    private static final byte TYPE_UTF8 = 5;
+    private static final byte TYPE_BOOL = 6;
+    private static final byte TYPE_TIMESTAMP = 10;
+
+    private static final short PRECISION_DOUBLE = 2;
+    private static final short TIME_UNIT_MILLISECOND = 1;
+
+    private final OutputStream outputStream;
+
+    /**
+     * The types of field which can be written.
+     */
+    public enum FieldType {
+        UTF8,
+        INT64,
+        FLOAT64,
+        BOOL,
+        TIMESTAMP_MILLIS
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param outputStream  The stream to write the messages to
+     */
+    public ArrowStreamWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Write the schema message, which has to be the first message of the stream.
+     *
+     * @param fields  The fields of the record batches, in order
+     *
+     * @throws IOException if the message cannot be written
+     */
+    public void writeSchema(List<Field> fields) throws IOException {
+        List<FlatTable> fieldTables = new ArrayList<>(fields.size());
+        for (Field field : fields) {
+            fieldTables.add(field.toFlatTable());
+        }
+        FlatTable schema = new FlatTable().reference(1, new TableVector(fieldTables));
+        writeMessage(HEADER_SCHEMA, schema, new Body());
+    }
+
+    /**
+     * Write a dictionary batch holding UTF-8 values.
+     * <p>
+     * Every dictionary has to be written once, without being a delta, before the first record batch. Values added to a
+     * dictionary later are written as deltas, which are appended to the values already sent.
+     *
+     * @param id  The id of the dictionary
+     * @param values  The values of the dictionary, or the values added to it if this is a delta
+     * @param delta  Whether the values are appended to the values already sent for the dictionary
+     *
+     * @throws IOException if the message cannot be written
+     */
+    public void writeDictionaryBatch(long id, List<String> values, boolean delta) throws IOException {
+        Body body = new Body();
+        BitSet valid = new BitSet(values.size());
+        valid.set(0, values.size());
+        body.addUtf8Vector(values, valid);
+        FlatTable dictionaryBatch = new FlatTable()
+                .scalar(0, 8, id)
+                .reference(1, body.toRecordBatch(values.size()))
+                .scalar(2, 1, delta ? 1 : 0);
+        writeMessage(HEADER_DICTIONARY_BATCH, dictionaryBatch, body);
+    }
+
+    /**
+     * Write a record batch.
+     *
+     * @param length  The number of rows in the batch
+     * @param body  The vectors of the batch, one for each field of the schema in order
+     *
+     * @throws IOException if the message cannot be written
+     */
+    public void writeRecordBatch(int length, Body body) throws IOException {
+        writeMessage(HEADER_RECORD_BATCH, body.toRecordBatch(length), body);
+    }
+
+    /**
+     * Write the end of stream marker.
+     *
+     * @throws IOException if the marker cannot be written
+     */
+    public void writeEndOfStream() throws IOException {
+        ByteWriter marker = new ByteWriter(8);
+        marker.putInt(CONTINUATION_MARKER);
+        marker.putInt(0);
+        marker.writeTo(outputStream);
+    }
+
+    /**
+     * Frame and write a message: the continuation marker, the metadata length, the padded metadata and the body.
+     *
+     * @param headerType  The type of the message header
+     * @param header  The message header
+     * @param body  The body of the message
+     *
+     * @throws IOException if the message cannot be written
+     */
+    private void writeMessage(byte headerType, FlatTable header, Body body) throws IOException {
+        FlatTable message = new FlatTable()
+                .scalar(0, 2, METADATA_VERSION_V5)
+                .scalar(1, 1, headerType)
+                .reference(2, header)
+                .scalar(3, 8, body.bytes.size());
+        ByteWriter metadata = new ByteWriter(256);
+        metadata.putInt(0);
+        metadata.patch(0, message.write(metadata), 4);
+        // The metadata is padded so the body starts on an 8 byte boundary
+        metadata.align(8);
+
+        ByteWriter prefix = new ByteWriter(8);
+        prefix.putInt(CONTINUATION_MARKER);
+        prefix.putInt(metadata.size());
+        prefix.writeTo(outputStream);
+        metadata.writeTo(outputStream);
+        body.bytes.writeTo(outputStream);
+    }
+
+    /**
+     * A field of the schema.
+     */
+    public static class Field {
+        private final String name;
+        private final FieldType type;
+        private final String timezone;
+        private final Long dictionaryId;
+
+        /**
+         * Constructor.
+         *
+         * @param name  The name of the field
+         * @param type  The type of the field's values
+         * @param timezone  The time zone of a timestamp field, null for other fields
+         * @param dictionaryId  The id of the dictionary of a dictionary encoded UTF-8 field, null if not encoded
+         */
+        public Field(String name, FieldType type, String timezone, Long dictionaryId) {
+            this.name = name;
+            this.type = type;
+            this.timezone = timezone;
+            this.dictionaryId = dictionaryId;
+        }
+
+        /**
+         * Build the flatbuffer table describing the field.
+         *
+         * @return the field table
+         */
+        private FlatTable toFlatTable() {
+            FlatTable field = new FlatTable()
+                    .reference(0, name)
+                    .scalar(1, 1, 1);
+            switch (type) {
+                case UTF8:
+                    field.scalar(2, 1, TYPE_UTF8).reference(3, new FlatTable());
+                    break;
+                case INT64:
+                    field.scalar(2, 1, TYPE_INT).reference(3, intType(64));
+                    break;
+                case FLOAT64:
+                    field.scalar(2, 1, TYPE_FLOATING_POINT)
+                            .reference(3, new FlatTable().scalar(0, 2, PRECISION_DOUBLE));
+                    break;
+                case BOOL:
+                    field.scalar(2, 1, TYPE_BOOL).reference(3, new FlatTable());
+                    break;
+                case TIMESTAMP_MILLIS:
+                    FlatTable timestamp = new FlatTable().scalar(0, 2, TIME_UNIT_MILLISECOND);
+                    if (timezone != null) {
+                        timestamp.reference(1, timezone);
+                    }
+                    field.scalar(2, 1, TYPE_TIMESTAMP).reference(3, timestamp);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported arrow field type " + type);
+            }
+            if (dictionaryId != null) {
+                field.reference(4, new FlatTable().scalar(0, 8, dictionaryId).reference(1, intType(32)));
+            }
+            // Readers expect the children of every field, even when there are none
+            return field.reference(5, new TableVector(new ArrayList<>()));
+        }
+
+        /**
+         * Build the table of a signed integer type.
+         *
+         * @param bitWidth  The width of the integers
+         *
+         * @return the type table
+         */
+        private static FlatTable intType(int bitWidth) {
+            return new FlatTable().scalar(0, 4, bitWidth).scalar(1, 1, 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Field{name=" + name + ", type=" + type + ", dictionaryId=" + dictionaryId + "}";
+        }
+    }
+
+    /**
+     * The body of a record batch, built up one vector at a time in the order of the fields.
+     */
+    public static class Body {
+        private final ByteWriter bytes = new ByteWriter(4096);
+        private final List<Long> nodes = new ArrayList<>();
+        private final List<Long> buffers = new ArrayList<>();
+
+        /**
+         * Add a vector of UTF-8 strings.
+         *
+         * @param values  The values, with nulls for null slots
+         * @param valid  The slots which are not null
+         */
+        public void addUtf8Vector(List<String> values, BitSet valid) {
+            int length = values.size();
+            addNode(length, valid);
+            ByteWriter offsets = new ByteWriter(4 * (length + 1));
+            ByteWriter data = new ByteWriter(16 * length);
+            offsets.putInt(0);
+            for (String value : values) {
+                if (value != null) {
+                    byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                    data.putBytes(utf8, utf8.length);
+                }
+                offsets.putInt(data.size());
+            }
+            addBuffer(offsets);
+            addBuffer(data);
+        }
+
+        /**
+         * Add a vector of 32 bit integers, such as dictionary indexes.
+         *
+         * @param values  The values, with anything in null slots
+         * @param length  The number of values
+         * @param valid  The slots which are not null
+         */
+        public void addInt32Vector(int[] values, int length, BitSet valid) {
+            addNode(length, valid);
+            ByteWriter buffer = new ByteWriter(4 * length);
+            for (int i = 0; i < length; i++) {
+                buffer.putInt(values[i]);
+            }
+            addBuffer(buffer);
+        }
+
+        /**
+         * Add a vector of 64 bit integers, such as millisecond timestamps.
+         *
+         * @param values  The values, with anything in null slots
+         * @param length  The number of values
+         * @param valid  The slots which are not null
+         */
+        public void addInt64Vector(long[] values, int length, BitSet valid) {
+            addNode(length, valid);
+            ByteWriter buffer = new ByteWriter(8 * length);
+            for (int i = 0; i < length; i++) {
+                buffer.putScalar(values[i], 8);
+            }
+            addBuffer(buffer);
+        }
+
+        /**
+         * Add a vector of doubles.
+         *
+         * @param values  The values, with anything in null slots
+         * @param length  The number of values
+         * @param valid  The slots which are not null
+         */
+        public void addFloat64Vector(double[] values, int length, BitSet valid) {
+            addNode(length, valid);
+            ByteWriter buffer = new ByteWriter(8 * length);
+            for (int i = 0; i < length; i++) {
+                buffer.putScalar(Double.doubleToRawLongBits(values[i]), 8);
+            }
+            addBuffer(buffer);
+        }
+
+        /**
+         * Add a vector of booleans.
+         *
+         * @param values  The slots which are true
+         * @param length  The number of values
+         * @param valid  The slots which are not null
+         */
+        public void addBoolVector(BitSet values, int length, BitSet valid) {
+            addNode(length, valid);
+            addBuffer(bitmap(values, length));
+        }
+
+        /**
+         * Add the node of a vector and its validity buffer, which is left empty when there are no nulls.
+         *
+         * @param length  The number of values
+         * @param valid  The slots which are not null
+         */
+        private void addNode(int length, BitSet valid) {
+            int nullCount = length - valid.get(0, length).cardinality();
+            nodes.add((long) length);
+            nodes.add((long) nullCount);
+            addBuffer(nullCount == 0 ? new ByteWriter(0) : bitmap(valid, length));
+        }
+
+        /**
+         * Encode a bit set as an Arrow bitmap, least significant bit first.
+         *
+         * @param bits  The set bits
+         * @param length  The number of bits
+         *
+         * @return the bitmap
+         */
+        private static ByteWriter bitmap(BitSet bits, int length) {
+            ByteWriter bitmap = new ByteWriter((length + 7) / 8);
+            byte[] bytes = bits.get(0, length).toByteArray();
+            bitmap.putBytes(bytes, Math.min(bytes.length, (length + 7) / 8));
+            bitmap.skip((length + 7) / 8 - bitmap.size());
+            return bitmap;
+        }
+
+        /**
+         * Append a buffer to the body, padded to 8 bytes.
+         *
+         * @param buffer  The buffer
+         */
+        private void addBuffer(ByteWriter buffer) {
+            buffers.add((long) bytes.size());
+            buffers.add((long) buffer.size());
+            bytes.putBytes(buffer.buf, buffer.size());
+            bytes.align(8);
+        }
+
+        /**
+         * Build the record batch table describing the vectors of the body.
+         *
+         * @param length  The number of rows
+         *
+         * @return the record batch table
+         */
+        private FlatTable toRecordBatch(int length) {
+            return new FlatTable()
+                    .scalar(0, 8, length)
+                    .reference(1, new LongStructVector(nodes))
+                    .reference(2, new LongStructVector(buffers));
+        }
+
+        @Override
+        public String toString() {
+            return "Body{bytes=" + bytes.size() + ", buffers=" + buffers.size() / 2 + "}";
+        }
+    }
+
+    /**
+     * A flatbuffer table, encoded front to back so each table is written before the strings, vectors and tables it
+     * refers to, which keeps every offset pointing forward as flatbuffers require.
+     */
+    private static class FlatTable {
+        private final List<Object[]> fields = new ArrayList<>();
+
+        /**
+         * Add a field.
+         *
+         * @param slot  The index of the field in the table's schema
+         * @param size  The inline size of the field, 4 for references
+         * @param value  The value, a Long for scalars
+         *
+         * @return this table
+         */
+        private FlatTable add(int slot, int size, Object value) {
+            fields.add(new Object[] {slot, size, value});
+            return this;
+        }
+
+        /**
+         * Add a scalar field.
+         *
+         * @param slot  The index of the field in the table's schema
+         * @param width  The number of bytes of the scalar: 1 for bytes and booleans, 2 for shorts and so on
+         * @param value  The value
+         *
+         * @return this table
+         */
+        FlatTable scalar(int slot, int width, long value) {
+            return add(slot, width, value);
+        }
+
+        /**
+         * Add a field referring to a string, a table, or a {@link TableVector} or {@link LongStructVector}.
+         *
+         * @param slot  The index of the field in the table's schema
+         * @param value  The referred value
+         *
+         * @return this table
+         */
+        FlatTable reference(int slot, Object value) {
+            return add(slot, 4, value);
+        }
+
+        /**
+         * Write the table, and then everything it refers to.
+         *
+         * @param out  The buffer to write to
+         *
+         * @return the position of the table
+         */
+        int write(ByteWriter out) {
+            int slots = 0;
+            for (Object[] field : fields) {
+                slots = Math.max(slots, (int) field[0] + 1);
+            }
+            out.align(2);
+            int vtable = out.size();
+            out.skip(4 + 2 * slots);
+
+            out.align(4);
+            int table = out.size();
+            out.putInt(table - vtable);
+
+            // Lay the fields out widest first, which keeps the padding between them down
+            List<Object[]> layout = new ArrayList<>(fields);
+            layout.sort((a, b) -> Integer.compare((int) b[1], (int) a[1]));
+            int[] positions = new int[layout.size()];
+            for (int i = 0; i < layout.size(); i++) {
+                Object[] field = layout.get(i);
+                int size = (int) field[1];
+                out.align(size);
+                positions[i] = out.size();
+                out.patch(vtable + 4 + 2 * (int) field[0], positions[i] - table, 2);
+                if (field[2] instanceof Long) {
+                    out.putScalar((Long) field[2], size);
+                } else {
+                    out.putInt(0);
+                }
+            }
+            out.patch(vtable, 4 + 2 * slots, 2);
+            out.patch(vtable + 2, out.size() - table, 2);
+
+            for (int i = 0; i < layout.size(); i++) {
+                Object value = layout.get(i)[2];
+                if (!(value instanceof Long)) {
+                    out.patch(positions[i], writeReference(out, value) - positions[i], 4);
+                }
+            }
+            return table;
+        }
+
+        /**
+         * Write a string, vector or table referred to by a field.
+         *
+         * @param out  The buffer to write to
+         * @param value  The referred value
+         *
+         * @return the position of the value
+         */
+        private static int writeReference(ByteWriter out, Object value) {
+            if (value instanceof FlatTable) {
+                return ((FlatTable) value).write(out);
+            }
+            if (value instanceof String) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.align(4);
+                int position = out.size();
+                out.putInt(bytes.length);
+                out.putBytes(bytes, bytes.length);
+                out.putScalar(0, 1);
+                return position;
+            }
+            if (value instanceof LongStructVector) {
+                List<Long> longs = ((LongStructVector) value).longs;
+                // The length is followed by 8 byte aligned structs of two longs
+                out.align(4);
+                if (out.size() % 8 == 0) {
+                    out.skip(4);
+                }
+                int position = out.size();
+                out.putInt(longs.size() / 2);
+                for (long element : longs) {
+                    out.putScalar(element, 8);
+                }
+                return position;
+            }
+            List<FlatTable> tables = ((TableVector) value).tables;
+            out.align(4);
+            int position = out.size();
+            out.putInt(tables.size());
+            out.skip(4 * tables.size());
+            for (int i = 0; i < tables.size(); i++) {
+                int element = position + 4 + 4 * i;
+                out.patch(element, tables.get(i).write(out) - element, 4);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * A vector of tables.
+     */
+    private static class TableVector {
+        private final List<FlatTable> tables;
+
+        /**
+         * Constructor.
+         *
+         * @param tables  The tables
+         */
+        TableVector(List<FlatTable> tables) {
+            this.tables = tables;
+        }
+    }
+
+    /**
+     * A vector of structs made of two longs, such as field nodes and buffers, flattened into their longs.
+     */
+    private static class LongStructVector {
+        private final List<Long> longs;
+
+        /**
+         * Constructor.
+         *
+         * @param longs  The longs of the structs, in order
+         */
+        LongStructVector(List<Long> longs) {
+            this.longs = longs;
+        }
+    }
+
+    /**
+     * A growable little endian byte buffer which can be patched after it is written.
+     */
+    private static class ByteWriter {
+        private byte[] buf;
+        private int size = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity  The initial capacity
+         */
+        ByteWriter(int capacity) {
+            this.buf = new byte[Math.max(capacity, 8)];
+        }
+
+        /**
+         * Get the number of bytes written.
+         *
+         * @return the number of bytes
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Skip over bytes, leaving them zero.
+         *
+         * @param count  The number of bytes to skip
+         */
+        void skip(int count) {
+            if (size + count > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + count));
+            }
+            size += count;
+        }
+
+        /**
+         * Pad with zeros up to a multiple of an alignment.
+         *
+         * @param alignment  The alignment in bytes
+         */
+        void align(int alignment) {
+            skip((alignment - size % alignment) % alignment);
+        }
+
+        /**
+         * Append a little endian scalar.
+         *
+         * @param value  The value
+         * @param width  The number of bytes of the value
+         */
+        void putScalar(long value, int width) {
+            skip(width);
+            patch(size - width, value, width);
+        }
+
+        /**
+         * Append a 32 bit integer.
+         *
+         * @param value  The value
+         */
+        void putInt(int value) {
+            putScalar(value, 4);
+        }
+
+        /**
+         * Append bytes.
+         *
+         * @param bytes  The bytes
+         * @param length  The number of bytes to append from the start of the array
+         */
+        void putBytes(byte[] bytes, int length) {
+            skip(length);
+            System.arraycopy(bytes, 0, buf, size - length, length);
+        }
+
+        /**
+         * Write a little endian scalar over already written bytes.
+         *
+         * @param position  The position of the value
+         * @param value  The value
+         * @param width  The number of bytes of the value
+         */
+        void patch(int position, long value, int width) {
+            for (int i = 0; i < width; i++) {
+                buf[position + i] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        /**
+         * Write the bytes to a stream.
+         *
+         * @param outputStream  The stream
+         *
+         * @throws IOException if the stream cannot be written to
+         */
+        void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(buf, 0, size);
+        }
+    }
+}
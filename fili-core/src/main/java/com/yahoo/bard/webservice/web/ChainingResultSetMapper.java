@@ -115,6 +115,9 @@ public class ChainingResultSetMapper  extends ResultSetMapper implements Renamab
     /**
      * Take a complete result set and replace it with one altered according to the rules of the concrete
      *  mappers in the Chain. It delegates to the map method of corresponding mapper.
+     * <p>
+     * Runs of consecutive {@link ResultSetMapper#isFusable(ResultSetMapper) fusable} mappers are fused, mapping the
+     * result set through the whole run in a single pass rather than copying it once per mapper.
      *
      * @param resultSet  The unmapped result set
      *
@@ -124,11 +127,39 @@ public class ChainingResultSetMapper  extends ResultSetMapper implements Renamab
     public ResultSet map(ResultSet resultSet) {
         ResultSet finalResultSet = resultSet ;
 
+        List<ResultSetMapper> fused = new ArrayList<>();
         for (ResultSetMapper m : chainedResultSetMappers) {
+            if (ResultSetMapper.isFusable(m)) {
+                fused.add(m);
+                continue;
+            }
+            finalResultSet = mapFused(fused, finalResultSet);
             finalResultSet = m.map(finalResultSet);
         }
 
-        return finalResultSet;
+        return mapFused(fused, finalResultSet);
+    }
+
+    /**
+     * Map a result set through a run of fused mappers, emptying the run.
+     *
+     * @param fused  The run of fusable mappers
+     * @param resultSet  The unmapped result set
+     *
+     * @return The mapped result set, or the result set itself if the run is empty
+     */
+    private static ResultSet mapFused(List<ResultSetMapper> fused, ResultSet resultSet) {
+        if (fused.isEmpty()) {
+            return resultSet;
+        }
+        ResultSet mapped = fused.size() == 1 ? fused.get(0).map(resultSet) : ResultSetMapper.mapRows(fused, resultSet);
+        fused.clear();
+        return mapped;
+    }
+
+    @Override
+    public boolean keepsRows() {
+        return chainedResultSetMappers.stream().allMatch(ResultSetMapper::keepsRows);
     }
 
     @Override
@@ -0,0 +1,198 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream which compresses what is written to it once it has grown past a minimum size.
+ * <p>
+ * The first bytes are held back until either the minimum size is reached, at which point the stream calls its
+ * compression listener (typically to set the Content-Encoding header, while the headers can still change) and
+ * compresses everything from the first byte on, or the stream is finished, at which point the held back bytes are
+ * written out as they are. Small responses so go out uncompressed, without paying the compression overhead for them.
+ */
+public class CompressingOutputStream extends OutputStream {
+
+    private final OutputStream wrapped;
+    private final CountingOutputStream outputStream;
+    private final ContentEncoding encoding;
+    private final int level;
+    private final int minimumLength;
+    private final Runnable compressionListener;
+
+    private ByteArrayOutputStream heldBack;
+    private OutputStream compressor;
+    private long uncompressedLength = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param outputStream  The stream to write the (compressed) bytes to
+     * @param encoding  The content coding to compress with
+     * @param level  The compression level, on the scale of the content coding
+     * @param minimumLength  The number of bytes the stream needs to reach before it is compressed
+     * @param compressionListener  Called once, before the first compressed byte is written, if the stream is compressed
+     */
+    public CompressingOutputStream(
+            OutputStream outputStream,
+            ContentEncoding encoding,
+            int level,
+            int minimumLength,
+            Runnable compressionListener
+    ) {
+        this.wrapped = outputStream;
+        this.outputStream = new CountingOutputStream(outputStream);
+        this.encoding = encoding;
+        this.level = level;
+        this.minimumLength = Math.max(minimumLength, 0);
+        this.compressionListener = compressionListener;
+        this.heldBack = new ByteArrayOutputStream(Math.min(this.minimumLength, 64 * 1024));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Cannot write to a finished compressing stream");
+        }
+        uncompressedLength += len;
+        if (compressor != null) {
+            compressor.write(b, off, len);
+            return;
+        }
+        heldBack.write(b, off, len);
+        if (heldBack.size() >= minimumLength) {
+            startCompressing();
+        }
+    }
+
+    /**
+     * Flush the compressed bytes written so far. Held back bytes stay held back, since writing them out would commit
+     * the response to being uncompressed.
+     *
+     * @throws IOException if the bytes cannot be flushed
+     */
+    @Override
+    public void flush() throws IOException {
+        if (compressor != null) {
+            compressor.flush();
+        }
+    }
+
+    /**
+     * Finish the stream, writing out the held back bytes, or the end of the compressed data, without closing the
+     * stream written to.
+     *
+     * @throws IOException if the bytes cannot be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (compressor != null) {
+            // The counting stream shields the stream written to from being closed with the compressor
+            compressor.close();
+        } else {
+            heldBack.writeTo(outputStream);
+            heldBack = null;
+            outputStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            wrapped.close();
+        }
+    }
+
+    /**
+     * Whether the stream has started compressing what is written to it.
+     *
+     * @return true if the bytes written out are compressed
+     */
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    public ContentEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Get the number of bytes written to this stream.
+     *
+     * @return the length of the stream before compression
+     */
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    /**
+     * Get the number of bytes written out, which is the compressed length if the stream is compressed. It is only
+     * complete once the stream has been finished.
+     *
+     * @return the length of the stream as written out
+     */
+    public long getLength() {
+        return outputStream.length;
+    }
+
+    /**
+     * Tell the listener the stream is compressed from here on, and compress the bytes held back so far.
+     *
+     * @throws IOException if the compressed data cannot be started
+     */
+    private void startCompressing() throws IOException {
+        compressionListener.run();
+        compressor = encoding.compress(outputStream, level);
+        heldBack.writeTo(compressor);
+        heldBack = null;
+    }
+
+    /**
+     * Counts the bytes written through to the wrapped stream, and does not close the wrapped stream when it is closed.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long length = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param outputStream  The stream to write to
+         */
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content codings responses can be compressed with, as named in the Content-Encoding and Accept-Encoding headers.
+ */
+public enum ContentEncoding {
+    GZIP("gzip") {
+        @Override
+        public OutputStream compress(OutputStream outputStream, int level) throws IOException {
+            return new LevelledGzipOutputStream(outputStream, level);
+        }
+    },
+    ZSTD("zstd") {
+        @Override
+        public OutputStream compress(OutputStream outputStream, int level) throws IOException {
+            return new ZstdOutputStream(outputStream, level);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final String ANY_ENCODING = "*";
+
+    private final String headerValue;
+
+    /**
+     * Constructor.
+     *
+     * @param headerValue  The name of the content coding in the encoding headers
+     */
+    ContentEncoding(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    /**
+     * Get the name of the content coding in the encoding headers.
+     *
+     * @return the header value of the content coding
+     */
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    /**
+     * Wrap a stream in a stream compressing everything written to it with this content coding.
+     * <p>
+     * Closing the compressing stream finishes the compressed data and closes the wrapped stream.
+     *
+     * @param outputStream  The stream to write the compressed bytes to
+     * @param level  The compression level, on the scale of the content coding
+     *
+     * @return the compressing stream
+     *
+     * @throws IOException if the compressed data cannot be started
+     */
+    public abstract OutputStream compress(OutputStream outputStream, int level) throws IOException;
+
+    /**
+     * Find the content coding with the given header value.
+     *
+     * @param headerValue  The name of the content coding, case insensitive
+     *
+     * @return the content coding, or empty if no content coding has that name
+     */
+    public static Optional<ContentEncoding> forHeaderValue(String headerValue) {
+        return Arrays.stream(values()).filter(it -> it.headerValue.equalsIgnoreCase(headerValue.trim())).findFirst();
+    }
+
+    /**
+     * Choose the content coding to compress a response with from those a client accepts.
+     * <p>
+     * The accepted content coding with the highest quality value wins. Content codings the client gives the same
+     * quality value are chosen in the order they are offered. A {@code *} entry covers the offered content codings the
+     * client does not name, and a quality value of 0 refuses a content coding.
+     *
+     * @param acceptEncoding  The value of the Accept-Encoding header of the request, null if it had none
+     * @param offered  The content codings the server can compress with, in order of preference
+     *
+     * @return the content coding to compress with, or empty if the response should not be compressed
+     */
+    public static Optional<ContentEncoding> negotiate(String acceptEncoding, Collection<ContentEncoding> offered) {
+        if (acceptEncoding == null || acceptEncoding.trim().isEmpty()) {
+            return Optional.empty();
+        }
+
+        Map<String, Double> qualities = new HashMap<>();
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            double quality = 1.0;
+            for (int i = 1; i < parameters.length; i++) {
+                String[] parameter = parameters[i].split("=", 2);
+                if (parameter.length == 2 && parameter[0].trim().equalsIgnoreCase("q")) {
+                    try {
+                        quality = Double.parseDouble(parameter[1].trim());
+                    } catch (NumberFormatException ignored) {
+                        // An unreadable quality value leaves the content coding at the default quality
+                    }
+                }
+            }
+            qualities.put(parameters[0].trim().toLowerCase(Locale.ENGLISH), quality);
+        }
+
+        ContentEncoding chosen = null;
+        double chosenQuality = 0;
+        for (ContentEncoding encoding : offered) {
+            double quality = qualities.getOrDefault(encoding.headerValue, qualities.getOrDefault(ANY_ENCODING, 0.0));
+            if (quality > chosenQuality) {
+                chosen = encoding;
+                chosenQuality = quality;
+            }
+        }
+        return Optional.ofNullable(chosen);
+    }
+
+    /**
+     * A gzip stream compressing at a chosen level rather than at the default level.
+     */
+    private static class LevelledGzipOutputStream extends GZIPOutputStream {
+
+        /**
+         * Constructor.
+         *
+         * @param outputStream  The stream to write the compressed bytes to
+         * @param level  The deflate compression level, from 1 (fastest) to 9 (smallest)
+         *
+         * @throws IOException if the gzip header cannot be written
+         */
+        LevelledGzipOutputStream(OutputStream outputStream, int level) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
@@ -6,7 +6,7 @@ import com.yahoo.bard.webservice.application.ObjectMappersSuite;
 import com.yahoo.bard.webservice.data.metric.MetricColumn;
 import com.yahoo.bard.webservice.web.apirequest.ApiRequest;
 
-import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvGenerator;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 
@@ -15,7 +15,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UncheckedIOException;
 import java.util.Collections;
 import java.util.stream.Stream;
 
@@ -47,24 +46,14 @@ public class CsvResponseWriter implements ResponseWriter {
         csvMapper.writer().with(schema.withSkipFirstDataRow(true))
                 .writeValue(outputStream, Collections.emptyMap());
 
-        ObjectWriter writer = csvMapper.writer().with(schema.withoutHeader());
-
-        try {
-            responseData.getResultSet().stream()
-                    .map(responseData::buildResultRow)
-                    .forEachOrdered(
-                            row -> {
-                                try {
-                                    writer.writeValue(outputStream, row);
-                                } catch (IOException ioe) {
-                                    String msg = String.format("Unable to write CSV data row: %s", row);
-                                    LOG.error(msg, ioe);
-                                    throw new UncheckedIOException(msg, ioe);
-                                }
-                            }
-                    );
-        } catch (UncheckedIOException re) {
-            throw new IOException(re.getMessage(), re);
+        // Rows are written as arrays of values in the order of the header columns, on a single generator
+        ResultRowEncoder encoder = new ResultRowEncoder(responseData);
+        try (CsvGenerator generator = csvMapper.getFactory().createGenerator(outputStream)) {
+            generator.setSchema(schema.withoutHeader());
+            encoder.writeCsvRows(generator, responseData.getResultSet());
+        } catch (IOException ioe) {
+            LOG.error("Unable to write CSV data rows", ioe);
+            throw ioe;
         }
     }
 
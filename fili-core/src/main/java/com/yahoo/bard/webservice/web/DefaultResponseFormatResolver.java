@@ -8,16 +8,18 @@ import java.util.Map;
 import javax.ws.rs.container.ContainerRequestContext;
 
 /**
- * A Fili default implementation of ResponseFormatResolver. This implementation works with three formats: json, jsonapi
- * and csv.
+ * A Fili default implementation of ResponseFormatResolver. This implementation works with four formats: json, jsonapi,
+ * csv and arrow.
  */
 public class DefaultResponseFormatResolver implements ResponseFormatResolver {
     public static final String ACCEPT_HEADER_JSON = "application/json";
     public static final String ACCEPT_HEADER_JSONAPI = "application/vnd.api+json";
     public static final String ACCEPT_HEADER_CSV = "text/csv";
+    public static final String ACCEPT_HEADER_ARROW = ResponseFormatType.ARROW_STREAM_CONTENT_TYPE;
     public static final String URI_JSON = "json";
     public static final String URI_JSONAPI = "jsonapi";
     public static final String URI_CSV = "csv";
+    public static final String URI_ARROW = "arrow";
 
     private final Map<String, String> formatsMap;
 
@@ -29,6 +31,7 @@ public class DefaultResponseFormatResolver implements ResponseFormatResolver {
         formatsMap.put(ACCEPT_HEADER_JSON, URI_JSON);
         formatsMap.put(ACCEPT_HEADER_JSONAPI, URI_JSONAPI);
         formatsMap.put(ACCEPT_HEADER_CSV, URI_CSV);
+        formatsMap.put(ACCEPT_HEADER_ARROW, URI_ARROW);
     }
 
     @Override
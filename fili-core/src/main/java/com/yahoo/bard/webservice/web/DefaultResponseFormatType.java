@@ -14,7 +14,8 @@ public enum DefaultResponseFormatType implements ResponseFormatType {
     JSON(MediaType.APPLICATION_JSON),
     CSV(ResponseFormatType.CSV_CONTENT_TYPE),
     DEBUG(MediaType.APPLICATION_JSON, ".json"),
-    JSONAPI(MediaType.APPLICATION_JSON, ".json");
+    JSONAPI(MediaType.APPLICATION_JSON, ".json"),
+    ARROW(ResponseFormatType.ARROW_STREAM_CONTENT_TYPE, ".arrows");
 
     private String fileExtension;
     private String contentType;
@@ -107,6 +107,7 @@ public enum ErrorMessageFormat implements MessageFormatter {
     NO_PRERESPONSE("Pre response is not available to publish the response for this request"),
 
     RESULT_SET_ERROR("Cannot build result set for query of type: %s."),
+    DRUID_RESPONSE_NOT_ARRAY("Expected a Druid response array but found: %s."),
     TOO_MANY_PERIODS("Too many periods between the epoch %s and the target %s to calculate alignment on grain %s."),
 
     HAVING_INVALID("Having expression '%s' is invalid."),
@@ -127,6 +128,7 @@ public enum ErrorMessageFormat implements MessageFormatter {
     DRUID_METADATA_SEGMENTS_MISSING("No segment metadata available for data sources: '%s'."),
 
     DRUID_URL_INVALID("Druid %s url is unset."),
+    DRUID_SERVICE_OVERLOADED("Druid %s is overloaded, the query was rejected: %s."),
 
     WEIGHT_CHECK_FAILED(
             "Result set too large. Try reducing interval, dimensions, or sketch metrics.",
@@ -11,7 +11,7 @@ import java.util.Optional;
 
 /**
  * FiliResponseWriterSelector is the default selector for ReponseWriterSelector. It selects the writer based on the
- * format type in the ApiRequest. It's initialized with three format-writer mapping: CSV, Json and JsonApi.
+ * format type in the ApiRequest. It's initialized with four format-writer mapping: CSV, Json, JsonApi and Arrow.
  */
 public class FiliResponseWriterSelector implements ResponseWriterSelector {
     private final Map<ResponseFormatType, ResponseWriter> writers;
@@ -27,11 +27,29 @@ public class FiliResponseWriterSelector implements ResponseWriterSelector {
             CsvResponseWriter csvResponseWriter,
             JsonResponseWriter jsonResponseWriter,
             JsonApiResponseWriter jsonApiResponseWriter
+    ) {
+        this(csvResponseWriter, jsonResponseWriter, jsonApiResponseWriter, new ArrowResponseWriter());
+    }
+
+    /**
+     * Constructor for default writer selector. Initialize format to writer mapping.
+     *
+     * @param csvResponseWriter The CSV writer which serialize output into csv format
+     * @param jsonResponseWriter  The Json writer which serialize output into json format
+     * @param jsonApiResponseWriter  The JsonApi writer which serialize output into json api format
+     * @param arrowResponseWriter  The Arrow writer which serialize output into an arrow ipc stream
+     */
+    public FiliResponseWriterSelector(
+            CsvResponseWriter csvResponseWriter,
+            JsonResponseWriter jsonResponseWriter,
+            JsonApiResponseWriter jsonApiResponseWriter,
+            ArrowResponseWriter arrowResponseWriter
     ) {
         writers = new HashMap<>();
         writers.put(DefaultResponseFormatType.CSV, csvResponseWriter);
         writers.put(DefaultResponseFormatType.JSON, jsonResponseWriter);
         writers.put(DefaultResponseFormatType.JSONAPI, jsonApiResponseWriter);
+        writers.put(DefaultResponseFormatType.ARROW, arrowResponseWriter);
     }
 
     /**
@@ -97,7 +97,7 @@ public abstract class JsonAndJsonApiResponseWriter implements ResponseWriter {
 
             generator.writeNumberField("currentPage", pagination.getPage());
             generator.writeNumberField("rowsPerPage", pagination.getPerPage());
-            generator.writeNumberField("numberOfResults", pagination.getNumResults());
+            AbstractResponse.writeNumberOfResults(generator, pagination);
 
             generator.writeEndObject();
         }
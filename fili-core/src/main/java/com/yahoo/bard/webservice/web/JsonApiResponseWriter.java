@@ -3,10 +3,9 @@
 package com.yahoo.bard.webservice.web;
 
 import com.yahoo.bard.webservice.application.ObjectMappersSuite;
-import com.yahoo.bard.webservice.data.Result;
 import com.yahoo.bard.webservice.data.dimension.Dimension;
 import com.yahoo.bard.webservice.data.dimension.DimensionColumn;
-import com.yahoo.bard.webservice.data.dimension.DimensionField;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
 import com.yahoo.bard.webservice.web.apirequest.ApiRequest;
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 
@@ -18,10 +17,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
 
 /**
@@ -105,8 +102,8 @@ public class JsonApiResponseWriter extends JsonAndJsonApiResponseWriter {
     ) throws IOException {
         JsonFactory jsonFactory = new JsonFactory(getObjectMappers().getMapper());
         try (JsonGenerator generator = jsonFactory.createGenerator(os)) {
-            // Holder for the dimension rows in the result set
-            Map<Dimension, Set<Map<DimensionField, String>>> sidecars = new HashMap<>();
+            // Holder for the dimension rows in the result set, by key value
+            Map<Dimension, Map<String, DimensionRow>> sidecars = new LinkedHashMap<>();
             for (DimensionColumn dimensionColumn :
                     responseData.getResultSet().getSchema().getColumns(DimensionColumn.class)) {
                 if (request instanceof DataApiRequest) {
@@ -115,32 +112,21 @@ public class JsonApiResponseWriter extends JsonAndJsonApiResponseWriter {
                         continue;
                     }
                 }
-                sidecars.put(dimensionColumn.getDimension(), new LinkedHashSet<>());
+                sidecars.put(dimensionColumn.getDimension(), new LinkedHashMap<>());
             }
 
             // Start the top-level JSON object
             generator.writeStartObject();
 
-            // Write the data rows and extract the dimension rows for the sidecars
+            // Write the data rows and collect the dimension rows for the sidecars
+            ResultRowEncoder encoder = new ResultRowEncoder(responseData);
             generator.writeArrayFieldStart("rows");
-            for (Result result : responseData.getResultSet()) {
-                generator.writeObject(responseData.buildResultRowWithSidecars(result, sidecars));
-            }
+            encoder.writeJsonApiRows(generator, responseData.getResultSet(), sidecars);
             generator.writeEndArray();
 
             // Write the sidecar for each dimension
-            for (Map.Entry<Dimension, Set<Map<DimensionField, String>>> sidecar : sidecars.entrySet()) {
-                generator.writeArrayFieldStart(sidecar.getKey().getApiName());
-                for (Map<DimensionField, String> dimensionRow : sidecar.getValue()) {
-
-                    // Write each of the sidecar rows
-                    generator.writeStartObject();
-                    for (DimensionField dimensionField : dimensionRow.keySet()) {
-                        generator.writeObjectField(dimensionField.getName(), dimensionRow.get(dimensionField));
-                    }
-                    generator.writeEndObject();
-                }
-                generator.writeEndArray();
+            for (Map.Entry<Dimension, Map<String, DimensionRow>> sidecar : sidecars.entrySet()) {
+                encoder.writeSidecar(generator, sidecar.getKey(), sidecar.getValue().values());
             }
 
             super.writeMetaObject(
@@ -3,7 +3,6 @@
 package com.yahoo.bard.webservice.web;
 
 import com.yahoo.bard.webservice.application.ObjectMappersSuite;
-import com.yahoo.bard.webservice.data.Result;
 import com.yahoo.bard.webservice.web.apirequest.ApiRequest;
 
 import com.fasterxml.jackson.core.JsonFactory;
@@ -76,9 +75,8 @@ public class JsonResponseWriter extends JsonAndJsonApiResponseWriter {
             g.writeStartObject();
 
             g.writeArrayFieldStart("rows");
-            for (Result result : responseData.getResultSet()) {
-                g.writeObject(responseData.buildResultRow(result));
-            }
+            ResultRowEncoder encoder = new ResultRowEncoder(responseData);
+            encoder.writeJsonRows(g, responseData.getResultSet());
             g.writeEndArray();
 
             super.writeMetaObject(g, responseData.getMissingIntervals(),
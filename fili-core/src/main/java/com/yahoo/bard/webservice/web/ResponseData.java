@@ -238,15 +238,16 @@ public class ResponseData {
             // Get the pieces we need out of the map entry
             Dimension dimension = dimensionColumnEntry.getKey().getDimension();
             DimensionRow dimensionRow = dimensionColumnEntry.getValue();
-            Set<DimensionField> requestedDimensionFields = requestedApiDimensionFields.get(dimension);
+            Set<DimensionField> requestedFields = requestedApiDimensionFields.get(dimension);
 
-            if (requestedDimensionFields == null || requestedDimensionFields.isEmpty())
+            if (requestedFields == null || requestedFields.isEmpty())
             {
                 // add sidecar only if at-least one field needs to be shown
                 continue;
             }
 
-            // The key field is required
+            // The key field is required, but is not one of the requested fields for the other response formats
+            Set<DimensionField> requestedDimensionFields = new LinkedHashSet<>(requestedFields);
             requestedDimensionFields.add(dimension.getKey());
 
             Map<DimensionField, String> dimensionFieldToValueMap = requestedDimensionFields.stream()
@@ -12,6 +12,7 @@ public interface ResponseFormatType {
 
     String TEXT_FILE_EXTENSION = ".txt";
     String CSV_CONTENT_TYPE = "text/csv";
+    String ARROW_STREAM_CONTENT_TYPE = "application/vnd.apache.arrow.stream";
     String CHARSET_UTF8 = "utf-8";
 
     /**
@@ -0,0 +1,362 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web;
+
+import com.yahoo.bard.webservice.data.Result;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.data.dimension.DimensionColumn;
+import com.yahoo.bard.webservice.data.dimension.DimensionField;
+import com.yahoo.bard.webservice.data.dimension.DimensionRow;
+import com.yahoo.bard.webservice.data.metric.MetricColumn;
+import com.yahoo.bard.webservice.util.DateTimeFormatterFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the result rows of a response straight to a generator, in the layout of
+ * {@link ResponseData#buildResultRow(Result)} but without building a map for each row.
+ * <p>
+ * The columns to write are planned once for the response, from the requested dimension fields and the requested metric
+ * columns. As in the built rows, the dimensions of a JSON or JSON-API row are written in the order of the dimension
+ * rows of its result, while CSV rows follow the order of the header. Timestamps are formatted once for each time
+ * bucket, since every row of a bucket shares its timestamp. An encoder is meant for a single response, and is not
+ * thread safe.
+ * <p>
+ * JSON-API rows hold only the key value of each dimension, and the dimension rows they refer to are collected into
+ * sidecars by key value, to be written once each after the rows.
+ */
+public class ResultRowEncoder {
+
+    private static final String DATE_TIME_COLUMN_NAME = "dateTime";
+
+    private final List<DimensionFieldColumn> dimensionFieldColumns = new ArrayList<>();
+    private final Map<Dimension, List<DimensionFieldColumn>> dimensionFieldColumnsByDimension = new HashMap<>();
+    private final Map<Dimension, SidecarColumn> sidecarColumnsByDimension = new HashMap<>();
+    private final List<MetricColumn> metricColumns;
+    private final DateTimeFormatter dateTimeFormatter = DateTimeFormatterFactory.getOutputFormatter();
+    private final Map<DateTime, String> formattedTimestamps = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param responseData  Data object containing the requested dimension fields and metric columns
+     */
+    public ResultRowEncoder(ResponseData responseData) {
+        for (Map.Entry<Dimension, LinkedHashSet<DimensionField>> entry
+                : responseData.getRequestedApiDimensionFields().entrySet()) {
+            DimensionColumn dimensionColumn = new DimensionColumn(entry.getKey());
+            List<DimensionFieldColumn> fieldColumns = new ArrayList<>();
+            for (DimensionField field : entry.getValue()) {
+                fieldColumns.add(new DimensionFieldColumn(
+                        ResponseData.getDimensionColumnName(entry.getKey(), field),
+                        dimensionColumn,
+                        field
+                ));
+            }
+            dimensionFieldColumns.addAll(fieldColumns);
+            dimensionFieldColumnsByDimension.put(entry.getKey(), fieldColumns);
+            if (!entry.getValue().isEmpty()) {
+                sidecarColumnsByDimension.put(entry.getKey(), new SidecarColumn(entry.getKey(), entry.getValue()));
+            }
+        }
+        this.metricColumns = new ArrayList<>(responseData.getApiMetricColumns());
+    }
+
+    /**
+     * Write result rows as JSON objects, one after the other.
+     * <p>
+     * The rows are written as the results pass them on, so the rows of a
+     * {@link com.yahoo.bard.webservice.data.StreamingResultSet} are written out as they are parsed.
+     *
+     * @param generator  The generator to write the rows to
+     * @param results  The result rows
+     *
+     * @throws IOException if the generator fails to write a row
+     */
+    public void writeJsonRows(JsonGenerator generator, Iterable<Result> results) throws IOException {
+        try {
+            results.forEach(result -> {
+                try {
+                    writeJsonRow(generator, result);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    /**
+     * Write result rows as arrays of values, one after the other.
+     * <p>
+     * The rows are written as the results pass them on, so the rows of a
+     * {@link com.yahoo.bard.webservice.data.StreamingResultSet} are written out as they are parsed.
+     *
+     * @param generator  The generator, with a schema matching the CSV header, to write the rows to
+     * @param results  The result rows
+     *
+     * @throws IOException if the generator fails to write a row
+     */
+    public void writeCsvRows(JsonGenerator generator, Iterable<Result> results) throws IOException {
+        try {
+            results.forEach(result -> {
+                try {
+                    writeCsvRow(generator, result);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    /**
+     * Write result rows as JSON-API objects, one after the other, collecting the dimension rows they refer to.
+     *
+     * @param generator  The generator to write the rows to
+     * @param results  The result rows
+     * @param sidecars  The dimension rows to write as sidecars, by key value, for each dimension to collect them for
+     *
+     * @throws IOException if the generator fails to write a row
+     */
+    public void writeJsonApiRows(
+            JsonGenerator generator,
+            Iterable<Result> results,
+            Map<Dimension, Map<String, DimensionRow>> sidecars
+    ) throws IOException {
+        try {
+            results.forEach(result -> {
+                try {
+                    writeJsonApiRow(generator, result, sidecars);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    /**
+     * Write a result row as a JSON-API object, holding the key value of each dimension with requested fields, and add
+     * the dimension rows it refers to to the sidecars.
+     * <p>
+     * A dimension row is only looked up in its sidecar when it is not the row the previous result had for that
+     * dimension, since the rows of a dimension are usually shared between the results they appear in.
+     *
+     * @param generator  The generator to write the row to
+     * @param result  The result row
+     * @param sidecars  The dimension rows to write as sidecars, by key value, for each dimension to collect them for
+     *
+     * @throws IOException if the generator fails to write the row
+     */
+    public void writeJsonApiRow(
+            JsonGenerator generator,
+            Result result,
+            Map<Dimension, Map<String, DimensionRow>> sidecars
+    ) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(DATE_TIME_COLUMN_NAME, formatTimestamp(result.getTimeStamp()));
+
+        for (Map.Entry<DimensionColumn, DimensionRow> entry : result.getDimensionRows().entrySet()) {
+            SidecarColumn column = sidecarColumnsByDimension.get(entry.getKey().getDimension());
+            if (column == null) {
+                continue;
+            }
+            DimensionRow dimensionRow = entry.getValue();
+            String keyValue = dimensionRow.get(column.dimension.getKey());
+            generator.writeFieldName(column.dimension.getApiName());
+            writeValue(generator, keyValue);
+
+            if (dimensionRow != column.lastRow) {
+                Map<String, DimensionRow> sidecar = sidecars.get(column.dimension);
+                if (sidecar != null) {
+                    sidecar.putIfAbsent(keyValue, dimensionRow);
+                }
+                column.lastRow = dimensionRow;
+            }
+        }
+
+        for (MetricColumn metricColumn : metricColumns) {
+            generator.writeFieldName(metricColumn.getName());
+            writeValue(generator, result.getMetricValue(metricColumn));
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Write the sidecar of a dimension as an array field of objects holding the requested fields and the key field of
+     * each of its dimension rows.
+     *
+     * @param generator  The generator to write the sidecar to
+     * @param dimension  The dimension of the sidecar
+     * @param dimensionRows  The dimension rows of the sidecar
+     *
+     * @throws IOException if the generator fails to write the sidecar
+     */
+    public void writeSidecar(JsonGenerator generator, Dimension dimension, Collection<DimensionRow> dimensionRows)
+            throws IOException {
+        generator.writeArrayFieldStart(dimension.getApiName());
+        SidecarColumn column = sidecarColumnsByDimension.get(dimension);
+        Set<DimensionField> fields = column == null ? Collections.<DimensionField>emptySet() : column.fields;
+        for (DimensionRow dimensionRow : dimensionRows) {
+            generator.writeStartObject();
+            for (DimensionField field : fields) {
+                generator.writeFieldName(field.getName());
+                writeValue(generator, dimensionRow.get(field));
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Write a result row as a JSON object.
+     *
+     * @param generator  The generator to write the row to
+     * @param result  The result row
+     *
+     * @throws IOException if the generator fails to write the row
+     */
+    public void writeJsonRow(JsonGenerator generator, Result result) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(DATE_TIME_COLUMN_NAME, formatTimestamp(result.getTimeStamp()));
+
+        for (Map.Entry<DimensionColumn, DimensionRow> entry : result.getDimensionRows().entrySet()) {
+            List<DimensionFieldColumn> columns = dimensionFieldColumnsByDimension.get(entry.getKey().getDimension());
+            if (columns == null) {
+                continue;
+            }
+            DimensionRow dimensionRow = entry.getValue();
+            for (DimensionFieldColumn column : columns) {
+                generator.writeFieldName(column.name);
+                writeValue(generator, dimensionRow.get(column.field));
+            }
+        }
+
+        for (MetricColumn metricColumn : metricColumns) {
+            generator.writeFieldName(metricColumn.getName());
+            writeValue(generator, result.getMetricValue(metricColumn));
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Write a result row as an array of values, in the order of the columns of the CSV header.
+     *
+     * @param generator  The generator, with a schema matching the CSV header, to write the row to
+     * @param result  The result row
+     *
+     * @throws IOException if the generator fails to write the row
+     */
+    public void writeCsvRow(JsonGenerator generator, Result result) throws IOException {
+        generator.writeStartArray();
+        generator.writeString(formatTimestamp(result.getTimeStamp()));
+
+        Map<DimensionColumn, DimensionRow> dimensionRows = result.getDimensionRows();
+        for (DimensionFieldColumn column : dimensionFieldColumns) {
+            DimensionRow dimensionRow = dimensionRows.get(column.dimensionColumn);
+            writeValue(generator, dimensionRow == null ? null : dimensionRow.get(column.field));
+        }
+
+        for (MetricColumn metricColumn : metricColumns) {
+            writeValue(generator, result.getMetricValue(metricColumn));
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Format the timestamp of a time bucket, formatting each distinct timestamp only once.
+     *
+     * @param timestamp  The timestamp of the bucket
+     *
+     * @return the formatted timestamp
+     */
+    protected String formatTimestamp(DateTime timestamp) {
+        return formattedTimestamps.computeIfAbsent(timestamp, dateTimeFormatter::print);
+    }
+
+    /**
+     * Write a value, writing the common scalar types directly rather than through the generator's codec.
+     *
+     * @param generator  The generator to write the value to
+     * @param value  The value
+     *
+     * @throws IOException if the generator fails to write the value
+     */
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    /**
+     * A dimension written as a key value column in JSON-API rows, with the fields written in its sidecar.
+     */
+    private static class SidecarColumn {
+        private final Dimension dimension;
+        private final Set<DimensionField> fields;
+        private DimensionRow lastRow;
+
+        /**
+         * Constructor.
+         *
+         * @param dimension  The dimension
+         * @param requestedFields  The requested fields of the dimension, which the key field is added to
+         */
+        SidecarColumn(Dimension dimension, Set<DimensionField> requestedFields) {
+            this.dimension = dimension;
+            this.fields = new LinkedHashSet<>(requestedFields);
+            fields.add(dimension.getKey());
+        }
+    }
+
+    /**
+     * A field of a dimension written as a column of its own.
+     */
+    private static class DimensionFieldColumn {
+        private final String name;
+        private final DimensionColumn dimensionColumn;
+        private final DimensionField field;
+
+        /**
+         * Constructor.
+         *
+         * @param name  The name of the column in the response
+         * @param dimensionColumn  The column of the dimension in the result set
+         * @param field  The field of the dimension
+         */
+        DimensionFieldColumn(String name, DimensionColumn dimensionColumn, DimensionField field) {
+            this.name = name;
+            this.dimensionColumn = dimensionColumn;
+            this.field = field;
+        }
+    }
+}
@@ -87,6 +87,8 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ConnectionCallback;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
@@ -454,6 +456,7 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
                 // In embedded contexts, containerRequestContext may be null
                 context = new RequestContext(containerRequestContext, readCache);
             }
+            registerCancellation(asyncResponse, context);
 
             Subject<PreResponse, PreResponse> queryResultsEmitter = PublishSubject.create();
 
@@ -509,6 +512,21 @@ public class DataServlet extends CORSPreflightServlet implements BardConfigResou
         }
     }
 
+    /**
+     * Cancel the druid queries of a request when the client disconnects or the response fails with an error.
+     *
+     * @param asyncResponse  The channel over which user responses will be sent
+     * @param context  The context tracking the druid queries of the request
+     */
+    protected void registerCancellation(AsyncResponse asyncResponse, RequestContext context) {
+        asyncResponse.register((ConnectionCallback) disconnected -> context.cancelDruidQueries());
+        asyncResponse.register((CompletionCallback) throwable -> {
+            if (throwable != null) {
+                context.cancelDruidQueries();
+            }
+        });
+    }
+
     /**
      * Builds the asynchronous workflows, and subscribes the appropriate channels to the appropriate workflows.
      *
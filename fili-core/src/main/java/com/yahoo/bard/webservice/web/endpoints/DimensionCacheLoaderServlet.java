@@ -299,14 +299,12 @@ public class DimensionCacheLoaderServlet {
                     // It didn't exist before, so add it directly
                     dimensionRows.add(newRow);
                 } else {
-                    // The row existed before, so do an update on the existing row's data
-                    for (DimensionField field : dimension.getDimensionFields()) {
-                        // only overwrite if the field was in the original JSON
-                        if (fieldnameValueMap.containsKey(field.getName())) {
-                            oldRow.put(field, newRow.get(field));
-                        }
-                        dimensionRows.add(oldRow);
-                    }
+                    // The row existed before, so update a copy of the existing row's data, only overwriting the
+                    // fields which were in the original JSON
+                    dimensionRows.add(DimensionRow.copyWithReplace(
+                            oldRow,
+                            (field, value) -> fieldnameValueMap.containsKey(field.getName()) ? newRow.get(field) : value
+                    ));
                 }
             }
             dimension.addAllDimensionRows(dimensionRows);
@@ -0,0 +1,161 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.filters;
+
+import com.yahoo.bard.webservice.config.BardFeatureFlag;
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.logging.blocks.Response;
+import com.yahoo.bard.webservice.web.CompressingOutputStream;
+import com.yahoo.bard.webservice.web.ContentEncoding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.annotation.Priority;
+import javax.inject.Singleton;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compresses responses with the content coding the client prefers out of those it accepts, gzip or zstd.
+ * <p>
+ * The response filter negotiates the content coding from the Accept-Encoding header of the request, and the writer
+ * interceptor compresses the stream the response writers write into, once it passes the minimum length. Compression
+ * runs inside the logging filter's stream, so the response length it logs is the compressed length, and the lengths
+ * before and after compression are recorded in the {@link Response} log block.
+ */
+@Singleton
+@Priority(6)
+public class ResponseCompressionFilter implements ContainerResponseFilter, WriterInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCompressionFilter.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    public static final String ENCODINGS_KEY = SYSTEM_CONFIG.getPackageVariableName("response_compression_encodings");
+    public static final String MINIMUM_LENGTH_KEY = SYSTEM_CONFIG.getPackageVariableName(
+            "response_compression_min_bytes"
+    );
+    public static final String GZIP_LEVEL_KEY = SYSTEM_CONFIG.getPackageVariableName("response_compression_gzip_level");
+    public static final String ZSTD_LEVEL_KEY = SYSTEM_CONFIG.getPackageVariableName("response_compression_zstd_level");
+
+    private static final String PROPERTY_ENCODING = ResponseCompressionFilter.class.getName() + ".encoding";
+    private static final String PROPERTY_CODE = ResponseCompressionFilter.class.getName() + ".code";
+
+    private final List<ContentEncoding> encodings;
+    private final int minimumLength;
+    private final Map<ContentEncoding, Integer> levels;
+
+    /**
+     * Constructor, configured from the response compression settings.
+     */
+    public ResponseCompressionFilter() {
+        this(
+                SYSTEM_CONFIG.<String>getListProperty(ENCODINGS_KEY, Arrays.asList("zstd", "gzip")).stream()
+                        .map(name -> ContentEncoding.forHeaderValue(name).orElseThrow(() -> {
+                            String message = String.format("Unknown response compression encoding: %s", name);
+                            LOG.error(message);
+                            return new IllegalStateException(message);
+                        }))
+                        .collect(Collectors.toList()),
+                SYSTEM_CONFIG.getIntProperty(MINIMUM_LENGTH_KEY, 1024),
+                SYSTEM_CONFIG.getIntProperty(GZIP_LEVEL_KEY, 6),
+                SYSTEM_CONFIG.getIntProperty(ZSTD_LEVEL_KEY, 3)
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param encodings  The content codings to offer, in order of preference
+     * @param minimumLength  The number of bytes a response needs to reach before it is compressed
+     * @param gzipLevel  The gzip compression level, from 1 (fastest) to 9 (smallest)
+     * @param zstdLevel  The zstd compression level, from 1 (fastest) to 22 (smallest)
+     */
+    public ResponseCompressionFilter(List<ContentEncoding> encodings, int minimumLength, int gzipLevel, int zstdLevel) {
+        this.encodings = encodings;
+        this.minimumLength = minimumLength;
+        this.levels = new EnumMap<>(ContentEncoding.class);
+        levels.put(ContentEncoding.GZIP, gzipLevel);
+        levels.put(ContentEncoding.ZSTD, zstdLevel);
+    }
+
+    /**
+     * Choose the content coding to compress the response with, if it is to be compressed at all.
+     *
+     * @param request  The request being responded to
+     * @param response  The response to compress
+     *
+     * @throws IOException if there's a problem processing the request or response
+     */
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        MultivaluedMap<String, Object> headers = response.getHeaders();
+        if (!BardFeatureFlag.RESPONSE_COMPRESSION.isOn()
+                || !response.hasEntity()
+                || headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+                || (response.getLength() != -1 && response.getLength() < minimumLength)) {
+            return;
+        }
+
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        ContentEncoding.negotiate(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING), encodings)
+                .ifPresent(encoding -> {
+                    request.setProperty(PROPERTY_ENCODING, encoding);
+                    request.setProperty(PROPERTY_CODE, response.getStatus());
+                });
+    }
+
+    /**
+     * Compress the stream the response is written into, once it is longer than the minimum length.
+     *
+     * @param context  The context of the response being written
+     *
+     * @throws IOException if the response cannot be written
+     */
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        ContentEncoding encoding = (ContentEncoding) context.getProperty(PROPERTY_ENCODING);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        CompressingOutputStream stream = new CompressingOutputStream(
+                context.getOutputStream(),
+                encoding,
+                levels.get(encoding),
+                minimumLength,
+                () -> {
+                    // Nothing has been written out yet, so the headers can still change
+                    context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding.getHeaderValue());
+                    context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+                }
+        );
+        context.setOutputStream(stream);
+        try {
+            context.proceed();
+            stream.finish();
+        } finally {
+            RequestLog.record(new Response(
+                    (int) Math.min(stream.getLength(), Integer.MAX_VALUE),
+                    (int) context.getProperty(PROPERTY_CODE),
+                    stream.isCompressed() ? encoding.getHeaderValue() : "identity",
+                    stream.getUncompressedLength()
+            ));
+        }
+    }
+}
@@ -5,6 +5,7 @@ package com.yahoo.bard.webservice.web.handlers;
 import com.yahoo.bard.webservice.druid.client.DruidWebService;
 import com.yahoo.bard.webservice.druid.client.FailureCallback;
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback;
 import com.yahoo.bard.webservice.druid.client.SuccessCallback;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
 import com.yahoo.bard.webservice.logging.RequestLog;
@@ -13,7 +14,9 @@ import com.yahoo.bard.webservice.util.DruidWebServiceSelector;
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext;
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
+import com.yahoo.bard.webservice.web.responseprocessors.StreamingResponseProcessor;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -54,18 +57,90 @@ public class AsyncWebServiceRequestHandler extends BaseDataRequestHandler {
             final DruidAggregationQuery<?> druidQuery,
             final ResponseProcessor response
     ) {
-        SuccessCallback success = new SuccessCallback() {
-            @Override
-            public void invoke(JsonNode rootNode) {
-                response.processResponse(rootNode, druidQuery, new LoggingContext(RequestLog.copy()));
-            }
-        };
-        HttpErrorCallback error = response.getErrorCallback(druidQuery);
-        FailureCallback failure = response.getFailureCallback(druidQuery);
+        String queryId = druidQuery.getContext().getQueryId();
+        SuccessCallback success = response instanceof StreamingResponseProcessor ?
+                buildStreamingSuccessCallback((StreamingResponseProcessor) response, druidQuery, context) :
+                new SuccessCallback() {
+                    @Override
+                    public void invoke(JsonNode rootNode) {
+                        context.unregisterDruidQuery(queryId);
+                        response.processResponse(rootNode, druidQuery, new LoggingContext(RequestLog.copy()));
+                    }
+                };
+        HttpErrorCallback error = buildErrorCallback(response.getErrorCallback(druidQuery), queryId, context);
+        FailureCallback failure = buildFailureCallback(response.getFailureCallback(druidQuery), context);
 
         BardQueryInfo.incrementCountFactHits();
         DruidWebService webService = druidWebServiceSelector.select(context, request, druidQuery);
+        context.registerDruidQuery(queryId, webService);
         webService.postDruidQuery(context, success, error, failure, druidQuery);
         return true;
     }
+
+    /**
+     * Build an error callback which cancels the other druid queries of the request before reporting the error.
+     * <p>
+     * Druid has finished running the query which returned the error, so it is no longer tracked.
+     *
+     * @param error  The error callback of the response processor
+     * @param queryId  The druid query id of the query being sent
+     * @param context  The context tracking the druid queries of the request
+     *
+     * @return the error callback
+     */
+    protected HttpErrorCallback buildErrorCallback(HttpErrorCallback error, String queryId, RequestContext context) {
+        return (statusCode, reasonPhrase, responseBody) -> {
+            context.unregisterDruidQuery(queryId);
+            context.cancelDruidQueries();
+            error.invoke(statusCode, reasonPhrase, responseBody);
+        };
+    }
+
+    /**
+     * Build a failure callback which cancels the druid queries of the request before reporting the failure.
+     * <p>
+     * A query whose request failed, for example because it timed out, may still be running in druid, so it is
+     * cancelled along with the others.
+     *
+     * @param failure  The failure callback of the response processor
+     * @param context  The context tracking the druid queries of the request
+     *
+     * @return the failure callback
+     */
+    protected FailureCallback buildFailureCallback(FailureCallback failure, RequestContext context) {
+        return throwable -> {
+            context.cancelDruidQueries();
+            failure.invoke(throwable);
+        };
+    }
+
+    /**
+     * Build a success callback which lets the web service stream the druid response into the response processor.
+     *
+     * @param response  The response processor able to consume a stream of JSON tokens
+     * @param druidQuery  The query being sent
+     * @param context  The context tracking the druid queries of the request
+     *
+     * @return the success callback
+     */
+    protected SuccessCallback buildStreamingSuccessCallback(
+            StreamingResponseProcessor response,
+            DruidAggregationQuery<?> druidQuery,
+            RequestContext context
+    ) {
+        String queryId = druidQuery.getContext().getQueryId();
+        return new StreamingSuccessCallback() {
+            @Override
+            public void invoke(JsonParser parser) {
+                context.unregisterDruidQuery(queryId);
+                response.processResponse(parser, druidQuery, new LoggingContext(RequestLog.copy()));
+            }
+
+            @Override
+            public void invoke(JsonNode rootNode) {
+                context.unregisterDruidQuery(queryId);
+                response.processResponse(rootNode, druidQuery, new LoggingContext(RequestLog.copy()));
+            }
+        };
+    }
 }
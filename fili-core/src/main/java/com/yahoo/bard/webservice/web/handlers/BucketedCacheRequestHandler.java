@@ -0,0 +1,324 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.handlers;
+
+import static com.yahoo.bard.webservice.config.BardFeatureFlag.CACHE_PARTIAL_DATA;
+import static com.yahoo.bard.webservice.web.handlers.PartialDataRequestHandler.getPartialIntervalsWithDefault;
+import static com.yahoo.bard.webservice.web.handlers.VolatileDataRequestHandler.getVolatileIntervalsWithDefault;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.REQUEST_WORKFLOW_TIMER;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.data.cache.CacheKey;
+import com.yahoo.bard.webservice.data.cache.DataCache;
+import com.yahoo.bard.webservice.data.time.AllGranularity;
+import com.yahoo.bard.webservice.druid.model.DefaultQueryType;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.metadata.QuerySigningService;
+import com.yahoo.bard.webservice.util.IntervalUtils;
+import com.yahoo.bard.webservice.util.SimplifiedIntervalList;
+import com.yahoo.bard.webservice.util.Utils;
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
+import com.yahoo.bard.webservice.web.responseprocessors.BucketedCacheResponseProcessor;
+import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext;
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
+import com.yahoo.bard.webservice.web.util.QuerySignedCacheService;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Request handler which caches druid responses per time bucket of the query's granularity, so that a query which
+ * shares most of its buckets with earlier queries, such as a rolling window moved on by a day, only asks druid for
+ * the buckets it doesn't share.
+ * <p>
+ * Each bucket is cached under the query without its intervals plus the bucket, and is only valid while the segment
+ * signature of the bucket is unchanged. The buckets which aren't cached, or are volatile or missing data, are asked
+ * for in one druid query, whose response is split back into buckets to cache them, and merged with the cached
+ * buckets in time order.
+ * <p>
+ * Queries whose rows can't be split into buckets, such as queries with "all" granularity or with a limit across the
+ * whole result, are cached as a whole by a {@link CacheV2RequestHandler}.
+ */
+public class BucketedCacheRequestHandler extends BaseDataRequestHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BucketedCacheRequestHandler.class);
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    public static final Meter CACHED_BUCKETS = REGISTRY.meter("queries.meter.cache.buckets.hits");
+    public static final Meter QUERIED_BUCKETS = REGISTRY.meter("queries.meter.cache.buckets.misses");
+
+    protected final @NotNull DataRequestHandler next;
+    protected final @NotNull QuerySigningService<Long> querySigningService;
+    protected final @NotNull QuerySignedCacheService querySignedCacheService;
+    protected final @NotNull DataRequestHandler wholeQueryHandler;
+
+    /**
+     * Build a bucketed cache request handler.
+     *
+     * @param next  The next handler in the chain
+     * @param dataCache  The cache instance
+     * @param querySigningService The service to generate query signatures
+     * @param querySignedCacheService The service for cache support
+     * @param mapper  The mapper for all JSON processing
+     */
+    @SuppressWarnings("unchecked")
+    public BucketedCacheRequestHandler(
+            DataRequestHandler next,
+            @NotNull DataCache<?> dataCache,
+            QuerySigningService<?> querySigningService,
+            QuerySignedCacheService querySignedCacheService,
+            ObjectMapper mapper
+    ) {
+        super(mapper);
+        this.next = next;
+        this.querySigningService = (QuerySigningService<Long>) querySigningService;
+        this.querySignedCacheService = querySignedCacheService;
+        this.wholeQueryHandler = new CacheV2RequestHandler(
+                next,
+                dataCache,
+                querySigningService,
+                querySignedCacheService,
+                mapper
+        );
+    }
+
+    @Override
+    public boolean handleRequest(
+            final RequestContext context,
+            final DataApiRequest request,
+            final DruidAggregationQuery<?> druidQuery,
+            final ResponseProcessor response
+    ) {
+        if (!isBucketable(druidQuery)) {
+            return wholeQueryHandler.handleRequest(context, request, druidQuery, response);
+        }
+
+        List<Interval> buckets = new ArrayList<>(
+                IntervalUtils.getSlicedIntervals(druidQuery.getIntervals(), druidQuery.getGranularity()).keySet()
+        );
+        if (buckets.isEmpty()) {
+            return wholeQueryHandler.handleRequest(context, request, druidQuery, response);
+        }
+
+        Map<Interval, CacheKey> bucketKeys;
+        Map<Interval, JsonNode> cachedBuckets;
+        try {
+            // The query without intervals is canonicalized once, and shared by the keys of all the buckets
+            String queryKey = getKey(druidQuery.withAllIntervals(Collections.emptyList()));
+            bucketKeys = getBucketKeys(druidQuery, queryKey, buckets, getUncacheableIntervals(response));
+            cachedBuckets = context.isReadCache()
+                    ? readBuckets(bucketKeys, queryKey)
+                    : Collections.emptyMap();
+        } catch (JsonProcessingException e) {
+            LOG.warn("Cache key cannot be built: ", e);
+            return wholeQueryHandler.handleRequest(context, request, druidQuery, response);
+        } catch (Exception e) {
+            LOG.warn("Error processing cache read: ", e);
+            return wholeQueryHandler.handleRequest(context, request, druidQuery, response);
+        }
+
+        // Buckets which aren't cached are asked for, with the keys to cache them under
+        Map<Interval, CacheKey> queriedBuckets = new LinkedHashMap<>(bucketKeys);
+        queriedBuckets.keySet().removeAll(cachedBuckets.keySet());
+
+        CACHED_BUCKETS.mark(cachedBuckets.size());
+        QUERIED_BUCKETS.mark(queriedBuckets.size());
+
+        if (queriedBuckets.isEmpty()) {
+            return respondFromCache(context, druidQuery, buckets, cachedBuckets, response);
+        }
+
+        BucketedCacheResponseProcessor mergingResponse = new BucketedCacheResponseProcessor(
+                response,
+                druidQuery,
+                buckets,
+                cachedBuckets,
+                queriedBuckets,
+                querySignedCacheService
+        );
+
+        DruidAggregationQuery<?> uncachedQuery = druidQuery.withAllIntervals(
+                new SimplifiedIntervalList(queriedBuckets.keySet())
+        );
+        return next.handleRequest(context, request, uncachedQuery, mergingResponse);
+    }
+
+    /**
+     * Get the intervals whose buckets are asked for, and not cached, every time: the volatile intervals, and the
+     * intervals missing data unless partial data is cached.
+     *
+     * @param response  The response to the request
+     *
+     * @return the uncacheable intervals
+     */
+    protected SimplifiedIntervalList getUncacheableIntervals(ResponseProcessor response) {
+        SimplifiedIntervalList uncacheableIntervals = getVolatileIntervalsWithDefault(response.getResponseContext());
+        if (CACHE_PARTIAL_DATA.isOn()) {
+            return uncacheableIntervals;
+        }
+        return uncacheableIntervals.union(getPartialIntervalsWithDefault(response.getResponseContext()));
+    }
+
+    /**
+     * Build the cache keys of the buckets of a query, signing all the buckets in one batch.
+     * <p>
+     * Buckets which can't be cached, because they overlap uncacheable intervals or have no segment signature, get
+     * no key.
+     *
+     * @param druidQuery  The druid query
+     * @param queryKey  The canonical form of the query without its intervals
+     * @param buckets  The buckets of the query's granularity
+     * @param uncacheableIntervals  The intervals whose buckets are not cached
+     *
+     * @return the key of each bucket, in bucket order, with null values for the buckets which can't be cached
+     */
+    protected Map<Interval, CacheKey> getBucketKeys(
+            DruidAggregationQuery<?> druidQuery,
+            String queryKey,
+            List<Interval> buckets,
+            SimplifiedIntervalList uncacheableIntervals
+    ) {
+        List<Interval> cacheableBuckets = new ArrayList<>(buckets.size());
+        for (Interval bucket : buckets) {
+            if (uncacheableIntervals.stream().noneMatch(bucket::overlaps)) {
+                cacheableBuckets.add(bucket);
+            }
+        }
+        Map<Interval, Optional<Long>> signatures = querySigningService.getSegmentSetIds(druidQuery, cacheableBuckets);
+
+        Map<Interval, CacheKey> bucketKeys = new LinkedHashMap<>(buckets.size());
+        for (Interval bucket : buckets) {
+            Optional<Long> signature = signatures.getOrDefault(bucket, Optional.empty());
+            bucketKeys.put(
+                    bucket,
+                    signature.map(segmentSetId -> getBucketKey(queryKey, bucket, segmentSetId)).orElse(null)
+            );
+        }
+        return bucketKeys;
+    }
+
+    /**
+     * Read the cached buckets of a query in one batch.
+     *
+     * @param bucketKeys  The key of each bucket, null for the buckets which can't be cached
+     * @param queryKey  The canonical form of the query without its intervals, which the batch is logged under
+     *
+     * @return the cached response of each bucket found in the cache
+     */
+    protected Map<Interval, JsonNode> readBuckets(Map<Interval, CacheKey> bucketKeys, String queryKey) {
+        List<CacheKey> keys = new ArrayList<>(bucketKeys.size());
+        bucketKeys.values().stream().filter(Objects::nonNull).forEach(keys::add);
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<CacheKey, JsonNode> cachedResponses = querySignedCacheService.readCachedResponses(keys, queryKey);
+
+        Map<Interval, JsonNode> cachedBuckets = new LinkedHashMap<>(cachedResponses.size());
+        bucketKeys.forEach((bucket, bucketKey) -> {
+            JsonNode cachedBucket = bucketKey == null ? null : cachedResponses.get(bucketKey);
+            if (cachedBucket != null) {
+                cachedBuckets.put(bucket, cachedBucket);
+            }
+        });
+        return cachedBuckets;
+    }
+
+    /**
+     * Answer a query whose buckets are all cached, without asking druid.
+     *
+     * @param context  The context of the request
+     * @param druidQuery  The druid query
+     * @param buckets  The buckets of the query's granularity
+     * @param cachedBuckets  The cached response of each bucket
+     * @param response  The response to answer
+     *
+     * @return true, the request has been handled
+     */
+    protected boolean respondFromCache(
+            RequestContext context,
+            DruidAggregationQuery<?> druidQuery,
+            List<Interval> buckets,
+            Map<Interval, JsonNode> cachedBuckets,
+            ResponseProcessor response
+    ) {
+        if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+            RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+        }
+        if (context.getNumberOfIncoming().decrementAndGet() == 0) {
+            RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+        }
+        response.processResponse(
+                BucketedCacheResponseProcessor.mergeBuckets(buckets, cachedBuckets, Collections.emptyMap()),
+                druidQuery,
+                new LoggingContext(RequestLog.dump())
+        );
+        return true;
+    }
+
+    /**
+     * Check whether the rows of a query's response can be split into the buckets of its granularity and cached apart.
+     * <p>
+     * The rows of timeseries, topN and groupBy responses each belong to one bucket, unless a groupBy query limits the
+     * number of rows across all the buckets.
+     *
+     * @param druidQuery  The druid query
+     *
+     * @return true if the query can be cached bucket by bucket
+     */
+    protected boolean isBucketable(DruidAggregationQuery<?> druidQuery) {
+        if (druidQuery.getGranularity() instanceof AllGranularity) {
+            return false;
+        }
+        if (druidQuery.getQueryType() == DefaultQueryType.GROUP_BY) {
+            GroupByQuery groupByQuery = (GroupByQuery) druidQuery;
+            return groupByQuery.getLimitSpec() == null || !groupByQuery.getLimitSpec().getLimit().isPresent();
+        }
+        return druidQuery.getQueryType() == DefaultQueryType.TIMESERIES
+                || druidQuery.getQueryType() == DefaultQueryType.TOP_N;
+    }
+
+    /**
+     * Build the cache key of one bucket of a query, signed with the segments of just that bucket.
+     *
+     * @param queryKey  The canonical form of the query without its intervals
+     * @param bucket  The bucket of the query's granularity
+     * @param segmentSetId  The segment signature of the bucket
+     *
+     * @return the cache key of the bucket
+     */
+    protected CacheKey getBucketKey(String queryKey, Interval bucket, Long segmentSetId) {
+        return new CacheKey(queryKey + "|" + bucket, segmentSetId);
+    }
+
+    /**
+     * Construct the part of the cache key shared by all the buckets of a query.
+     * Current implementation includes all the fields of the druidQuery besides the context.
+     *
+     * @param druidQuery  The druid query, without intervals.
+     *
+     * @return The cache key as a String.
+     * @throws JsonProcessingException if the druid query cannot be serialized to JSON
+     */
+    protected String getKey(DruidAggregationQuery<?> druidQuery) throws JsonProcessingException {
+        return Utils.canonicalJson(druidQuery, mapper);
+    }
+}
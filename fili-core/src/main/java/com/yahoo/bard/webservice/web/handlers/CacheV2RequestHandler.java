@@ -2,6 +2,7 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.web.handlers;
 
+import com.yahoo.bard.webservice.data.cache.CacheKey;
 import com.yahoo.bard.webservice.data.cache.DataCache;
 import com.yahoo.bard.webservice.data.cache.TupleDataCache;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
@@ -12,8 +13,10 @@ import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 import com.yahoo.bard.webservice.web.responseprocessors.CacheV2ResponseProcessor;
 import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext;
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
+import com.yahoo.bard.webservice.web.responseprocessors.StreamingResponseProcessor;
 import com.yahoo.bard.webservice.web.util.QuerySignedCacheService;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -34,7 +37,7 @@ public class CacheV2RequestHandler extends BaseDataRequestHandler {
     private static final Logger LOG = LoggerFactory.getLogger(CacheV2RequestHandler.class);
 
     protected final @NotNull DataRequestHandler next;
-    protected final @NotNull TupleDataCache<String, Long, String> dataCache;
+    protected final @NotNull TupleDataCache<String, Long, byte[]> dataCache;
     protected final @NotNull QuerySigningService<Long> querySigningService;
     protected final @NotNull QuerySignedCacheService querySignedCacheService;
 
@@ -57,7 +60,7 @@ public class CacheV2RequestHandler extends BaseDataRequestHandler {
     ) {
         super(mapper);
         this.next = next;
-        this.dataCache = (TupleDataCache<String, Long, String>) dataCache;
+        this.dataCache = (TupleDataCache<String, Long, byte[]>) dataCache;
         this.querySigningService = (QuerySigningService<Long>) querySigningService;
         this.querySignedCacheService = querySignedCacheService;
     }
@@ -71,16 +74,29 @@ public class CacheV2RequestHandler extends BaseDataRequestHandler {
     ) {
         ResponseProcessor nextResponse = response;
 
-        String cacheKey = null;
+        CacheKey cacheKey = null;
         try {
-            cacheKey = getKey(druidQuery);
+            // The key is built once, and shared by the cache read and the cache write of the response
+            cacheKey = new CacheKey(getKey(druidQuery), querySigningService.getSegmentSetId(druidQuery).orElse(null));
 
-            if (context.isReadCache()) {
-                String cacheResponse = querySignedCacheService.readCache(context, druidQuery);
+            if (context.isReadCache() && nextResponse instanceof StreamingResponseProcessor) {
+                // Stream the cached response straight from its Smile encoding, without building a tree
+                JsonParser cacheResponse = querySignedCacheService.readCachedResponseParser(context, cacheKey);
+                if (cacheResponse != null) {
+                    RequestLog logCtx = RequestLog.dump();
+                    ((StreamingResponseProcessor) nextResponse).processResponse(
+                            cacheResponse,
+                            druidQuery,
+                            new LoggingContext(logCtx)
+                    );
+                    return true;
+                }
+            } else if (context.isReadCache()) {
+                JsonNode cacheResponse = querySignedCacheService.readCachedResponse(context, cacheKey);
                 if (cacheResponse != null) {
                     RequestLog logCtx = RequestLog.dump();
                     nextResponse.processResponse(
-                            mapper.readTree(cacheResponse),
+                            cacheResponse,
                             druidQuery,
                             new LoggingContext(logCtx)
                     );
@@ -98,7 +114,6 @@ public class CacheV2RequestHandler extends BaseDataRequestHandler {
                 response,
                 cacheKey,
                 dataCache,
-                querySigningService,
                 mapper
         );
 
@@ -115,8 +130,6 @@ public class CacheV2RequestHandler extends BaseDataRequestHandler {
      * @throws JsonProcessingException if the druid query cannot be serialized to JSON
      */
     protected String getKey(DruidAggregationQuery<?> druidQuery) throws JsonProcessingException {
-        JsonNode root = mapper.valueToTree(druidQuery);
-        Utils.canonicalize(root , mapper, false);
-        return writer.writeValueAsString(root);
+        return Utils.canonicalJson(druidQuery, mapper);
     }
 }
@@ -111,12 +111,11 @@ public class CacheWeightCheckRequestHandler extends WeightCheckRequestHandler {
 
 
         try {
-            String cacheResponse = querySignedCacheService.readCache(context, weightEvaluationQuery);
+            JsonNode cacheResponse = querySignedCacheService.readCachedResponse(context, weightEvaluationQuery);
             // There is a cache hit, so no more cache interactions are necessary.
 
             if (cacheResponse != null) {
-                JsonNode rootNode = mapper.readTree(cacheResponse);
-                classicCallback.invoke(rootNode);
+                classicCallback.invoke(cacheResponse);
                 return true;
             }
         } catch (JsonProcessingException e) {
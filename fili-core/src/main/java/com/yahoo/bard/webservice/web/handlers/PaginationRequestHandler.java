@@ -3,12 +3,17 @@
 package com.yahoo.bard.webservice.web.handlers;
 
 import com.yahoo.bard.webservice.data.metric.mappers.PaginationMapper;
+import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper;
+import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery;
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 import com.yahoo.bard.webservice.web.responseprocessors.MappingResponseProcessor;
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
 import com.yahoo.bard.webservice.web.util.PaginationParameters;
 
+import java.util.Optional;
+
 import javax.validation.constraints.NotNull;
 
 /**
@@ -16,6 +21,10 @@ import javax.validation.constraints.NotNull;
  * The pagination mapper should be one of the last mappers to execute on the result set (in particular, it should
  * execute _after_ any mappers that delete or add rows). Therefore, the PaginationRequestHandler should be one of the
  * last handlers added to the handler chain.
+ * <p>
+ * If the page was pushed down into the limitSpec of the druid query, the page is kept there only if every mapper
+ * before the pagination mapper keeps the rows in place. Otherwise the limit and offset are taken back out of the query
+ * and the page is cut out of the full result set.
  */
 public class PaginationRequestHandler implements DataRequestHandler {
     private final @NotNull DataRequestHandler next;
@@ -40,16 +49,54 @@ public class PaginationRequestHandler implements DataRequestHandler {
             throw new IllegalStateException("Pagination request handler requires a mapping response.");
         }
         MappingResponseProcessor mappingResponse = (MappingResponseProcessor) response;
+        DruidAggregationQuery<?> query = druidQuery;
         if (request.getPaginationParameters().isPresent()) {
             PaginationParameters paginationParameters = request.getPaginationParameters().get();
+            boolean pushedDown = isPagePushedDown(query);
+            if (pushedDown && !mappingResponse.getMappers().stream().allMatch(ResultSetMapper::keepsRows)) {
+                query = withoutPushedDownPage((GroupByQuery) query);
+                pushedDown = false;
+            }
             mappingResponse.getMappers().add(
                     new PaginationMapper(
                             paginationParameters,
                             mappingResponse,
-                            context.getUriBuilder()
+                            context.getUriBuilder(),
+                            pushedDown
                     )
             );
         }
-        return next.handleRequest(context, request, druidQuery, mappingResponse);
+        return next.handleRequest(context, request, query, mappingResponse);
+    }
+
+    /**
+     * Check whether the requested page was pushed down into the limitSpec of a druid query.
+     *
+     * @param druidQuery  The druid query
+     *
+     * @return true if the query is a groupBy query with an offset in its limitSpec
+     */
+    protected static boolean isPagePushedDown(DruidAggregationQuery<?> druidQuery) {
+        if (!(druidQuery instanceof GroupByQuery)) {
+            return false;
+        }
+        LimitSpec limitSpec = ((GroupByQuery) druidQuery).getLimitSpec();
+        return limitSpec != null && limitSpec.getOffset().isPresent();
+    }
+
+    /**
+     * Take the pushed down page back out of a groupBy query, keeping its sort.
+     *
+     * @param druidQuery  The groupBy query with a page pushed down into its limitSpec
+     *
+     * @return the query fetching every row
+     */
+    protected static GroupByQuery withoutPushedDownPage(GroupByQuery druidQuery) {
+        LimitSpec limitSpec = druidQuery.getLimitSpec();
+        return druidQuery.withLimitSpec(
+                limitSpec.getColumns().isEmpty() ?
+                        null :
+                        limitSpec.withLimit(Optional.empty()).withOffset(Optional.empty())
+        );
     }
 }
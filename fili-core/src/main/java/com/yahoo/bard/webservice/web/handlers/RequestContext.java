@@ -2,8 +2,13 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.web.handlers;
 
+import com.yahoo.bard.webservice.druid.client.DruidWebService;
 import com.yahoo.bard.webservice.util.Utils;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ws.rs.container.ContainerRequestContext;
@@ -22,6 +27,7 @@ public class RequestContext {
     protected final MultivaluedMap<String, String> searchableHeaders;
     protected final AtomicLong numberOfIncoming = new AtomicLong(1);
     protected final AtomicLong numberOfOutgoing = new AtomicLong(1);
+    protected final Map<String, DruidWebService> druidQueriesInFlight = new ConcurrentHashMap<>();
 
     /**
      * Build a context for a request.
@@ -75,6 +81,48 @@ public class RequestContext {
         return numberOfOutgoing;
     }
 
+    /**
+     * Record that a druid query has been sent for this request and may need to be cancelled.
+     *
+     * @param queryId  The druid query id of the query
+     * @param webService  The web service the query was sent through
+     */
+    public void registerDruidQuery(String queryId, DruidWebService webService) {
+        druidQueriesInFlight.put(queryId, webService);
+    }
+
+    /**
+     * Record that druid has finished running a query sent for this request.
+     *
+     * @param queryId  The druid query id of the query
+     */
+    public void unregisterDruidQuery(String queryId) {
+        druidQueriesInFlight.remove(queryId);
+    }
+
+    /**
+     * Get the ids of the druid queries sent for this request which druid may still be running.
+     *
+     * @return the druid query ids
+     */
+    public Set<String> getDruidQueriesInFlight() {
+        return Collections.unmodifiableSet(druidQueriesInFlight.keySet());
+    }
+
+    /**
+     * Ask druid to cancel every query of this request which it may still be running.
+     * <p>
+     * Used when the request has been abandoned, so that druid stops spending resources on results nobody will read.
+     */
+    public void cancelDruidQueries() {
+        for (String queryId : druidQueriesInFlight.keySet()) {
+            DruidWebService webService = druidQueriesInFlight.remove(queryId);
+            if (webService != null) {
+                webService.cancelDruidQuery(queryId);
+            }
+        }
+    }
+
     public UriBuilder getUriBuilder() {
         return containerRequestContext == null
                 ? null
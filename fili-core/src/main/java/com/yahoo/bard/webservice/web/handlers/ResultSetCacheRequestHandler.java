@@ -0,0 +1,131 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.handlers;
+
+import static com.yahoo.bard.webservice.web.handlers.PartialDataRequestHandler.getPartialIntervalsWithDefault;
+import static com.yahoo.bard.webservice.web.handlers.VolatileDataRequestHandler.getVolatileIntervalsWithDefault;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.REQUEST_WORKFLOW_TIMER;
+import static com.yahoo.bard.webservice.web.handlers.workflow.DruidWorkflow.RESPONSE_WORKFLOW_TIMER;
+
+import com.yahoo.bard.webservice.data.ResultSet;
+import com.yahoo.bard.webservice.data.StreamingResultSet;
+import com.yahoo.bard.webservice.data.cache.CacheKey;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.logging.RequestLog;
+import com.yahoo.bard.webservice.web.DefaultResponseFormatType;
+import com.yahoo.bard.webservice.web.PreResponse;
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
+import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext;
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContext;
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
+import com.yahoo.bard.webservice.web.responseprocessors.ResultSetResponseProcessor;
+import com.yahoo.bard.webservice.web.util.ResultSetCacheService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Request handler which answers a data request with its cached mapped result set, skipping the druid query, the
+ * parsing of its response and the result set mappers, or else caches the mapped result set the request is answered
+ * with.
+ * <p>
+ * Only complete responses are cached: requests which are paginated, or whose data is volatile or missing, always go
+ * on to the next handler, and their result sets are not cached.
+ */
+public class ResultSetCacheRequestHandler implements DataRequestHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResultSetCacheRequestHandler.class);
+
+    protected final @NotNull DataRequestHandler next;
+    protected final @NotNull ResultSetCacheService resultSetCacheService;
+
+    /**
+     * Constructor.
+     *
+     * @param next  The next handler in the chain
+     * @param resultSetCacheService  The service to read and write cached result sets with
+     */
+    public ResultSetCacheRequestHandler(DataRequestHandler next, ResultSetCacheService resultSetCacheService) {
+        this.next = next;
+        this.resultSetCacheService = resultSetCacheService;
+    }
+
+    @Override
+    public boolean handleRequest(
+            final RequestContext context,
+            final DataApiRequest request,
+            final DruidAggregationQuery<?> druidQuery,
+            final ResponseProcessor response
+    ) {
+        if (!(response instanceof ResultSetResponseProcessor) || !isCacheable(request, response.getResponseContext())) {
+            return next.handleRequest(context, request, druidQuery, response);
+        }
+        ResultSetResponseProcessor resultSetResponse = (ResultSetResponseProcessor) response;
+
+        CacheKey cacheKey;
+        try {
+            cacheKey = resultSetCacheService.getCacheKey(context, request, druidQuery);
+            if (cacheKey == null) {
+                return next.handleRequest(context, request, druidQuery, response);
+            }
+            ResultSet cachedResultSet = context.isReadCache() ? resultSetCacheService.readResultSet(cacheKey) : null;
+            if (cachedResultSet != null) {
+                if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+                    RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+                }
+                if (context.getNumberOfIncoming().decrementAndGet() == 0) {
+                    RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+                }
+                resultSetResponse.processMappedResultSet(
+                        cachedResultSet,
+                        druidQuery,
+                        new LoggingContext(RequestLog.dump())
+                );
+                return true;
+            }
+        } catch (Exception e) {
+            LOG.warn("Error processing result set cache read: ", e);
+            return next.handleRequest(context, request, druidQuery, response);
+        }
+
+        // The mapped result set is cached once it has been sent on, unless the response turned out to be incomplete
+        resultSetResponse.getResponseEmitter().subscribe(
+                preResponse -> cacheResultSet(request, preResponse, cacheKey),
+                error -> LOG.debug("Result set not cached, the request failed: {}", error.getMessage())
+        );
+        return next.handleRequest(context, request, druidQuery, response);
+    }
+
+    /**
+     * Cache the mapped result set of a response, if the response is complete.
+     *
+     * @param request  The data request
+     * @param preResponse  The response, with the mapped result set
+     * @param cacheKey  The cache key of the result set
+     */
+    protected void cacheResultSet(DataApiRequest request, PreResponse preResponse, CacheKey cacheKey) {
+        // Streamed rows are read once by the response writer, so there is no result set left to cache
+        if (preResponse.getResultSet() instanceof StreamingResultSet
+                || !isCacheable(request, preResponse.getResponseContext())) {
+            return;
+        }
+        resultSetCacheService.writeResultSet(preResponse.getResultSet(), cacheKey);
+    }
+
+    /**
+     * Check whether the result set of a request can be cached and answered from the cache.
+     *
+     * @param request  The data request
+     * @param responseContext  The context of the response to the request
+     *
+     * @return true if the request is neither paginated nor a debug request, and has no volatile or missing intervals
+     */
+    protected boolean isCacheable(DataApiRequest request, ResponseContext responseContext) {
+        return !request.getPaginationParameters().isPresent()
+                && request.getFormat() != DefaultResponseFormatType.DEBUG
+                && getVolatileIntervalsWithDefault(responseContext).isEmpty()
+                && getPartialIntervalsWithDefault(responseContext).isEmpty();
+    }
+}
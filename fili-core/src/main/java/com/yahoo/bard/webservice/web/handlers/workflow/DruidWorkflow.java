@@ -15,6 +15,7 @@ import com.yahoo.bard.webservice.logging.TimeRemainingFunction;
 import com.yahoo.bard.webservice.metadata.QuerySigningService;
 import com.yahoo.bard.webservice.table.PhysicalTableDictionary;
 import com.yahoo.bard.webservice.web.handlers.AsyncWebServiceRequestHandler;
+import com.yahoo.bard.webservice.web.handlers.BucketedCacheRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.CacheRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.CacheV2RequestHandler;
 import com.yahoo.bard.webservice.web.handlers.DataRequestHandler;
@@ -24,6 +25,7 @@ import com.yahoo.bard.webservice.web.handlers.DruidPartialDataRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.EtagCacheRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.PaginationRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.PartialDataRequestHandler;
+import com.yahoo.bard.webservice.web.handlers.ResultSetCacheRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.SplitQueryRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.TopNMapperRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.VolatileDataRequestHandler;
@@ -31,6 +33,7 @@ import com.yahoo.bard.webservice.web.handlers.WebServiceSelectorRequestHandler;
 import com.yahoo.bard.webservice.web.handlers.WeightCheckRequestHandler;
 import com.yahoo.bard.webservice.web.util.QueryWeightUtil;
 import com.yahoo.bard.webservice.web.util.QuerySignedCacheService;
+import com.yahoo.bard.webservice.web.util.ResultSetCacheService;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -43,6 +46,7 @@ import javax.validation.constraints.NotNull;
  * <ul>
  *     <li>Partial data filtering is attached to the response. (Feature flagged)
  *     <li>Requests are routed by selecting a druid web service.
+ *     <li>The cache is checked for mapped result sets matching the request. (Feature flagged)
  *     <li>The cache is checked for responses matching the query. (Feature flagged)
  *     <li>Non UI requests may pass through an asynchronous druid query to test the aggregation cost.
  *     <li>Requests are sent asynchronously to the druid web service
@@ -69,6 +73,7 @@ public class DruidWorkflow implements RequestWorkflowProvider {
     protected final @NotNull ObjectMapper mapper;
     protected final @NotNull VolatileIntervalsService volatileIntervalsService;
     protected final @NotNull QuerySignedCacheService querySignedCacheService;
+    protected final ResultSetCacheService resultSetCacheService;
 
     /**
      * Constructor.
@@ -83,6 +88,45 @@ public class DruidWorkflow implements RequestWorkflowProvider {
      * @param querySignedCacheService The service for cache support
      * @param mapper  JSON mapper
      */
+    public DruidWorkflow(
+            @NotNull DataCache<?> dataCache,
+            DruidWebService webService,
+            QueryWeightUtil weightUtil,
+            PhysicalTableDictionary physicalTableDictionary,
+            PartialDataHandler partialDataHandler,
+            QuerySigningService<?> querySigningService,
+            VolatileIntervalsService volatileIntervalsService,
+            QuerySignedCacheService querySignedCacheService,
+            ObjectMapper mapper
+    ) {
+        this(
+                dataCache,
+                webService,
+                weightUtil,
+                physicalTableDictionary,
+                partialDataHandler,
+                querySigningService,
+                volatileIntervalsService,
+                querySignedCacheService,
+                null,
+                mapper
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dataCache  Response cache to use for caching Druid responses
+     * @param webService  Web Service to use for UI-path queries
+     * @param weightUtil  Utility for dealing with the weight check step
+     * @param physicalTableDictionary  Collection of all physical tables
+     * @param partialDataHandler  Handler for dealing with the partial data step
+     * @param querySigningService  Service to sign a query based on it's segment metadata
+     * @param volatileIntervalsService  Service to get volatile intervals from
+     * @param querySignedCacheService The service for cache support
+     * @param resultSetCacheService  The service for caching mapped result sets, or null to not cache them
+     * @param mapper  JSON mapper
+     */
     @Inject
     public DruidWorkflow(
             @NotNull DataCache<?> dataCache,
@@ -93,6 +137,7 @@ public class DruidWorkflow implements RequestWorkflowProvider {
             QuerySigningService<?> querySigningService,
             VolatileIntervalsService volatileIntervalsService,
             QuerySignedCacheService querySignedCacheService,
+            ResultSetCacheService resultSetCacheService,
             ObjectMapper mapper
     ) {
         this.dataCache = dataCache;
@@ -103,6 +148,7 @@ public class DruidWorkflow implements RequestWorkflowProvider {
         this.querySigningService = querySigningService;
         this.volatileIntervalsService = volatileIntervalsService;
         this.querySignedCacheService = querySignedCacheService;
+        this.resultSetCacheService = resultSetCacheService;
         this.mapper = mapper;
     }
 
@@ -119,6 +165,14 @@ public class DruidWorkflow implements RequestWorkflowProvider {
         // If query caching is enabled, the cache is checked before sending the request
         if (CacheFeatureFlag.TTL.isOn()) {
             handler = new CacheRequestHandler(handler, dataCache, mapper);
+        } else if (CacheFeatureFlag.LOCAL_SIGNATURE.isOn() && BardFeatureFlag.CACHE_TIME_BUCKETS.isOn()) {
+            handler = new BucketedCacheRequestHandler(
+                    handler,
+                    dataCache,
+                    querySigningService,
+                    querySignedCacheService,
+                    mapper
+            );
         } else if (CacheFeatureFlag.LOCAL_SIGNATURE.isOn()) {
             handler = new CacheV2RequestHandler(
                     handler,
@@ -161,6 +215,13 @@ public class DruidWorkflow implements RequestWorkflowProvider {
 
         handler = new TopNMapperRequestHandler(handler);
 
+        // If result set caching is enabled, the cache is checked for the mapped result set before it is built
+        if (CacheFeatureFlag.LOCAL_SIGNATURE.isOn()
+                && BardFeatureFlag.CACHE_RESULT_SETS.isOn()
+                && resultSetCacheService != null) {
+            handler = new ResultSetCacheRequestHandler(handler, resultSetCacheService);
+        }
+
         handler = new PartialDataRequestHandler(handler, partialDataHandler);
 
         handler = new VolatileDataRequestHandler(
@@ -0,0 +1,168 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.responseprocessors;
+
+import static com.yahoo.bard.webservice.config.BardFeatureFlag.CACHE_PARTIAL_DATA;
+import static com.yahoo.bard.webservice.web.handlers.PartialDataRequestHandler.getPartialIntervalsWithDefault;
+import static com.yahoo.bard.webservice.web.handlers.VolatileDataRequestHandler.getVolatileIntervalsWithDefault;
+
+import com.yahoo.bard.webservice.data.cache.CacheKey;
+import com.yahoo.bard.webservice.druid.client.FailureCallback;
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.util.SimplifiedIntervalList;
+import com.yahoo.bard.webservice.web.util.QuerySignedCacheService;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A response processor which splits the druid response to the uncached buckets of a query back into buckets, caches
+ * the buckets which are cacheable, and passes the response merged with the cached buckets on to its next processor.
+ */
+public class BucketedCacheResponseProcessor implements ResponseProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BucketedCacheResponseProcessor.class);
+    public static final String UNEXPECTED_TIMESTAMP_FORMAT = "Bucketed query received a row outside its buckets: %s";
+
+    private static final String TIMESTAMP = "timestamp";
+
+    private final ResponseProcessor next;
+    private final DruidAggregationQuery<?> queryBeforeBucketing;
+    private final List<Interval> buckets;
+    private final Map<Interval, JsonNode> cachedBuckets;
+    private final Map<Interval, CacheKey> queriedBuckets;
+    private final QuerySignedCacheService querySignedCacheService;
+
+    /**
+     * Constructor.
+     *
+     * @param next  The next delegate response processor
+     * @param druidQuery  The druid query for all the buckets
+     * @param buckets  All the buckets of the query, in time order
+     * @param cachedBuckets  The responses for the buckets read from the cache
+     * @param queriedBuckets  The buckets asked for from druid, with the keys to cache them under, or null values for
+     * buckets which are not cacheable
+     * @param querySignedCacheService  The service to cache the queried buckets with
+     */
+    public BucketedCacheResponseProcessor(
+            ResponseProcessor next,
+            DruidAggregationQuery<?> druidQuery,
+            List<Interval> buckets,
+            Map<Interval, JsonNode> cachedBuckets,
+            Map<Interval, CacheKey> queriedBuckets,
+            QuerySignedCacheService querySignedCacheService
+    ) {
+        this.next = next;
+        this.queryBeforeBucketing = druidQuery;
+        this.buckets = buckets;
+        this.cachedBuckets = cachedBuckets;
+        this.queriedBuckets = queriedBuckets;
+        this.querySignedCacheService = querySignedCacheService;
+    }
+
+    @Override
+    public ResponseContext getResponseContext() {
+        return next.getResponseContext();
+    }
+
+    @Override
+    public FailureCallback getFailureCallback(DruidAggregationQuery<?> druidQuery) {
+        return next.getFailureCallback(druidQuery);
+    }
+
+    @Override
+    public HttpErrorCallback getErrorCallback(DruidAggregationQuery<?> druidQuery) {
+        return next.getErrorCallback(druidQuery);
+    }
+
+    @Override
+    public void processResponse(JsonNode json, DruidAggregationQuery<?> druidQuery, LoggingContext metadata) {
+        Map<Interval, ArrayNode> responseBuckets = splitBuckets(json);
+        if (responseBuckets == null) {
+            return;
+        }
+
+        // Missing intervals may have been reported with the response, so they are checked now rather than up front
+        SimplifiedIntervalList uncacheableIntervals = getVolatileIntervalsWithDefault(getResponseContext());
+        if (!CACHE_PARTIAL_DATA.isOn()) {
+            uncacheableIntervals = uncacheableIntervals.union(getPartialIntervalsWithDefault(getResponseContext()));
+        }
+
+        next.processResponse(mergeBuckets(buckets, cachedBuckets, responseBuckets), queryBeforeBucketing, metadata);
+
+        for (Map.Entry<Interval, CacheKey> queriedBucket : queriedBuckets.entrySet()) {
+            Interval bucket = queriedBucket.getKey();
+            if (queriedBucket.getValue() == null || uncacheableIntervals.stream().anyMatch(bucket::overlaps)) {
+                continue;
+            }
+            querySignedCacheService.writeCache(responseBuckets.get(bucket), queriedBucket.getValue());
+        }
+    }
+
+    /**
+     * Split the rows of a druid response into the queried buckets their timestamps fall in.
+     *
+     * @param json  The druid response
+     *
+     * @return the rows of each queried bucket, empty for buckets without rows, or null if a row is outside the buckets
+     */
+    private Map<Interval, ArrayNode> splitBuckets(JsonNode json) {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        Map<Interval, ArrayNode> responseBuckets = new LinkedHashMap<>();
+        TreeMap<Long, Interval> bucketStarts = new TreeMap<>();
+        for (Interval bucket : queriedBuckets.keySet()) {
+            responseBuckets.put(bucket, factory.arrayNode());
+            bucketStarts.put(bucket.getStartMillis(), bucket);
+        }
+
+        for (JsonNode row : json) {
+            long timestamp = new DateTime(row.get(TIMESTAMP).asText()).getMillis();
+            Map.Entry<Long, Interval> bucket = bucketStarts.floorEntry(timestamp);
+            if (bucket == null || !bucket.getValue().contains(timestamp)) {
+                String message = String.format(UNEXPECTED_TIMESTAMP_FORMAT, row.get(TIMESTAMP).asText());
+                Exception e = new IllegalStateException(message);
+                LOG.error(message, e);
+                getFailureCallback(queryBeforeBucketing).invoke(e);
+                return null;
+            }
+            responseBuckets.get(bucket.getValue()).add(row);
+        }
+        return responseBuckets;
+    }
+
+    /**
+     * Merge the rows of cached and queried buckets into one response, in time order.
+     *
+     * @param buckets  All the buckets of the query, in time order
+     * @param cachedBuckets  The rows of the buckets read from the cache
+     * @param responseBuckets  The rows of the buckets asked for from druid
+     *
+     * @return the rows of all the buckets
+     */
+    public static JsonNode mergeBuckets(
+            List<Interval> buckets,
+            Map<Interval, JsonNode> cachedBuckets,
+            Map<Interval, ? extends JsonNode> responseBuckets
+    ) {
+        ArrayNode result = JsonNodeFactory.instance.arrayNode();
+        for (Interval bucket : buckets) {
+            JsonNode rows = cachedBuckets.containsKey(bucket) ? cachedBuckets.get(bucket) : responseBuckets.get(bucket);
+            if (rows != null) {
+                rows.forEach(result::add);
+            }
+        }
+        return result;
+    }
+}
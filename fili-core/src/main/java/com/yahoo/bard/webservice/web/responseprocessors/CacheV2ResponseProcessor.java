@@ -9,6 +9,7 @@ import static com.yahoo.bard.webservice.web.handlers.VolatileDataRequestHandler.
 import com.yahoo.bard.webservice.application.MetricRegistryFactory;
 import com.yahoo.bard.webservice.config.SystemConfig;
 import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.data.cache.CacheKey;
 import com.yahoo.bard.webservice.data.cache.TupleDataCache;
 import com.yahoo.bard.webservice.druid.client.FailureCallback;
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
@@ -17,6 +18,7 @@ import com.yahoo.bard.webservice.logging.blocks.BardCacheInfo;
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfo;
 import com.yahoo.bard.webservice.metadata.QuerySigningService;
 import com.yahoo.bard.webservice.util.SimplifiedIntervalList;
+import com.yahoo.bard.webservice.web.util.CachedResponseCodec;
 import com.yahoo.bard.webservice.web.util.QuerySignedCacheService;
 
 import com.codahale.metrics.Meter;
@@ -54,11 +56,13 @@ public class CacheV2ResponseProcessor implements ResponseProcessor {
     );
 
     private final ResponseProcessor next;
-    private final String cacheKey;
-    private final @NotNull TupleDataCache<String, Long, String> dataCache;
-    private final @NotNull QuerySigningService<Long> querySigningService;
+    private final CacheKey cacheKey;
+    private final String key;
+    private final @NotNull TupleDataCache<String, Long, byte[]> dataCache;
+    private final QuerySigningService<Long> querySigningService;
 
     protected final ObjectWriter writer;
+    private final CachedResponseCodec codec = new CachedResponseCodec();
 
     /**
      * Constructor.
@@ -68,21 +72,48 @@ public class CacheV2ResponseProcessor implements ResponseProcessor {
      * @param dataCache  The cache into which to write a cache entry
      * @param querySigningService  Service to use for signing the queries in the cache key with their metadata
      * @param mapper  An object mapper to use for processing Json
+     *
+     * @deprecated The segment signature is looked up when the response arrives, use the constructor taking the
+     * {@link CacheKey} built for the cache read instead
      */
+    @Deprecated
     public CacheV2ResponseProcessor(
             ResponseProcessor next,
             String cacheKey,
-            TupleDataCache<String, Long, String> dataCache,
+            TupleDataCache<String, Long, byte[]> dataCache,
             QuerySigningService<Long> querySigningService,
             ObjectMapper mapper
     ) {
         this.next = next;
-        this.cacheKey = cacheKey;
+        this.cacheKey = null;
+        this.key = cacheKey;
         this.dataCache = dataCache;
         this.querySigningService = querySigningService;
         this.writer = mapper.writer();
     }
 
+    /**
+     * Constructor.
+     *
+     * @param next  Next ResponseProcessor in the chain
+     * @param cacheKey  Key, with the segment signature of the query, into which to write a cache entry
+     * @param dataCache  The cache into which to write a cache entry
+     * @param mapper  An object mapper to use for processing Json
+     */
+    public CacheV2ResponseProcessor(
+            ResponseProcessor next,
+            CacheKey cacheKey,
+            TupleDataCache<String, Long, byte[]> dataCache,
+            ObjectMapper mapper
+    ) {
+        this.next = next;
+        this.cacheKey = cacheKey;
+        this.key = cacheKey == null ? null : cacheKey.getKey();
+        this.dataCache = dataCache;
+        this.querySigningService = null;
+        this.writer = mapper.writer();
+    }
+
     @Override
     public ResponseContext getResponseContext() {
         return next.getResponseContext();
@@ -100,24 +131,29 @@ public class CacheV2ResponseProcessor implements ResponseProcessor {
 
     @Override
     public void processResponse(JsonNode json, DruidAggregationQuery<?> druidQuery, LoggingContext metadata) {
-        String querySignatureHash = String.valueOf(querySigningService.getSegmentSetId(druidQuery).orElse(null));
+        CacheKey signedKey = cacheKey;
+        if (signedKey == null && key != null) {
+            signedKey = new CacheKey(key, querySigningService.getSegmentSetId(druidQuery).orElse(null));
+        }
         next.processResponse(json, druidQuery, metadata);
+        if (signedKey == null) {
+            // The key could not be built, so there is nowhere to cache the response
+            return;
+        }
+        String querySignatureHash = String.valueOf(signedKey.getSegmentSetId());
         if (CACHE_PARTIAL_DATA.isOn() || isCacheable()) {
-            String valueString = null;
+            byte[] value = null;
             try {
-                valueString = writer.writeValueAsString(json);
-                int valueLength = valueString.length();
+                value = codec.encode(json);
+                int valueLength = value.length;
+                // The limit applies to the encoded value, which is what takes up room in the cache
                 if (valueLength <= maxDruidResponseLengthToCache) {
-                    dataCache.set(
-                            cacheKey,
-                            querySigningService.getSegmentSetId(druidQuery).orElse(null),
-                            valueString
-                    );
+                    dataCache.set(signedKey, signedKey.getSegmentSetId(), value);
                 } else {
                     LOG.debug(
                             "Response not cached for query with key cksum {}." +
                                     "Length of {} exceeds max value length of {}",
-                            getMD5Cksum(cacheKey),
+                            getMD5Cksum(key),
                             valueLength,
                             maxDruidResponseLengthToCache
                     );
@@ -126,22 +162,22 @@ public class CacheV2ResponseProcessor implements ResponseProcessor {
                 //mark and log the cache put failure
                 CACHE_SET_FAILURES.mark(1);
                 BardQueryInfo.getBardQueryInfo().incrementCountCacheSetFailures();
-                BardQueryInfo.getBardQueryInfo().addCacheInfo(getMD5Cksum(cacheKey),
+                BardQueryInfo.getBardQueryInfo().addCacheInfo(getMD5Cksum(key),
                         new BardCacheInfo(
                                 QuerySignedCacheService.LOG_CACHE_SET_FAILURES,
-                                cacheKey.length(),
-                                getMD5Cksum(cacheKey),
+                                key.length(),
+                                getMD5Cksum(key),
                                 querySignatureHash != null
                                         ? CacheV2ResponseProcessor.getMD5Cksum(querySignatureHash)
                                         : null,
-                                valueString != null ? valueString.length() : 0
+                                value != null ? value.length : 0
                         )
                 );
                 LOG.warn(
                         "Unable to cache {} value of size: {} and key cksum: {} ",
-                        valueString == null ? "null " : "",
-                        valueString == null ? "N/A" : valueString.length(),
-                        getMD5Cksum(cacheKey),
+                        value == null ? "null " : "",
+                        value == null ? "N/A" : value.length,
+                        getMD5Cksum(key),
                         e
                 );
             }
@@ -10,6 +10,7 @@ import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper;
 import com.yahoo.bard.webservice.druid.client.FailureCallback;
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.web.ChainingResultSetMapper;
 import com.yahoo.bard.webservice.web.ErrorMessageFormat;
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 
@@ -79,17 +80,15 @@ public abstract class MappingResponseProcessor implements ResponseProcessor {
 
     /**
      * Builds a mapped result set by running through ResultSetMappers.
+     * <p>
+     * Consecutive row local mappers are run in a single pass over the result set.
      *
      * @param resultSet  The result set being processed
      *
      * @return a mapped resultSet
      */
     protected ResultSet mapResultSet(ResultSet resultSet) {
-        ResultSet mappedResultSet = resultSet;
-        for (ResultSetMapper resultSetMapper : getMappers()) {
-            mappedResultSet = resultSetMapper.map(mappedResultSet);
-        }
-        return mappedResultSet;
+        return new ChainingResultSetMapper(getMappers()).map(resultSet);
     }
 
     /**
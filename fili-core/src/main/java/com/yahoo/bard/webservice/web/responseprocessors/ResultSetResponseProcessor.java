@@ -9,34 +9,44 @@ import static com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKe
 
 import com.yahoo.bard.webservice.application.ObjectMappersSuite;
 import com.yahoo.bard.webservice.async.ResponseException;
+import com.yahoo.bard.webservice.config.BardFeatureFlag;
 import com.yahoo.bard.webservice.data.DruidResponseParser;
 import com.yahoo.bard.webservice.data.HttpResponseMaker;
 import com.yahoo.bard.webservice.data.ResultSet;
 import com.yahoo.bard.webservice.data.ResultSetSchema;
+import com.yahoo.bard.webservice.data.StreamingResultSet;
 import com.yahoo.bard.webservice.data.dimension.DimensionField;
 import com.yahoo.bard.webservice.data.metric.LogicalMetric;
+import com.yahoo.bard.webservice.data.metric.mappers.NoOpResultSetMapper;
+import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper;
 import com.yahoo.bard.webservice.data.time.Granularity;
 import com.yahoo.bard.webservice.druid.client.FailureCallback;
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
 import com.yahoo.bard.webservice.logging.RequestLog;
 import com.yahoo.bard.webservice.table.Column;
+import com.yahoo.bard.webservice.web.ChainingResultSetMapper;
 import com.yahoo.bard.webservice.web.PageNotFoundException;
 import com.yahoo.bard.webservice.web.PreResponse;
+import com.yahoo.bard.webservice.web.apirequest.ApiRequest;
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rx.Observable;
 import rx.subjects.Subject;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.ws.rs.core.Response.Status;
@@ -44,7 +54,7 @@ import javax.ws.rs.core.Response.Status;
 /**
  * Callback handler for JSON to be processed into result sets.
  */
-public class ResultSetResponseProcessor extends MappingResponseProcessor implements ResponseProcessor {
+public class ResultSetResponseProcessor extends MappingResponseProcessor implements StreamingResponseProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(ResultSetResponseProcessor.class);
 
@@ -88,10 +98,130 @@ public class ResultSetResponseProcessor extends MappingResponseProcessor impleme
 
     @Override
     public void processResponse(JsonNode json, DruidAggregationQuery<?> druidQuery, LoggingContext metadata) {
+        processResponse(() -> buildResultSet(json, druidQuery, apiRequest.getTimeZone()), druidQuery, metadata);
+    }
+
+    /**
+     * Process the response token stream, taking ownership of the parser.
+     * <p>
+     * When {@link #canStream()} allows it, the rows are not parsed here at all. A {@link StreamingResultSet} is emitted
+     * instead, which parses and maps the rows as the response writer streams them out, and closes the parser after.
+     * Otherwise the result set is built and the parser closed before the response is emitted.
+     *
+     * @param parser  Parser over the tokens of a druid data response
+     * @param druidQuery  The query with the schema for processing this response
+     * @param metadata  The LoggingContext to use
+     */
+    @Override
+    public void processResponse(JsonParser parser, DruidAggregationQuery<?> druidQuery, LoggingContext metadata) {
+        if (canStream()) {
+            processResponse(() -> streamResultSet(parser, druidQuery, apiRequest.getTimeZone()), druidQuery, metadata);
+            return;
+        }
+        processResponse(
+                () -> {
+                    try (JsonParser closedParser = parser) {
+                        return buildResultSet(closedParser, druidQuery, apiRequest.getTimeZone());
+                    } catch (IOException ioe) {
+                        LOG.error("Unable to close the druid response parser", ioe);
+                        throw new IllegalStateException(ioe);
+                    }
+                },
+                druidQuery,
+                metadata
+        );
+    }
+
+    /**
+     * Whether the rows of the response can be streamed into the response writer rather than built into a result set.
+     * <p>
+     * Only synchronous requests are streamed, since asynchronous results may need to be stored as well as sent. Every
+     * mapper has to map rows on their own, since mappers which sort, rank or page need the whole result set.
+     *
+     * @return true if the rows can be streamed
+     */
+    protected boolean canStream() {
+        if (!BardFeatureFlag.STREAMING_RESPONSES.isOn()) {
+            return false;
+        }
+        Long asyncAfter = apiRequest.getAsyncAfter();
+        return asyncAfter != null
+                && asyncAfter == ApiRequest.SYNCHRONOUS_ASYNC_AFTER_VALUE
+                && getMappers().stream().allMatch(ResultSetResponseProcessor::isStreamable);
+    }
+
+    /**
+     * Whether a mapper maps each row on its own, and so can map rows as they are streamed.
+     *
+     * @param mapper  The mapper
+     *
+     * @return true if the mapper can map streamed rows
+     */
+    protected static boolean isStreamable(ResultSetMapper mapper) {
+        if (mapper instanceof NoOpResultSetMapper) {
+            return true;
+        }
+        if (mapper instanceof ChainingResultSetMapper) {
+            return ((ChainingResultSetMapper) mapper).getMappersList().stream()
+                    .allMatch(ResultSetResponseProcessor::isStreamable);
+        }
+        return ResultSetMapper.isFusable(mapper);
+    }
+
+    /**
+     * Emit a result set which has already been built and mapped, such as one read from a result set cache.
+     *
+     * @param mappedResultSet  The result set, with the mappers of the request already applied
+     * @param druidQuery  The druid query the result set answers
+     * @param metadata  The LoggingContext to use
+     */
+    public void processMappedResultSet(
+            ResultSet mappedResultSet,
+            DruidAggregationQuery<?> druidQuery,
+            LoggingContext metadata
+    ) {
+        emitResultSet(() -> mappedResultSet, druidQuery, metadata);
+    }
+
+    /**
+     * The channel the response of this processor is emitted on, for stages which observe the mapped result set.
+     *
+     * @return the response channel
+     */
+    public Observable<PreResponse> getResponseEmitter() {
+        return responseEmitter;
+    }
+
+    /**
+     * Build, map and emit the result set for a druid response.
+     *
+     * @param resultSetBuilder  Builds the initial result set from the druid response
+     * @param druidQuery  The druid query being processed
+     * @param metadata  The LoggingContext to use
+     */
+    protected void processResponse(
+            Supplier<ResultSet> resultSetBuilder,
+            DruidAggregationQuery<?> druidQuery,
+            LoggingContext metadata
+    ) {
+        emitResultSet(() -> mapResultSet(resultSetBuilder.get()), druidQuery, metadata);
+    }
+
+    /**
+     * Emit the mapped result set for a druid response, or the error building it.
+     *
+     * @param mappedResultSetBuilder  Builds the mapped result set
+     * @param druidQuery  The druid query being processed
+     * @param metadata  The LoggingContext to use
+     */
+    protected void emitResultSet(
+            Supplier<ResultSet> mappedResultSetBuilder,
+            DruidAggregationQuery<?> druidQuery,
+            LoggingContext metadata
+    ) {
         try {
             RequestLog.restore(metadata.getRequestLog());
-            ResultSet resultSet = buildResultSet(json, druidQuery, apiRequest.getTimeZone());
-            resultSet = mapResultSet(resultSet);
+            ResultSet resultSet = mappedResultSetBuilder.get();
 
             LinkedHashSet<String> apiMetricColumnNames = apiRequest.getLogicalMetrics().stream()
                     .map(LogicalMetric::getName)
@@ -149,12 +279,60 @@ public class ResultSetResponseProcessor extends MappingResponseProcessor impleme
      * @return The initial result set from the json node.
      */
     public ResultSet buildResultSet(JsonNode json, DruidAggregationQuery<?> druidQuery, DateTimeZone dateTimeZone) {
+        return druidResponseParser.parse(json, buildSchema(druidQuery), druidQuery.getQueryType(), dateTimeZone);
+    }
 
+    /**
+     * Build a result set using the api request time grain, reading the druid response as a stream of tokens.
+     *
+     * @param parser  The parser over the tokens of the druid response.
+     * @param druidQuery  The druid query being processed
+     * @param dateTimeZone  The date time zone for parsing result rows
+     *
+     * @return The initial result set from the token stream.
+     */
+    public ResultSet buildResultSet(JsonParser parser, DruidAggregationQuery<?> druidQuery, DateTimeZone dateTimeZone) {
+        return druidResponseParser.parse(parser, buildSchema(druidQuery), druidQuery.getQueryType(), dateTimeZone);
+    }
+
+    /**
+     * Build a result set which parses the druid response as its rows are streamed, using the api request time grain.
+     * <p>
+     * The result set owns the parser, and closes it once the rows have been read.
+     *
+     * @param parser  The parser over the tokens of the druid response.
+     * @param druidQuery  The druid query being processed
+     * @param dateTimeZone  The date time zone for parsing result rows
+     *
+     * @return The initial result set, with its rows still to be parsed
+     */
+    public StreamingResultSet streamResultSet(
+            JsonParser parser,
+            DruidAggregationQuery<?> druidQuery,
+            DateTimeZone dateTimeZone
+    ) {
+        ResultSetSchema schema = buildSchema(druidQuery);
+        return new StreamingResultSet(schema, results -> {
+            try (JsonParser streamedParser = parser) {
+                druidResponseParser.parse(streamedParser, schema, druidQuery.getQueryType(), dateTimeZone, results);
+            } catch (IOException ioe) {
+                LOG.error("Unable to close the druid response parser", ioe);
+                throw new IllegalStateException(ioe);
+            }
+        });
+    }
+
+    /**
+     * Build the schema of the result set for a druid query using the api request time grain.
+     *
+     * @param druidQuery  The druid query being processed
+     *
+     * @return The schema for the initial result set
+     */
+    protected ResultSetSchema buildSchema(DruidAggregationQuery<?> druidQuery) {
         LinkedHashSet<Column> columns = druidResponseParser.buildSchemaColumns(druidQuery)
                 .collect(Collectors.toCollection(LinkedHashSet::new));
 
-        ResultSetSchema resultSetSchema = new ResultSetSchema(granularity, columns);
-
-        return druidResponseParser.parse(json, resultSetSchema, druidQuery.getQueryType(), dateTimeZone);
+        return new ResultSetSchema(granularity, columns);
     }
 }
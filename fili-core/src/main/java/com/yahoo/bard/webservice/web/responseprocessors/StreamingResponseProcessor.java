@@ -0,0 +1,25 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.responseprocessors;
+
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * A response processor which is able to consume a druid data response as a stream of JSON tokens, rather than as a
+ * fully built JSON document.
+ */
+public interface StreamingResponseProcessor extends ResponseProcessor {
+
+    /**
+     * Process the response token stream and respond to the original web request.
+     * <p>
+     * The processor takes ownership of the parser, and is responsible for closing it.
+     *
+     * @param parser  Parser over the tokens of a druid data response
+     * @param query  The query with the schema for processing this response
+     * @param metadata  The LoggingContext to use
+     */
+    void processResponse(JsonParser parser, DruidAggregationQuery<?> query, LoggingContext metadata);
+}
@@ -8,11 +8,18 @@ import com.yahoo.bard.webservice.web.handlers.RequestContext;
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * An interface to assist with caching.
  */
 public interface CacheService {
+
+    /**
+     * Mapper reading the JSON text of cache services which only implement {@link #readCache}.
+     */
+    ObjectMapper LEGACY_CACHE_READER = new ObjectMapper();
+
     /**
      * Read cache.
      *
@@ -20,11 +27,37 @@ public interface CacheService {
      * @param druidQuery The query being processed
      *
      * @return Response
+     *
+     * @deprecated Use {@link #readCachedResponse(RequestContext, DruidAggregationQuery)}, which does not turn the
+     * cached response back into JSON text
      */
-    String readCache(
+    @Deprecated
+    default String readCache(
             RequestContext context,
             DruidAggregationQuery<?> druidQuery
-    ) throws JsonProcessingException;
+    ) throws JsonProcessingException {
+        JsonNode cachedResponse = readCachedResponse(context, druidQuery);
+        return cachedResponse == null ? null : cachedResponse.toString();
+    }
+
+    /**
+     * Read the cached response of a query.
+     * <p>
+     * By default the JSON text of {@link #readCache} is parsed, so cache services written against the String method
+     * keep working. Implementations have to override at least one of the two methods.
+     *
+     * @param context The context data from the request processing chain
+     * @param druidQuery The query being processed
+     *
+     * @return the cached response, or null if there is no valid cached response
+     */
+    default JsonNode readCachedResponse(
+            RequestContext context,
+            DruidAggregationQuery<?> druidQuery
+    ) throws JsonProcessingException {
+        String cachedResponse = readCache(context, druidQuery);
+        return cachedResponse == null ? null : LEGACY_CACHE_READER.readTree(cachedResponse);
+    }
 
     /**
      * Write cache.
@@ -0,0 +1,190 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util;
+
+import com.yahoo.bard.webservice.config.SystemConfig;
+import com.yahoo.bard.webservice.config.SystemConfigProvider;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Encodes druid responses into the binary values the query signed cache stores, and decodes them again.
+ * <p>
+ * A value starts with a 4 byte header: the magic bytes {@code 'F' 'R'}, the format version, and the compression the
+ * rest of the value is compressed with. The rest of the value is the response encoded as Smile, which is both smaller
+ * and faster to parse than JSON text, compressed with zstd unless compression is turned off.
+ */
+public class CachedResponseCodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachedResponseCodec.class);
+    private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.getInstance();
+
+    public static final String COMPRESSION_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_cache_compression");
+    public static final String ZSTD_LEVEL_KEY = SYSTEM_CONFIG.getPackageVariableName("druid_cache_zstd_level");
+
+    private static final byte[] MAGIC = {'F', 'R'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 4;
+
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+
+    /**
+     * The compressions the body of a cached value can be stored with.
+     */
+    public enum Compression {
+        NONE((byte) 0),
+        ZSTD((byte) 1);
+
+        private final byte id;
+
+        /**
+         * Constructor.
+         *
+         * @param id  The byte identifying the compression in the header of a cached value
+         */
+        Compression(byte id) {
+            this.id = id;
+        }
+
+        /**
+         * Find the compression a header byte identifies.
+         *
+         * @param id  The compression byte of a header
+         *
+         * @return the compression, or null if no compression has that id
+         */
+        static Compression forId(byte id) {
+            for (Compression compression : values()) {
+                if (compression.id == id) {
+                    return compression;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Compression compression;
+    private final int zstdLevel;
+
+    /**
+     * Constructor, compressing as configured.
+     */
+    public CachedResponseCodec() {
+        this(
+                Compression.valueOf(
+                        SYSTEM_CONFIG.getStringProperty(COMPRESSION_KEY, "zstd").trim().toUpperCase(Locale.ENGLISH)
+                ),
+                SYSTEM_CONFIG.getIntProperty(ZSTD_LEVEL_KEY, 3)
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param compression  The compression to store values with
+     * @param zstdLevel  The zstd compression level, from 1 (fastest) to 22 (smallest)
+     */
+    public CachedResponseCodec(Compression compression, int zstdLevel) {
+        this.compression = compression;
+        this.zstdLevel = zstdLevel;
+    }
+
+    /**
+     * Encode a druid response into a cache value.
+     *
+     * @param json  The druid response
+     *
+     * @return the header and the compressed Smile encoding of the response
+     *
+     * @throws IOException if the response cannot be encoded
+     */
+    public byte[] encode(JsonNode json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(MAGIC);
+        bytes.write(VERSION);
+        bytes.write(compression.id);
+        try (
+                OutputStream body = compression == Compression.ZSTD
+                        ? new ZstdOutputStream(bytes, zstdLevel)
+                        : bytes;
+                JsonGenerator generator = SMILE_MAPPER.getFactory().createGenerator(body)
+        ) {
+            SMILE_MAPPER.writeTree(generator, json);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Open a parser over the druid response a cache value holds, decompressing it as it is parsed.
+     *
+     * @param value  The cache value
+     *
+     * @return a parser over the Smile encoding of the response
+     *
+     * @throws IOException if the value is not in a format this codec reads, or cannot be decompressed
+     */
+    public JsonParser createParser(byte[] value) throws IOException {
+        if (!isEncoded(value)) {
+            String message = "Cached value is not an encoded druid response";
+            LOG.debug(message);
+            throw new IOException(message);
+        }
+        Compression valueCompression = Compression.forId(value[3]);
+        if (valueCompression == null) {
+            String message = String.format("Cached value has an unknown compression: %d", value[3]);
+            LOG.debug(message);
+            throw new IOException(message);
+        }
+        InputStream body = new ByteArrayInputStream(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+        if (valueCompression == Compression.ZSTD) {
+            body = new ZstdInputStream(body);
+        }
+        return SMILE_MAPPER.getFactory().createParser(body);
+    }
+
+    /**
+     * Decode the druid response a cache value holds.
+     *
+     * @param value  The cache value
+     *
+     * @return the druid response
+     *
+     * @throws IOException if the value is not in a format this codec reads, or cannot be decoded
+     */
+    public JsonNode decode(byte[] value) throws IOException {
+        try (JsonParser parser = createParser(value)) {
+            return SMILE_MAPPER.readTree(parser);
+        }
+    }
+
+    /**
+     * Check whether a cache value starts with the header of a value in this codec's format.
+     *
+     * @param value  The cache value
+     *
+     * @return true if the value has the magic bytes and version of this format
+     */
+    public static boolean isEncoded(byte[] value) {
+        return value != null
+                && value.length > HEADER_LENGTH
+                && value[0] == MAGIC[0]
+                && value[1] == MAGIC[1]
+                && value[2] == VERSION;
+    }
+}
@@ -137,6 +137,15 @@ public class PaginationParameters {
         return page;
     }
 
+    /**
+     * Whether the last page is requested, whose number depends on the number of rows in the result set.
+     *
+     * @return true if the last page is requested
+     */
+    public boolean isLastPage() {
+        return page == LAST_PAGE;
+    }
+
     /**
      * Returns a new PaginationParameters object with the specified page value.
      *
@@ -8,14 +8,18 @@ import static com.yahoo.bard.webservice.config.BardFeatureFlag.CACHE_PARTIAL_DAT
 import static com.yahoo.bard.webservice.web.handlers.PartialDataRequestHandler.getPartialIntervalsWithDefault;
 import static com.yahoo.bard.webservice.web.handlers.VolatileDataRequestHandler.getVolatileIntervalsWithDefault;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.yahoo.bard.webservice.config.SystemConfig;
 import com.yahoo.bard.webservice.config.SystemConfigProvider;
+import com.yahoo.bard.webservice.logging.blocks.BardBatchCacheInfo;
 import com.yahoo.bard.webservice.logging.blocks.BardCacheInfo;
 import com.yahoo.bard.webservice.util.SimplifiedIntervalList;
 import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.data.cache.CacheKey;
+import com.yahoo.bard.webservice.data.cache.TieredTupleDataCache;
 import com.yahoo.bard.webservice.data.cache.TupleDataCache;
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
 import com.yahoo.bard.webservice.logging.RequestLog;
@@ -33,8 +37,12 @@ import com.codahale.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.inject.*;
-import java.util.Objects;
 
 
 /**
@@ -62,11 +70,14 @@ public class QuerySignedCacheService implements CacheService {
     public static final String LOG_CACHE_GET_HIT = "cacheHit";
     public static final String LOG_CACHE_GET_MISS = "cacheMiss";
     public static final String LOG_CACHE_SIGNATURE_MISMATCH = "cacheSignatureMismatch";
+    public static final String LOG_CACHE_BATCH_READ = "cacheBatchRead";
 
-    TupleDataCache<String, Long, String> dataCache;
+    TupleDataCache<String, Long, byte[]> dataCache;
     QuerySigningService<Long> querySigningService;
     ObjectMapper objectMapper;
     ObjectWriter writer;
+    CachedResponseCodec codec;
+
     /**
      * Constructor.
      *
@@ -76,7 +87,7 @@ public class QuerySignedCacheService implements CacheService {
      */
     @Inject
     public QuerySignedCacheService(
-            TupleDataCache<String, Long, String> dataCache,
+            TupleDataCache<String, Long, byte[]> dataCache,
             QuerySigningService<Long> querySigningService,
             ObjectMapper objectMapper
     ) {
@@ -84,159 +95,307 @@ public class QuerySignedCacheService implements CacheService {
         this.querySigningService = querySigningService;
         this.objectMapper = objectMapper;
         this.writer = objectMapper.writer();
+        this.codec = new CachedResponseCodec();
     }
 
 
     @Override
-    public String readCache(
+    public JsonNode readCachedResponse(
             RequestContext context,
             DruidAggregationQuery<?> druidQuery
     ) throws JsonProcessingException {
-        String querySignatureHash = String.valueOf(querySigningService.getSegmentSetId(druidQuery).orElse(null));
-        final TupleDataCache.DataEntry<String, Long, String> cacheEntry = dataCache.get(getKey(druidQuery));
+        return readCachedResponse(context, getCacheKey(druidQuery));
+    }
+
+    /**
+     * Read the cached response of a query.
+     *
+     * @param context  The context data from the request processing chain
+     * @param cacheKey  The cache key of the query being processed
+     *
+     * @return the cached response, or null if there is no valid cached response
+     */
+    public JsonNode readCachedResponse(RequestContext context, CacheKey cacheKey) {
+        JsonNode cachedResponse = readCachedResponse(cacheKey);
+        if (cachedResponse != null) {
+            answeredFromCache(context);
+        }
+        return cachedResponse;
+    }
+
+    /**
+     * Open a parser over the cached response of a query, so that it can be streamed without building a tree.
+     * <p>
+     * The caller takes ownership of the parser, and is responsible for closing it.
+     *
+     * @param context  The context data from the request processing chain
+     * @param cacheKey  The cache key of the query being processed
+     *
+     * @return a parser over the cached response, or null if there is no valid cached response
+     */
+    public JsonParser readCachedResponseParser(RequestContext context, CacheKey cacheKey) {
+        JsonParser cachedResponse = readCachedValue(cacheKey, codec::createParser);
+        if (cachedResponse != null) {
+            answeredFromCache(context);
+        }
+        return cachedResponse;
+    }
+
+    /**
+     * Move the request workflow timings on, for a query answered from the cache instead of by druid.
+     *
+     * @param context  The context data from the request processing chain
+     */
+    private void answeredFromCache(RequestContext context) {
+        if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
+            RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
+        }
+
+        if (context.getNumberOfIncoming().decrementAndGet() == 0) {
+            RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
+        }
+    }
+
+    /**
+     * Read a cached value, without answering the request with it.
+     * <p>
+     * The hit or miss is counted and logged, but the request workflow timings are left to the caller, which may read
+     * several values to build one response.
+     *
+     * @param cacheKey  The cache key of the value
+     *
+     * @return the cached value, or null if there is no valid cached value
+     */
+    public JsonNode readCachedResponse(CacheKey cacheKey) {
+        return readCachedValue(cacheKey, codec::decode);
+    }
+
+    /**
+     * Read a cached value, decoding it if it is valid, and count and log the hit or miss.
+     *
+     * @param cacheKey  The cache key of the value
+     * @param decoder  Decodes the bytes of a valid cached value
+     * @param <T>  The type the value is decoded to
+     *
+     * @return the decoded value, or null if there is no valid cached value
+     */
+    private <T> T readCachedValue(CacheKey cacheKey, ValueDecoder<T> decoder) {
+        String keyChecksum = CacheV2ResponseProcessor.getMD5Cksum(cacheKey.getKey());
+        String signatureChecksum = CacheV2ResponseProcessor.getMD5Cksum(
+                String.valueOf(cacheKey.getSegmentSetId())
+        );
+        final TupleDataCache.DataEntry<String, Long, byte[]> cacheEntry = dataCache.get(
+                cacheKey,
+                cacheKey.getSegmentSetId()
+        );
         CACHE_REQUESTS.mark(1);
 
-        if (cacheEntry != null) {
-            if (
-                    querySigningService.getSegmentSetId(druidQuery)
-                            .filter(id -> Objects.equals(cacheEntry.getMeta(), id))
-                            .isPresent()
-            ) {
+        if (cacheEntry != null && !cacheKey.getKey().equals(cacheEntry.getKey())) {
+            LOG.warn(
+                    "Cache entry collision detected for digest: {} with existing key: {} and requested key {}",
+                    cacheKey.getDigest(),
+                    cacheEntry.getKey(),
+                    cacheKey.getKey()
+            );
+        } else if (cacheEntry != null) {
+            if (cacheKey.getSegmentSetId() != null && cacheKey.getSegmentSetId().equals(cacheEntry.getMeta())) {
                 try {
-                    if (context.getNumberOfOutgoing().decrementAndGet() == 0) {
-                        RequestLog.stopTiming(REQUEST_WORKFLOW_TIMER);
-                    }
-
-                    if (context.getNumberOfIncoming().decrementAndGet() == 0) {
-                        RequestLog.startTiming(RESPONSE_WORKFLOW_TIMER);
-                    }
+                    byte[] value = cacheEntry.getValue();
+                    T cachedResponse = decoder.decode(value);
                     CACHE_HITS.mark(1);
                     BardQueryInfo.getBardQueryInfo().incrementCountCacheHits();
                     BardQueryInfo.getBardQueryInfo().addCacheInfo(
-                            CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
+                            keyChecksum,
                             new BardCacheInfo(
                                     LOG_CACHE_GET_HIT,
-                                    getKey(druidQuery).length(),
-                                    CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
-                                    querySignatureHash != null
-                                            ? CacheV2ResponseProcessor.getMD5Cksum(querySignatureHash)
-                                            : null,
-                                    cacheEntry.getValue().length()
+                                    cacheKey.getKey().length(),
+                                    keyChecksum,
+                                    signatureChecksum,
+                                    value.length,
+                                    TieredTupleDataCache.tierOf(cacheEntry)
                             )
                     );
-                    return cacheEntry.getValue();
+                    return cachedResponse;
 
                 } catch (Exception e) {
                     LOG.warn("Error processing cached value for key {} with cksum {}",
-                            getKey(druidQuery),
-                            CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
+                            cacheKey.getKey(),
+                            keyChecksum,
                             e);
                     BardQueryInfo.getBardQueryInfo().addCacheInfo(
-                            CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
+                            keyChecksum,
                             new BardCacheInfo(
                                     LOG_CACHE_READ_FAILURES,
-                                    getKey(druidQuery).length(),
-                                    CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
-                                    querySignatureHash != null
-                                            ? CacheV2ResponseProcessor.getMD5Cksum(querySignatureHash)
-                                            : null,
+                                    cacheKey.getKey().length(),
+                                    keyChecksum,
+                                    signatureChecksum,
                                     0
                             )
                     );
                 }
+                return null;
             } else {
                 LOG.debug("Cache entry present but invalid for query with id: {}", RequestLog.getId());
                 CACHE_POTENTIAL_HITS.mark(1);
                 CACHE_MISSES.mark(1);
                 BardQueryInfo.getBardQueryInfo().addCacheInfo(
-                        CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
+                        keyChecksum,
                         new BardCacheInfo(
                                 LOG_CACHE_SIGNATURE_MISMATCH,
-                                getKey(druidQuery).length(),
-                                CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
-                                querySignatureHash != null
-                                        ? CacheV2ResponseProcessor.getMD5Cksum(querySignatureHash)
-                                        : null,
+                                cacheKey.getKey().length(),
+                                keyChecksum,
+                                signatureChecksum,
                                 0
                         )
                 );
+                return null;
             }
-        } else {
-            CACHE_MISSES.mark(1);
-            BardQueryInfo.getBardQueryInfo().addCacheInfo(
-                    CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
-                    new BardCacheInfo(
-                            LOG_CACHE_GET_MISS,
-                            getKey(druidQuery).length(),
-                            CacheV2ResponseProcessor.getMD5Cksum(getKey(druidQuery)),
-                            querySignatureHash != null
-                                    ? CacheV2ResponseProcessor.getMD5Cksum(querySignatureHash)
-                                    : null,
-                            0
-                    )
-            );
         }
+        CACHE_MISSES.mark(1);
+        BardQueryInfo.getBardQueryInfo().addCacheInfo(
+                keyChecksum,
+                new BardCacheInfo(
+                        LOG_CACHE_GET_MISS,
+                        cacheKey.getKey().length(),
+                        keyChecksum,
+                        signatureChecksum,
+                        0
+                )
+        );
         return null;
     }
 
+    /**
+     * Read the cached values of several keys in one batch, without answering the request with them.
+     * <p>
+     * The entries are fetched from the cache together. The hits and misses are counted as for single reads, but are
+     * logged as one entry for the whole batch, under the part of the key the values share.
+     *
+     * @param cacheKeys  The cache keys of the values
+     * @param sharedKey  The part of the key shared by all the values, which the batch is logged under
+     *
+     * @return the valid cached values found, by cache key
+     */
+    public Map<CacheKey, JsonNode> readCachedResponses(Collection<CacheKey> cacheKeys, String sharedKey) {
+        Map<CacheKey, Long> expectedSignatures = new LinkedHashMap<>(cacheKeys.size());
+        cacheKeys.forEach(cacheKey -> expectedSignatures.put(cacheKey, cacheKey.getSegmentSetId()));
+        Map<CacheKey, TupleDataCache.DataEntry<String, Long, byte[]>> cacheEntries = dataCache.getAll(
+                expectedSignatures
+        );
+        CACHE_REQUESTS.mark(cacheKeys.size());
+
+        Map<CacheKey, JsonNode> cachedResponses = new LinkedHashMap<>(cacheEntries.size());
+        int mismatches = 0;
+        int failures = 0;
+        int valueLength = 0;
+        for (CacheKey cacheKey : cacheKeys) {
+            TupleDataCache.DataEntry<String, Long, byte[]> cacheEntry = cacheEntries.get(cacheKey);
+            // Entries stored under another key have collided, and are misses of this key
+            if (cacheEntry == null || !cacheKey.getKey().equals(cacheEntry.getKey())) {
+                continue;
+            }
+            if (cacheKey.getSegmentSetId() == null || !cacheKey.getSegmentSetId().equals(cacheEntry.getMeta())) {
+                CACHE_POTENTIAL_HITS.mark(1);
+                mismatches++;
+                continue;
+            }
+            try {
+                cachedResponses.put(cacheKey, codec.decode(cacheEntry.getValue()));
+                valueLength += cacheEntry.getValue().length;
+            } catch (Exception e) {
+                LOG.warn("Error processing cached value for key {}", cacheKey.getKey(), e);
+                failures++;
+            }
+        }
+
+        int hits = cachedResponses.size();
+        CACHE_HITS.mark(hits);
+        CACHE_MISSES.mark(cacheKeys.size() - hits - failures);
+        BardQueryInfo.incrementCountCacheHits(hits);
+        String keyChecksum = CacheV2ResponseProcessor.getMD5Cksum(sharedKey);
+        BardQueryInfo.getBardQueryInfo().addCacheInfo(
+                keyChecksum,
+                new BardBatchCacheInfo(
+                        LOG_CACHE_BATCH_READ,
+                        sharedKey.length(),
+                        keyChecksum,
+                        valueLength,
+                        cacheKeys.size(),
+                        hits,
+                        mismatches,
+                        failures
+                )
+        );
+        return cachedResponses;
+    }
+
     @Override
     public void writeCache(
             ResponseProcessor response,
             JsonNode json,
             DruidAggregationQuery<?> druidQuery
             ) throws JsonProcessingException {
-        String querySignatureHash = String.valueOf(querySigningService.getSegmentSetId(druidQuery).orElse(null));
+        writeCache(response, json, getCacheKey(druidQuery));
+    }
+
+    /**
+     * Cache the response of a query, if it is cacheable.
+     *
+     * @param response  The response handler
+     * @param json  Json value to be written to cache as string
+     * @param cacheKey  The cache key of the query being processed
+     */
+    public void writeCache(ResponseProcessor response, JsonNode json, CacheKey cacheKey) {
         if (CACHE_PARTIAL_DATA.isOn() || isCacheable(response)) {
-            String cacheKey = getKey(druidQuery);
-            String valueString = null;
-            try {
-                valueString = writer.writeValueAsString(json);
-                int valueLength = valueString.length();
-                if (valueLength <= maxDruidResponseLengthToCache) {
-                    dataCache.set(
-                            cacheKey,
-                            Long.parseLong(
-                                    String.valueOf(
-                                            querySigningService.getSegmentSetId(druidQuery).orElse(null)
-                                    )
-                            ),
-                            valueString
-                    );
-                } else {
-                    LOG.debug(
-                            "Response not cached. Length of {} exceeds max value length of {}",
-                            valueLength,
-                            maxDruidResponseLengthToCache
-                    );
-                }
-            } catch (Exception e) {
-                //mark and log the cache put failure
-                CACHE_SET_FAILURES.mark(1);
-                BardQueryInfo.getBardQueryInfo().incrementCountCacheSetFailures();
-                BardQueryInfo.getBardQueryInfo().addCacheInfo(
-                        CacheV2ResponseProcessor.getMD5Cksum(cacheKey),
-                        new BardCacheInfo(
-                                LOG_CACHE_SET_FAILURES,
-                                cacheKey.length(),
-                                CacheV2ResponseProcessor.getMD5Cksum(cacheKey),
-                                querySignatureHash != null
-                                        ? CacheV2ResponseProcessor.getMD5Cksum(querySignatureHash)
-                                        : null,
-                                valueString != null ? valueString.length() : 0
-                        )
-                );
-                LOG.warn(
-                        "Unable to cache {}value of size: {} with cksum: {}",
-                        valueString == null ? "null " : "",
-                        valueString == null ? "N/A" : valueString.length(),
-                        CacheV2ResponseProcessor.getMD5Cksum(cacheKey),
-                        e
+            writeCache(json, cacheKey);
+        }
+    }
+
+    /**
+     * Cache a value, whether or not the response it is part of is cacheable.
+     *
+     * @param json  Json value to be written to cache
+     * @param cacheKey  The cache key of the value
+     */
+    public void writeCache(JsonNode json, CacheKey cacheKey) {
+        byte[] value = null;
+        try {
+            value = codec.encode(json);
+            int valueLength = value.length;
+            if (valueLength <= maxDruidResponseLengthToCache) {
+                dataCache.set(cacheKey, cacheKey.getSegmentSetId(), value);
+            } else {
+                LOG.debug(
+                        "Response not cached. Length of {} exceeds max value length of {}",
+                        valueLength,
+                        maxDruidResponseLengthToCache
                 );
             }
+        } catch (Exception e) {
+            //mark and log the cache put failure
+            String keyChecksum = CacheV2ResponseProcessor.getMD5Cksum(cacheKey.getKey());
+            CACHE_SET_FAILURES.mark(1);
+            BardQueryInfo.getBardQueryInfo().incrementCountCacheSetFailures();
+            BardQueryInfo.getBardQueryInfo().addCacheInfo(
+                    keyChecksum,
+                    new BardCacheInfo(
+                            LOG_CACHE_SET_FAILURES,
+                            cacheKey.getKey().length(),
+                            keyChecksum,
+                            CacheV2ResponseProcessor.getMD5Cksum(String.valueOf(cacheKey.getSegmentSetId())),
+                            value != null ? value.length : 0
+                    )
+            );
+            LOG.warn(
+                    "Unable to cache {}value of size: {} with cksum: {}",
+                    value == null ? "null " : "",
+                    value == null ? "N/A" : value.length,
+                    keyChecksum,
+                    e
+            );
         }
     }
 
-
     @Override
     public boolean isCacheable(ResponseProcessor response) {
         SimplifiedIntervalList missingIntervals = getPartialIntervalsWithDefault(response.getResponseContext());
@@ -260,4 +419,39 @@ public class QuerySignedCacheService implements CacheService {
         Utils.canonicalize(root, objectMapper, false);
         return writer.writeValueAsString(root);
     }
+
+    /**
+     * Build the cache key of a query, canonicalizing the query and looking up its segment signature.
+     * <p>
+     * Building the key is the costly part of a cache lookup, so it should be built once per query, and shared by the
+     * cache read and the cache write for the query.
+     *
+     * @param druidQuery  The druid query.
+     *
+     * @return The cache key of the query
+     * @throws JsonProcessingException if the druid query cannot be serialized to JSON
+     */
+    public CacheKey getCacheKey(DruidAggregationQuery<?> druidQuery) throws JsonProcessingException {
+        return new CacheKey(getKey(druidQuery), querySigningService.getSegmentSetId(druidQuery).orElse(null));
+    }
+
+    /**
+     * Decodes the bytes of a cached value.
+     *
+     * @param <T>  The type the value is decoded to
+     */
+    @FunctionalInterface
+    private interface ValueDecoder<T> {
+
+        /**
+         * Decode a cached value.
+         *
+         * @param value  The bytes of the cached value
+         *
+         * @return the decoded value
+         *
+         * @throws IOException if the value cannot be decoded
+         */
+        T decode(byte[] value) throws IOException;
+    }
 }
@@ -7,6 +7,7 @@ import com.yahoo.bard.webservice.config.SystemConfigProvider;
 import com.yahoo.bard.webservice.web.DefaultResponseFormatType;
 import com.yahoo.bard.webservice.web.ResponseFormatType;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -38,14 +39,14 @@ public class ResponseUtils {
     protected static final String DOUBLE_UNDERSCORE = "__";
 
     public static final Collection<ResponseFormatType> DEFAULT_ALWAYS_DOWNLOAD_FORMATS =
-            Collections.singleton(DefaultResponseFormatType.CSV);
+            Collections.unmodifiableList(Arrays.asList(DefaultResponseFormatType.CSV, DefaultResponseFormatType.ARROW));
 
     protected int maxFileLength = SYSTEM_CONFIG.getIntProperty(MAX_NAME_LENGTH, 0);
 
     protected final Collection<ResponseFormatType> alwaysDownloadFormats;
 
     /**
-     * Constructor. By default the CSV format is a format that is always returned as an attachment instead of rendered
+     * Constructor. By default the CSV and Arrow formats are always returned as an attachment instead of rendered
      * in the browser.
      */
     public ResponseUtils() {
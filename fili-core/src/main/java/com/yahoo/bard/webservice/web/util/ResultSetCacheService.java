@@ -0,0 +1,164 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util;
+
+import com.yahoo.bard.webservice.application.MetricRegistryFactory;
+import com.yahoo.bard.webservice.data.PreResponseDeserializer;
+import com.yahoo.bard.webservice.data.ResultSet;
+import com.yahoo.bard.webservice.data.ResultSetSerializationProxy;
+import com.yahoo.bard.webservice.data.cache.CacheKey;
+import com.yahoo.bard.webservice.data.dimension.Dimension;
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery;
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest;
+import com.yahoo.bard.webservice.web.handlers.RequestContext;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * Caches the mapped result sets of data requests, so that a repeated request skips parsing the druid response and
+ * running the result set mappers, and goes straight to the response writer.
+ * <p>
+ * Result sets are cached in the compact form of {@link ResultSetSerializationProxy}, which stores the key value of each
+ * dimension row rather than the whole row, through the query signed cache, so entries are only valid while the segment
+ * signature of the druid query is unchanged. The dimension rows are looked up again when a result set is read.
+ * <p>
+ * The key of a result set is the request URI, without the parameters which don't change the result set, the druid
+ * query, which carries anything a request mapper added such as security filters, and the last updated time of each
+ * grouped by dimension.
+ */
+public class ResultSetCacheService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResultSetCacheService.class);
+    private static final MetricRegistry REGISTRY = MetricRegistryFactory.getRegistry();
+    public static final Meter RESULT_SET_HITS = REGISTRY.meter("queries.meter.cache.result_sets.hits");
+    public static final Meter RESULT_SET_MISSES = REGISTRY.meter("queries.meter.cache.result_sets.misses");
+
+    public static final String KEY_PREFIX = "resultSet|";
+
+    /**
+     * Query parameters which change how a result set is written or when, but not the result set itself.
+     */
+    private static final String[] IGNORED_QUERY_PARAMETERS = {"_cache", "format", "filename", "asyncAfter"};
+
+    private final QuerySignedCacheService querySignedCacheService;
+    private final PreResponseDeserializer preResponseDeserializer;
+    private final ObjectMapper mapper;
+
+    /**
+     * Constructor.
+     *
+     * @param querySignedCacheService  The service to read and write the cached result sets with
+     * @param preResponseDeserializer  The deserializer to rebuild cached result sets with
+     * @param mapper  The mapper to serialize result sets with
+     */
+    public ResultSetCacheService(
+            QuerySignedCacheService querySignedCacheService,
+            PreResponseDeserializer preResponseDeserializer,
+            ObjectMapper mapper
+    ) {
+        this.querySignedCacheService = querySignedCacheService;
+        this.preResponseDeserializer = preResponseDeserializer;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Build the cache key of the result set of a request.
+     *
+     * @param context  The context of the request
+     * @param request  The data request
+     * @param druidQuery  The druid query the request is answered with
+     *
+     * @return the cache key, signed with the segments of the druid query, or null if the request has no URI to key on
+     *
+     * @throws JsonProcessingException if the druid query cannot be serialized to JSON
+     */
+    public CacheKey getCacheKey(RequestContext context, DataApiRequest request, DruidAggregationQuery<?> druidQuery)
+            throws JsonProcessingException {
+        UriBuilder uriBuilder = context.getUriBuilder();
+        if (uriBuilder == null) {
+            return null;
+        }
+        CacheKey queryKey = querySignedCacheService.getCacheKey(druidQuery);
+        String dimensionVersions = request.getDimensions().stream()
+                .sorted(Comparator.comparing(Dimension::getApiName))
+                .map(dimension -> dimension.getApiName() + "@" + dimension.getLastUpdated())
+                .collect(Collectors.joining(","));
+        return new CacheKey(
+                KEY_PREFIX + getRequestKey(uriBuilder) + "|" + queryKey.getKey() + "|" + dimensionVersions,
+                queryKey.getSegmentSetId()
+        );
+    }
+
+    /**
+     * Build the part of the key identifying the request, with its query parameters in a stable order.
+     *
+     * @param uriBuilder  A builder of the request URI
+     *
+     * @return the request path and its query parameters which change the result set
+     */
+    protected String getRequestKey(UriBuilder uriBuilder) {
+        for (String parameter : IGNORED_QUERY_PARAMETERS) {
+            uriBuilder.replaceQueryParam(parameter);
+        }
+        URI uri = uriBuilder.build();
+        String query = uri.getRawQuery() == null
+                ? ""
+                : Arrays.stream(uri.getRawQuery().split("&")).sorted().collect(Collectors.joining("&"));
+        return uri.getRawPath() + "?" + query;
+    }
+
+    /**
+     * Read a cached result set.
+     *
+     * @param cacheKey  The cache key of the result set
+     *
+     * @return the result set with its dimension rows looked up, or null if there is no valid cached result set
+     */
+    public ResultSet readResultSet(CacheKey cacheKey) {
+        JsonNode cachedResultSet = querySignedCacheService.readCachedResponse(cacheKey);
+        if (cachedResultSet == null) {
+            RESULT_SET_MISSES.mark();
+            return null;
+        }
+        try {
+            ResultSet resultSet = preResponseDeserializer.deserializeResultSet(cachedResultSet);
+            RESULT_SET_HITS.mark();
+            return resultSet;
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to rebuild the cached result set for key {}", cacheKey.getKey(), e);
+            RESULT_SET_MISSES.mark();
+            return null;
+        }
+    }
+
+    /**
+     * Cache a mapped result set.
+     *
+     * @param resultSet  The mapped result set
+     * @param cacheKey  The cache key of the result set
+     */
+    public void writeResultSet(ResultSet resultSet, CacheKey cacheKey) {
+        JsonNode serializedResultSet;
+        try {
+            serializedResultSet = mapper.valueToTree(new ResultSetSerializationProxy(resultSet));
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to serialize the result set for key {}", cacheKey.getKey(), e);
+            return;
+        }
+        querySignedCacheService.writeCache(serializedResultSet, cacheKey);
+    }
+}
@@ -0,0 +1,83 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data
+
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.util.concurrent.ForkJoinPool
+
+class ChunkedParallelParserSpec extends Specification {
+
+    @Shared
+    ForkJoinPool pool = new ForkJoinPool(3)
+
+    List<String> results = []
+    List<String> parsingThreads = Collections.synchronizedList([])
+
+    def cleanupSpec() {
+        pool.shutdownNow()
+    }
+
+    ChunkedParallelParser<Integer, String> buildParser(int rowThreshold, int chunkSize) {
+        new ChunkedParallelParser<Integer, String>(
+                pool,
+                rowThreshold,
+                chunkSize,
+                { List<Integer> chunk ->
+                    parsingThreads.add(Thread.currentThread().getName())
+                    // Later chunks finish first, to show the order does not depend on completion
+                    Thread.sleep(Math.max(0, 20 - chunk[0]))
+                    chunk.collect { "row" + it }
+                },
+                { String result -> results.add(result) }
+        )
+    }
+
+    def "Rows past the threshold are parsed in parallel chunks and passed on in order"() {
+        given:
+        ChunkedParallelParser<Integer, String> parser = buildParser(10, 4)
+
+        when:
+        (0..<50).each { parser.add(it) }
+        parser.finish()
+
+        then:
+        results == (0..<50).collect { "row" + it }
+        parsingThreads.size() == 13
+        !parsingThreads.contains(Thread.currentThread().getName())
+    }
+
+    def "Rows below the threshold are parsed as one chunk on the calling thread"() {
+        given:
+        ChunkedParallelParser<Integer, String> parser = buildParser(10, 4)
+
+        when:
+        (0..<9).each { parser.add(it) }
+        parser.finish()
+
+        then:
+        results == (0..<9).collect { "row" + it }
+        parsingThreads == [Thread.currentThread().getName()]
+    }
+
+    def "A failing chunk fails the parse"() {
+        given:
+        ChunkedParallelParser<Integer, String> parser = new ChunkedParallelParser<Integer, String>(
+                pool,
+                2,
+                2,
+                { List<Integer> chunk -> throw new IllegalArgumentException("bad row") },
+                { String result -> results.add(result) }
+        )
+
+        when:
+        (0..<10).each { parser.add(it) }
+        parser.finish()
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message.contains("bad row")
+        results.isEmpty()
+    }
+}
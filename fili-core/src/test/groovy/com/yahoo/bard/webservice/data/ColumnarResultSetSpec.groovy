@@ -0,0 +1,146 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data
+
+import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper
+
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ColumnarResultSetSpec extends Specification {
+
+    SerializationResources resources = new SerializationResources().init()
+    MetricColumn metric = new MetricColumn("metric")
+
+    /**
+     * Build a result holding a single metric value.
+     *
+     * @param value  The metric value
+     * @param timeStamp  The timestamp of the result
+     *
+     * @return the result
+     */
+    Result result(Object value, DateTime timeStamp = new DateTime(0, DateTimeZone.UTC)) {
+        new Result([:], [(metric): value], timeStamp)
+    }
+
+    ColumnarResultSet columnar(List<Result> results) {
+        new ColumnarResultSet.Builder(resources.schema).addAll(results).build()
+    }
+
+    def "Rows read back equal the results they were built from"() {
+        given:
+        List<Result> results = [resources.result1, resources.result2, resources.result3, resources.result4]
+
+        when:
+        ColumnarResultSet resultSet = columnar(results)
+
+        then:
+        resultSet.size() == 4
+        resultSet == results
+        resultSet.collect { it } == results
+        resultSet.stream().collect() == results
+        resultSet[3].getMetricValues().containsKey(new MetricColumn("lookbackPageViews"))
+        resultSet[3].getMetricValue(new MetricColumn("lookbackPageViews")) == null
+        !resultSet[0].getMetricValues().containsKey(new MetricColumn("rawSketch"))
+        resultSet.schema == resources.schema
+    }
+
+    @Unroll
+    def "Metric values #values keep their exact values and types"() {
+        when:
+        ColumnarResultSet resultSet = columnar(values.collect { result(it) })
+
+        then:
+        resultSet*.getMetricValue(metric) == values
+        resultSet*.getMetricValue(metric)*.getClass() == values*.getClass()
+
+        where:
+        values << [
+                [1L, 2L, null, Long.MAX_VALUE],
+                [1.5d, null, -0.25d],
+                [new BigDecimal("1.50"), new BigDecimal("-3"), new BigDecimal("12345678901234567890123")],
+                [1L, 2.5d, new BigDecimal("3.0"), "four", true],
+                ["a", null, "b"]
+        ]
+    }
+
+    def "Numeric values are read as doubles without building rows"() {
+        given:
+        ColumnarResultSet resultSet = columnar([result(new BigDecimal("1.25")), result(null)])
+
+        expect:
+        resultSet.getMetricValueAsDouble(0, metric) == 1.25d
+        Double.isNaN(resultSet.getMetricValueAsDouble(1, metric))
+        Double.isNaN(resultSet.getMetricValueAsDouble(0, new MetricColumn("missing")))
+    }
+
+    def "Timestamps keep their time zones"() {
+        given:
+        DateTime utc = new DateTime(1000, DateTimeZone.UTC)
+        DateTime tokyo = new DateTime(2000, DateTimeZone.forID("Asia/Tokyo"))
+
+        when:
+        ColumnarResultSet resultSet = columnar([result(1L, utc), result(1L, tokyo)])
+
+        then:
+        resultSet*.timeStamp == [utc, tokyo]
+        resultSet.getTimeStampMillis(1) == 2000
+    }
+
+    def "Dimension rows are read back from the dictionary"() {
+        given:
+        ColumnarResultSet resultSet = columnar([resources.result1, resources.result2, resources.result3])
+        def column = resources.result2.dimensionRows.keySet().first()
+
+        expect:
+        resultSet.getDimensionRow(1, column) == resources.result2.getDimensionRow(column)
+        resultSet.getDimensionRow(2, column).is(resultSet.getDimensionRow(1, column))
+    }
+
+    def "Columnar result sets cannot be modified"() {
+        given:
+        ColumnarResultSet resultSet = columnar([resources.result1])
+
+        when:
+        modify(resultSet, resources.result2)
+
+        then:
+        thrown(UnsupportedOperationException)
+
+        where:
+        modify << [
+                { rs, row -> rs.add(row) },
+                { rs, row -> rs.remove(0) },
+                { rs, row -> rs.set(0, row) },
+                { rs, row -> rs.clear() },
+                { rs, row -> rs.sort { a, b -> 0 } }
+        ]
+    }
+
+    def "Mapping a columnar result set keeps it columnar"() {
+        given:
+        ResultSetMapper mapper = new ResultSetMapper() {
+            @Override
+            protected Result map(Result result, ResultSetSchema schema) {
+                result.getMetricValue(metric) == 2L ? null : result.withMetricValue(metric, 10L)
+            }
+
+            @Override
+            protected ResultSetSchema map(ResultSetSchema schema) {
+                schema
+            }
+        }
+
+        when:
+        ResultSet mapped = mapper.map(columnar([result(1L), result(2L), result(3L)]))
+
+        then:
+        mapped instanceof ColumnarResultSet
+        mapped*.getMetricValue(metric) == [10L, 10L]
+    }
+}
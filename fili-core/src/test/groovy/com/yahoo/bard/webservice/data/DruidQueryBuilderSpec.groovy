@@ -2,6 +2,7 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.data
 
+import static com.yahoo.bard.webservice.config.BardFeatureFlag.PAGINATION_PUSHDOWN
 import static com.yahoo.bard.webservice.config.BardFeatureFlag.TOP_N
 import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
 import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.HOUR
@@ -48,6 +49,7 @@ import com.yahoo.bard.webservice.web.ApiHaving
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
 import com.yahoo.bard.webservice.web.apirequest.generator.filter.FilterBinders
 import com.yahoo.bard.webservice.web.filters.ApiFilters
+import com.yahoo.bard.webservice.web.util.PaginationParameters
 
 import org.joda.time.DateTime
 import org.joda.time.Hours
@@ -350,6 +352,36 @@ class DruidQueryBuilderSpec extends Specification {
         1 * apiRequest.getAllGroupingDimensions()
     }
 
+    @Unroll
+    def "The page is pushed down as limit #limit and offset #offset for page #page, count #count and flag #flag"() {
+        setup:
+        PAGINATION_PUSHDOWN.setOn(flag)
+        apiRequest = Mock(DataApiRequest)
+        apiRequest.getPaginationParameters() >> Optional.of(new PaginationParameters(10, page))
+        apiRequest.getDateTimeSort() >> Optional.empty()
+        apiRequest.getSorts() >> ([new OrderByColumn(lmi1.name, SortDirection.DESC)] as Set)
+        apiRequest.getCount() >> count
+        initDefault(apiRequest)
+
+        when:
+        GroupByQuery dq = builder.buildQuery(apiRequest, resources.simpleTemplateQuery) as GroupByQuery
+
+        then:
+        dq.limitSpec.limit == limit
+        dq.limitSpec.offset == offset
+
+        cleanup:
+        PAGINATION_PUSHDOWN.reset()
+
+        where:
+        flag  | page | count            | limit            | offset
+        true  | 1    | Optional.empty() | Optional.of(11)  | Optional.of(0)
+        true  | 3    | Optional.empty() | Optional.of(11)  | Optional.of(20)
+        true  | -1   | Optional.empty() | Optional.empty() | Optional.empty()
+        true  | 3    | Optional.of(5)   | Optional.of(5)   | Optional.empty()
+        false | 3    | Optional.empty() | Optional.empty() | Optional.empty()
+    }
+
     @Unroll
     def "A #topNDruid query is built when there #isIsNot a having clause, and #cannot optimize"() {
         setup:
@@ -3,18 +3,27 @@
 package com.yahoo.bard.webservice.data
 
 import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+import static com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation.ArithmeticPostAggregationFunction.DIVIDE
 
 import com.yahoo.bard.webservice.application.ObjectMappersSuite
 import com.yahoo.bard.webservice.data.dimension.BardDimensionField
+import com.yahoo.bard.webservice.data.dimension.Dimension
 import com.yahoo.bard.webservice.data.dimension.DimensionColumn
 import com.yahoo.bard.webservice.data.dimension.DimensionDictionary
 import com.yahoo.bard.webservice.data.dimension.DimensionField
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
 import com.yahoo.bard.webservice.data.dimension.MapStoreManager
 import com.yahoo.bard.webservice.data.dimension.impl.KeyValueStoreDimension
 import com.yahoo.bard.webservice.data.dimension.impl.ScanSearchProviderManager
 import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.metric.MetricColumnWithValueType
 import com.yahoo.bard.webservice.druid.model.DefaultQueryType
 import com.yahoo.bard.webservice.druid.model.QueryType
+import com.yahoo.bard.webservice.druid.model.aggregation.DoubleSumAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.LongSumAggregation
+import com.yahoo.bard.webservice.druid.model.aggregation.ThetaSketchAggregation
+import com.yahoo.bard.webservice.druid.model.postaggregation.ArithmeticPostAggregation
+import com.yahoo.bard.webservice.druid.model.postaggregation.FieldAccessorPostAggregation
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
 import com.yahoo.bard.webservice.table.Column
 import com.yahoo.bard.webservice.table.Schema
@@ -30,6 +39,9 @@ import org.joda.time.DateTimeZone
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.util.concurrent.ForkJoinPool
+import java.util.function.Function
+import java.util.stream.Collectors
 import java.util.stream.Stream
 
 class DruidResponseParserSpec extends Specification {
@@ -397,6 +409,140 @@ class DruidResponseParserSpec extends Specification {
         queryType << [DefaultQueryType.GROUP_BY, DefaultQueryType.TOP_N, DefaultQueryType.TIMESERIES]
     }
 
+    @Unroll
+    def "A streamed Druid #queryType result parses to the same results as the equivalent tree"() {
+        given: "A simple response from Druid with a numeric and a String metric"
+        String druidResponse = buildResponse(queryType, ['"pageViews"': 5, '"luckyNumbers"': '"1, 3, 7"'])
+        ResultSetSchema schema = buildSchema(["pageViews", "luckyNumbers"])
+
+        when: "We parse the response both as a tree and as a stream of tokens"
+        ResultSet fromTree = buildResultSet(druidResponse, schema, queryType)
+        ResultSet fromStream = responseParser.parse(
+                new JsonFactory().createParser(druidResponse),
+                schema,
+                queryType,
+                DateTimeZone.UTC
+        )
+
+        then: "The streamed result set matches the tree result set"
+        fromStream.size() == 1
+        fromStream.getSchema() == schema
+        fromStream == fromTree
+
+        where:
+        queryType << [DefaultQueryType.GROUP_BY, DefaultQueryType.TOP_N, DefaultQueryType.TIMESERIES]
+    }
+
+    def "A streamed lookback result keeps every record in order"() {
+        given:
+        String druidResponse = """
+        [
+            { "timestamp" : "2012-01-01T00:00:00.000Z", "result" : { "pageViews" : 1 } },
+            { "timestamp" : "2012-01-02T00:00:00.000Z", "result" : { "pageViews" : 2 } },
+            { "timestamp" : "2012-01-03T00:00:00.000Z", "result" : { "pageViews" : 3 } }
+        ]
+        """
+        MetricColumn pageViews = new MetricColumn("pageViews")
+        ResultSetSchema schema = new ResultSetSchema(DAY, [pageViews].toSet())
+
+        when:
+        ResultSet resultSet = responseParser.parse(
+                new JsonFactory().createParser(druidResponse),
+                schema,
+                DefaultQueryType.LOOKBACK,
+                DateTimeZone.UTC
+        )
+
+        then:
+        resultSet*.getMetricValueAsNumber(pageViews) == [1, 2, 3].collect { it as BigDecimal }
+        resultSet*.getTimeStamp() == [1, 2, 3].collect { new DateTime(2012, 1, it, 0, 0, DateTimeZone.UTC) }
+    }
+
+    def "The rows of a dimension are looked up once for all the distinct key values of a response"() {
+        given:
+        Dimension gender = Mock(Dimension)
+        gender.getApiName() >> "gender"
+        DimensionColumn genderColumn = new DimensionColumn(gender)
+        MetricColumn pageViews = new MetricColumn("pageViews")
+        ResultSetSchema schema = new ResultSetSchema(DAY, [genderColumn, pageViews].toSet())
+        Map<String, DimensionRow> rows = ["u", "f", "x"].collectEntries {
+            [(it): new DimensionRow(BardDimensionField.ID, [(BardDimensionField.ID): it])]
+        }
+        String druidResponse = "[" + ["u", "f", "u", "x"].withIndex().collect { value, i ->
+            '{ "timestamp" : "2012-01-01T00:00:00.000Z", "event" : { "gender" : "' + value + '", "pageViews" : ' +
+                    i + ' } }'
+        }.join(",") + "]"
+
+        when:
+        ResultSet resultSet = responseParser.parse(
+                new JsonFactory().createParser(druidResponse),
+                schema,
+                DefaultQueryType.GROUP_BY,
+                DateTimeZone.UTC
+        )
+
+        then: "The dimension is asked once for its known rows, and unknown values get empty rows"
+        1 * gender.findDimensionRowsByKeyValues({ it as List == ["u", "f", "x"] }) >> rows.subMap(["u", "f"])
+        1 * gender.createEmptyDimensionRow("x") >> rows["x"]
+        0 * gender.findDimensionRowByKeyValue(_)
+
+        and: "The results keep the order of the response"
+        resultSet*.getDimensionRow(genderColumn) == [rows["u"], rows["f"], rows["u"], rows["x"]]
+        resultSet*.getMetricValueAsNumber(pageViews) == (0..3).collect { it as BigDecimal }
+    }
+
+    @Unroll
+    def "A large #queryType response parsed in parallel matches the sequentially parsed response"() {
+        given: "A response with many rows"
+        List<String> rows = (0..<200).collect {
+            '{ "ageBracket" : "' + (it % 5) + '", "gender" : "' + (it % 2 ? "u" : "f") + '", "pageViews" : ' + it + ' }'
+        }
+        String druidResponse = queryType == DefaultQueryType.GROUP_BY ?
+                "[" + rows.withIndex().collect { row, i ->
+                    '{ "timestamp" : "2012-01-0' + (1 + i % 3) + 'T00:00:00.000Z", "event" : ' + row + ' }'
+                }.join(",") + "]" :
+                "[" + rows.collate(50).withIndex().collect { bucket, i ->
+                    '{ "timestamp" : "2012-01-0' + (1 + i) + 'T00:00:00.000Z", "result" : [' + bucket.join(",") + '] }'
+                }.join(",") + "]"
+        ResultSetSchema schema = new ResultSetSchema(
+                DAY,
+                [ageColumn, genderColumn, new MetricColumn("pageViews")].toSet()
+        )
+        ForkJoinPool pool = new ForkJoinPool(4)
+        DruidResponseParser parallelParser = new DruidResponseParser(false, [], pool, 10)
+
+        when:
+        ResultSet parallel = parallelParser.parse(
+                new JsonFactory().createParser(druidResponse),
+                schema,
+                queryType,
+                DateTimeZone.UTC
+        )
+
+        then:
+        parallel.size() == 200
+        parallel == buildResultSet(druidResponse, schema, queryType)
+
+        cleanup:
+        pool.shutdownNow()
+
+        where:
+        queryType << [DefaultQueryType.GROUP_BY, DefaultQueryType.TOP_N]
+    }
+
+    def "A streamed response which is not an array is rejected"() {
+        when:
+        responseParser.parse(
+                new JsonFactory().createParser('{"error": "not a result"}'),
+                buildSchema([]),
+                DefaultQueryType.GROUP_BY,
+                DateTimeZone.UTC
+        )
+
+        then:
+        thrown(IllegalStateException)
+    }
+
     def "Attempting to parse an unknown query type throws an UnsupportedOperationException"() {
         given:
         QueryType mysteryType = Mock(QueryType)
@@ -418,6 +564,72 @@ class DruidResponseParserSpec extends Specification {
         responseParser.buildSchemaColumns(query) == columnStream
     }
 
+    def "Metric columns are typed by their aggregation when primitive metric values are enabled"() {
+        given:
+        DruidResponseParser parser = new DruidResponseParser(true, ["exact"])
+        DruidAggregationQuery query = Mock(DruidAggregationQuery)
+        query.buildSchemaColumns() >> Stream.of(
+                ageColumn,
+                new MetricColumn("count"),
+                new MetricColumn("sum"),
+                new MetricColumn("ratio"),
+                new MetricColumn("exact"),
+                new MetricColumn("users")
+        )
+        query.getAggregations() >> [
+                new LongSumAggregation("count", "count"),
+                new DoubleSumAggregation("sum", "sum"),
+                new LongSumAggregation("exact", "exact"),
+                new ThetaSketchAggregation("users", "users", 16384)
+        ]
+        query.getPostAggregations() >> [
+                new ArithmeticPostAggregation("ratio", DIVIDE, [
+                        new FieldAccessorPostAggregation(new LongSumAggregation("count", "count")),
+                        new FieldAccessorPostAggregation(new DoubleSumAggregation("sum", "sum"))
+                ])
+        ]
+
+        when:
+        Map<String, Column> columns = parser.buildSchemaColumns(query).collect(Collectors.toMap(
+                { Column column -> column.name },
+                Function.identity()
+        ))
+
+        then:
+        columns["ageBracket"] == ageColumn
+        (columns["count"] as MetricColumnWithValueType).classType == Long
+        (columns["sum"] as MetricColumnWithValueType).classType == Double
+        (columns["ratio"] as MetricColumnWithValueType).classType == Double
+        !(columns["exact"] instanceof MetricColumnWithValueType)
+        !(columns["users"] instanceof MetricColumnWithValueType)
+    }
+
+    @Unroll
+    def "A #valueType metric with value #json is decoded as #expected"() {
+        given:
+        MetricColumn column = new MetricColumnWithValueType("metric", valueType?.name)
+        dimensionColumns.add(column)
+        ResultSetSchema schema = new ResultSetSchema(DAY, dimensionColumns)
+        String druidResponse = buildResponse(DefaultQueryType.TIMESERIES, ['"metric"': json])
+
+        when:
+        ResultSet resultSet = buildResultSet(druidResponse, schema, DefaultQueryType.TIMESERIES)
+        Object value = resultSet.first().getMetricValue(column)
+
+        then:
+        value == expected
+        value.getClass() == expected.getClass()
+
+        where:
+        valueType  | json     | expected
+        Long       | "12"     | 12L
+        Long       | "1.5"    | 1.5d
+        Double     | "12"     | 12d
+        Double     | "0.25"   | 0.25d
+        BigDecimal | "0.10"   | new BigDecimal("0.10")
+        null       | "3"      | new BigDecimal("3")
+    }
+
     String buildResponse(DefaultQueryType queryType, Map complexMetrics) {
         //Strip off the brackets from the String representation of the Map.
         String complexMetricsString = complexMetrics.toString()[1..-2]
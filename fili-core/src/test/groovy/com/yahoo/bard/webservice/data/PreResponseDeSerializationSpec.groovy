@@ -10,6 +10,7 @@ import com.yahoo.bard.webservice.data.time.StandardGranularityParser
 import com.yahoo.bard.webservice.util.GroovyTestUtils
 import com.yahoo.bard.webservice.web.PreResponse
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseContext
+import com.yahoo.bard.webservice.web.util.CachedResponseCodec
 
 import com.fasterxml.jackson.core.JsonParseException
 import com.fasterxml.jackson.databind.DeserializationFeature
@@ -75,6 +76,30 @@ class PreResponseDeSerializationSpec extends Specification {
         GroovyTestUtils.compareObjects(resources.resultSet,  resultSet)
     }
 
+    def "A serialized result set is deserialized on its own with its dimension rows looked up"() {
+        setup:
+        ResultSet resultSet = preResponseDeSerializer.deserializeResultSet(
+                objectMappers.getMapper().readTree(resources.serializedResultSet)
+        )
+
+        expect:
+        GroovyTestUtils.compareObjects(resources.resultSet,  resultSet)
+    }
+
+    def "A result set survives a round trip through the cached response encoding"() {
+        setup:
+        CachedResponseCodec codec = new CachedResponseCodec(CachedResponseCodec.Compression.ZSTD, 3)
+        byte[] value = codec.encode(
+                objectMappers.getMapper().valueToTree(new ResultSetSerializationProxy(resources.resultSet))
+        )
+
+        when:
+        ResultSet resultSet = preResponseDeSerializer.deserializeResultSet(codec.decode(value))
+
+        then:
+        GroovyTestUtils.compareObjects(resources.resultSet,  resultSet)
+    }
+
     def "ZonedSchema de-Serialization from serialized ZonedSchema object validation"() {
         setup:
         ResultSetSchema zonedSchema = preResponseDeSerializer.getResultSetSchema(
@@ -0,0 +1,134 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data
+
+import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper
+
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+
+import spock.lang.Specification
+
+import java.util.function.Consumer
+
+class StreamingResultSetSpec extends Specification {
+
+    SerializationResources resources = new SerializationResources().init()
+    List<Result> results = [resources.result1, resources.result2, resources.result3]
+    int reads = 0
+
+    /**
+     * Supply a row source without rows to the class scanner, since dummy sources pass on values which are not rows.
+     *
+     * @return the dependencies of a streaming result set
+     */
+    Map<Class, Object> supplyDependencies() {
+        [(Consumer): { rows -> } as Consumer]
+    }
+
+    StreamingResultSet streaming() {
+        new StreamingResultSet(resources.schema, { Consumer<Result> rows ->
+            reads++
+            results.each { rows.accept(it) }
+        } as Consumer<Consumer<Result>>)
+    }
+
+    def "Rows are streamed from the source without being held"() {
+        given:
+        StreamingResultSet resultSet = streaming()
+        List<Result> streamed = []
+
+        when:
+        resultSet.forEach({ streamed.add(it) } as Consumer<Result>)
+
+        then:
+        streamed == results
+        reads == 1
+        !resultSet.isMaterialized()
+    }
+
+    def "Rows can only be streamed once"() {
+        given:
+        StreamingResultSet resultSet = streaming()
+        resultSet.forEach({ } as Consumer<Result>)
+
+        when:
+        resultSet.size()
+
+        then:
+        thrown(IllegalStateException)
+        reads == 1
+    }
+
+    def "List operations read the rows once and keep them"() {
+        given:
+        StreamingResultSet resultSet = streaming()
+        List<Result> streamed = []
+
+        when:
+        int size = resultSet.size()
+        resultSet.forEach({ streamed.add(it) } as Consumer<Result>)
+
+        then:
+        size == 3
+        resultSet.isMaterialized()
+        resultSet == results
+        resultSet[1] == resources.result2
+        streamed == results
+        reads == 1
+    }
+
+    def "Streaming result sets cannot be modified"() {
+        when:
+        streaming().add(resources.result1)
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "Describing the result set does not read the rows"() {
+        when:
+        String description = streaming().toString()
+
+        then:
+        description.startsWith("Streaming")
+        reads == 0
+    }
+
+    def "Mapping a streaming result set maps its rows as they are streamed"() {
+        given:
+        MetricColumn metric = new MetricColumn("metric")
+        ResultSetSchema schema = new ResultSetSchema(resources.schema.granularity, [metric] as Set)
+        StreamingResultSet resultSet = new StreamingResultSet(schema, { Consumer<Result> rows ->
+            reads++
+            (1..4).each { rows.accept(new Result([:], [(metric): it], new DateTime(0, DateTimeZone.UTC))) }
+        } as Consumer<Consumer<Result>>)
+        ResultSetMapper oddRows = new ResultSetMapper() {
+            @Override
+            protected Result map(Result result, ResultSetSchema rowSchema) {
+                result.getMetricValue(metric) % 2 == 1 ? result : null
+            }
+
+            @Override
+            protected ResultSetSchema map(ResultSetSchema mapped) {
+                mapped
+            }
+        }
+        List<Object> streamed = []
+
+        when:
+        ResultSet mapped = ResultSetMapper.mapRows([oddRows], resultSet)
+
+        then:
+        mapped instanceof StreamingResultSet
+        reads == 0
+
+        when:
+        mapped.forEach({ streamed.add(it.getMetricValue(metric)) } as Consumer<Result>)
+
+        then:
+        streamed == [1, 3]
+        reads == 1
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.cache
+
+import spock.lang.Specification
+
+class TieredTupleDataCacheSpec extends Specification {
+
+    TupleDataCache<String, Long, String> l2 = Mock(TupleDataCache)
+
+    static TupleDataCache.DataEntry<String, Long, String> entry(String key, Long meta, String value) {
+        new MemTupleDataCache.DataEntry<Long, String>(key, meta, value)
+    }
+
+    def "Entries read from the L2 tier are kept in the L1 tier for the next read"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1024 * 1024)
+
+        when:
+        TupleDataCache.DataEntry<String, Long, String> first = cache.get("key", 1L)
+        TupleDataCache.DataEntry<String, Long, String> second = cache.get("key", 1L)
+
+        then:
+        1 * l2.get("key", 1L) >> entry("key", 1L, "value")
+        TieredTupleDataCache.tierOf(first) == TieredTupleDataCache.TIER_L2
+        TieredTupleDataCache.tierOf(second) == TieredTupleDataCache.TIER_L1
+        second.value == "value"
+        cache.size() == 1
+    }
+
+    def "An L1 entry with another signature is dropped and read again from the L2 tier"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1024 * 1024)
+        cache.set("key", 1L, "old")
+
+        when:
+        TupleDataCache.DataEntry<String, Long, String> read = cache.get("key", 2L)
+
+        then:
+        1 * l2.get("key", 2L) >> entry("key", 2L, "new")
+        TieredTupleDataCache.tierOf(read) == TieredTupleDataCache.TIER_L2
+        read.value == "new"
+
+        and: "The fresh entry replaces the stale one"
+        cache.get("key", 2L).value == "new"
+    }
+
+    def "L2 entries with the wrong signature or a colliding key are not admitted"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1024 * 1024)
+
+        when:
+        cache.get("stale", 2L)
+        cache.get("collided", 1L)
+
+        then:
+        1 * l2.get("stale", 2L) >> entry("stale", 1L, "value")
+        1 * l2.get("collided", 1L) >> entry("other", 1L, "value")
+        cache.size() == 0
+    }
+
+    def "Writes go through to the L2 tier and populate the L1 tier"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1024 * 1024)
+
+        when:
+        boolean stored = cache.set("key", 1L, "value")
+
+        then:
+        1 * l2.set("key", 1L, "value") >> true
+        stored
+
+        when:
+        TupleDataCache.DataEntry<String, Long, String> read = cache.get("key", 1L)
+
+        then:
+        0 * l2.get(_, _)
+        TieredTupleDataCache.tierOf(read) == TieredTupleDataCache.TIER_L1
+        cache.getDataValue("key") == "value"
+    }
+
+    def "The L1 tier stays within its size by evicting the least recently used entries"() {
+        given: "Room for about two entries of 1000 characters"
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 5000)
+        String value = "x" * 1000
+
+        when:
+        cache.set("a", 1L, value)
+        cache.set("b", 1L, value)
+        cache.get("a", 1L)
+        cache.get("c", 1L)
+        cache.set("c", 1L, value)
+
+        then:
+        cache.bytes <= 5000
+        cache.size() == 2
+        TieredTupleDataCache.tierOf(cache.get("a", 1L)) == TieredTupleDataCache.TIER_L1
+        TieredTupleDataCache.tierOf(cache.get("c", 1L)) == TieredTupleDataCache.TIER_L1
+    }
+
+    def "A key used less often than the entry it would evict is not admitted"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 3000)
+        String value = "x" * 1000
+        cache.set("popular", 1L, value)
+        5.times { cache.get("popular", 1L) }
+
+        when: "A one off key is read"
+        cache.get("oneOff", 1L)
+
+        then:
+        1 * l2.get("oneOff", 1L) >> entry("oneOff", 1L, value)
+        cache.size() == 1
+        TieredTupleDataCache.tierOf(cache.get("popular", 1L)) == TieredTupleDataCache.TIER_L1
+    }
+
+    def "Entries larger than the L1 tier are only stored in the L2 tier"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1000)
+
+        when:
+        cache.set("key", 1L, "x" * 1000)
+
+        then:
+        1 * l2.set("key", 1L, _) >> true
+        cache.size() == 0
+    }
+
+    def "Cache keys are passed on to the L2 tier and share L1 entries with their full key"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1024 * 1024)
+        CacheKey key = new CacheKey("key", 1L)
+
+        when:
+        cache.set(key, 1L, "value")
+
+        then:
+        1 * l2.set(key, 1L, "value") >> true
+
+        expect:
+        TieredTupleDataCache.tierOf(cache.get(key, 1L)) == TieredTupleDataCache.TIER_L1
+        cache.get("key", 1L).value == "value"
+
+        when:
+        cache.get(new CacheKey("other", 1L), 1L)
+
+        then:
+        1 * l2.get(new CacheKey("other", 1L), 1L) >> entry("other", 1L, "otherValue")
+        cache.size() == 2
+    }
+
+    def "A batch read serves the L1 entries and reads only the misses from the L2 tier, in one batch"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1024 * 1024)
+        CacheKey cached = new CacheKey("cached", 1L)
+        CacheKey missing = new CacheKey("missing", 1L)
+        CacheKey absent = new CacheKey("absent", 1L)
+        cache.set(cached, 1L, "cachedValue")
+
+        when:
+        Map<CacheKey, TupleDataCache.DataEntry<String, Long, String>> read = cache.getAll(
+                [(cached): 1L, (missing): 1L, (absent): 1L]
+        )
+
+        then:
+        1 * l2.getAll([(missing): 1L, (absent): 1L]) >> [(missing): entry("missing", 1L, "missingValue")]
+        read.keySet() == [cached, missing] as Set
+        TieredTupleDataCache.tierOf(read[cached]) == TieredTupleDataCache.TIER_L1
+        TieredTupleDataCache.tierOf(read[missing]) == TieredTupleDataCache.TIER_L2
+        read[missing].value == "missingValue"
+
+        and: "The entry read from the L2 tier is kept in the L1 tier"
+        TieredTupleDataCache.tierOf(cache.get(missing, 1L)) == TieredTupleDataCache.TIER_L1
+    }
+
+    def "A disabled L1 tier reads and writes the L2 tier directly"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 0)
+
+        when:
+        cache.set("key", 1L, "value")
+        cache.get("key", 1L)
+        cache.get("key", 1L)
+
+        then:
+        1 * l2.set("key", 1L, "value")
+        2 * l2.get("key", 1L) >> entry("key", 1L, "value")
+        cache.size() == 0
+    }
+
+    def "Clearing the cache clears both tiers"() {
+        given:
+        TieredTupleDataCache<Long, String> cache = new TieredTupleDataCache<>(l2, 1024 * 1024)
+        cache.set("key", 1L, "value")
+
+        when:
+        cache.clear()
+
+        then:
+        1 * l2.clear()
+        cache.size() == 0
+        cache.bytes == 0
+    }
+}
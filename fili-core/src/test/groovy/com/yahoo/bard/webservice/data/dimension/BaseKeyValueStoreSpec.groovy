@@ -135,6 +135,15 @@ abstract class BaseKeyValueStoreSpec extends Specification {
         "value3" == store1.get("key3")
     }
 
+    def "getAll gets the values of the keys which are set"() {
+        given:
+        store1.putAll(["key1": "value1", "key2": "value2"])
+        store1.remove("key3")
+
+        expect:
+        store1.getAll(["key1", "key2", "key3"]) == ["key1": "value1", "key2": "value2"]
+    }
+
     def "putAll removes keys with null values"() {
         Map<String, String> entries = [
             "key1": "value1",
@@ -0,0 +1,134 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.dimension.impl
+
+import com.yahoo.bard.webservice.data.dimension.BardDimensionField
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
+
+import spock.lang.Specification
+
+class DimensionRowCacheSpec extends Specification {
+
+    DimensionRowCache cache = new DimensionRowCache(10_000)
+    int loads = 0
+
+    DimensionRow row(String id) {
+        new DimensionRow(BardDimensionField.ID, [(BardDimensionField.ID): id, (BardDimensionField.DESC): id + " desc"])
+    }
+
+    DimensionRow load(String id) {
+        loads++
+        id == "missing" ? null : row(id)
+    }
+
+    def "Rows are loaded once and then served from the cache"() {
+        when:
+        DimensionRow first = cache.get("a", this.&load)
+        DimensionRow second = cache.get("a", this.&load)
+
+        then:
+        first == row("a")
+        second.is(first)
+        loads == 1
+    }
+
+    def "Key values without rows are cached"() {
+        expect:
+        cache.get("missing", this.&load) == null
+        cache.get("missing", this.&load) == null
+        loads == 1
+        cache.size() == 1
+    }
+
+    def "Key values which are not cached are loaded in one batch"() {
+        given:
+        cache.get("a", this.&load)
+        List<Collection<String>> batches = []
+
+        when:
+        Map<String, DimensionRow> rows = cache.getAll(["a", "b", "missing"]) { values ->
+            batches.add(values)
+            values.findAll { it != "missing" }.collectEntries { [(it): row(it)] }
+        }
+
+        then:
+        batches == [["b", "missing"] as LinkedHashSet]
+        rows == [a: row("a"), b: row("b")]
+
+        and: "The loaded rows and the missing key value are cached"
+        cache.size() == 3
+        cache.getAll(["a", "b", "missing"]) { throw new AssertionError() } == rows
+    }
+
+    def "Cached rows cannot be modified"() {
+        given:
+        DimensionRow cached = cache.get("a", this.&load)
+
+        when:
+        cached.put(BardDimensionField.DESC, "changed")
+
+        then:
+        thrown(UnsupportedOperationException)
+
+        and: "Copies of cached rows can be modified"
+        DimensionRow.copyWithReplace(cached, { field, value -> "changed" }).get(BardDimensionField.DESC) == "changed"
+    }
+
+    def "Invalidated rows are reloaded"() {
+        given:
+        ["a", "b"].each { cache.get(it, this.&load) }
+
+        when:
+        cache.invalidate(["a"])
+        ["a", "b"].each { cache.get(it, this.&load) }
+
+        then:
+        loads == 3
+
+        when:
+        cache.invalidateAll()
+        cache.get("b", this.&load)
+
+        then:
+        loads == 4
+        cache.size() == 1
+    }
+
+    def "Rows loaded across an invalidation are not cached"() {
+        when: "The cache is invalidated while a row loads"
+        cache.get("a", { id -> cache.invalidate([id]); load(id) })
+
+        then:
+        cache.size() == 0
+    }
+
+    def "The least recently used rows are evicted to stay within the size bound"() {
+        given:
+        cache = new DimensionRowCache(1000)
+
+        when:
+        (1..20).each { cache.get("row" + it, this.&load) }
+
+        then:
+        cache.getBytes() <= 1000
+        cache.size() < 20
+
+        and: "The most recent row is still cached"
+        cache.get("row20", this.&load) != null
+        loads == 20
+    }
+
+    def "A cache without room loads every time"() {
+        given:
+        cache = new DimensionRowCache(0)
+
+        when:
+        DimensionRow loaded = cache.get("a", this.&load)
+        loaded.put(BardDimensionField.DESC, "changed")
+        cache.get("a", this.&load)
+
+        then:
+        loads == 2
+        cache.size() == 0
+    }
+}
@@ -7,6 +7,7 @@ import com.yahoo.bard.webservice.data.dimension.BardDimensionField
 import com.yahoo.bard.webservice.data.dimension.DimensionField
 import com.yahoo.bard.webservice.data.dimension.DimensionRow
 import com.yahoo.bard.webservice.data.dimension.KeyValueStore
+import com.yahoo.bard.webservice.data.dimension.MapStore
 import com.yahoo.bard.webservice.data.dimension.MapStoreManager
 import com.yahoo.bard.webservice.data.dimension.SearchProvider
 import com.yahoo.bard.webservice.web.ApiFilter
@@ -127,6 +128,108 @@ class KeyValueStoreDimensionSpec extends Specification {
         searchProvider.findFilteredDimensionRows(expectedFilters) == [dimensionRow6] as Set
     }
 
+    def "Found rows reflect updates and deletes of the dimension"() {
+        given:
+        kvsDimension.addDimensionRow(BardDimensionField.makeDimensionRow(kvsDimension, "row7", "foo"))
+        DimensionRow found = kvsDimension.findDimensionRowByKeyValue("row7")
+
+        when:
+        kvsDimension.addDimensionRow(BardDimensionField.makeDimensionRow(kvsDimension, "row7", "bar"))
+
+        then:
+        found.get(BardDimensionField.DESC) == "foo"
+        kvsDimension.findDimensionRowByKeyValue("row7").get(BardDimensionField.DESC) == "bar"
+
+        when:
+        kvsDimension.deleteAllDimensionRows()
+
+        then:
+        kvsDimension.findDimensionRowByKeyValue("row7") == null
+
+        cleanup:
+        runSetup = true
+    }
+
+    def "Found rows can be modified without changing the rows other callers find"() {
+        when:
+        kvsDimension.findDimensionRowByKeyValue("row1").put(BardDimensionField.DESC, "changed")
+
+        then:
+        kvsDimension.findDimensionRowByKeyValue("row1").get(BardDimensionField.DESC) != "changed"
+    }
+
+    def "Rows found in a batch are shared and cannot be modified"() {
+        when:
+        kvsDimension.findDimensionRowsByKeyValues(["row1"])["row1"].put(BardDimensionField.DESC, "changed")
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "Rows of several key values are read from the store in one batch"() {
+        given:
+        KeyValueStore store = Spy(MapStore)
+        KeyValueStoreDimension dimension = new KeyValueStoreDimension(
+                "batched",
+                "batched",
+                [BardDimensionField.ID, BardDimensionField.DESC] as LinkedHashSet,
+                store,
+                new NoOpSearchProvider(10)
+        )
+        dimension.addDimensionRow(BardDimensionField.makeDimensionRow(dimension, "a", "first"))
+        dimension.addDimensionRow(BardDimensionField.makeDimensionRow(dimension, "b", "second"))
+        dimension.findDimensionRowByKeyValue("a")
+
+        when:
+        Map<String, DimensionRow> rows = dimension.findDimensionRowsByKeyValues(["a", "b", "c"])
+
+        then: "Only the uncached key values are read"
+        1 * store.getAll({ it.size() == 2 })
+        rows.keySet() == ["a", "b"] as Set
+        rows["b"].get(BardDimensionField.DESC) == "second"
+    }
+
+    def "Key values of a batch differing only by case each get the row they share"() {
+        given:
+        KeyValueStoreDimension dimension = new KeyValueStoreDimension(
+                "cased",
+                "cased",
+                [BardDimensionField.ID, BardDimensionField.DESC] as LinkedHashSet,
+                MapStoreManager.getInstance("cased"),
+                new NoOpSearchProvider(10)
+        )
+        dimension.addDimensionRow(BardDimensionField.makeDimensionRow(dimension, "abc", "first"))
+
+        when:
+        Map<String, DimensionRow> rows = dimension.findDimensionRowsByKeyValues(["abc", "ABC", "missing"])
+
+        then:
+        rows.keySet() == ["abc", "ABC"] as Set
+        rows["abc"].get(BardDimensionField.DESC) == "first"
+        rows["ABC"].get(BardDimensionField.DESC) == "first"
+    }
+
+    def "Adding a row drops the cached lookups of every case variant of its key value"() {
+        given:
+        KeyValueStoreDimension dimension = new KeyValueStoreDimension(
+                "recased",
+                "recased",
+                [BardDimensionField.ID, BardDimensionField.DESC] as LinkedHashSet,
+                MapStoreManager.getInstance("recased"),
+                new NoOpSearchProvider(10)
+        )
+
+        expect: "A lookup of a missing key value is cached as not found"
+        dimension.findDimensionRowByKeyValue("abc") == null
+        dimension.findDimensionRowsByKeyValues(["aBc"]).isEmpty()
+
+        when:
+        dimension.addDimensionRow(BardDimensionField.makeDimensionRow(dimension, "ABC", "added"))
+
+        then:
+        dimension.findDimensionRowByKeyValue("abc").get(BardDimensionField.DESC) == "added"
+        dimension.findDimensionRowsByKeyValues(["aBc"])["aBc"].get(BardDimensionField.DESC) == "added"
+    }
 
     def "getLastUpdated is correct"() {
         expect:
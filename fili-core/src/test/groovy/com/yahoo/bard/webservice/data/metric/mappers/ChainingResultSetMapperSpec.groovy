@@ -9,6 +9,7 @@ import com.yahoo.bard.webservice.data.ResultSetSchema
 import com.yahoo.bard.webservice.data.metric.LogicalMetricInfo
 import com.yahoo.bard.webservice.data.metric.MetricColumn
 import com.yahoo.bard.webservice.data.time.DefaultTimeGrain
+import com.yahoo.bard.webservice.druid.model.orderby.SortDirection
 import com.yahoo.bard.webservice.web.ChainingResultSetMapper
 import org.joda.time.DateTime
 import spock.lang.Specification
@@ -140,4 +141,95 @@ class ChainingResultSetMapperSpec extends Specification {
         mapper.getMappersList().size() == 3
 
     }
+
+    def "Consecutive row local mappers are fused into a single pass around order dependent mappers"() {
+        given: "Two row local mappers, an order dependent mapper and another row local mapper"
+        List<String> log = []
+        ChainingResultSetMapper chain = new ChainingResultSetMapper([
+                new LoggingMapper("a", true, log),
+                new LoggingMapper("b", true, log),
+                new ReversingMapper(log),
+                new LoggingMapper("c", true, log)
+        ])
+        ResultSetSchema schema = new ResultSetSchema(DefaultTimeGrain.DAY, [column].toSet())
+        ResultSet resultSet = new ResultSet(schema, [1, 2].collect {
+            new Result([:], [(column): it as BigDecimal] as Map<MetricColumn, Object>, new DateTime(0))
+        })
+
+        when:
+        ResultSet mapped = chain.map(resultSet)
+
+        then: "Each row goes through the fused mappers before the next row does"
+        log == ["a:1", "b:1", "a:2", "b:2", "reverse", "c:2", "c:1"]
+
+        and: "The order dependent mapper sees every row"
+        mapped*.getMetricValueAsNumber(column) == [2, 1].collect { it as BigDecimal }
+    }
+
+    def "Only row local mappers which map row by row are fusable"() {
+        expect:
+        ResultSetMapper.isFusable(new LoggingMapper("a", true, []))
+        !ResultSetMapper.isFusable(new LoggingMapper("a", false, []))
+        !ResultSetMapper.isFusable(new ReversingMapper([]))
+        ResultSetMapper.isFusable(sketchRoundUpMapper)
+        !ResultSetMapper.isFusable(new DateTimeSortMapper(SortDirection.DESC))
+    }
+
+    /**
+     * A mapper which logs the rows it maps.
+     */
+    static class LoggingMapper extends ResultSetMapper {
+        String name
+        boolean rowLocal
+        List<String> log
+
+        LoggingMapper(String name, boolean rowLocal, List<String> log) {
+            this.name = name
+            this.rowLocal = rowLocal
+            this.log = log
+        }
+
+        @Override
+        boolean isRowLocal() {
+            return rowLocal
+        }
+
+        @Override
+        protected Result map(Result result, ResultSetSchema schema) {
+            log.add(name + ":" + result.getMetricValues().values().first())
+            return result
+        }
+
+        @Override
+        protected ResultSetSchema map(ResultSetSchema schema) {
+            return schema
+        }
+    }
+
+    /**
+     * An order dependent mapper which reverses the rows.
+     */
+    static class ReversingMapper extends ResultSetMapper {
+        List<String> log
+
+        ReversingMapper(List<String> log) {
+            this.log = log
+        }
+
+        @Override
+        ResultSet map(ResultSet resultSet) {
+            log.add("reverse")
+            return new ResultSet(resultSet.getSchema(), resultSet.reverse())
+        }
+
+        @Override
+        protected Result map(Result result, ResultSetSchema schema) {
+            return result
+        }
+
+        @Override
+        protected ResultSetSchema map(ResultSetSchema schema) {
+            return schema
+        }
+    }
 }
@@ -0,0 +1,52 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.metric.mappers
+
+import com.yahoo.bard.webservice.data.Result
+import com.yahoo.bard.webservice.data.ResultSet
+import com.yahoo.bard.webservice.data.ResultSetSchema
+import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.time.DefaultTimeGrain
+import com.yahoo.bard.webservice.druid.model.orderby.SortDirection
+
+import org.joda.time.DateTime
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class DateTimeSortMapperSpec extends Specification {
+
+    MetricColumn row = new MetricColumn("row")
+    ResultSetSchema schema = new ResultSetSchema(DefaultTimeGrain.DAY, [row].toSet())
+
+    /**
+     * Build a result set from pairs of a day and a row label.
+     */
+    ResultSet resultSet(List<List> rows) {
+        new ResultSet(schema, rows.collect { day, label ->
+            new Result([:], [(row): label] as Map<MetricColumn, Object>, new DateTime(day as long))
+        })
+    }
+
+    @Unroll
+    def "Rows are sorted #direction by timestamp, keeping the order of rows within a timestamp"() {
+        given: "Two runs of sorted rows, as in the results of a split query"
+        ResultSet input = resultSet([[1, "a"], [1, "b"], [3, "c"], [2, "d"], [3, "e"], [1, "f"]])
+
+        expect:
+        new DateTimeSortMapper(direction).map(input) == resultSet(expected)
+
+        where:
+        direction          | expected
+        SortDirection.ASC  | [[1, "a"], [1, "b"], [1, "f"], [2, "d"], [3, "c"], [3, "e"]]
+        SortDirection.DESC | [[3, "c"], [3, "e"], [2, "d"], [1, "a"], [1, "b"], [1, "f"]]
+    }
+
+    def "A result set which is already sorted is returned as is"() {
+        given:
+        ResultSet input = resultSet([[1, "a"], [2, "b"], [2, "c"]])
+
+        expect:
+        new DateTimeSortMapper(SortDirection.ASC).map(input).is(input)
+    }
+}
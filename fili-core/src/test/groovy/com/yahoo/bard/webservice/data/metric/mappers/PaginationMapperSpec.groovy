@@ -23,6 +23,7 @@ import com.yahoo.bard.webservice.druid.client.FailureCallback
 import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
 import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
 import com.yahoo.bard.webservice.util.GroovyTestUtils
+import com.yahoo.bard.webservice.util.Pagination
 import com.yahoo.bard.webservice.web.PageNotFoundException
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
 import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext
@@ -245,6 +246,58 @@ class PaginationMapperSpec extends Specification {
 
     }
 
+    @Unroll
+    def "A pushed down page #page fetched with #fetched rows links the next page: #hasNext"() {
+        given: "A pagination mapper for a page fetched by druid along with the first row of the next page"
+        PaginationMapper paginator = new PaginationMapper(
+                new PaginationParameters(3, page),
+                responseProcessor,
+                uriBuilder,
+                true
+        )
+        ResultSet fetchedRows = buildResultSet(fetched)
+
+        when:
+        ResultSet pageOfData = paginator.map(fetchedRows)
+
+        then: "The row beyond the page is dropped"
+        pageOfData == new ResultSet(fetchedRows.getSchema(), fetchedRows.subList(0, Math.min(fetched, 3)))
+
+        and: "The next page is linked only if a row beyond the page was fetched, and the last page never is"
+        Map<String, URI> bodyLinks = responseProcessor
+                .getResponseContext()[ResponseContextKeys.PAGINATION_LINKS_CONTEXT_KEY.getName()] as Map<String, URI>
+        bodyLinks.containsKey(PaginationLink.NEXT.getBodyName()) == hasNext
+        !bodyLinks.containsKey(PaginationLink.LAST.getBodyName())
+
+        and: "The number of results counts the rows up to the fetched ones, and is unknown before the last page"
+        Pagination pages = responseProcessor.getResponseContext()[ResponseContextKeys.PAGINATION_CONTEXT_KEY.getName()]
+        pages.getNumResults() == (page - 1) * 3 + fetched
+        pages.isNumResultsUnknown() == hasNext
+
+        where:
+        page | fetched | hasNext
+        1    | 4       | true
+        1    | 2       | false
+        2    | 4       | true
+        2    | 3       | false
+    }
+
+    def "An empty pushed down page past the first is not found"() {
+        given:
+        PaginationMapper paginator = new PaginationMapper(
+                new PaginationParameters(3, 4),
+                responseProcessor,
+                uriBuilder,
+                true
+        )
+
+        when:
+        paginator.map(new ResultSet(new ResultSetSchema(DAY, [].toSet()), []))
+
+        then:
+        PageNotFoundException exception = thrown()
+        exception.getMessage() == getExpectedErrorMessage(4, 3, 3)
+    }
 
     String getExpectedErrorMessage(int page, int rowsPerPage, int numPages) {
         "Requested page '$page' with '$rowsPerPage' rows per page, but there are only '$numPages' pages."
@@ -43,6 +43,21 @@ class SketchRoundUpMapperSpec extends Specification {
         -1.3          | -1
     }
 
+    @Unroll
+    def "The mapper rounds the primitive #value to the long #rounded"() {
+        given:
+        Result result = new Result([:], [(column): value] as Map<MetricColumn, Object>, new DateTime())
+
+        expect:
+        mapper.map(result, schema).getMetricValue(column) == rounded
+
+        where:
+        value | rounded
+        1.3d  | 2L
+        -1.5d | -1L
+        7L    | 7L
+    }
+
     def "The mapper passes along results with a null value unmodified"() {
         given: "A result containing a null value"
         Result result = new Result([:], [(column): null], new DateTime())
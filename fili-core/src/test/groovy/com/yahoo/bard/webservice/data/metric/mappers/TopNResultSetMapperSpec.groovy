@@ -0,0 +1,84 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.data.metric.mappers
+
+import com.yahoo.bard.webservice.data.Result
+import com.yahoo.bard.webservice.data.ResultSet
+import com.yahoo.bard.webservice.data.ResultSetSchema
+import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.time.DefaultTimeGrain
+import com.yahoo.bard.webservice.druid.model.orderby.OrderByColumn
+import com.yahoo.bard.webservice.druid.model.orderby.SortDirection
+
+import org.joda.time.DateTime
+
+import spock.lang.Specification
+
+class TopNResultSetMapperSpec extends Specification {
+
+    MetricColumn pageViews = new MetricColumn("pageViews")
+    MetricColumn clicks = new MetricColumn("clicks")
+    ResultSetSchema schema = new ResultSetSchema(DefaultTimeGrain.DAY, [pageViews, clicks].toSet())
+
+    Result result(int day, Object views, Object clickCount = 0) {
+        new Result([:], [(pageViews): views, (clicks): clickCount] as Map<MetricColumn, Object>, new DateTime(day))
+    }
+
+    def "Without an order the first N rows of each run of a timestamp are kept"() {
+        given:
+        ResultSet resultSet = new ResultSet(schema, [result(1, 5), result(1, 9), result(1, 7), result(2, 1)])
+
+        expect:
+        new TopNResultSetMapper(2).map(resultSet) == new ResultSet(schema, [result(1, 5), result(1, 9), result(2, 1)])
+    }
+
+    def "With an order the top N rows of each bucket are kept, even when buckets are not contiguous"() {
+        given: "Buckets split in two, as in the results of a split query"
+        ResultSet resultSet = new ResultSet(schema, [
+                result(1, 5), result(1, 9), result(2, 3), result(1, 7), result(2, 4), result(2, 8), result(2, 1)
+        ])
+        TopNResultSetMapper mapper = new TopNResultSetMapper(
+                2,
+                TopNResultSetMapper.metricOrder([new OrderByColumn("pageViews", SortDirection.DESC)])
+        )
+
+        expect: "Buckets appear in the order they were first seen, each in metric order"
+        mapper.map(resultSet) == new ResultSet(schema, [result(1, 9), result(1, 7), result(2, 8), result(2, 4)])
+    }
+
+    def "Rows are ordered by each sort in turn, keeping the order of rows which rank the same"() {
+        given:
+        ResultSet resultSet = new ResultSet(schema, [
+                result(1, 5, 1), result(1, null, 9), result(1, 5, 3), result(1, 2, 2), result(1, 5, 3.0)
+        ])
+        TopNResultSetMapper mapper = new TopNResultSetMapper(
+                4,
+                TopNResultSetMapper.metricOrder([
+                        new OrderByColumn("pageViews", SortDirection.ASC),
+                        new OrderByColumn("clicks", SortDirection.DESC)
+                ])
+        )
+
+        expect: "Rows without a value come last"
+        mapper.map(resultSet) == new ResultSet(schema, [
+                result(1, 2, 2), result(1, 5, 3), result(1, 5, 3.0), result(1, 5, 1)
+        ])
+    }
+
+    def "NaN and infinite values are ranked without failing, NaN with the rows without a value"() {
+        given:
+        ResultSet resultSet = new ResultSet(schema, [
+                result(1, Double.NaN), result(1, 5), result(1, "n/a"), result(1, Double.POSITIVE_INFINITY),
+                result(1, new BigDecimal("7.5")), result(1, Double.NEGATIVE_INFINITY)
+        ])
+
+        expect:
+        new TopNResultSetMapper(5, TopNResultSetMapper.metricOrder([new OrderByColumn("pageViews", direction)]))
+                .map(resultSet) == new ResultSet(schema, expected.collect { resultSet.get(it) })
+
+        where:
+        direction          | expected
+        SortDirection.DESC | [3, 4, 1, 5, 0]
+        SortDirection.ASC  | [5, 1, 4, 3, 0]
+    }
+}
@@ -0,0 +1,66 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class AimdConcurrencyLimitSpec extends Specification {
+
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(4, 2, 6, 0.5, 2.0)
+
+    @Unroll
+    def "Settings min #min, max #max and backoff #backoff are rejected"() {
+        when:
+        new AimdConcurrencyLimit(4, min, max, backoff, 2.0)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        min | max | backoff
+        0   | 6   | 0.5
+        5   | 4   | 0.5
+        1   | 6   | 1.5
+        1   | 6   | 0.0
+    }
+
+    def "The limit grows additively while in use and stops at the maximum"() {
+        when: "A full limit's worth of requests succeeds at steady latency"
+        5.times { limit.onSuccess(100, 4) }
+
+        then:
+        limit.limit == 5
+
+        when:
+        100.times { limit.onSuccess(100, 6) }
+
+        then:
+        limit.limit == 6
+    }
+
+    def "The limit does not grow while mostly unused"() {
+        when:
+        100.times { limit.onSuccess(100, 1) }
+
+        then:
+        limit.limit == 4
+    }
+
+    def "The limit shrinks multiplicatively on latency spikes and drops, down to the minimum"() {
+        given:
+        limit.onSuccess(100, 4)
+
+        when:
+        limit.onSuccess(1000, 4)
+
+        then:
+        limit.limit == 2
+
+        when:
+        limit.onDropped()
+
+        then:
+        limit.limit == 2
+    }
+}
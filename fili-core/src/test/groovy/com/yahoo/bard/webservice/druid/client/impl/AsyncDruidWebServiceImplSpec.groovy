@@ -4,14 +4,28 @@ package com.yahoo.bard.webservice.druid.client.impl
 
 import com.yahoo.bard.webservice.application.ObjectMappersSuite
 import com.yahoo.bard.webservice.druid.client.DruidClientConfigHelper
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback
 import com.yahoo.bard.webservice.druid.model.query.QueryContext
 import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
 
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.smile.SmileFactory
+
+import org.asynchttpclient.AsyncHttpClient
+import org.asynchttpclient.BoundRequestBuilder
+import org.asynchttpclient.ListenableFuture
+import org.asynchttpclient.Request
+import org.asynchttpclient.Response
 
 import io.netty.handler.codec.http.HttpHeaders
 import spock.lang.Specification
+import spock.lang.Unroll
 
+import java.util.function.Function
 import java.util.function.Supplier
 
 class AsyncDruidWebServiceImplSpec extends Specification {
@@ -71,4 +85,129 @@ class AsyncDruidWebServiceImplSpec extends Specification {
             assert actualHeaders.get(header.getKey()) == header.getValue()
         }
     }
+
+    def "Streaming success callbacks are fed a token stream when the default json builder is used"() {
+        setup:
+        AsyncDruidWebServiceImpl webService = new AsyncDruidWebServiceImpl(
+                DruidClientConfigHelper.getServiceConfig(),
+                MAPPER,
+                { [:] } as Supplier<Map<String, String>>
+        )
+        Response response = Mock(Response)
+        response.getResponseBodyAsStream() >> new ByteArrayInputStream('[{"a": 1}]'.bytes)
+        List<JsonToken> tokens = []
+        StreamingSuccessCallback success = Mock(StreamingSuccessCallback)
+
+        when:
+        webService.invokeSuccess(success, response)
+
+        then:
+        1 * success.invoke(_ as JsonParser) >> { JsonParser parser ->
+            JsonToken token
+            while ((token = parser.nextToken()) != null) {
+                tokens.add(token)
+            }
+        }
+        0 * success.invoke(_ as JsonNode)
+        tokens.first() == JsonToken.START_ARRAY
+        tokens.last() == JsonToken.END_ARRAY
+    }
+
+    def "Streaming success callbacks are given a tree when a custom json builder is used"() {
+        setup:
+        JsonNode node = MAPPER.readTree('[]')
+        AsyncDruidWebServiceImpl webService = new AsyncDruidWebServiceImpl(
+                DruidClientConfigHelper.getServiceConfig(),
+                MAPPER,
+                { [:] } as Supplier<Map<String, String>>,
+                { Response response -> node } as Function<Response, JsonNode>
+        )
+        StreamingSuccessCallback success = Mock(StreamingSuccessCallback)
+
+        when:
+        webService.invokeSuccess(success, Mock(Response))
+
+        then:
+        1 * success.invoke(node)
+        0 * success.invoke(_ as JsonParser)
+    }
+
+    def "Queries are posted as Smile when the service config enables it"() {
+        setup:
+        DruidServiceConfig baseConfig = DruidClientConfigHelper.getServiceConfig()
+        DruidServiceConfig smileConfig = new DruidServiceConfig(
+                "Broker",
+                baseConfig.getUrl(),
+                baseConfig.getTimeout(),
+                baseConfig.getPriority(),
+                true
+        )
+        WeightEvaluationQuery weightEvaluationQuery = Mock(WeightEvaluationQuery)
+        weightEvaluationQuery.getContext() >> Mock(QueryContext)
+
+        AsyncDruidWebServiceImplWrapper webServiceImplWrapper = new AsyncDruidWebServiceImplWrapper(
+                smileConfig,
+                MAPPER,
+                { [:] } as Supplier<Map<String, String>>
+        )
+
+        when:
+        webServiceImplWrapper.postDruidQuery(null, null, null, null, weightEvaluationQuery)
+
+        then:
+        HttpHeaders headers = webServiceImplWrapper.getHeaders()
+        headers.get("Content-Type") == AsyncDruidWebServiceImpl.SMILE_CONTENT_TYPE
+        headers.get("Accept") == AsyncDruidWebServiceImpl.SMILE_CONTENT_TYPE
+
+        and: "The body starts with the Smile header"
+        byte[] body = webServiceImplWrapper.request.getByteData()
+        body[0..2] == [':' as char, ')' as char, '\n' as char].collect { it as byte }
+    }
+
+    @Unroll
+    def "The default json node builder reads a #contentType response body"() {
+        setup:
+        ObjectMapper bodyMapper = contentType?.startsWith(AsyncDruidWebServiceImpl.SMILE_CONTENT_TYPE) ?
+                new ObjectMapper(new SmileFactory()) :
+                MAPPER
+        JsonNode expected = MAPPER.readTree('[{"timestamp": "2012-01-01T00:00:00.000Z", "event": {"a": 1.5}}]')
+        Response response = Mock(Response)
+        response.getContentType() >> contentType
+        response.getResponseBodyAsStream() >> new ByteArrayInputStream(bodyMapper.writeValueAsBytes(expected))
+
+        expect:
+        AsyncDruidWebServiceImpl.DEFAULT_JSON_NODE_BUILDER_STRATEGY.apply(response) == expected
+
+        where:
+        contentType << [
+                "application/json",
+                "application/x-jackson-smile",
+                "application/x-jackson-smile; charset=UTF-8",
+                null
+        ]
+    }
+
+    def "Cancelling a query sends a DELETE for its id to the query endpoint"() {
+        setup:
+        AsyncHttpClient client = Mock(AsyncHttpClient)
+        DruidServiceConfig config = new DruidServiceConfig("broker", "http://broker:8082/druid/v2/", 1000, 1)
+        AsyncDruidWebServiceImpl webService = new AsyncDruidWebServiceImpl(
+                config,
+                client,
+                MAPPER,
+                { [k1: "v1"] } as Supplier<Map<String, String>>
+        )
+        Request request = null
+
+        when:
+        webService.cancelDruidQuery("request id_1")
+
+        then:
+        1 * client.prepareDelete("http://broker:8082/druid/v2/request%20id_1") >> { String url ->
+            new BoundRequestBuilder(client, "DELETE", false).setUrl(url)
+        }
+        1 * client.executeRequest(_, _) >> { args -> request = args[0]; Mock(ListenableFuture) }
+        request.getMethod() == "DELETE"
+        request.getHeaders().get("k1") == "v1"
+    }
 }
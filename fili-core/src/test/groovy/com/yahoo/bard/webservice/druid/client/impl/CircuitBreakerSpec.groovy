@@ -0,0 +1,63 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import static com.yahoo.bard.webservice.druid.client.impl.CircuitBreaker.State.CLOSED
+import static com.yahoo.bard.webservice.druid.client.impl.CircuitBreaker.State.HALF_OPEN
+import static com.yahoo.bard.webservice.druid.client.impl.CircuitBreaker.State.OPEN
+
+import spock.lang.Specification
+
+class CircuitBreakerSpec extends Specification {
+
+    long now = 0
+    CircuitBreaker breaker = new CircuitBreaker(2, 1000, { now })
+
+    def "The breaker opens after consecutive failures"() {
+        when:
+        breaker.onFailure()
+        breaker.onSuccess()
+        breaker.onFailure()
+
+        then: "A success resets the failure count"
+        breaker.state == CLOSED
+        breaker.allowRequest()
+
+        when:
+        breaker.onFailure()
+
+        then:
+        breaker.state == OPEN
+        !breaker.allowRequest()
+    }
+
+    def "After the open period a single trial request is let through"() {
+        given:
+        2.times { breaker.onFailure() }
+        now += 1000
+
+        expect:
+        breaker.allowRequest()
+        breaker.state == HALF_OPEN
+        !breaker.allowRequest()
+    }
+
+    def "The trial request closes or reopens the breaker"() {
+        given:
+        2.times { breaker.onFailure() }
+        now += 1000
+        breaker.allowRequest()
+
+        when:
+        succeeded ? breaker.onSuccess() : breaker.onFailure()
+
+        then:
+        breaker.state == state
+        breaker.allowRequest() == succeeded
+
+        where:
+        succeeded | state
+        true      | CLOSED
+        false     | OPEN
+    }
+}
@@ -0,0 +1,298 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.data.config.names.DataSourceName
+import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.druid.model.datasource.TableDataSource
+import com.yahoo.bard.webservice.druid.model.query.DruidQuery
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.druid.model.query.QueryContext
+import com.yahoo.bard.webservice.druid.model.query.TimeSeriesQuery
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
+import com.yahoo.bard.webservice.metadata.DataSourceMetadataService
+import com.yahoo.bard.webservice.table.TableTestUtils
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import org.asynchttpclient.Response
+import org.joda.time.DateTimeZone
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.Future
+
+class CoalescingDruidWebServiceSpec extends Specification {
+
+    static final ObjectMapper MAPPER = new ObjectMappersSuite().getMapper()
+    static final String RESPONSE = '[{"version":"v1","event":{"pageViews":10}}]'
+
+    DruidWebService delegate = Mock(DruidWebService)
+    Map<DruidQuery, String> keys = [:]
+    List<Runnable> followerTasks = []
+    boolean deferFollowers = false
+    Executor followerExecutor = { Runnable task -> deferFollowers ? followerTasks.add(task) : task.run() } as Executor
+    CoalescingDruidWebService webService = Spy(
+            CoalescingDruidWebService,
+            constructorArgs: [delegate, MAPPER, followerExecutor]
+    ) {
+        getKey(_) >> { DruidQuery query -> keys[query] }
+    }
+
+    SuccessCallback successA = Mock(SuccessCallback)
+    SuccessCallback successB = Mock(SuccessCallback)
+    HttpErrorCallback errorA = Mock(HttpErrorCallback)
+    HttpErrorCallback errorB = Mock(HttpErrorCallback)
+    FailureCallback failureA = Mock(FailureCallback)
+    FailureCallback failureB = Mock(FailureCallback)
+    RequestContext contextA = new RequestContext(null, false)
+    RequestContext contextB = new RequestContext(null, false)
+
+    SuccessCallback sentSuccess
+    HttpErrorCallback sentError
+    CompletableFuture<Response> sentFuture = new CompletableFuture<>()
+
+    def setup() {
+        delegate.postDruidQuery(*_) >> { args ->
+            sentSuccess = args[1]
+            sentError = args[2]
+            sentFuture
+        }
+    }
+
+    GroupByQuery buildQuery(String key) {
+        GroupByQuery query = Mock(GroupByQuery)
+        keys[query] = key
+        query.getContext() >> new QueryContext([(QueryContext.Param.QUERY_ID): "request${keys.size()}".toString()])
+        query
+    }
+
+    def "Concurrent identical queries share one druid request and all receive the response"() {
+        setup:
+        JsonNode node = Mock(JsonNode)
+        Response response = Mock(Response)
+
+        when:
+        webService.postDruidQuery(contextA, successA, errorA, failureA, buildQuery("same"))
+        Future<?> joined = webService.postDruidQuery(contextB, successB, errorB, failureB, buildQuery("same"))
+
+        then: "Only the first query is sent, and the second one is counted as sent"
+        1 * delegate.postDruidQuery(*_) >> { args -> sentSuccess = args[1]; sentFuture }
+        contextB.numberOfOutgoing.get() == 0
+
+        when:
+        sentSuccess.invoke(node)
+        sentFuture.complete(response)
+
+        then:
+        1 * successA.invoke(node)
+        1 * successB.invoke(node)
+        contextB.numberOfIncoming.get() == 0
+        joined.get() == response
+        webService.inFlightCount == 0
+    }
+
+    def "Different queries are sent separately"() {
+        when:
+        webService.postDruidQuery(contextA, successA, errorA, failureA, buildQuery("one"))
+        webService.postDruidQuery(contextB, successB, errorB, failureB, buildQuery("other"))
+
+        then:
+        2 * delegate.postDruidQuery(*_) >> sentFuture
+        webService.inFlightCount == 2
+    }
+
+    def "A query arriving after the shared response is sent again"() {
+        setup:
+        webService.postDruidQuery(contextA, successA, errorA, failureA, buildQuery("same"))
+        sentSuccess.invoke(Mock(JsonNode))
+
+        when:
+        webService.postDruidQuery(contextB, successB, errorB, failureB, buildQuery("same"))
+
+        then:
+        1 * delegate.postDruidQuery(*_) >> sentFuture
+    }
+
+    def "Errors reach every joined request"() {
+        setup:
+        webService.postDruidQuery(contextA, successA, errorA, failureA, buildQuery("same"))
+        webService.postDruidQuery(contextB, successB, errorB, failureB, buildQuery("same"))
+
+        when:
+        sentError.invoke(500, "Internal Server Error", "boom")
+
+        then:
+        1 * errorA.invoke(500, "Internal Server Error", "boom")
+        1 * errorB.invoke(500, "Internal Server Error", "boom")
+    }
+
+    def "A failing callback of one request does not keep the response from the others"() {
+        setup:
+        RuntimeException processingError = new IllegalStateException()
+        webService.postDruidQuery(contextA, successA, errorA, failureA, buildQuery("same"))
+        webService.postDruidQuery(contextB, successB, errorB, failureB, buildQuery("same"))
+
+        when:
+        sentSuccess.invoke(Mock(JsonNode))
+
+        then:
+        1 * successA.invoke(_) >> { throw processingError }
+        1 * failureA.invoke(processingError)
+        1 * successB.invoke(_)
+        0 * failureB.invoke(_)
+    }
+
+    def "Weight evaluation queries are not coalesced"() {
+        setup:
+        WeightEvaluationQuery query = Mock(WeightEvaluationQuery)
+
+        when:
+        webService.postDruidQuery(contextA, successA, errorA, failureA, query)
+        webService.postDruidQuery(contextB, successB, errorB, failureB, query)
+
+        then:
+        1 * delegate.postDruidQuery(contextA, successA, errorA, failureA, query)
+        1 * delegate.postDruidQuery(contextB, successB, errorB, failureB, query)
+        0 * webService.getKey(_)
+    }
+
+    def "A shared query is only cancelled when no other request is waiting for it"() {
+        setup:
+        GroupByQuery sent = buildQuery("same")
+        GroupByQuery joining = buildQuery("same")
+        String sentId = sent.getContext().getQueryId()
+        String joiningId = joining.getContext().getQueryId()
+
+        when: "The sending request is abandoned while another request waits"
+        webService.postDruidQuery(contextA, successA, errorA, failureA, sent)
+        webService.postDruidQuery(contextB, successB, errorB, failureB, joining)
+        webService.cancelDruidQuery(sentId)
+        webService.cancelDruidQuery(joiningId)
+
+        then:
+        0 * delegate.cancelDruidQuery(_)
+    }
+
+    def "An abandoned query nobody else waits for is cancelled and no longer joined"() {
+        setup:
+        GroupByQuery sent = buildQuery("same")
+
+        when:
+        webService.postDruidQuery(contextA, successA, errorA, failureA, sent)
+        webService.cancelDruidQuery(sent.getContext().getQueryId())
+        webService.postDruidQuery(contextB, successB, errorB, failureB, buildQuery("same"))
+
+        then:
+        1 * delegate.cancelDruidQuery(sent.getContext().getQueryId())
+        2 * delegate.postDruidQuery(*_) >> sentFuture
+    }
+
+    TimeSeriesQuery buildTimeSeriesQuery(Map<QueryContext.Param, Object> context) {
+        new TimeSeriesQuery(
+                new TableDataSource(TableTestUtils.buildTable(
+                        "table_name",
+                        DAY.buildZonedTimeGrain(DateTimeZone.UTC),
+                        [] as Set,
+                        [:],
+                        Mock(DataSourceMetadataService) { getAvailableIntervalsByDataSource(_ as DataSourceName) >> [:] }
+                )),
+                DAY,
+                null,
+                [],
+                [],
+                [],
+                new QueryContext(context),
+                false
+        )
+    }
+
+    def "Queries differing only in their query id share a key, but other context settings keep them apart"() {
+        setup:
+        CoalescingDruidWebService keyed = new CoalescingDruidWebService(delegate, MAPPER, followerExecutor)
+        String key = keyed.getKey(buildTimeSeriesQuery([(QueryContext.Param.QUERY_ID): "one"]))
+
+        expect:
+        keyed.getKey(buildTimeSeriesQuery([(QueryContext.Param.QUERY_ID): "other"])) == key
+        keyed.getKey(buildTimeSeriesQuery([(QueryContext.Param.QUERY_ID): "one", (param): value])) != key
+
+        where:
+        param                                        | value
+        QueryContext.Param.UNCOVERED_INTERVALS_LIMIT | 10
+        QueryContext.Param.TIMEOUT                   | 1000
+        QueryContext.Param.PRIORITY                  | 1
+    }
+
+    def "A streaming callback is handed the response stream when nobody joined its query"() {
+        setup:
+        StreamingSuccessCallback streamingA = Mock(StreamingSuccessCallback)
+        JsonParser parser = MAPPER.factory.createParser(RESPONSE)
+
+        when:
+        webService.postDruidQuery(contextA, streamingA, errorA, failureA, buildQuery("same"))
+        sentSuccess.invoke(parser)
+
+        then:
+        sentSuccess instanceof StreamingSuccessCallback
+        1 * streamingA.invoke(parser)
+        0 * streamingA.invoke(_ as JsonNode)
+    }
+
+    def "Every request reads a shared streaming response, streaming callbacks with a parser of their own"() {
+        setup:
+        StreamingSuccessCallback streamingA = Mock(StreamingSuccessCallback)
+        StreamingSuccessCallback streamingB = Mock(StreamingSuccessCallback)
+        RequestContext contextC = new RequestContext(null, false)
+        SuccessCallback successC = Mock(SuccessCallback)
+        List<JsonParser> parsers = []
+        JsonNode expected = MAPPER.readTree(RESPONSE)
+
+        when:
+        webService.postDruidQuery(contextA, streamingA, errorA, failureA, buildQuery("same"))
+        webService.postDruidQuery(contextB, streamingB, errorB, failureB, buildQuery("same"))
+        webService.postDruidQuery(contextC, successC, errorB, failureB, buildQuery("same"))
+        sentSuccess.invoke(MAPPER.factory.createParser(RESPONSE))
+
+        then:
+        1 * streamingA.invoke(_ as JsonParser) >> { JsonParser parser -> parsers.add(parser) }
+        1 * streamingB.invoke(_ as JsonParser) >> { JsonParser parser -> parsers.add(parser) }
+        1 * successC.invoke(expected)
+        parsers.unique(false) { System.identityHashCode(it) }.size() == 2
+        parsers.every { MAPPER.readTree(it) == expected }
+    }
+
+    def "Joined requests are answered on the follower executor, apart from the sending request"() {
+        setup:
+        JsonNode node = Mock(JsonNode)
+        deferFollowers = true
+        webService.postDruidQuery(contextA, successA, errorA, failureA, buildQuery("same"))
+        webService.postDruidQuery(contextB, successB, errorB, failureB, buildQuery("same"))
+
+        when:
+        sentSuccess.invoke(node)
+
+        then:
+        1 * successA.invoke(node)
+        0 * successB.invoke(_)
+        followerTasks.size() == 1
+
+        when:
+        followerTasks.each { it.run() }
+
+        then:
+        1 * successB.invoke(node)
+        contextB.numberOfIncoming.get() == 0
+    }
+}
@@ -0,0 +1,335 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig
+import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.druid.model.query.QueryContext
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
+import com.yahoo.bard.webservice.logging.RequestLog
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import com.fasterxml.jackson.databind.JsonNode
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.Future
+
+class ConcurrencyLimitingDruidWebServiceSpec extends Specification {
+
+    DruidWebService druid = Mock(DruidWebService)
+    long now = 0
+
+    SuccessCallback success = Mock(SuccessCallback)
+    HttpErrorCallback error = Mock(HttpErrorCallback)
+    FailureCallback failure = Mock(FailureCallback)
+    RequestContext context = new RequestContext(null, false)
+    GroupByQuery query = Mock(GroupByQuery)
+
+    List<List> sent = []
+
+    ConcurrencyLimitingDruidWebService webService = new ConcurrencyLimitingDruidWebService(
+            druid,
+            new AimdConcurrencyLimit(2, 1, 10, 0.5, 2.0),
+            new CircuitBreaker(2, 1000, { now }),
+            1,
+            60000,
+            { now }
+    )
+
+    def setup() {
+        druid.getServiceConfig() >> new DruidServiceConfig("Broker", "http://broker", 1000, 1)
+        druid.postDruidQuery(*_) >> { args -> sent.add(args); Mock(Future) }
+    }
+
+    def "Queries beyond the limit wait until a slot frees up"() {
+        given:
+        JsonNode node = Mock(JsonNode)
+
+        when:
+        3.times { webService.postDruidQuery(context, success, error, failure, query) }
+
+        then:
+        sent.size() == 2
+        webService.outstanding == 2
+        webService.queued == 1
+
+        when: "The first query is answered"
+        sent[0][1].invoke(node)
+
+        then: "Its slot goes to the waiting query"
+        1 * success.invoke(node)
+        sent.size() == 3
+        webService.outstanding == 2
+        webService.queued == 0
+    }
+
+    def "Queries are rejected with a 503 when the queue is full"() {
+        given:
+        3.times { webService.postDruidQuery(context, success, error, failure, query) }
+        context.numberOfOutgoing.set(1)
+        context.numberOfIncoming.set(1)
+
+        when:
+        webService.postDruidQuery(context, success, error, failure, query)
+
+        then:
+        1 * error.invoke(503, _, { it.contains("queue is full") })
+        sent.size() == 2
+
+        and: "The request bookkeeping is done as if druid had answered"
+        context.numberOfOutgoing.get() == 0
+        context.numberOfIncoming.get() == 0
+    }
+
+    def "Queued queries are rejected once their deadline passes"() {
+        given:
+        ConcurrencyLimitingDruidWebService shortWait = new ConcurrencyLimitingDruidWebService(
+                druid,
+                new AimdConcurrencyLimit(1, 1, 10, 0.5, 2.0),
+                new CircuitBreaker(2, 1000, { now }),
+                1,
+                10,
+                { now }
+        )
+        shortWait.postDruidQuery(context, success, error, failure, query)
+        String rejection = null
+        HttpErrorCallback queuedError = { status, reason, body -> rejection = body }
+
+        when:
+        shortWait.postDruidQuery(context, success, queuedError, failure, query)
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            assert rejection?.contains("deadline")
+        }
+        shortWait.queued == 0
+        sent.size() == 1
+    }
+
+    def "Server errors and failures open the circuit breaker, client errors do not"() {
+        given:
+        2.times { webService.postDruidQuery(context, success, error, failure, query) }
+
+        when:
+        sent[0][2].invoke(400, "Bad Request", "body")
+        sent[1][2].invoke(500, "Internal Server Error", "body")
+
+        then:
+        webService.breaker.state == CircuitBreaker.State.CLOSED
+
+        when:
+        webService.postDruidQuery(context, success, error, failure, query)
+        sent[2][3].invoke(new IOException())
+
+        then:
+        webService.breaker.state == CircuitBreaker.State.OPEN
+        webService.outstanding == 0
+
+        when: "Queries are sent while the breaker is open"
+        webService.postDruidQuery(context, success, error, failure, query)
+
+        then: "They fail fast"
+        1 * error.invoke(503, _, { it.contains("circuit breaker") })
+        sent.size() == 3
+    }
+
+    /**
+     * Open the breaker of the web service with two failed queries, and let its open period pass.
+     */
+    void openBreaker(ConcurrencyLimitingDruidWebService limited) {
+        2.times {
+            limited.postDruidQuery(context, success, error, failure, query)
+            sent.last()[3].invoke(new IOException())
+        }
+        assert limited.breaker.state == CircuitBreaker.State.OPEN
+        now += 1000
+    }
+
+    def "A trial query rejected because the queue is full opens the breaker again"() {
+        given:
+        ConcurrencyLimitingDruidWebService noQueue = new ConcurrencyLimitingDruidWebService(
+                druid,
+                new AimdConcurrencyLimit(1, 1, 10, 0.5, 2.0),
+                new CircuitBreaker(2, 1000, { now }),
+                0,
+                60000,
+                { now }
+        )
+        openBreaker(noQueue)
+
+        when: "The trial query finds the only slot taken and no room in the queue"
+        noQueue.@outstanding = 1
+        noQueue.postDruidQuery(context, success, error, failure, query)
+
+        then:
+        1 * error.invoke(503, ConcurrencyLimitingDruidWebService.LOCAL_REJECTION_REASON, { it.contains("queue") })
+        noQueue.breaker.state == CircuitBreaker.State.OPEN
+
+        when: "The next open period passes"
+        now += 1000
+        noQueue.@outstanding = 0
+        noQueue.postDruidQuery(context, success, error, failure, query)
+
+        then: "Another trial is let through"
+        sent.size() == 3
+    }
+
+    def "A trial query which expires in the queue opens the breaker again"() {
+        given:
+        ConcurrencyLimitingDruidWebService shortWait = new ConcurrencyLimitingDruidWebService(
+                druid,
+                new AimdConcurrencyLimit(1, 1, 10, 0.5, 2.0),
+                new CircuitBreaker(2, 1000, { now }),
+                1,
+                10,
+                { now }
+        )
+        openBreaker(shortWait)
+        shortWait.@outstanding = 1
+        String rejection = null
+        HttpErrorCallback queuedError = { status, reason, body -> rejection = body }
+
+        when:
+        shortWait.postDruidQuery(context, success, queuedError, failure, query)
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            assert rejection?.contains("deadline")
+        }
+        shortWait.breaker.state == CircuitBreaker.State.OPEN
+    }
+
+    def "A trial query which fails to send opens the breaker again"() {
+        given:
+        DruidWebService throwing = Mock(DruidWebService)
+        throwing.getServiceConfig() >> new DruidServiceConfig("Broker", "http://broker", 1000, 1)
+        int calls = 0
+        throwing.postDruidQuery(*_) >> { args ->
+            if (++calls > 2) {
+                throw new IllegalStateException("cannot send")
+            }
+            sent.add(args)
+            Mock(Future)
+        }
+        ConcurrencyLimitingDruidWebService limited = new ConcurrencyLimitingDruidWebService(
+                throwing,
+                new AimdConcurrencyLimit(2, 1, 10, 0.5, 2.0),
+                new CircuitBreaker(2, 1000, { now }),
+                1,
+                60000,
+                { now }
+        )
+        openBreaker(limited)
+
+        when:
+        limited.postDruidQuery(context, success, error, failure, query)
+
+        then:
+        thrown(IllegalStateException)
+        limited.breaker.state == CircuitBreaker.State.OPEN
+        limited.outstanding == 0
+    }
+
+    def "Each query releases its slot once, however often it is answered"() {
+        given:
+        webService.postDruidQuery(context, success, error, failure, query)
+
+        when:
+        sent[0][1].invoke(Mock(JsonNode))
+        sent[0][3].invoke(new IOException())
+
+        then:
+        webService.outstanding == 0
+    }
+
+    def "The callback of an answered query runs under its own request log, not that of the query sent after it"() {
+        given: "The wrapped web service takes the request log of the thread sending a query, as druid clients do"
+        druid.postDruidQuery(*_) >> { args -> sent.add(args); RequestLog.dump(); Mock(Future) }
+        RequestLog.dump()
+        String firstId = RequestLog.getId()
+        RequestLog firstLog = RequestLog.copy()
+        webService.postDruidQuery(context, success, error, failure, query)
+        webService.postDruidQuery(context, success, error, failure, query)
+        RequestLog.dump()
+        RequestLog.getId()
+        webService.postDruidQuery(context, success, error, failure, query)
+
+        and: "The first query is answered on a thread holding its request log, as druid clients do"
+        RequestLog.dump()
+        RequestLog.restore(firstLog)
+        String callbackId = null
+        SuccessCallback first = sent[0][1]
+
+        when:
+        first.invoke(Mock(JsonNode))
+
+        then:
+        1 * success.invoke(_) >> { callbackId = RequestLog.getId() }
+        sent.size() == 3
+        callbackId == firstId
+
+        cleanup:
+        RequestLog.dump()
+    }
+
+    def "The future of a queued query completes once the query is answered"() {
+        given:
+        2.times { webService.postDruidQuery(context, success, error, failure, query) }
+        Future<?> queued = webService.postDruidQuery(context, success, error, failure, query)
+
+        when: "The queued query is sent"
+        sent[0][1].invoke(Mock(JsonNode))
+
+        then:
+        sent.size() == 3
+        !queued.done
+
+        when:
+        sent[2][1].invoke(Mock(JsonNode))
+
+        then:
+        queued.done
+    }
+
+    def "A query cancelled while it waits for a slot is never sent"() {
+        given:
+        GroupByQuery cancelledQuery = Mock(GroupByQuery)
+        QueryContext cancelledContext = new QueryContext([:]).withQueryId("cancelled")
+        cancelledQuery.getContext() >> cancelledContext
+        2.times { webService.postDruidQuery(context, success, error, failure, query) }
+        Future<?> queued = webService.postDruidQuery(context, success, error, failure, cancelledQuery)
+
+        when:
+        webService.cancelDruidQuery(cancelledContext.queryId)
+
+        then:
+        1 * druid.cancelDruidQuery(cancelledContext.queryId)
+        webService.queued == 0
+        queued.done
+
+        when:
+        sent[0][1].invoke(Mock(JsonNode))
+
+        then:
+        sent.size() == 2
+        webService.outstanding == 1
+    }
+
+    def "Weight evaluation queries are not limited"() {
+        given:
+        2.times { webService.postDruidQuery(context, success, error, failure, query) }
+
+        when:
+        webService.postDruidQuery(context, success, error, failure, Mock(WeightEvaluationQuery))
+
+        then:
+        sent.size() == 3
+        webService.queued == 0
+    }
+}
@@ -0,0 +1,403 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import com.yahoo.bard.webservice.druid.client.DruidServiceConfig
+import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HedgePolicy
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.SuccessCallback
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.druid.model.query.QueryContext
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import com.codahale.metrics.Snapshot
+import com.fasterxml.jackson.databind.JsonNode
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+class LoadBalancingDruidWebServiceSpec extends Specification {
+
+    DruidServiceConfig poolConfig = new DruidServiceConfig("BrokerPool", "http://a,http://b", 1000, 1)
+    DruidWebService brokerA = Mock(DruidWebService)
+    DruidWebService brokerB = Mock(DruidWebService)
+    long now = 0
+
+    SuccessCallback success = Mock(SuccessCallback)
+    HttpErrorCallback error = Mock(HttpErrorCallback)
+    FailureCallback failure = Mock(FailureCallback)
+    RequestContext context = new RequestContext(null, false)
+    GroupByQuery query = Mock(GroupByQuery)
+
+    LoadBalancingDruidWebService webService = new LoadBalancingDruidWebService(
+            poolConfig,
+            [brokerA, brokerB],
+            2,
+            1000,
+            1,
+            { now }
+    )
+
+    def setup() {
+        brokerA.getServiceConfig() >> new DruidServiceConfig("Broker0", "http://a", 1000, 1)
+        brokerB.getServiceConfig() >> new DruidServiceConfig("Broker1", "http://b", 1000, 1)
+    }
+
+    def "A pool without brokers is rejected"() {
+        when:
+        new LoadBalancingDruidWebService(poolConfig, [])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "Requests are routed away from the broker with outstanding requests"() {
+        given: "Broker A holds on to the first request"
+        webService.postDruidQuery(context, success, error, failure, query)
+
+        when: "A second request is sent"
+        webService.postDruidQuery(context, success, error, failure, query)
+
+        then: "It goes to the idle broker B"
+        webService.brokers*.outstanding == [1, 1]
+    }
+
+    def "Completed requests release their broker"() {
+        given:
+        SuccessCallback wrapped = null
+        brokerA.postDruidQuery(*_) >> { args -> wrapped = args[1]; Mock(Future) }
+        brokerB.postDruidQuery(*_) >> { args -> wrapped = args[1]; Mock(Future) }
+        JsonNode node = Mock(JsonNode)
+
+        when:
+        webService.postDruidQuery(context, success, error, failure, query)
+        wrapped.invoke(node)
+
+        then:
+        1 * success.invoke(node)
+        webService.brokers*.outstanding == [0, 0]
+    }
+
+    def "A broker's p99 latency is reused for routing until its refresh period has passed"() {
+        given:
+        LoadBalancingDruidWebService.Broker broker = webService.brokers[0]
+        long period = LoadBalancingDruidWebService.LATENCY_REFRESH_PERIOD
+        broker.@latency.update(100, TimeUnit.MILLISECONDS)
+
+        when:
+        broker.refreshLatency(now)
+
+        then:
+        broker.p99Latency == 100d
+
+        when: "Slower requests complete within the refresh period"
+        10.times { broker.@latency.update(500, TimeUnit.MILLISECONDS) }
+        broker.refreshLatency(now + period - 1)
+
+        then:
+        broker.p99Latency == 100d
+        broker.score == 100d
+
+        when:
+        broker.refreshLatency(now + period)
+
+        then:
+        broker.p99Latency == 500d
+    }
+
+    def "A connection failure is retried on the other broker"() {
+        given:
+        FailureCallback firstFailure = null
+        SuccessCallback secondSuccess = null
+        int calls = 0
+        [brokerA, brokerB].each { broker ->
+            broker.postDruidQuery(*_) >> { args ->
+                if (calls++ == 0) {
+                    firstFailure = args[3]
+                } else {
+                    secondSuccess = args[1]
+                }
+                Mock(Future)
+            }
+        }
+
+        when: "The first broker cannot be reached"
+        webService.postDruidQuery(context, success, error, failure, query)
+        context.numberOfOutgoing.decrementAndGet()
+        context.numberOfIncoming.decrementAndGet()
+        firstFailure.invoke(new ConnectException("refused"))
+
+        then: "The query is resent without failing the request"
+        calls == 2
+        0 * failure.invoke(_)
+
+        and: "The request counters are restored for the retry"
+        context.numberOfOutgoing.get() == 1
+        context.numberOfIncoming.get() == 1
+
+        when:
+        secondSuccess.invoke(Mock(JsonNode))
+
+        then:
+        1 * success.invoke(_)
+    }
+
+    def "A failure which is not a connection failure is not retried"() {
+        given:
+        FailureCallback wrapped = null
+        int calls = 0
+        [brokerA, brokerB].each { broker ->
+            broker.postDruidQuery(*_) >> { args -> calls++; wrapped = args[3]; Mock(Future) }
+        }
+        RuntimeException processingError = new IllegalStateException("bad response")
+
+        when:
+        webService.postDruidQuery(context, success, error, failure, query)
+        wrapped.invoke(processingError)
+
+        then:
+        calls == 1
+        1 * failure.invoke(processingError)
+    }
+
+    def "Brokers failing repeatedly are ejected until the ejection period passes"() {
+        given:
+        List<FailureCallback> failures = []
+        brokerA.getJsonObject(*_) >> { args -> failures.add(args[2]); Mock(Future) }
+        brokerB.getJsonObject(*_) >> { args -> Mock(Future) }
+        LoadBalancingDruidWebService.Broker a = webService.brokers[0]
+
+        when: "Broker A fails twice in a row"
+        2.times {
+            webService.brokers[1].@outstanding.set(10)
+            webService.getJsonObject(success, error, failure, "/path")
+            failures.last().invoke(new IllegalStateException())
+            webService.brokers[1].@outstanding.set(0)
+        }
+
+        then:
+        !a.isHealthy(now)
+
+        and: "Broker A is skipped even though it is idle"
+        webService.selectBroker([]) == webService.brokers[1]
+
+        when:
+        now += 1000
+
+        then:
+        a.isHealthy(now)
+    }
+
+    def "Server errors count against a broker's health and client errors do not"() {
+        given:
+        HttpErrorCallback wrapped = null
+        brokerA.getJsonObject(*_) >> { args -> wrapped = args[1]; Mock(Future) }
+        brokerB.getJsonObject(*_) >> { args -> wrapped = args[1]; Mock(Future) }
+
+        when:
+        webService.getJsonObject(success, error, failure, "/path")
+        wrapped.invoke(status, "reason", "body")
+
+        then:
+        1 * error.invoke(status, "reason", "body")
+        webService.brokers*.consecutiveFailures*.get().sum() == failures
+
+        where:
+        status | failures
+        400    | 0
+        503    | 1
+    }
+
+    def "Queries rejected by the concurrency limit in front of a broker don't count against its health"() {
+        given:
+        HttpErrorCallback wrapped = null
+        brokerA.postDruidQuery(*_) >> { args -> wrapped = args[2]; Mock(Future) }
+        brokerB.postDruidQuery(*_) >> { args -> wrapped = args[2]; Mock(Future) }
+
+        when:
+        webService.postDruidQuery(context, success, error, failure, query)
+        wrapped.invoke(503, ConcurrencyLimitingDruidWebService.LOCAL_REJECTION_REASON, "body")
+
+        then:
+        1 * error.invoke(503, ConcurrencyLimitingDruidWebService.LOCAL_REJECTION_REASON, "body")
+        webService.brokers*.consecutiveFailures*.get().sum() == 0
+        webService.brokers*.outstanding.sum() == 0
+    }
+
+    def "Cancellations are sent to every broker in the pool"() {
+        when:
+        webService.cancelDruidQuery("query_1")
+
+        then:
+        1 * brokerA.cancelDruidQuery("query_1")
+        1 * brokerB.cancelDruidQuery("query_1")
+    }
+
+    def "A query which has not been answered in time is duplicated to the other broker"() {
+        given:
+        LoadBalancingDruidWebService hedging = buildHedgingWebService()
+        List<SuccessCallback> successes = []
+        Future futureA = Mock(Future)
+        brokerA.postDruidQuery(*_) >> { args -> successes.add(args[1]); futureA }
+        brokerB.postDruidQuery(*_) >> { args -> successes.add(args[1]); Mock(Future) }
+        QueryContext queryContext = new QueryContext([:]).withQueryId("query_1")
+        query.getContext() >> queryContext
+        JsonNode node = Mock(JsonNode)
+
+        when: "Both brokers are sent a copy of the query"
+        hedging.postDruidQuery(context, success, error, failure, query)
+        new PollingConditions(timeout: 5).eventually {
+            assert successes.size() == 2
+        }
+
+        then:
+        hedging.brokers*.outstanding == [1, 1]
+
+        when: "The second copy answers first"
+        successes[1].invoke(node)
+        successes[0].invoke(node)
+
+        then: "The query is answered once, and the first copy is cancelled on its broker"
+        1 * success.invoke(node)
+        1 * futureA.cancel(true)
+        1 * brokerA.cancelDruidQuery(queryContext.getQueryId())
+        0 * brokerB.cancelDruidQuery(_)
+
+        and: "The request counters are settled once"
+        context.numberOfOutgoing.get() == 0
+        context.numberOfIncoming.get() == 0
+    }
+
+    def "A copy which fails waits for the other copy to answer the query"() {
+        given:
+        LoadBalancingDruidWebService hedging = buildHedgingWebService()
+        List<SuccessCallback> successes = []
+        List<FailureCallback> failures = []
+        [brokerA, brokerB].each { broker ->
+            broker.postDruidQuery(*_) >> { args -> successes.add(args[1]); failures.add(args[3]); Mock(Future) }
+        }
+        query.getContext() >> new QueryContext([:]).withQueryId("query_1")
+        JsonNode node = Mock(JsonNode)
+
+        when:
+        hedging.postDruidQuery(context, success, error, failure, query)
+        new PollingConditions(timeout: 5).eventually {
+            assert successes.size() == 2
+        }
+        failures[0].invoke(new IllegalStateException("bad response"))
+
+        then:
+        0 * failure.invoke(_)
+
+        when:
+        successes[1].invoke(node)
+
+        then:
+        1 * success.invoke(node)
+        0 * failure.invoke(_)
+    }
+
+    def "The query fails once every copy has failed"() {
+        given:
+        LoadBalancingDruidWebService hedging = buildHedgingWebService()
+        List<FailureCallback> failures = []
+        [brokerA, brokerB].each { broker ->
+            broker.postDruidQuery(*_) >> { args -> failures.add(args[3]); Mock(Future) }
+        }
+        query.getContext() >> new QueryContext([:]).withQueryId("query_1")
+        RuntimeException lastError = new IllegalStateException("last")
+
+        when:
+        hedging.postDruidQuery(context, success, error, failure, query)
+        new PollingConditions(timeout: 5).eventually {
+            assert failures.size() == 2
+        }
+        failures[0].invoke(new IllegalStateException("first"))
+        failures[1].invoke(lastError)
+
+        then:
+        1 * failure.invoke(lastError)
+        context.numberOfIncoming.get() == 0
+    }
+
+    def "The hedge policy is handed the same latency snapshot until the refresh period has passed"() {
+        given:
+        List<Snapshot> snapshots = []
+        LoadBalancingDruidWebService hedging = new LoadBalancingDruidWebService(
+                poolConfig,
+                [brokerA, brokerB],
+                2,
+                1000,
+                1,
+                { now },
+                { q, l -> snapshots.add(l); OptionalLong.empty() } as HedgePolicy
+        )
+        long period = LoadBalancingDruidWebService.LATENCY_REFRESH_PERIOD
+
+        when:
+        hedging.refreshLatencySnapshot(now)
+        2.times { hedging.postDruidQuery(context, success, error, failure, query) }
+        hedging.refreshLatencySnapshot(now + period - 1)
+        hedging.postDruidQuery(context, success, error, failure, query)
+        hedging.refreshLatencySnapshot(now + period)
+        hedging.postDruidQuery(context, success, error, failure, query)
+
+        then:
+        snapshots.size() == 4
+        snapshots[0].is(snapshots[1])
+        snapshots[0].is(snapshots[2])
+        !snapshots[0].is(snapshots[3])
+    }
+
+    def "Weight evaluation queries and queries to a single broker are not hedged"() {
+        given:
+        LoadBalancingDruidWebService hedging = new LoadBalancingDruidWebService(
+                poolConfig,
+                brokers.collect { [brokerA, brokerB][it] },
+                2,
+                1000,
+                1,
+                { now },
+                { q, l -> OptionalLong.of(0) } as HedgePolicy
+        )
+        int calls = 0
+        [brokerA, brokerB].each { broker ->
+            broker.postDruidQuery(*_) >> { args -> calls++; Mock(Future) }
+        }
+
+        when:
+        hedging.postDruidQuery(context, success, error, failure, weightQuery ? Mock(WeightEvaluationQuery) : query)
+        Thread.sleep(100)
+
+        then:
+        calls == 1
+
+        where:
+        weightQuery | brokers
+        true        | [0, 1]
+        false       | [0]
+    }
+
+    /**
+     * Build a load balancer over both brokers which duplicates every data query right away.
+     *
+     * @return the load balancer
+     */
+    LoadBalancingDruidWebService buildHedgingWebService() {
+        new LoadBalancingDruidWebService(
+                poolConfig,
+                [brokerA, brokerB],
+                2,
+                1000,
+                1,
+                { now },
+                { q, l -> OptionalLong.of(0) } as HedgePolicy
+        )
+    }
+}
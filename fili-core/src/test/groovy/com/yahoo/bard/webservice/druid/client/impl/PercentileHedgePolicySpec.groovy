@@ -0,0 +1,115 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.druid.client.impl
+
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.data.time.DefaultTimeGrain
+import com.yahoo.bard.webservice.druid.model.DefaultQueryType
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.druid.model.query.TopNQuery
+import com.yahoo.bard.webservice.druid.model.query.WeightEvaluationQuery
+
+import com.codahale.metrics.Snapshot
+import com.codahale.metrics.UniformSnapshot
+
+import org.joda.time.Interval
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class PercentileHedgePolicySpec extends Specification {
+
+    Snapshot latency = new UniformSnapshot((1L..100L).toList())
+    PercentileHedgePolicy policy = new PercentileHedgePolicy(["groupBy", "topN"], 0.9, 20, 100, 10)
+    List<Interval> week = [new Interval("2021-01-04/2021-01-11")]
+
+    @Unroll
+    def "A groupBy over #cardinalities for #granularity is #hedged"() {
+        setup:
+        GroupByQuery query = Mock(GroupByQuery)
+        query.getQueryType() >> DefaultQueryType.GROUP_BY
+        query.getInnermostQuery() >> query
+        query.getIntervals() >> week
+        query.getGranularity() >> granularity
+        query.getDimensions() >> cardinalities.collect { cardinality ->
+            Mock(Dimension) { getCardinality() >> cardinality }
+        }
+
+        expect:
+        policy.getHedgeDelay(query, latency).isPresent() == (hedged == "hedged")
+
+        where:
+        cardinalities | granularity          | hedged
+        []            | DefaultTimeGrain.DAY | "hedged"
+        [10]          | DefaultTimeGrain.DAY | "hedged"
+        [10, 10]      | DefaultTimeGrain.DAY | "not hedged"
+        [10, 10]      | DefaultTimeGrain.WEEK | "hedged"
+    }
+
+    def "The hedge delay is the latency percentile with a floor"() {
+        setup:
+        TopNQuery query = Mock(TopNQuery)
+        query.getQueryType() >> DefaultQueryType.TOP_N
+        query.getInnermostQuery() >> query
+        query.getIntervals() >> week
+        query.getGranularity() >> DefaultTimeGrain.WEEK
+        query.getThreshold() >> 50
+
+        expect:
+        policy.getHedgeDelay(query, latency).getAsLong() == (long) latency.getValue(0.9)
+        policy.getHedgeDelay(query, new UniformSnapshot((1L..10L).toList())).getAsLong() == 20
+    }
+
+    def "The percentile is read once for a snapshot which is reused across queries"() {
+        setup:
+        TopNQuery query = Mock(TopNQuery)
+        query.getQueryType() >> DefaultQueryType.TOP_N
+        query.getInnermostQuery() >> query
+        query.getIntervals() >> week
+        query.getGranularity() >> DefaultTimeGrain.WEEK
+        query.getThreshold() >> 50
+        Snapshot reused = Mock(Snapshot)
+        reused.size() >> 100
+
+        when:
+        List<Long> delays = (1..3).collect { policy.getHedgeDelay(query, reused).getAsLong() }
+
+        then:
+        1 * reused.getValue(0.9) >> 30d
+        delays == [30L] * 3
+    }
+
+    def "Nothing is hedged until enough latencies have been observed"() {
+        setup:
+        TopNQuery query = Mock(TopNQuery)
+        query.getQueryType() >> DefaultQueryType.TOP_N
+        query.getInnermostQuery() >> query
+        query.getIntervals() >> week
+        query.getGranularity() >> DefaultTimeGrain.WEEK
+        query.getThreshold() >> 50
+
+        expect:
+        !policy.getHedgeDelay(query, new UniformSnapshot([1L, 2L])).isPresent()
+    }
+
+    def "Query types which are not configured and weight evaluation queries are not hedged"() {
+        setup:
+        GroupByQuery timeseries = Mock(GroupByQuery)
+        timeseries.getQueryType() >> DefaultQueryType.TIMESERIES
+        WeightEvaluationQuery weightQuery = Mock(WeightEvaluationQuery)
+        weightQuery.getQueryType() >> DefaultQueryType.GROUP_BY
+
+        expect:
+        !policy.getHedgeDelay(timeseries, latency).isPresent()
+        !policy.getHedgeDelay(weightQuery, latency).isPresent()
+    }
+
+    def "The configured policy hedges nothing by default"() {
+        setup:
+        TopNQuery query = Mock(TopNQuery)
+        query.getQueryType() >> DefaultQueryType.TOP_N
+
+        expect:
+        !new PercentileHedgePolicy().getHedgeDelay(query, latency).isPresent()
+    }
+}
@@ -183,4 +183,19 @@ class SegmentIntervalsHashIdGeneratorSpec extends BaseDataSourceMetadataSpec {
         timeSeriesQuery | availabilityList2.hashCode() as Long
         lookbackQuery   | availabilityList1.hashCode() as Long
     }
+
+    def "Signing the intervals of a query in one batch matches signing each interval on its own"() {
+        when:
+        Map<Interval, Optional<Long>> segmentSetIds = customSegmentSetIdGenerator.getSegmentSetIds(
+                timeSeriesQuery,
+                [interval1, interval2]
+        )
+
+        then:
+        segmentSetIds.keySet() as List == [interval1, interval2]
+        [interval1, interval2].every {
+            segmentSetIds[it] == customSegmentSetIdGenerator.getSegmentSetId(timeSeriesQuery.withAllIntervals([it]))
+        }
+        segmentSetIds[interval2].get() == availabilityList2.hashCode() as Long
+    }
 }
@@ -0,0 +1,538 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web
+
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+
+import com.yahoo.bard.webservice.data.Result
+import com.yahoo.bard.webservice.data.ResultSet
+import com.yahoo.bard.webservice.data.ResultSetSchema
+import com.yahoo.bard.webservice.data.metric.LogicalMetricImpl
+import com.yahoo.bard.webservice.data.metric.LogicalMetricInfo
+import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.metric.MetricColumnWithValueType
+import com.yahoo.bard.webservice.util.Pagination
+import com.yahoo.bard.webservice.util.SimplifiedIntervalList
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
+
+import org.apache.arrow.memory.RootAllocator
+import org.apache.arrow.vector.FieldVector
+import org.apache.arrow.vector.VectorSchemaRoot
+import org.apache.arrow.vector.ipc.ArrowStreamReader
+import org.apache.arrow.vector.types.FloatingPointPrecision
+import org.apache.arrow.vector.types.TimeUnit
+import org.apache.arrow.vector.types.pojo.ArrowType
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding
+import org.apache.arrow.vector.types.pojo.Field
+import org.apache.arrow.vector.util.Text
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.charset.StandardCharsets
+
+class ArrowResponseWriterSpec extends ResponseWriterSpec {
+
+    static final int SCHEMA = 1
+    static final int DICTIONARY_BATCH = 2
+    static final int RECORD_BATCH = 3
+
+    static final int TYPE_FLOATING_POINT = 3
+    static final int TYPE_UTF8 = 5
+    static final int TYPE_BOOL = 6
+
+    static final List<String> COLUMN_NAMES = [
+            "dateTime",
+            "product|id", "product|desc", "platform|id", "platform|desc", "property|desc",
+            "pageViews", "timeSpent"
+    ]
+
+    /**
+     * A message of an Arrow IPC stream, with just enough of a flatbuffer reader to check what was written.
+     */
+    static class Message {
+        ByteBuffer metadata
+        ByteBuffer body
+        int header
+
+        Message(ByteBuffer metadata, ByteBuffer body) {
+            this.metadata = metadata
+            this.body = body
+            int root = metadata.getInt(0)
+            header = reference(root, 2)
+        }
+
+        int getHeaderType() {
+            scalar(metadata.getInt(0), 1, 1)
+        }
+
+        int field(int table, int slot) {
+            int vtable = table - metadata.getInt(table)
+            int vtableSize = metadata.getShort(vtable)
+            int entry = 4 + 2 * slot
+            int offset = entry < vtableSize ? metadata.getShort(vtable + entry) : 0
+            offset == 0 ? 0 : table + offset
+        }
+
+        long scalar(int table, int slot, int width) {
+            int position = field(table, slot)
+            if (position == 0) {
+                return 0
+            }
+            width == 1 ? metadata.get(position) : width == 2 ? metadata.getShort(position) :
+                    width == 4 ? metadata.getInt(position) : metadata.getLong(position)
+        }
+
+        int reference(int table, int slot) {
+            int position = field(table, slot)
+            position == 0 ? 0 : position + metadata.getInt(position)
+        }
+
+        String string(int table, int slot) {
+            int position = reference(table, slot)
+            byte[] bytes = new byte[metadata.getInt(position)]
+            metadata.position(position + 4)
+            metadata.get(bytes)
+            new String(bytes, StandardCharsets.UTF_8)
+        }
+
+        List<Integer> tables(int table, int slot) {
+            int position = reference(table, slot)
+            (0..<metadata.getInt(position)).collect {
+                int element = position + 4 + 4 * it
+                element + metadata.getInt(element)
+            }
+        }
+
+        List<Long> longStructs(int table, int slot) {
+            int position = reference(table, slot)
+            assert (position + 4) % 8 == 0
+            (0..<2 * metadata.getInt(position)).collect { metadata.getLong(position + 4 + 8 * it) }
+        }
+
+        /**
+         * Get the record batch of a record batch or dictionary batch message.
+         */
+        int getRecordBatch() {
+            headerType == DICTIONARY_BATCH ? reference(header, 1) : header
+        }
+
+        /**
+         * Get the [offset, length] of a body buffer.
+         */
+        List<Long> buffer(int index) {
+            List<Long> buffers = longStructs(recordBatch, 2)
+            [buffers[2 * index], buffers[2 * index + 1]]
+        }
+
+        List<Integer> ints(int index) {
+            List<Long> buffer = buffer(index)
+            (0..<(int) (buffer[1] / 4)).collect { body.getInt((int) buffer[0] + 4 * it) }
+        }
+
+        List<Double> doubles(int index) {
+            List<Long> buffer = buffer(index)
+            (0..<(int) (buffer[1] / 8)).collect { body.getDouble((int) buffer[0] + 8 * it) }
+        }
+
+        List<Long> longs(int index) {
+            List<Long> buffer = buffer(index)
+            (0..<(int) (buffer[1] / 8)).collect { body.getLong((int) buffer[0] + 8 * it) }
+        }
+
+        /**
+         * Read the strings of a utf8 vector whose offsets and data are the buffers at index and index + 1.
+         */
+        List<String> strings(int index) {
+            List<Integer> offsets = ints(index)
+            List<Long> data = buffer(index + 1)
+            (0..<offsets.size() - 1).collect {
+                byte[] bytes = new byte[offsets[it + 1] - offsets[it]]
+                body.position((int) data[0] + offsets[it])
+                body.get(bytes)
+                new String(bytes, StandardCharsets.UTF_8)
+            }
+        }
+    }
+
+    /**
+     * Split an Arrow IPC stream into its messages, checking the framing and the end of stream marker.
+     */
+    static List<Message> readMessages(byte[] stream) {
+        ByteBuffer buffer = ByteBuffer.wrap(stream).order(ByteOrder.LITTLE_ENDIAN)
+        List<Message> messages = []
+        while (true) {
+            assert buffer.position() % 8 == 0
+            assert buffer.getInt() == -1
+            int metadataLength = buffer.getInt()
+            if (metadataLength == 0) {
+                break
+            }
+            ByteBuffer metadata = buffer.slice().order(ByteOrder.LITTLE_ENDIAN)
+            metadata.limit(metadataLength)
+            int root = metadata.getInt(0)
+            int vtable = root - metadata.getInt(root)
+            long bodyLength = metadata.getLong(root + metadata.getShort(vtable + 4 + 2 * 3))
+            buffer.position(buffer.position() + metadataLength)
+            ByteBuffer body = buffer.slice().order(ByteOrder.LITTLE_ENDIAN)
+            body.limit((int) bodyLength)
+            buffer.position(buffer.position() + (int) bodyLength)
+            messages.add(new Message(metadata, body))
+        }
+        assert !buffer.hasRemaining()
+        messages
+    }
+
+    def "The schema has a timestamp, a dictionary encoded column per dimension field and a column per metric"() {
+        when:
+        new ArrowResponseWriter().write(apiRequest, response, os)
+        List<Message> messages = readMessages(os.toByteArray())
+        Message schema = messages[0]
+        List<Integer> fields = schema.tables(schema.header, 1)
+
+        then:
+        messages*.headerType == [SCHEMA] + [DICTIONARY_BATCH] * 5 + [RECORD_BATCH]
+        fields.collect { schema.string(it, 0) } == COLUMN_NAMES
+        // Timestamp in milliseconds, utf8, and doubles for the decimal metrics
+        fields.collect { schema.scalar(it, 2, 1) } == [10, 5, 5, 5, 5, 5, 3, 3]
+        schema.scalar(schema.reference(fields[0], 3), 0, 2) == 1
+        schema.string(schema.reference(fields[0], 3), 1) == dateTime.zone.ID
+        fields[1..5].collect { schema.scalar(schema.reference(it, 4), 0, 8) } == [0, 1, 2, 3, 4]
+        fields.every { schema.tables(it, 5).isEmpty() }
+        [0, 6, 7].every { schema.field(fields[it], 4) == 0 }
+    }
+
+    def "Rows are written as dictionary indexes and typed values"() {
+        when:
+        new ArrowResponseWriter().write(apiRequest, response, os)
+        List<Message> messages = readMessages(os.toByteArray())
+        List<List<String>> dictionaries = messages[1..5].collect { it.strings(1) }
+        Message batch = messages[6]
+
+        then:
+        messages[1..5].every { it.scalar(it.header, 2, 1) == 0 }
+        dictionaries == [
+                ["ymail", "ysports"],
+                ["yahoo, mail", "yahoo sports"],
+                ["mob", "desk"],
+                ["""mobile " desc..""", """desktop ," desc.."""],
+                ["United States", "India"]
+        ]
+        batch.scalar(batch.header, 0, 8) == 2
+        batch.longStructs(batch.header, 1) == [2L, 0L] * 8
+        batch.longs(1) == [dateTime.millis] * 2
+        (0..4).every { batch.ints(3 + 2 * it) == [0, 1] }
+        batch.doubles(13) == [10d, 10d]
+        batch.doubles(15) == [10d, 10d]
+        // Buffers without nulls are left empty, and every buffer starts on an 8 byte boundary
+        (0..15).every { batch.buffer(it)[0] % 8 == 0 }
+        batch.buffer(0)[1] == 0
+    }
+
+    def "Values new to a dictionary are sent as a delta before the batch using them"() {
+        when:
+        new ArrowResponseWriter(1).write(apiRequest, response, os)
+        List<Message> messages = readMessages(os.toByteArray())
+
+        then:
+        messages*.headerType == [SCHEMA] + [DICTIONARY_BATCH] * 5 + [RECORD_BATCH] +
+                [DICTIONARY_BATCH] * 5 + [RECORD_BATCH]
+        messages[1..5].every { it.strings(1).size() == 1 && it.scalar(it.header, 2, 1) == 0 }
+        messages[7..11].every { it.strings(1).size() == 1 && it.scalar(it.header, 2, 1) == 1 }
+        messages[7].strings(1) == ["ysports"]
+        messages[12].ints(3) == [1]
+    }
+
+    def "An empty response still has its schema, dictionaries and an empty batch"() {
+        given:
+        ResponseData empty = new ResponseData(
+                new ResultSet(resultSet.schema, []),
+                apiRequest,
+                new SimplifiedIntervalList(),
+                volatileIntervals,
+                (Pagination) null,
+                [:]
+        )
+
+        when:
+        new ArrowResponseWriter().write(apiRequest, empty, os)
+        List<Message> messages = readMessages(os.toByteArray())
+
+        then:
+        messages*.headerType == [SCHEMA] + [DICTIONARY_BATCH] * 5 + [RECORD_BATCH]
+        messages[6].scalar(messages[6].header, 0, 8) == 0
+    }
+
+    /**
+     * Build a response with a single metric, and a row for each of its values.
+     *
+     * @param metricColumn  The column of the metric
+     * @param logicalMetricType  The type of the logical metric
+     * @param values  The values of the metric
+     */
+    ResponseData metricResponse(MetricColumn metricColumn, String logicalMetricType, List<Object> values) {
+        metricsResponse([(metricColumn): logicalMetricType], values.collect { [(metricColumn): it] })
+    }
+
+    /**
+     * Build a response without dimensions.
+     *
+     * @param logicalMetricTypes  The types of the logical metrics, by metric column
+     * @param rows  The metric values of each row
+     */
+    ResponseData metricsResponse(Map<MetricColumn, String> logicalMetricTypes, List<Map<MetricColumn, Object>> rows) {
+        DataApiRequest request = Mock(DataApiRequest)
+        request.getDimensionFields() >> [:]
+        request.getLogicalMetrics() >> (logicalMetricTypes.collect {
+            new LogicalMetricImpl(new LogicalMetricInfo(it.key.name, it.key.name, "", "", it.value), null, null)
+        } as LinkedHashSet)
+        ResultSetSchema schema = new ResultSetSchema(DAY, logicalMetricTypes.keySet())
+        apiRequest = request
+        new ResponseData(
+                new ResultSet(schema, rows.collect { new Result([:], it, dateTime) }),
+                request,
+                new SimplifiedIntervalList(),
+                volatileIntervals,
+                (Pagination) null,
+                [:]
+        )
+    }
+
+    /**
+     * Write a response and split it into its messages.
+     */
+    List<Message> writeMetric(ResponseData response, int batchRows) {
+        new ArrowResponseWriter(batchRows).write(apiRequest, response, os)
+        readMessages(os.toByteArray())
+    }
+
+    /**
+     * Get the type of a field of the schema.
+     */
+    static long fieldType(Message schema, int index) {
+        schema.scalar(schema.tables(schema.header, 1)[index], 2, 1)
+    }
+
+    def "Metric columns are typed from their value type or the type of their logical metric"() {
+        when:
+        List<Message> messages = writeMetric(metricResponse(column, logicalMetricType, [null, null]), 1)
+
+        then:
+        fieldType(messages[0], 1) == arrowType
+
+        where:
+        column                                                         | logicalMetricType | arrowType
+        new MetricColumnWithValueType("m", Long.class.name)           | "number"          | TYPE_FLOATING_POINT
+        new MetricColumnWithValueType("m", Double.class.name)         | null              | TYPE_FLOATING_POINT
+        new MetricColumnWithValueType("m", BigDecimal.class.name)     | null              | TYPE_FLOATING_POINT
+        new MetricColumnWithValueType("m", Boolean.class.name)        | "number"          | TYPE_BOOL
+        new MetricColumnWithValueType("m", String.class.name)         | "number"          | TYPE_UTF8
+        new MetricColumn("m")                                         | "number"          | TYPE_FLOATING_POINT
+        new MetricColumn("m")                                         | "boolean"         | TYPE_BOOL
+        new MetricColumn("m")                                         | "string"          | TYPE_UTF8
+        // Without a type from the schema the column is strings, which hold anything
+        new MetricColumn("m")                                         | null              | TYPE_UTF8
+    }
+
+    def "A column whose declared type the first batch contradicts is written as strings"() {
+        when:
+        List<Message> messages = writeMetric(metricResponse(column, logicalMetricType, values), 10)
+
+        then:
+        fieldType(messages[0], 1) == arrowType
+
+        where:
+        column                                                 | logicalMetricType | values            | arrowType
+        new MetricColumnWithValueType("m", Long.class.name)   | "number"          | [1L, 2.5d]        | TYPE_FLOATING_POINT
+        new MetricColumn("m")                                 | "number"          | [1.5, "n/a"]      | TYPE_UTF8
+        new MetricColumn("m")                                 | "boolean"         | [true, 1L]        | TYPE_UTF8
+        new MetricColumn("m")                                 | null              | [null, 1L, 2L]    | TYPE_UTF8
+    }
+
+    def "An integer metric is written as doubles, so fractional values of a later batch still fit"() {
+        when:
+        List<Message> messages = writeMetric(
+                metricResponse(
+                        new MetricColumnWithValueType("m", Long.class.name),
+                        "number",
+                        [3L, 2.5d, new BigDecimal("10.00"), null]
+                ),
+                1
+        )
+
+        then:
+        fieldType(messages[0], 1) == TYPE_FLOATING_POINT
+        messages.findAll { it.headerType == RECORD_BATCH }.collect { it.doubles(3) } == [[3d], [2.5d], [10d], [0d]]
+    }
+
+    def "A value of a later batch which contradicts its declared type fails rather than being dropped"() {
+        when:
+        writeMetric(metricResponse(column, logicalMetricType, values), 1)
+
+        then:
+        IllegalStateException exception = thrown()
+        exception.message.contains("metric m")
+
+        where:
+        column                                                 | logicalMetricType | values
+        new MetricColumn("m")                                 | "number"          | [null, "n/a"]
+        new MetricColumn("m")                                 | "boolean"         | [true, "n/a"]
+    }
+
+    def "Strings of a later batch are kept in a column typed as strings"() {
+        when:
+        List<Message> messages = writeMetric(metricResponse(new MetricColumn("m"), null, [null, "n/a", 1.5]), 1)
+
+        then:
+        fieldType(messages[0], 1) == TYPE_UTF8
+        messages.findAll { it.headerType == RECORD_BATCH }.collect { it.strings(3) } == [[""], ["n/a"], ["1.5"]]
+    }
+
+    /**
+     * A response with a column of each metric type, with nulls, written in batches of two rows.
+     */
+    ResponseData typedResponse() {
+        MetricColumn longs = new MetricColumnWithValueType("longs", Long.class.name)
+        MetricColumn doubles = new MetricColumnWithValueType("doubles", Double.class.name)
+        MetricColumn booleans = new MetricColumn("booleans")
+        MetricColumn strings = new MetricColumn("strings")
+        metricsResponse(
+                [(longs): "number", (doubles): "number", (booleans): "boolean", (strings): "string"],
+                [
+                        [(longs): 1L, (doubles): 1.5d, (booleans): true, (strings): "a"],
+                        [(longs): null, (doubles): null, (booleans): null, (strings): null],
+                        [(longs): -3L, (doubles): Double.NaN, (booleans): false, (strings): "\u00fc"]
+                ]
+        )
+    }
+
+    /**
+     * Read a golden Arrow stream.
+     * <p>
+     * The golden streams follow the Arrow IPC stream format, and are read back with the reference Arrow reader below.
+     */
+    static byte[] golden(String name) {
+        ArrowResponseWriterSpec.getResourceAsStream("/arrow/$name").bytes
+    }
+
+    def "The stream of a response matches its golden file"() {
+        given: "the typed response replaces the request, so its logical metrics type the columns"
+        ResponseData written = typed ? typedResponse() : response
+
+        when:
+        new ArrowResponseWriter(batchRows).write(apiRequest, written, os)
+
+        then:
+        os.toByteArray() == golden(name)
+
+        where:
+        name                   | batchRows | typed
+        "response.arrows"      | 1         | false
+        "typedResponse.arrows" | 2         | true
+    }
+
+    def "The golden stream of the typed response holds a column of each type, with nulls"() {
+        when:
+        List<Message> messages = readMessages(golden("typedResponse.arrows"))
+        List<Message> batches = messages.findAll { it.headerType == RECORD_BATCH }
+
+        then:
+        messages*.headerType == [SCHEMA, RECORD_BATCH, RECORD_BATCH]
+        (1..4).collect { fieldType(messages[0], it) } == [TYPE_FLOATING_POINT, TYPE_FLOATING_POINT, TYPE_BOOL, TYPE_UTF8]
+        batches.collect { it.longStructs(it.header, 1) } == [[2L, 0L] + [2L, 1L] * 4, [1L, 0L] * 5]
+        batches.collect { it.doubles(3) } == [[1d, 0d], [-3d]]
+        batches[0].doubles(5)[0] == 1.5d
+        batches[1].doubles(5)[0].naN
+        batches.collect { it.strings(9) } == [["a", ""], ["\u00fc"]]
+    }
+
+    /**
+     * Read an Arrow stream with the reference Arrow Java reader, decoding dictionary encoded columns.
+     *
+     * @return the fields of the schema, the types of the dictionaries by id, and the rows of every batch as maps from
+     * column name to value
+     */
+    static Map<String, Object> readWithArrow(byte[] stream) {
+        List<Field> fields = null
+        Map<Long, ArrowType> dictionaryTypes = [:]
+        List<Map<String, Object>> rows = []
+        RootAllocator allocator = new RootAllocator()
+        ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(stream), allocator)
+        try {
+            VectorSchemaRoot root = reader.vectorSchemaRoot
+            fields = root.schema.fields
+            while (reader.loadNextBatch()) {
+                (0..<root.rowCount).each { int row ->
+                    rows.add(root.fieldVectors.collectEntries { FieldVector vector ->
+                        Object value = vector.getObject(row)
+                        DictionaryEncoding encoding = vector.field.dictionary
+                        if (encoding != null && value != null) {
+                            value = reader.dictionaryVectors[encoding.id].vector.getObject((int) value)
+                        }
+                        [(vector.name): value instanceof Text ? value.toString() : value]
+                    })
+                }
+            }
+            reader.dictionaryVectors.each { dictionaryTypes[it.key] = it.value.vectorType }
+        } finally {
+            reader.close()
+            allocator.close()
+        }
+        [fields: fields, dictionaryTypes: dictionaryTypes, rows: rows]
+    }
+
+    def "The reference Arrow reader reads the schema and the dictionary decoded rows of a response"() {
+        when:
+        Map<String, Object> read = readWithArrow(golden("response.arrows"))
+        List<Field> fields = read.fields
+
+        then:
+        fields*.name == COLUMN_NAMES
+        fields[0].type == new ArrowType.Timestamp(TimeUnit.MILLISECOND, dateTime.zone.ID)
+        // The reader types a dictionary encoded field by its indexes, and its dictionary by the values
+        fields[1..5]*.type == [new ArrowType.Int(32, true)] * 5
+        fields[1..5]*.dictionary*.id == [0L, 1L, 2L, 3L, 4L]
+        read.dictionaryTypes == (0L..4L).collectEntries { [(it): ArrowType.Utf8.INSTANCE] }
+        fields[6..7]*.type == [new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)] * 2
+        read.rows == [
+                [
+                        "dateTime": dateTime.millis,
+                        "product|id": "ymail",
+                        "product|desc": "yahoo, mail",
+                        "platform|id": "mob",
+                        "platform|desc": """mobile " desc..""",
+                        "property|desc": "United States",
+                        "pageViews": 10d,
+                        "timeSpent": 10d
+                ],
+                [
+                        "dateTime": dateTime.millis,
+                        "product|id": "ysports",
+                        "product|desc": "yahoo sports",
+                        "platform|id": "desk",
+                        "platform|desc": """desktop ," desc..""",
+                        "property|desc": "India",
+                        "pageViews": 10d,
+                        "timeSpent": 10d
+                ]
+        ]
+    }
+
+    def "The reference Arrow reader reads a column of each metric type, with nulls"() {
+        when:
+        Map<String, Object> read = readWithArrow(golden("typedResponse.arrows"))
+        List<Map<String, Object>> rows = read.rows
+
+        then:
+        read.fields[1..4]*.type == [
+                new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE),
+                new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE),
+                ArrowType.Bool.INSTANCE,
+                ArrowType.Utf8.INSTANCE
+        ]
+        rows*.longs == [1d, null, -3d]
+        rows*.doubles[0..1] == [1.5d, null]
+        rows[2].doubles.naN
+        rows*.booleans == [true, null, false]
+        rows*.strings == ["a", null, "\u00fc"]
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.zip.GZIPInputStream
+
+class CompressingOutputStreamSpec extends Specification {
+
+    ByteArrayOutputStream sent = new ByteArrayOutputStream()
+    int compressionsStarted = 0
+
+    CompressingOutputStream stream(int minimumLength) {
+        new CompressingOutputStream(sent, ContentEncoding.GZIP, 6, minimumLength, { compressionsStarted++ })
+    }
+
+    def "Streams shorter than the minimum length are sent as they are"() {
+        given:
+        CompressingOutputStream stream = stream(100)
+
+        when:
+        stream.write("short".getBytes(StandardCharsets.UTF_8))
+        stream.flush()
+
+        then: "Nothing is sent before the stream is finished"
+        sent.size() == 0
+
+        when:
+        stream.finish()
+
+        then:
+        sent.toString("UTF-8") == "short"
+        !stream.compressed
+        compressionsStarted == 0
+        stream.length == 5
+        stream.uncompressedLength == 5
+    }
+
+    def "Streams reaching the minimum length are compressed from the first byte"() {
+        given:
+        CompressingOutputStream stream = stream(100)
+        String body = "0123456789" * 1000
+
+        when:
+        stream.write(body.substring(0, 50).getBytes(StandardCharsets.UTF_8))
+        stream.write(body.substring(50).getBytes(StandardCharsets.UTF_8))
+        stream.finish()
+
+        then:
+        stream.compressed
+        compressionsStarted == 1
+        new GZIPInputStream(new ByteArrayInputStream(sent.toByteArray())).text == body
+        stream.length == sent.size()
+        stream.length < stream.uncompressedLength
+        stream.uncompressedLength == body.length()
+    }
+
+    def "Finishing does not close the stream written to, but closing does"() {
+        given:
+        OutputStream target = Mock(OutputStream)
+        CompressingOutputStream stream = new CompressingOutputStream(target, ContentEncoding.ZSTD, 3, 0, { })
+        stream.write(1)
+
+        when:
+        stream.finish()
+
+        then:
+        0 * target.close()
+
+        when:
+        stream.close()
+
+        then:
+        1 * target.close()
+    }
+
+    def "Writing to a finished stream fails"() {
+        given:
+        CompressingOutputStream stream = stream(100)
+        stream.finish()
+
+        when:
+        stream.write(1)
+
+        then:
+        thrown(IOException)
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web
+
+import static com.yahoo.bard.webservice.web.ContentEncoding.GZIP
+import static com.yahoo.bard.webservice.web.ContentEncoding.ZSTD
+
+import com.github.luben.zstd.ZstdInputStream
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+import java.util.zip.GZIPInputStream
+
+class ContentEncodingSpec extends Specification {
+
+    @Unroll
+    def "Accept-Encoding '#acceptEncoding' negotiates #expected"() {
+        expect:
+        ContentEncoding.negotiate(acceptEncoding, [ZSTD, GZIP]) == Optional.ofNullable(expected)
+
+        where:
+        acceptEncoding                     | expected
+        null                               | null
+        ""                                 | null
+        "identity"                         | null
+        "gzip, deflate, br"                | GZIP
+        "GZIP"                             | GZIP
+        "gzip, zstd"                       | ZSTD
+        "gzip;q=1.0, zstd;q=0.5"           | GZIP
+        "zstd;q=0, gzip"                   | GZIP
+        "*"                                | ZSTD
+        "*;q=0.5, zstd;q=0"                | GZIP
+        "gzip;q=0, zstd;q=0"               | null
+        "gzip;q=nonsense"                  | GZIP
+    }
+
+    def "Only offered encodings are negotiated"() {
+        expect:
+        ContentEncoding.negotiate("zstd, gzip;q=0.1", [GZIP]) == Optional.of(GZIP)
+        !ContentEncoding.negotiate("zstd", [GZIP]).isPresent()
+    }
+
+    @Unroll
+    def "#encoding compresses what can be decompressed"() {
+        given:
+        byte[] original = ("pageViews,timeSpent\n" * 1000).getBytes(StandardCharsets.UTF_8)
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream()
+
+        when:
+        OutputStream stream = encoding.compress(compressed, level)
+        stream.write(original)
+        stream.close()
+
+        then:
+        compressed.size() < original.length / 10
+        decompress(new ByteArrayInputStream(compressed.toByteArray())).bytes == original
+
+        where:
+        encoding | level | decompress
+        GZIP     | 1     | { new GZIPInputStream(it) }
+        GZIP     | 9     | { new GZIPInputStream(it) }
+        ZSTD     | 3     | { new ZstdInputStream(it) }
+    }
+
+    def "Encodings are found by their header value"() {
+        expect:
+        ContentEncoding.forHeaderValue(" Zstd ") == Optional.of(ZSTD)
+        !ContentEncoding.forHeaderValue("br").isPresent()
+    }
+}
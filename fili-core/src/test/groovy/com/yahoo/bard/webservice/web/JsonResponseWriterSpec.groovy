@@ -57,6 +57,40 @@ class JsonResponseWriterSpec extends ResponseWriterSpec {
         bodyLinksAsJson << BODY_LINKS_AS_JSON_LIST
     }
 
+    def "The number of results is written as null when it is unknown"() {
+        setup:
+        formattedDateTime = dateTime.toString(getDefaultFormat())
+        Pagination lookahead = Stub(Pagination)
+        lookahead.getPage() >> PAGE
+        lookahead.getPerPage() >> PER_PAGE
+        lookahead.getNumResults() >> 5
+        lookahead.isNumResultsUnknown() >> true
+        ResponseData paginatedResponse = new ResponseData(
+                resultSet,
+                apiRequest,
+                new SimplifiedIntervalList(),
+                volatileIntervals,
+                lookahead,
+                [:]
+        )
+        String expectedJson = withMetaObject(
+                defaultJsonFormat,
+                """{
+                        "pagination": {
+                            "currentPage": $PAGE,
+                            "rowsPerPage": $PER_PAGE,
+                            "numberOfResults": null
+                        }
+                    }"""
+        )
+
+        when:
+        new JsonResponseWriter(MAPPERS).write(apiRequest, paginatedResponse, os)
+
+        then:
+        GroovyTestUtils.compareJson(os.toString(), expectedJson)
+    }
+
     @Unroll
     def "test for existence of missing intervals in response when #arePaginating"() {
         setup:
@@ -111,7 +111,7 @@ abstract class ResponseWriterSpec extends Specification {
     JsonResponseWriter jsonResponseWriter
     JsonApiResponseWriter jsonApiResponseWriter
 
-    DateTime dateTime = new DateTime(TimeUnit.DAYS.toMillis(365 * 45))
+    DateTime dateTime = new DateTime(TimeUnit.DAYS.toMillis(365 * 45), DateTimeZone.UTC)
     String formattedDateTime
     DataApiRequest apiRequest = Mock(DataApiRequest)
     ResultSet resultSet
@@ -0,0 +1,157 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web
+
+import com.yahoo.bard.webservice.data.Result
+import com.yahoo.bard.webservice.data.dimension.BardDimensionField
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.data.dimension.DimensionColumn
+import com.yahoo.bard.webservice.data.dimension.DimensionField
+import com.yahoo.bard.webservice.data.dimension.DimensionRow
+import com.yahoo.bard.webservice.util.DateTimeFormatterFactory
+import com.yahoo.bard.webservice.util.GroovyTestUtils
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import groovy.json.JsonSlurper
+
+import org.joda.time.DateTime
+
+class ResultRowEncoderSpec extends ResponseWriterSpec {
+
+    def "Each row is written as JSON like the row built for it"() {
+        given:
+        ResultRowEncoder encoder = new ResultRowEncoder(response)
+
+        List<String> written = []
+        List<String> built = []
+
+        when:
+        for (Result result : response.resultSet) {
+            StringWriter writer = new StringWriter()
+            JsonGenerator generator = MAPPERS.getMapper().getFactory().createGenerator(writer)
+            encoder.writeJsonRow(generator, result)
+            generator.close()
+            written.add(writer.toString())
+            built.add(MAPPERS.getMapper().writeValueAsString(response.buildResultRow(result)))
+        }
+
+        then:
+        written.size() == 2
+        GroovyTestUtils.compareJson(written[0], built[0])
+        GroovyTestUtils.compareJson(written[1], built[1])
+    }
+
+    def "Dimensions are written in the order of the result's dimension rows, as in the rows built for them"() {
+        given: "a result whose dimension rows are in the reverse of the requested order"
+        ResultRowEncoder encoder = new ResultRowEncoder(response)
+        Result first = response.resultSet[0]
+        Map<DimensionColumn, DimensionRow> reversed = new LinkedHashMap<>()
+        (first.dimensionRows.entrySet() as List).reverse().each { reversed.put(it.key, it.value) }
+        Result result = new Result(reversed, first.metricValues, first.timeStamp)
+        Map<Dimension, Map<String, DimensionRow>> sidecars = response.requestedApiDimensionFields.keySet()
+                .collectEntries { [(it): [:]] }
+        Map<Dimension, Set<Map<DimensionField, String>>> builtSidecars = sidecars.keySet()
+                .collectEntries { [(it): new LinkedHashSet<>()] }
+        ObjectMapper mapper = MAPPERS.getMapper()
+        StringWriter jsonWriter = new StringWriter()
+        StringWriter jsonApiWriter = new StringWriter()
+
+        when:
+        JsonGenerator generator = mapper.getFactory().createGenerator(jsonWriter)
+        encoder.writeJsonRow(generator, result)
+        generator.close()
+        generator = mapper.getFactory().createGenerator(jsonApiWriter)
+        encoder.writeJsonApiRow(generator, result, sidecars)
+        generator.close()
+
+        then:
+        jsonWriter.toString() == mapper.writeValueAsString(response.buildResultRow(result))
+        jsonApiWriter.toString() == mapper.writeValueAsString(response.buildResultRowWithSidecars(result, builtSidecars))
+    }
+
+    def "Each distinct timestamp is formatted once"() {
+        given:
+        ResultRowEncoder encoder = new ResultRowEncoder(response)
+
+        when:
+        String first = encoder.formatTimestamp(dateTime)
+        String second = encoder.formatTimestamp(new DateTime(dateTime.millis, dateTime.zone))
+
+        then:
+        first == dateTime.toString(DateTimeFormatterFactory.getOutputFormatter())
+        first.is(second)
+    }
+
+    def "Each row is written as JSON-API like the row built for it, without changing the requested fields"() {
+        given:
+        ResultRowEncoder encoder = new ResultRowEncoder(response)
+        Map<Dimension, Map<String, DimensionRow>> sidecars = response.requestedApiDimensionFields.keySet()
+                .collectEntries { [(it): [:]] }
+        Map<Dimension, Set<DimensionField>> requestedFields = response.requestedApiDimensionFields
+                .collectEntries { [(it.key): new LinkedHashSet<>(it.value)] }
+        ObjectMapper mapper = MAPPERS.getMapper()
+
+        when:
+        List<String> written = response.resultSet.collect { Result result ->
+            StringWriter writer = new StringWriter()
+            JsonGenerator generator = mapper.getFactory().createGenerator(writer)
+            encoder.writeJsonApiRow(generator, result, sidecars)
+            generator.close()
+            writer.toString()
+        }
+
+        then:
+        response.requestedApiDimensionFields == requestedFields
+        sidecars.collectEntries { [(it.key.apiName): it.value.keySet() as List] } == [
+                product: ["ymail", "ysports"],
+                platform: ["mob", "desk"],
+                property: ["US", "IN"]
+        ]
+
+        when:
+        Map<Dimension, Set<Map<DimensionField, String>>> builtSidecars = sidecars.keySet()
+                .collectEntries { [(it): new LinkedHashSet<>()] }
+        List<String> built = response.resultSet.collect {
+            mapper.writeValueAsString(response.buildResultRowWithSidecars(it, builtSidecars))
+        }
+
+        then:
+        GroovyTestUtils.compareJson(written[0], built[0])
+        GroovyTestUtils.compareJson(written[1], built[1])
+    }
+
+    def "Sidecars hold each dimension row once, with the requested fields and the key field"() {
+        given:
+        ResultRowEncoder encoder = new ResultRowEncoder(response)
+        Dimension property = response.requestedApiDimensionFields.keySet().find { it.apiName == "property" }
+        DimensionColumn column = new DimensionColumn(property)
+        DimensionRow us = BardDimensionField.makeDimensionRow(property, "US", "United States")
+        List<Result> results = [
+                us,
+                us,
+                BardDimensionField.makeDimensionRow(property, "US", "United States"),
+                BardDimensionField.makeDimensionRow(property, "IN", "India")
+        ].collect { new Result([(column): it], [:], dateTime) }
+        Map<Dimension, Map<String, DimensionRow>> sidecars = [(property): [:]]
+        StringWriter writer = new StringWriter()
+        JsonGenerator generator = MAPPERS.getMapper().getFactory().createGenerator(writer)
+
+        when:
+        generator.writeStartObject()
+        generator.writeArrayFieldStart("rows")
+        encoder.writeJsonApiRows(generator, results, sidecars)
+        generator.writeEndArray()
+        encoder.writeSidecar(generator, property, sidecars[property].values())
+        generator.writeEndObject()
+        generator.close()
+        Map written = new JsonSlurper().parseText(writer.toString())
+
+        then:
+        sidecars[property].values()*.get(property.key) == ["US", "IN"]
+        sidecars[property]["US"].is(us)
+        written.rows*.property == ["US", "US", "US", "IN"]
+        written.property == [[desc: "United States", id: "US"], [desc: "India", id: "IN"]]
+    }
+}
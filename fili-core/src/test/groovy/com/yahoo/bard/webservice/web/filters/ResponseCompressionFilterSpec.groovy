@@ -0,0 +1,132 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.filters
+
+import static com.yahoo.bard.webservice.config.BardFeatureFlag.RESPONSE_COMPRESSION
+
+import com.yahoo.bard.webservice.application.JerseyTestBinder
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.logging.TestLogAppender
+import com.yahoo.bard.webservice.web.endpoints.TestFilterServlet
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.github.luben.zstd.ZstdInputStream
+
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+
+import javax.ws.rs.client.Entity
+import javax.ws.rs.core.HttpHeaders
+import javax.ws.rs.core.Response
+
+@Timeout(30)
+class ResponseCompressionFilterSpec extends Specification {
+
+    private static final ObjectMapper MAPPER = new ObjectMappersSuite().getMapper()
+
+    // The test servlet posts back the alphabet, repeated to 65536 characters
+    static final String BODY = (0..<65536).collect { (char) ((int) 'A' + it % 26) }.join("")
+
+    @Shared
+    TestLogAppender logAppender
+
+    JerseyTestBinder jtb
+
+    def setupSpec() {
+        logAppender = new TestLogAppender()
+    }
+
+    def cleanupSpec() {
+        logAppender.close()
+    }
+
+    def setup() {
+        RESPONSE_COMPRESSION.setOn(true)
+        jtb = new JerseyTestBinder(BardLoggingFilter.class, ResponseCompressionFilter.class, TestFilterServlet.class)
+        logAppender.clear()
+    }
+
+    def cleanup() {
+        jtb.tearDown()
+        logAppender.clear()
+        RESPONSE_COMPRESSION.reset()
+    }
+
+    Response post(String acceptEncoding) {
+        jtb.getHarness().target("test/data")
+                .request()
+                .header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding)
+                .post(Entity.json("[1, 2, 3]"))
+    }
+
+    JsonNode responseLogBlock() {
+        String line = logAppender.getMessages().find { it.contains(/"uuid"/) }
+        MAPPER.readTree(line).findValue("Response")
+    }
+
+    @Unroll
+    def "Responses are compressed with #expected when the client accepts '#acceptEncoding'"() {
+        when:
+        Response response = post(acceptEncoding)
+        byte[] sent = response.readEntity(InputStream).bytes
+
+        then:
+        response.getHeaderString(HttpHeaders.CONTENT_ENCODING) == expected
+        response.getHeaderString(HttpHeaders.VARY) == HttpHeaders.ACCEPT_ENCODING
+        decompress(new ByteArrayInputStream(sent)).text == BODY
+        sent.length < BODY.length() / 10
+
+        and: "The compressed and uncompressed lengths are logged"
+        JsonNode block = responseLogBlock()
+        block.get("contentEncoding").asText() == expected
+        block.get("length").asInt() == sent.length
+        block.get("uncompressedLength").asInt() == BODY.length()
+        block.get("code").asInt() == 200
+
+        where:
+        acceptEncoding          | expected | decompress
+        "gzip, deflate"         | "gzip"   | { new GZIPInputStream(it) }
+        "gzip, zstd"            | "zstd"   | { new ZstdInputStream(it) }
+        "zstd;q=0.5, gzip;q=1"  | "gzip"   | { new GZIPInputStream(it) }
+    }
+
+    def "Responses are not compressed for clients which do not accept a supported encoding"() {
+        when:
+        Response response = post("br")
+
+        then:
+        response.getHeaderString(HttpHeaders.CONTENT_ENCODING) == null
+        response.readEntity(String) == BODY
+    }
+
+    def "Responses shorter than the minimum length are not compressed"() {
+        when: "The servlet answers GET requests with OK"
+        Response response = jtb.getHarness().target("test/data")
+                .request()
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .get()
+
+        then:
+        response.getHeaderString(HttpHeaders.CONTENT_ENCODING) == null
+        response.readEntity(String) == "OK"
+        responseLogBlock().get("contentEncoding").asText() == "identity"
+    }
+
+    def "Responses are not compressed when compression is disabled"() {
+        given:
+        RESPONSE_COMPRESSION.setOn(false)
+
+        when:
+        Response response = post("gzip")
+
+        then:
+        response.getHeaderString(HttpHeaders.CONTENT_ENCODING) == null
+        response.getHeaderString(HttpHeaders.VARY) == null
+        response.readEntity(String) == BODY
+    }
+}
@@ -3,14 +3,20 @@
 package com.yahoo.bard.webservice.web.handlers
 
 import com.yahoo.bard.webservice.druid.client.DruidWebService
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.client.HttpErrorCallback
+import com.yahoo.bard.webservice.druid.client.StreamingSuccessCallback
 import com.yahoo.bard.webservice.druid.client.SuccessCallback
 import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.druid.model.query.QueryContext
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfo
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfoUtils
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
 import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor
+import com.yahoo.bard.webservice.web.responseprocessors.StreamingResponseProcessor
 
+import com.fasterxml.jackson.core.JsonParser
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.ObjectWriter
@@ -37,6 +43,7 @@ class AsyncWebServiceRequestHandlerSpec extends Specification {
         RequestContext rc = Mock(RequestContext)
         DataApiRequest request = Mock(DataApiRequest)
         GroupByQuery groupByQuery = Mock(GroupByQuery)
+        groupByQuery.getContext() >> new QueryContext([:])
         ResponseProcessor response = Mock(ResponseProcessor)
         JsonNode rootNode = Mock(JsonNode)
 
@@ -58,7 +65,7 @@ class AsyncWebServiceRequestHandlerSpec extends Specification {
         success
         1 * response.getErrorCallback(groupByQuery)
         1 * response.getFailureCallback(groupByQuery)
-        1 * dws.postDruidQuery(rc, _, null, null, groupByQuery) >> { a0, a1, a2, a3, a4 ->
+        1 * dws.postDruidQuery(rc, _, _, _, groupByQuery) >> { a0, a1, a2, a3, a4 ->
             // Save the success callback
             sc = a1
             return Mock(Future)
@@ -71,4 +78,87 @@ class AsyncWebServiceRequestHandlerSpec extends Specification {
         then:
         1 * response.processResponse(rootNode, groupByQuery, _ as LoggingContext)
     }
+
+    def "A streaming response processor is handed a streaming success callback"() {
+        setup:
+        DruidWebService dws = Mock(DruidWebService)
+        RequestContext rc = Mock(RequestContext)
+        GroupByQuery groupByQuery = Mock(GroupByQuery)
+        groupByQuery.getContext() >> new QueryContext([:])
+        StreamingResponseProcessor response = Mock(StreamingResponseProcessor)
+        JsonParser parser = Mock(JsonParser)
+        JsonNode rootNode = Mock(JsonNode)
+
+        ObjectMapper mapper = Mock(ObjectMapper)
+        mapper.writer() >> Mock(ObjectWriter)
+        AsyncWebServiceRequestHandler handler = new AsyncWebServiceRequestHandler(dws, mapper)
+
+        SuccessCallback sc = null
+
+        when:
+        handler.handleRequest(rc, Mock(DataApiRequest), groupByQuery, response)
+
+        then:
+        1 * dws.postDruidQuery(rc, _, _, _, groupByQuery) >> { a0, a1, a2, a3, a4 ->
+            sc = a1
+            return Mock(Future)
+        }
+        sc instanceof StreamingSuccessCallback
+
+        when: "The web service streams the response"
+        ((StreamingSuccessCallback) sc).invoke(parser)
+
+        then:
+        1 * response.processResponse(parser, groupByQuery, _ as LoggingContext)
+
+        when: "The web service hands over a tree"
+        sc.invoke(rootNode)
+
+        then:
+        1 * response.processResponse(rootNode, groupByQuery, _ as LoggingContext)
+    }
+
+    def "Druid queries are tracked until druid answers them and are cancelled when the request fails"() {
+        setup:
+        DruidWebService dws = Mock(DruidWebService)
+        RequestContext rc = new RequestContext(null, false)
+        ResponseProcessor response = Mock(ResponseProcessor)
+        response.getErrorCallback(_) >> Mock(HttpErrorCallback)
+        FailureCallback failure = Mock(FailureCallback)
+        response.getFailureCallback(_) >> failure
+
+        ObjectMapper mapper = Mock(ObjectMapper)
+        mapper.writer() >> Mock(ObjectWriter)
+        AsyncWebServiceRequestHandler handler = new AsyncWebServiceRequestHandler(dws, mapper)
+
+        QueryContext queryContext = new QueryContext([(QueryContext.Param.QUERY_ID): "request"])
+        GroupByQuery answered = Mock(GroupByQuery) { getContext() >> queryContext }
+        GroupByQuery running = Mock(GroupByQuery) { getContext() >> queryContext.fork() }
+        List<SuccessCallback> successes = []
+        List<FailureCallback> failures = []
+        dws.postDruidQuery(*_) >> { args -> successes.add(args[1]); failures.add(args[3]); Mock(Future) }
+        Throwable timeout = new IOException("timed out")
+
+        when:
+        handler.handleRequest(rc, Mock(DataApiRequest), answered, response)
+        handler.handleRequest(rc, Mock(DataApiRequest), running, response)
+
+        then:
+        rc.druidQueriesInFlight == ["request_1", "request_2"] as Set
+
+        when:
+        successes[0].invoke(Mock(JsonNode))
+
+        then:
+        rc.druidQueriesInFlight == ["request_2"] as Set
+
+        when:
+        failures[1].invoke(timeout)
+
+        then:
+        1 * dws.cancelDruidQuery("request_2")
+        0 * dws.cancelDruidQuery("request_1")
+        1 * failure.invoke(timeout)
+        rc.druidQueriesInFlight.isEmpty()
+    }
 }
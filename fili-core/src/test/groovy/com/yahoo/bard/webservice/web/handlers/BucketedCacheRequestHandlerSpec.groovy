@@ -0,0 +1,293 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.handlers
+
+import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
+import static com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKeys.VOLATILE_INTERVALS_CONTEXT_KEY
+
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.data.cache.CacheKey
+import com.yahoo.bard.webservice.data.cache.MemTupleDataCache
+import com.yahoo.bard.webservice.data.cache.TupleDataCache
+import com.yahoo.bard.webservice.data.time.AllGranularity
+import com.yahoo.bard.webservice.druid.client.FailureCallback
+import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
+import com.yahoo.bard.webservice.druid.model.query.TimeSeriesQuery
+import com.yahoo.bard.webservice.logging.blocks.BardBatchCacheInfo
+import com.yahoo.bard.webservice.logging.blocks.BardQueryInfo
+import com.yahoo.bard.webservice.logging.blocks.BardQueryInfoUtils
+import com.yahoo.bard.webservice.metadata.QuerySigningService
+import com.yahoo.bard.webservice.metadata.SegmentIntervalsHashIdGenerator
+import com.yahoo.bard.webservice.util.SimplifiedIntervalList
+import com.yahoo.bard.webservice.web.RequestUtils
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
+import com.yahoo.bard.webservice.web.responseprocessors.BucketedCacheResponseProcessor
+import com.yahoo.bard.webservice.web.responseprocessors.CacheV2ResponseProcessor
+import com.yahoo.bard.webservice.web.responseprocessors.LoggingContext
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContext
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor
+import com.yahoo.bard.webservice.web.util.QuerySignedCacheService
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import org.joda.time.Interval
+
+import spock.lang.Specification
+
+import javax.ws.rs.container.ContainerRequestContext
+import javax.ws.rs.core.MultivaluedHashMap
+
+class BucketedCacheRequestHandlerSpec extends Specification {
+
+    ObjectMapper mapper = new ObjectMappersSuite().getMapper()
+
+    Map<String, TupleDataCache.DataEntry<String, Long, byte[]>> store = [:]
+    TupleDataCache<String, Long, byte[]> dataCache = Mock(TupleDataCache)
+    QuerySigningService<Long> querySigningService = Mock(SegmentIntervalsHashIdGenerator)
+    Map<Interval, Long> signatures = [:]
+
+    DataRequestHandler next = Mock(DataRequestHandler)
+    DataApiRequest apiRequest = Mock(DataApiRequest)
+    ResponseProcessor response = Mock(ResponseProcessor)
+    ResponseContext responseContext = new ResponseContext([:])
+    RequestContext requestContext
+
+    BucketedCacheRequestHandler handler
+
+    def setup() {
+        dataCache.get(_ as CacheKey, _) >> { CacheKey key, Long meta -> store[key.key] }
+        dataCache.set(_ as CacheKey, _, _) >> { CacheKey key, Long meta, byte[] value ->
+            store[key.key] = new MemTupleDataCache.DataEntry<byte[]>(key.key, meta, value)
+            true
+        }
+        dataCache.getAll(_) >> { Map<CacheKey, Long> keys ->
+            keys.keySet().findAll { store[it.key] }.collectEntries { [(it): store[it.key]] }
+        }
+        querySigningService.getSegmentSetIds(_, _) >> { DruidAggregationQuery<?> query, Collection<Interval> buckets ->
+            buckets.collectEntries { [(it): Optional.ofNullable(signatures.getOrDefault(it, 1234L))] }
+        }
+        response.getResponseContext() >> responseContext
+
+        QuerySignedCacheService querySignedCacheService = new QuerySignedCacheService(
+                dataCache,
+                querySigningService,
+                mapper
+        )
+        handler = new BucketedCacheRequestHandler(next, dataCache, querySigningService, querySignedCacheService, mapper)
+
+        ContainerRequestContext containerRequestContext = Mock(ContainerRequestContext)
+        containerRequestContext.getHeaders() >> (["Bard-Testing": "###BYPASS###", "ClientId": "UI"] as
+                MultivaluedHashMap<String, String>)
+        requestContext = new RequestContext(containerRequestContext, true)
+        BardQueryInfoUtils.initializeBardQueryInfo()
+    }
+
+    def cleanup() {
+        BardQueryInfoUtils.resetBardQueryInfo()
+    }
+
+    static Interval day(int day) {
+        new Interval(String.format("2014-06-%02d/2014-06-%02d", day, day + 1))
+    }
+
+    static TimeSeriesQuery query(int firstDay, int lastDay) {
+        RequestUtils.buildTimeSeriesQuery().withAllIntervals([new Interval(day(firstDay).start, day(lastDay).end)])
+    }
+
+    JsonNode rows(List<Integer> days) {
+        mapper.readTree(mapper.writeValueAsString(days.collect {
+            [timestamp: day(it).start.toString(), result: [pageViews: it * 100]]
+        }))
+    }
+
+    /**
+     * Run a query through the handler, answering the druid query it sends with rows for the given days.
+     */
+    void runQuery(DruidAggregationQuery<?> query, List<Integer> druidDays) {
+        handler.handleRequest(requestContext, apiRequest, query, response)
+        if (druidDays != null) {
+            assert sentProcessor instanceof BucketedCacheResponseProcessor
+            sentProcessor.processResponse(rows(druidDays), sentQuery, Mock(LoggingContext))
+        }
+    }
+
+    DruidAggregationQuery<?> sentQuery
+    ResponseProcessor sentProcessor
+
+    def "Buckets missing from the cache are queried together and cached one by one"() {
+        when:
+        runQuery(query(10, 12), [10, 11])
+
+        then:
+        1 * next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+        sentQuery.intervals == [new Interval(day(10).start, day(12).end)]
+        1 * response.processResponse(rows([10, 11]), { it.intervals == query(10, 12).intervals }, _)
+
+        and: "Each day is cached, including the day without rows"
+        store.size() == 3
+        store.keySet().every { it.endsWith("|" + day(10)) || it.endsWith("|" + day(11)) || it.endsWith("|" + day(12)) }
+    }
+
+    def "A window shifted by a day only queries the new day and merges it with the cached days"() {
+        given:
+        next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+        runQuery(query(10, 12), [10, 11, 12])
+
+        when:
+        runQuery(query(11, 13), [13])
+
+        then:
+        sentQuery.intervals == [day(13)]
+        1 * response.processResponse(rows([11, 12, 13]), { it.intervals == query(11, 13).intervals }, _)
+        store.size() == 4
+    }
+
+    def "A fully cached window is answered without querying druid"() {
+        given:
+        next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+        runQuery(query(10, 12), [10, 11, 12])
+
+        when:
+        boolean processed = handler.handleRequest(requestContext, apiRequest, query(11, 12), response)
+
+        then:
+        processed
+        0 * next.handleRequest(_, _, _, _)
+        1 * response.processResponse(rows([11, 12]), { it.intervals == query(11, 12).intervals }, _)
+    }
+
+    def "A bucket whose segments changed is queried again"() {
+        given:
+        next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+        runQuery(query(10, 12), [10, 11, 12])
+        signatures[day(11)] = 5678L
+
+        when:
+        runQuery(query(10, 12), [11])
+
+        then:
+        sentQuery.intervals == [day(11)]
+        1 * response.processResponse(rows([10, 11, 12]), { it.intervals == query(10, 12).intervals }, _)
+    }
+
+    def "Volatile buckets are queried every time and never cached"() {
+        given:
+        responseContext.put(VOLATILE_INTERVALS_CONTEXT_KEY.name, new SimplifiedIntervalList([day(12)]))
+        next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+        runQuery(query(10, 12), [10, 11, 12])
+
+        when:
+        runQuery(query(10, 12), [12])
+
+        then:
+        sentQuery.intervals == [day(12)]
+        1 * response.processResponse(rows([10, 11, 12]), { it.intervals == query(10, 12).intervals }, _)
+        store.size() == 2
+    }
+
+    def "A bucket without a segment signature is neither read from nor written to the cache"() {
+        given:
+        next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+        signatures[day(11)] = null
+
+        when:
+        runQuery(query(10, 12), [10, 11, 12])
+
+        then:
+        store.size() == 2
+        !store.keySet().any { it.endsWith("|" + day(11)) }
+
+        when:
+        runQuery(query(10, 12), [11])
+
+        then:
+        sentQuery.intervals == [day(11)]
+        1 * response.processResponse(rows([10, 11, 12]), { it.intervals == query(10, 12).intervals }, _)
+        0 * dataCache.get(_, _)
+    }
+
+    def "The cache reads of all the buckets are logged as a single entry"() {
+        given:
+        next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+        runQuery(query(10, 11), [10, 11])
+        BardQueryInfoUtils.initializeBardQueryInfo()
+
+        when:
+        runQuery(query(10, 12), [12])
+
+        then:
+        BardQueryInfo.getBardQueryInfo().cacheStats.size() == 1
+        with(BardQueryInfo.getBardQueryInfo().cacheStats[0] as BardBatchCacheInfo) {
+            reads == 3
+            hits == 2
+            signatureMismatches == 0
+            readFailures == 0
+        }
+        BardQueryInfo.getBardQueryInfo().queryCounter[BardQueryInfo.FACT_QUERY_CACHE_HIT].get() == 2
+    }
+
+    def "A row outside the queried buckets fails the request"() {
+        given:
+        FailureCallback failure = Mock(FailureCallback)
+        response.getFailureCallback(_) >> failure
+        next.handleRequest(_, _, _, _) >> { context, request, query, processor ->
+            sentQuery = query
+            sentProcessor = processor
+            true
+        }
+
+        when:
+        runQuery(query(10, 11), [12])
+
+        then:
+        1 * failure.invoke(_ as IllegalStateException)
+        0 * response.processResponse(_, _, _)
+        store.isEmpty()
+    }
+
+    def "Queries which can't be split into buckets are cached as a whole"() {
+        when:
+        handler.handleRequest(requestContext, apiRequest, wholeQuery, response)
+
+        then:
+        1 * next.handleRequest(_, _, wholeQuery, _ as CacheV2ResponseProcessor)
+
+        where:
+        wholeQuery << [
+                query(10, 12).withGranularity(AllGranularity.INSTANCE),
+                RequestUtils.buildGroupByQuery()
+                        .withAllIntervals([day(10)])
+                        .withLimitSpec(new LimitSpec([] as LinkedHashSet, Optional.of(5)))
+        ]
+    }
+}
@@ -16,12 +16,15 @@ import com.yahoo.bard.webservice.web.RequestUtils
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
 import com.yahoo.bard.webservice.web.responseprocessors.CacheV2ResponseProcessor
 import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor
+import com.yahoo.bard.webservice.web.responseprocessors.StreamingResponseProcessor
 
+import com.fasterxml.jackson.core.JsonParser
 import com.fasterxml.jackson.core.JsonProcessingException
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.ObjectWriter
 import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.yahoo.bard.webservice.web.util.CachedResponseCodec
 import com.yahoo.bard.webservice.web.util.QuerySignedCacheService
 import spock.lang.Specification
 
@@ -38,7 +41,9 @@ class CacheV2RequestHandlerSpec extends Specification {
 
     DataRequestHandler next = Mock(DataRequestHandler)
 
-    TupleDataCache<String, Long, String> dataCache = Mock(TupleDataCache)
+    static final byte[] ENCODED_EMPTY = new CachedResponseCodec().encode(new JsonNodeFactory(false).arrayNode())
+
+    TupleDataCache<String, Long, byte[]> dataCache = Mock(TupleDataCache)
 
     DataApiRequest apiRequest = Mock(DataApiRequest)
     ResponseProcessor response = Mock(ResponseProcessor)
@@ -84,7 +89,7 @@ class CacheV2RequestHandlerSpec extends Specification {
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, groupByQuery, response)
 
         then: "Check the cache and return valid json"
-        1 * dataCache.get(_) >> new MemTupleDataCache.DataEntry<String>("key1", 1234L, "[]")
+        1 * dataCache.get(_, 1234L) >> { key, meta -> new MemTupleDataCache.DataEntry<byte[]>(key.key, 1234L, ENCODED_EMPTY) }
 
         then: "Process the Json response"
         1 * response.processResponse(json, groupByQuery, _)
@@ -104,7 +109,7 @@ class CacheV2RequestHandlerSpec extends Specification {
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, topNQuery, response)
 
         then: "Check the cache and return valid json"
-        1 * dataCache.get(_) >> new MemTupleDataCache.DataEntry<String>("key1", 1234L, "[]")
+        1 * dataCache.get(_, 1234L) >> { key, meta -> new MemTupleDataCache.DataEntry<byte[]>(key.key, 1234L, ENCODED_EMPTY) }
 
         then: "Process the Json response"
         1 * response.processResponse(json, topNQuery, _)
@@ -124,7 +129,7 @@ class CacheV2RequestHandlerSpec extends Specification {
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, timeseriesQuery, response)
 
         then: "Check the cache and return valid json"
-        1 * dataCache.get(_) >> new MemTupleDataCache.DataEntry<String>("key1", 1234L, "[]")
+        1 * dataCache.get(_, 1234L) >> { key, meta -> new MemTupleDataCache.DataEntry<byte[]>(key.key, 1234L, ENCODED_EMPTY) }
 
         then: "Process the Json response"
         1 * response.processResponse(json, timeseriesQuery, _)
@@ -136,6 +141,28 @@ class CacheV2RequestHandlerSpec extends Specification {
         bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 1
     }
 
+    def "A cache hit is streamed to a streaming response processor without building a tree"() {
+        setup:
+        StreamingResponseProcessor streamingResponse = Mock(StreamingResponseProcessor)
+        JsonNode cached = mapper.readTree('[{"event":{"pageViews":10}}]')
+        dataCache.get(_, 1234L) >> { key, meta ->
+            new MemTupleDataCache.DataEntry<byte[]>(key.key, 1234L, new CachedResponseCodec().encode(cached))
+        }
+        JsonNode streamed = null
+
+        when:
+        boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, groupByQuery, streamingResponse)
+
+        then:
+        1 * streamingResponse.processResponse(_ as JsonParser, groupByQuery, _) >> { JsonParser parser, query, log ->
+            streamed = mapper.readTree(parser)
+        }
+        0 * streamingResponse.processResponse(_ as JsonNode, _, _)
+        requestProcessed
+        streamed == cached
+        bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 1
+    }
+
     def "Test handle request cache miss delegates response to next handler"() {
         expect: "The count of fact query cache hit is 0"
         bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 0
@@ -144,7 +171,7 @@ class CacheV2RequestHandlerSpec extends Specification {
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, groupByQuery, response)
 
         then: "The cache is checked for a match and misses"
-        1 * dataCache.get(_) >> null
+        1 * dataCache.get(_, 1234L) >> null
 
         then: "We delegate to the next handler, wrapping in a CacheV2ResponseProcessor"
         1 * next.handleRequest(requestContext, apiRequest, groupByQuery, _ as CacheV2ResponseProcessor) >> true
@@ -167,7 +194,7 @@ class CacheV2RequestHandlerSpec extends Specification {
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, groupByQuery, response)
 
         then: "Check the cache and return a stale entry"
-        1 * dataCache.get(_) >> new MemTupleDataCache.DataEntry<String>("key1", 5678L, "[]")
+        1 * dataCache.get(_, 1234L) >> { key, meta -> new MemTupleDataCache.DataEntry<byte[]>(key.key, 5678L, ENCODED_EMPTY) }
 
         then: "We delegate to the next handler, wrapping in a CacheV2ResponseProcessor"
         1 * next.handleRequest(requestContext, apiRequest, groupByQuery, _ as CacheV2ResponseProcessor) >> true
@@ -193,7 +220,7 @@ class CacheV2RequestHandlerSpec extends Specification {
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, groupByQuery, response)
 
         then: "The cache is not checked for a match"
-        0 * dataCache.get(_)
+        0 * dataCache.get(*_)
 
         then: "We delegate to the next handler, wrapping in a CacheV2ResponseProcessor"
         1 * next.handleRequest(requestContext, apiRequest, groupByQuery, _ as CacheV2ResponseProcessor) >> true
@@ -216,7 +243,9 @@ class CacheV2RequestHandlerSpec extends Specification {
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, groupByQuery, response)
 
         then: "The cache returns an invalid cache hit"
-        1 * dataCache.get(_) >> new MemTupleDataCache.DataEntry<String>("key1", 1234L, "...NOT VALID JSON")
+        1 * dataCache.get(_, 1234L) >> { key, meta ->
+            new MemTupleDataCache.DataEntry<byte[]>(key.key, 1234L, "...NOT VALID SMILE".bytes)
+        }
 
         then: "Continue the request to the next handler with a CacheV2ResponseProcessor"
         1 * next.handleRequest(requestContext, apiRequest, groupByQuery, _ as CacheV2ResponseProcessor) >> true
@@ -225,7 +254,7 @@ class CacheV2RequestHandlerSpec extends Specification {
         requestProcessed
 
         and: "The count of fact query cache hit is not incremented"
-        bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 1
+        bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 0
     }
 
     def "Test handle request key parse error delegates to next handler with original processor"() {
@@ -256,7 +285,7 @@ class CacheV2RequestHandlerSpec extends Specification {
 
     def "Request with null cache response delegates to next handler with cache response processor"() {
         setup:
-        querySignedCacheService.readCache(requestContext, groupByQuery) >> null
+        querySignedCacheService.readCachedResponse(requestContext, groupByQuery) >> null
 
         when: "Query that retrieves null cache response"
         boolean requestProcessed = handler.handleRequest(requestContext, apiRequest, groupByQuery, response)
@@ -36,7 +36,7 @@ class CacheWeightCheckRequestHandlerSpec extends Specification {
     DruidWebService webService
     QueryWeightUtil queryWeightUtil
     ObjectWriter writer
-    TupleDataCache<String, Long, String> dataCache
+    TupleDataCache<String, Long, byte[]> dataCache
     QuerySigningService<Long> querySigningService
     QuerySignedCacheService cacheService
     WeightEvaluationQuery weightQuery
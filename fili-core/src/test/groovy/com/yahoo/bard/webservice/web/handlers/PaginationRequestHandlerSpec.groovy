@@ -0,0 +1,65 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.handlers
+
+import com.yahoo.bard.webservice.data.metric.mappers.DateTimeSortMapper
+import com.yahoo.bard.webservice.data.metric.mappers.NoOpResultSetMapper
+import com.yahoo.bard.webservice.data.metric.mappers.PaginationMapper
+import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper
+import com.yahoo.bard.webservice.druid.model.orderby.LimitSpec
+import com.yahoo.bard.webservice.druid.model.orderby.OrderByColumn
+import com.yahoo.bard.webservice.druid.model.orderby.SortDirection
+import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
+import com.yahoo.bard.webservice.web.responseprocessors.MappingResponseProcessor
+import com.yahoo.bard.webservice.web.util.PaginationParameters
+
+import spock.lang.Specification
+
+class PaginationRequestHandlerSpec extends Specification {
+
+    DataRequestHandler next = Mock(DataRequestHandler)
+    RequestContext context = Mock(RequestContext)
+    DataApiRequest apiRequest = Mock(DataApiRequest)
+    MappingResponseProcessor response = Mock(MappingResponseProcessor)
+    GroupByQuery groupByQuery = Mock(GroupByQuery)
+    GroupByQuery fullQuery = Mock(GroupByQuery)
+    List<ResultSetMapper> mappers = []
+
+    LinkedHashSet<OrderByColumn> sorts = [new OrderByColumn("m1", SortDirection.DESC)]
+    LimitSpec pushedDown = new LimitSpec(sorts, Optional.of(11), Optional.of(20))
+
+    PaginationRequestHandler handler = new PaginationRequestHandler(next)
+
+    def setup() {
+        apiRequest.getPaginationParameters() >> Optional.of(new PaginationParameters(10, 3))
+        response.getMappers() >> mappers
+        groupByQuery.getLimitSpec() >> pushedDown
+    }
+
+    def "A pushed down page is kept when every mapper keeps the rows"() {
+        given:
+        mappers.add(new NoOpResultSetMapper())
+
+        when:
+        handler.handleRequest(context, apiRequest, groupByQuery, response)
+
+        then:
+        1 * next.handleRequest(context, apiRequest, groupByQuery, response)
+        mappers.last() instanceof PaginationMapper
+        mappers.last().@pushedDown
+    }
+
+    def "A pushed down page is taken out of the query when a mapper may reorder the rows"() {
+        given:
+        mappers.add(new DateTimeSortMapper(SortDirection.DESC))
+
+        when:
+        handler.handleRequest(context, apiRequest, groupByQuery, response)
+
+        then:
+        1 * groupByQuery.withLimitSpec(new LimitSpec(sorts)) >> fullQuery
+        1 * next.handleRequest(context, apiRequest, fullQuery, response)
+        !mappers.last().@pushedDown
+    }
+}
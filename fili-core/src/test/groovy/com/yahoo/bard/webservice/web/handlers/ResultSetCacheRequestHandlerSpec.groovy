@@ -0,0 +1,151 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.handlers
+
+import static com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKeys.MISSING_INTERVALS_CONTEXT_KEY
+import static com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKeys.VOLATILE_INTERVALS_CONTEXT_KEY
+
+import com.yahoo.bard.webservice.data.ResultSet
+import com.yahoo.bard.webservice.data.StreamingResultSet
+import com.yahoo.bard.webservice.data.cache.CacheKey
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
+import com.yahoo.bard.webservice.util.SimplifiedIntervalList
+import com.yahoo.bard.webservice.web.DefaultResponseFormatType
+import com.yahoo.bard.webservice.web.PreResponse
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseContext
+import com.yahoo.bard.webservice.web.responseprocessors.ResponseProcessor
+import com.yahoo.bard.webservice.web.responseprocessors.ResultSetResponseProcessor
+import com.yahoo.bard.webservice.web.util.PaginationParameters
+import com.yahoo.bard.webservice.web.util.ResultSetCacheService
+
+import org.joda.time.Interval
+
+import rx.subjects.PublishSubject
+import rx.subjects.Subject
+
+import spock.lang.Specification
+
+class ResultSetCacheRequestHandlerSpec extends Specification {
+
+    DataRequestHandler next = Mock(DataRequestHandler)
+    ResultSetCacheService resultSetCacheService = Mock(ResultSetCacheService)
+    DataApiRequest apiRequest = Mock(DataApiRequest)
+    DruidAggregationQuery<?> druidQuery = Mock(DruidAggregationQuery)
+    ResultSetResponseProcessor response = Mock(ResultSetResponseProcessor)
+    ResponseContext responseContext = new ResponseContext([:])
+    Subject<PreResponse, PreResponse> responseEmitter = PublishSubject.create()
+
+    CacheKey cacheKey = new CacheKey("resultSet|/data/table/day?metrics=pageViews", 1234L)
+    ResultSet resultSet = Mock(ResultSet)
+    RequestContext requestContext = new RequestContext(null, true)
+
+    ResultSetCacheRequestHandler handler = new ResultSetCacheRequestHandler(next, resultSetCacheService)
+
+    def setup() {
+        apiRequest.getPaginationParameters() >> Optional.empty()
+        apiRequest.getFormat() >> DefaultResponseFormatType.JSON
+        response.getResponseContext() >> responseContext
+        response.getResponseEmitter() >> responseEmitter
+        resultSetCacheService.getCacheKey(requestContext, apiRequest, druidQuery) >> cacheKey
+    }
+
+    def "A cached result set is emitted without querying druid or mapping it again"() {
+        when:
+        boolean processed = handler.handleRequest(requestContext, apiRequest, druidQuery, response)
+
+        then:
+        processed
+        1 * resultSetCacheService.readResultSet(cacheKey) >> resultSet
+        1 * response.processMappedResultSet(resultSet, druidQuery, _)
+        0 * next.handleRequest(_, _, _, _)
+        0 * resultSetCacheService.writeResultSet(_, _)
+    }
+
+    def "The mapped result set of an uncached request is cached once it is emitted"() {
+        given:
+        resultSetCacheService.readResultSet(cacheKey) >> null
+
+        when:
+        handler.handleRequest(requestContext, apiRequest, druidQuery, response)
+
+        then:
+        1 * next.handleRequest(requestContext, apiRequest, druidQuery, response) >> true
+        0 * resultSetCacheService.writeResultSet(_, _)
+
+        when:
+        responseEmitter.onNext(new PreResponse(resultSet, responseContext))
+
+        then:
+        1 * resultSetCacheService.writeResultSet(resultSet, cacheKey)
+    }
+
+    def "The cache is not read when the request bypasses it, but the result set is still cached"() {
+        given:
+        RequestContext noReadContext = new RequestContext(null, false)
+        resultSetCacheService.getCacheKey(noReadContext, apiRequest, druidQuery) >> cacheKey
+
+        when:
+        handler.handleRequest(noReadContext, apiRequest, druidQuery, response)
+        responseEmitter.onNext(new PreResponse(resultSet, responseContext))
+
+        then:
+        0 * resultSetCacheService.readResultSet(_)
+        1 * next.handleRequest(noReadContext, apiRequest, druidQuery, response) >> true
+        1 * resultSetCacheService.writeResultSet(resultSet, cacheKey)
+    }
+
+    def "A response which turns out to be missing data, a streamed response, or a failed response is not cached"() {
+        given:
+        resultSetCacheService.readResultSet(cacheKey) >> null
+        handler.handleRequest(requestContext, apiRequest, druidQuery, response)
+
+        when:
+        ResponseContext missingDataContext = new ResponseContext([:])
+        missingDataContext.put(
+                MISSING_INTERVALS_CONTEXT_KEY.name,
+                new SimplifiedIntervalList([new Interval("2014-06-10/2014-06-11")])
+        )
+        responseEmitter.onNext(new PreResponse(resultSet, missingDataContext))
+        responseEmitter.onNext(new PreResponse(Mock(StreamingResultSet), responseContext))
+        responseEmitter.onError(new IllegalStateException("druid failed"))
+
+        then:
+        noExceptionThrown()
+        0 * resultSetCacheService.writeResultSet(_, _)
+    }
+
+    def "Requests whose result sets can't be cached go straight to the next handler"() {
+        given:
+        DataApiRequest request = Mock(DataApiRequest)
+        request.getPaginationParameters() >> Optional.ofNullable(paginationParameters)
+        request.getFormat() >> format
+        if (volatileIntervals != null) {
+            responseContext.put(VOLATILE_INTERVALS_CONTEXT_KEY.name, volatileIntervals)
+        }
+        ResponseProcessor processor = response
+        if (!resultSetResponse) {
+            processor = Mock(ResponseProcessor)
+            processor.getResponseContext() >> responseContext
+        }
+
+        when:
+        handler.handleRequest(requestContext, request, druidQuery, processor)
+
+        then:
+        1 * next.handleRequest(requestContext, request, druidQuery, processor) >> true
+        0 * resultSetCacheService.getCacheKey(_, _, _)
+        0 * resultSetCacheService.readResultSet(_)
+
+        where:
+        resultSetResponse | paginationParameters            | format                          | volatileIntervals
+        false             | null                            | DefaultResponseFormatType.JSON  | null
+        true              | new PaginationParameters(10, 1) | DefaultResponseFormatType.JSON  | null
+        true              | null                            | DefaultResponseFormatType.DEBUG | null
+        true              | null                            | DefaultResponseFormatType.JSON  | volatileDay()
+    }
+
+    static SimplifiedIntervalList volatileDay() {
+        new SimplifiedIntervalList([new Interval("2014-06-10/2014-06-11")])
+    }
+}
@@ -4,6 +4,8 @@ package com.yahoo.bard.webservice.web.handlers.workflow
 
 import com.yahoo.bard.webservice.web.util.QuerySignedCacheService
 
+import static com.yahoo.bard.webservice.config.BardFeatureFlag.CACHE_RESULT_SETS
+import static com.yahoo.bard.webservice.config.BardFeatureFlag.CACHE_TIME_BUCKETS
 import static com.yahoo.bard.webservice.config.BardFeatureFlag.DRUID_CACHE
 import static com.yahoo.bard.webservice.config.BardFeatureFlag.DRUID_CACHE_V2
 import static com.yahoo.bard.webservice.config.BardFeatureFlag.QUERY_SPLIT
@@ -21,6 +23,7 @@ import com.yahoo.bard.webservice.metadata.QuerySigningService
 import com.yahoo.bard.webservice.metadata.SegmentIntervalsHashIdGenerator
 import com.yahoo.bard.webservice.table.PhysicalTableDictionary
 import com.yahoo.bard.webservice.web.handlers.AsyncWebServiceRequestHandler
+import com.yahoo.bard.webservice.web.handlers.BucketedCacheRequestHandler
 import com.yahoo.bard.webservice.web.handlers.CacheRequestHandler
 import com.yahoo.bard.webservice.web.handlers.CacheV2RequestHandler
 import com.yahoo.bard.webservice.web.handlers.DataRequestHandler
@@ -28,10 +31,12 @@ import com.yahoo.bard.webservice.web.handlers.DebugRequestHandler
 import com.yahoo.bard.webservice.web.handlers.DefaultWebServiceHandlerSelector
 import com.yahoo.bard.webservice.web.handlers.DruidPartialDataRequestHandler
 import com.yahoo.bard.webservice.web.handlers.EtagCacheRequestHandler
+import com.yahoo.bard.webservice.web.handlers.ResultSetCacheRequestHandler
 import com.yahoo.bard.webservice.web.handlers.SplitQueryRequestHandler
 import com.yahoo.bard.webservice.web.handlers.WebServiceSelectorRequestHandler
 import com.yahoo.bard.webservice.web.handlers.WeightCheckRequestHandler
 import com.yahoo.bard.webservice.web.util.QueryWeightUtil
+import com.yahoo.bard.webservice.web.util.ResultSetCacheService
 
 import com.fasterxml.jackson.databind.ObjectMapper
 
@@ -171,6 +176,75 @@ class DruidWorkflowSpec extends Specification {
         "NoCache"        | false     | false       | false
     }
 
+    def "Test workflow caches time buckets apart when LocalSignature caching and bucketing are on"() {
+        setup:
+        CacheFeatureFlag.resetAll()
+        SYSTEM_CONFIG.setProperty(ETAG_CACHE_CONFIG_KEY, "LocalSignature")
+        CACHE_TIME_BUCKETS.setOn(bucketing)
+
+        when:
+        dw = new DruidWorkflow(
+                Mock(TupleDataCache),
+                webService,
+                weightUtil,
+                physicalTableDictionary,
+                partialDataHandler,
+                querySigningService,
+                volatileIntervalsService,
+                querySignedCacheService,
+                MAPPER
+        )
+        WebServiceSelectorRequestHandler select = getHandlerChain(dw.buildWorkflow())
+                .find(byClass(WebServiceSelectorRequestHandler))
+        def defaultHandler = select.handlerSelector as DefaultWebServiceHandlerSelector
+        List<DataRequestHandler> handlers = getHandlerChain(defaultHandler.webServiceHandler.next)
+
+        then:
+        (handlers.find(byClass(BucketedCacheRequestHandler)) != null) == bucketing
+        (handlers.find(byClass(CacheV2RequestHandler)) != null) == !bucketing
+
+        cleanup:
+        SYSTEM_CONFIG.clearProperty(ETAG_CACHE_CONFIG_KEY)
+        CacheFeatureFlag.resetAll()
+        CACHE_TIME_BUCKETS.setOn(false)
+
+        where:
+        bucketing << [true, false]
+    }
+
+    def "Test workflow checks for cached result sets when LocalSignature caching and result set caching are on"() {
+        setup:
+        CacheFeatureFlag.resetAll()
+        SYSTEM_CONFIG.setProperty(ETAG_CACHE_CONFIG_KEY, "LocalSignature")
+        CACHE_RESULT_SETS.setOn(cachingResultSets)
+
+        when:
+        dw = new DruidWorkflow(
+                Mock(TupleDataCache),
+                webService,
+                weightUtil,
+                physicalTableDictionary,
+                partialDataHandler,
+                querySigningService,
+                volatileIntervalsService,
+                querySignedCacheService,
+                Mock(ResultSetCacheService),
+                MAPPER
+        )
+        List<DataRequestHandler> handlers = getHandlerChain(dw.buildWorkflow())
+
+        then:
+        (handlers.find(byClass(ResultSetCacheRequestHandler)) != null) == cachingResultSets
+
+        cleanup:
+        SYSTEM_CONFIG.clearProperty(ETAG_CACHE_CONFIG_KEY)
+        CacheFeatureFlag.resetAll()
+        CACHE_RESULT_SETS.setOn(false)
+
+        where:
+        cachingResultSets << [true, false]
+    }
+
     def "Test workflow contains standard handlers"() {
         setup:
         dw = new DruidWorkflow(
@@ -10,6 +10,7 @@ import static com.yahoo.bard.webservice.web.responseprocessors.ResponseContextKe
 import com.yahoo.bard.webservice.application.ObjectMappersSuite
 import com.yahoo.bard.webservice.config.SystemConfig
 import com.yahoo.bard.webservice.config.SystemConfigProvider
+import com.yahoo.bard.webservice.data.cache.CacheKey
 import com.yahoo.bard.webservice.data.cache.TupleDataCache
 import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper
 import com.yahoo.bard.webservice.druid.client.FailureCallback
@@ -20,6 +21,7 @@ import com.yahoo.bard.webservice.logging.blocks.BardQueryInfoUtils
 import com.yahoo.bard.webservice.metadata.QuerySigningService
 import com.yahoo.bard.webservice.util.SimplifiedIntervalList
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
+import com.yahoo.bard.webservice.web.util.CachedResponseCodec
 
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
@@ -40,8 +42,10 @@ class CacheV2ResponseProcessorSpec extends Specification {
 
     ResponseProcessor next = Mock(ResponseProcessor)
     String cacheKey = "SampleKey"
+    CacheKey signedKey = new CacheKey(cacheKey, 1234L)
     Integer segmentId
-    TupleDataCache<String, Integer, String> dataCache = Mock(TupleDataCache)
+    TupleDataCache<String, Integer, byte[]> dataCache = Mock(TupleDataCache)
+    CachedResponseCodec codec = new CachedResponseCodec()
 
     DataApiRequest apiRequest = Mock(DataApiRequest)
     GroupByQuery groupByQuery = Mock(GroupByQuery)
@@ -64,7 +68,7 @@ class CacheV2ResponseProcessorSpec extends Specification {
     def setup() {
         querySigningService.getSegmentSetId(_) >> Optional.of(1234L)
         segmentId = querySigningService.getSegmentSetId(groupByQuery).get()
-        crp = new CacheV2ResponseProcessor(next, cacheKey, dataCache, querySigningService, MAPPER)
+        crp = new CacheV2ResponseProcessor(next, signedKey, dataCache, MAPPER)
         cache_partial_data = CACHE_PARTIAL_DATA.isOn()
         BardQueryInfo bardQueryInfo = BardQueryInfoUtils.initializeBardQueryInfo()
     }
@@ -80,7 +84,7 @@ class CacheV2ResponseProcessorSpec extends Specification {
 
         expect:
         crp.next == next
-        crp.cacheKey == cacheKey
+        crp.cacheKey == signedKey
         crp.dataCache == dataCache
         crp.getResponseContext() == responseContext
     }
@@ -111,11 +115,36 @@ class CacheV2ResponseProcessorSpec extends Specification {
 
         then:
         1 * next.processResponse(json, groupByQuery, null)
-        1 * dataCache.set(cacheKey, segmentId, '[]')
+        1 * dataCache.set(signedKey, segmentId, { codec.decode(it) == json })
         next.getResponseContext() >> responseContext
 
     }
 
+    def "A processor built from the key string signs the key when the response arrives"() {
+        setup:
+        crp = new CacheV2ResponseProcessor(next, cacheKey, dataCache, querySigningService, MAPPER)
+
+        when:
+        crp.processResponse(json, groupByQuery, null)
+
+        then:
+        1 * next.processResponse(json, groupByQuery, null)
+        1 * dataCache.set(new CacheKey(cacheKey, 1234L), 1234L, { codec.decode(it) == json })
+        next.getResponseContext() >> responseContext
+    }
+
+    def "Without a cache key the response is passed on without being cached"() {
+        setup:
+        crp = new CacheV2ResponseProcessor(next, (CacheKey) null, dataCache, MAPPER)
+
+        when:
+        crp.processResponse(json, groupByQuery, null)
+
+        then:
+        1 * next.processResponse(json, groupByQuery, null)
+        0 * dataCache.set(*_)
+    }
+
     @Unroll
     def "After error #savedToCache, process response continues"() {
         when:
@@ -125,7 +154,7 @@ class CacheV2ResponseProcessorSpec extends Specification {
         then:
         numGetContext * next.getResponseContext() >> responseContext
         1 * next.processResponse(json, groupByQuery, null)
-        1 * dataCache.set(cacheKey, segmentId, '[]') >> { throw new IllegalStateException() }
+        1 * dataCache.set(signedKey, segmentId, _ as byte[]) >> { throw new IllegalStateException() }
 
         where:
         cachePartialData | _
@@ -200,7 +229,7 @@ class CacheV2ResponseProcessorSpec extends Specification {
         next.getResponseContext() >> responseContext
 
         and: "A caching response processor to test"
-        crp = new CacheV2ResponseProcessor(next, cacheKey, dataCache, querySigningService, MAPPER)
+        crp = new CacheV2ResponseProcessor(next, signedKey, dataCache, MAPPER)
 
         expect: "The JSON representation is longer than the small max length"
         MAPPER.writer().writeValueAsString(json).length() > smallMaxLength
@@ -2,6 +2,7 @@
 // Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
 package com.yahoo.bard.webservice.web.responseprocessors
 
+import static com.yahoo.bard.webservice.config.BardFeatureFlag.STREAMING_RESPONSES
 import static com.yahoo.bard.webservice.data.time.DefaultTimeGrain.DAY
 import static com.yahoo.bard.webservice.druid.model.DefaultQueryType.GROUP_BY
 
@@ -9,8 +10,10 @@ import com.yahoo.bard.webservice.application.ObjectMappersSuite
 import com.yahoo.bard.webservice.data.DruidResponseParser
 import com.yahoo.bard.webservice.data.HttpResponseChannel
 import com.yahoo.bard.webservice.data.HttpResponseMaker
+import com.yahoo.bard.webservice.data.Result
 import com.yahoo.bard.webservice.data.ResultSet
 import com.yahoo.bard.webservice.data.ResultSetSchema
+import com.yahoo.bard.webservice.data.StreamingResultSet
 import com.yahoo.bard.webservice.data.config.names.DataSourceName
 import com.yahoo.bard.webservice.data.dimension.BardDimensionField
 import com.yahoo.bard.webservice.data.dimension.Dimension
@@ -18,6 +21,7 @@ import com.yahoo.bard.webservice.data.dimension.DimensionColumn
 import com.yahoo.bard.webservice.data.dimension.DimensionDictionary
 import com.yahoo.bard.webservice.data.metric.LogicalMetric
 import com.yahoo.bard.webservice.data.metric.MetricColumn
+import com.yahoo.bard.webservice.data.metric.mappers.NoOpResultSetMapper
 import com.yahoo.bard.webservice.data.metric.mappers.ResultSetMapper
 import com.yahoo.bard.webservice.data.time.Granularity
 import com.yahoo.bard.webservice.druid.client.FailureCallback
@@ -33,20 +37,30 @@ import com.yahoo.bard.webservice.logging.RequestLog
 import com.yahoo.bard.webservice.metadata.DataSourceMetadataService
 import com.yahoo.bard.webservice.table.Schema
 import com.yahoo.bard.webservice.table.TableTestUtils
+import com.yahoo.bard.webservice.web.ChainingResultSetMapper
 import com.yahoo.bard.webservice.web.DefaultResponseFormatType
 import com.yahoo.bard.webservice.web.JsonResponseWriter
+import com.yahoo.bard.webservice.web.PreResponse
 import com.yahoo.bard.webservice.web.ResponseWriter
+import com.yahoo.bard.webservice.web.apirequest.ApiRequest
 import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
 
+import com.fasterxml.jackson.core.JsonParser
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.google.common.collect.Sets
 
+import org.joda.time.DateTime
 import org.joda.time.DateTimeZone
 
+import rx.functions.Action1
 import rx.subjects.PublishSubject
 import rx.subjects.Subject
 import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.function.Consumer
+import java.util.stream.Stream
 
 import javax.ws.rs.container.AsyncResponse
 import javax.ws.rs.container.ContainerRequestContext
@@ -361,4 +375,86 @@ class ResultSetResponseProcessorSpec extends Specification {
                 [new DimensionColumn(dim), new MetricColumn(metric1Name), new MetricColumn(metric2Name)]
         )
     }
+
+    /**
+     * Build a processor with no mappers, emitting to a subject which records the emitted pre response.
+     *
+     * @param emitted  Records the emitted pre response
+     *
+     * @return the processor
+     */
+    ResultSetResponseProcessor unmappedProcessor(List<PreResponse> emitted) {
+        Subject<PreResponse, PreResponse> emitter = PublishSubject.create()
+        emitter.subscribe({ emitted.add(it) } as Action1<PreResponse>)
+        druidResponseParser.buildSchemaColumns(groupByQuery) >> { Stream.empty() }
+        new ResultSetResponseProcessor(apiRequest, emitter, druidResponseParser, MAPPERS, httpResponseMaker) {
+            @Override
+            List<ResultSetMapper> getMappers() {
+                []
+            }
+        }
+    }
+
+    @Unroll
+    def "Responses are streamed is #streamed with streaming #flag and asyncAfter #asyncAfter"() {
+        setup:
+        STREAMING_RESPONSES.setOn(flag)
+        apiRequest.getAsyncAfter() >> asyncAfter
+        JsonParser parser = MAPPER.getFactory().createParser("[]")
+        druidResponseParser.parse(_ as JsonParser, _, _, _) >> { args -> new ResultSet(args[1], []) }
+        List<PreResponse> emitted = []
+
+        when:
+        unmappedProcessor(emitted).processResponse(parser, groupByQuery, new LoggingContext(RequestLog.dump()))
+
+        then:
+        (emitted[0].resultSet instanceof StreamingResultSet) == streamed
+        parser.isClosed() != streamed
+
+        cleanup:
+        STREAMING_RESPONSES.reset()
+
+        where:
+        flag  | asyncAfter                                | streamed
+        true  | ApiRequest.SYNCHRONOUS_ASYNC_AFTER_VALUE  | true
+        false | ApiRequest.SYNCHRONOUS_ASYNC_AFTER_VALUE  | false
+        true  | ApiRequest.ASYNCHRONOUS_ASYNC_AFTER_VALUE | false
+        true  | 5000L                                     | false
+    }
+
+    def "Streamed responses are parsed as their rows are read, and the parser is closed after"() {
+        setup:
+        STREAMING_RESPONSES.setOn(true)
+        apiRequest.getAsyncAfter() >> ApiRequest.SYNCHRONOUS_ASYNC_AFTER_VALUE
+        JsonParser parser = MAPPER.getFactory().createParser("[]")
+        Result result = new Result([:], [:], new DateTime(0, DateTimeZone.UTC))
+        List<PreResponse> emitted = []
+        List<Result> streamed = []
+
+        when:
+        unmappedProcessor(emitted).processResponse(parser, groupByQuery, new LoggingContext(RequestLog.dump()))
+
+        then:
+        0 * druidResponseParser.parse(*_)
+        !parser.isClosed()
+
+        when:
+        emitted[0].resultSet.forEach({ streamed.add(it) } as Consumer<Result>)
+
+        then:
+        1 * druidResponseParser.parse(parser, _, GROUP_BY, _, _) >> { args -> args[4].accept(result) }
+        streamed == [result]
+        parser.isClosed()
+
+        cleanup:
+        STREAMING_RESPONSES.reset()
+    }
+
+    def "Only mappers which map rows on their own can map streamed rows"() {
+        expect:
+        ResultSetResponseProcessor.isStreamable(new NoOpResultSetMapper())
+        ResultSetResponseProcessor.isStreamable(new ChainingResultSetMapper([new NoOpResultSetMapper()]))
+        !ResultSetResponseProcessor.isStreamable(new ChainingResultSetMapper([rsm1]))
+        !ResultSetResponseProcessor.isStreamable(rsm1)
+    }
 }
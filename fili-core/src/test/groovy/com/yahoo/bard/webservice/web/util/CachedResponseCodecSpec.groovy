@@ -0,0 +1,113 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util
+
+import static com.yahoo.bard.webservice.web.util.CachedResponseCodec.Compression.NONE
+import static com.yahoo.bard.webservice.web.util.CachedResponseCodec.Compression.ZSTD
+
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+
+class CachedResponseCodecSpec extends Specification {
+
+    static final ObjectMapper MAPPER = new ObjectMappersSuite().getMapper()
+
+    static final String RESPONSE = MAPPER.writeValueAsString((1..200).collect {
+        [
+                version: "v1",
+                timestamp: "2014-06-10T00:00:00.000Z",
+                event: [product: "product" + it % 7, pageViews: it * 1000L, timeSpent: it / 3.0d, flag: it % 2 == 0]
+        ]
+    })
+
+    @Unroll
+    def "A response encoded with #compression compression decodes to the same response"() {
+        given:
+        CachedResponseCodec codec = new CachedResponseCodec(compression, 3)
+        JsonNode json = MAPPER.readTree(RESPONSE)
+
+        when:
+        byte[] value = codec.encode(json)
+
+        then:
+        value[0..3] == ['F', 'R', 1, id].collect { it instanceof String ? (byte) it.charAt(0) : (byte) it }
+        CachedResponseCodec.isEncoded(value)
+        codec.decode(value) == json
+
+        where:
+        compression | id
+        NONE        | 0
+        ZSTD        | 1
+    }
+
+    def "Compressed values are several times smaller than the JSON text"() {
+        given:
+        JsonNode json = MAPPER.readTree(RESPONSE)
+        int textLength = RESPONSE.getBytes(StandardCharsets.UTF_8).length
+
+        expect:
+        new CachedResponseCodec(NONE, 3).encode(json).length < textLength
+        new CachedResponseCodec(ZSTD, 3).encode(json).length * 4 < textLength
+    }
+
+    def "Values are decoded by whatever compression they were written with"() {
+        given:
+        JsonNode json = MAPPER.readTree(RESPONSE)
+
+        expect:
+        new CachedResponseCodec(NONE, 3).decode(new CachedResponseCodec(ZSTD, 3).encode(json)) == json
+        new CachedResponseCodec(ZSTD, 3).decode(new CachedResponseCodec(NONE, 3).encode(json)) == json
+    }
+
+    def "The parser streams the tokens of the response"() {
+        given:
+        CachedResponseCodec codec = new CachedResponseCodec(ZSTD, 3)
+
+        when:
+        JsonParser parser = codec.createParser(codec.encode(MAPPER.readTree('[{"a":1}]')))
+
+        then:
+        parser.nextToken() == JsonToken.START_ARRAY
+        parser.nextToken() == JsonToken.START_OBJECT
+        parser.nextFieldName() == "a"
+        parser.nextToken() == JsonToken.VALUE_NUMBER_INT
+        parser.intValue == 1
+    }
+
+    @Unroll
+    def "#description is not decoded"() {
+        when:
+        new CachedResponseCodec().decode(value)
+
+        then:
+        thrown(IOException)
+        !CachedResponseCodec.isEncoded(value)
+
+        where:
+        description         | value
+        "JSON text"         | '[{"a":1}]'.getBytes(StandardCharsets.UTF_8)
+        "A newer version"   | ['F', 'R', 2, 1, 0].collect { it instanceof String ? (byte) it.charAt(0) : (byte) it } as byte[]
+        "An empty value"    | new byte[0]
+    }
+
+    def "A value with an unknown compression is not decoded"() {
+        given:
+        byte[] value = new CachedResponseCodec(NONE, 3).encode(MAPPER.readTree('[]'))
+        value[3] = 9
+
+        when:
+        new CachedResponseCodec().decode(value)
+
+        then:
+        thrown(IOException)
+    }
+}
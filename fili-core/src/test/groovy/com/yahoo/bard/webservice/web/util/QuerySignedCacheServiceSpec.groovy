@@ -4,12 +4,16 @@ package com.yahoo.bard.webservice.web.util
 
 import com.yahoo.bard.webservice.config.SystemConfig
 import com.yahoo.bard.webservice.config.SystemConfigProvider
+import com.fasterxml.jackson.core.JsonParser
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.node.JsonNodeFactory
 import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.data.cache.CacheKey
 import com.yahoo.bard.webservice.data.cache.MemTupleDataCache
 import com.yahoo.bard.webservice.data.cache.TupleDataCache
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
 import com.yahoo.bard.webservice.druid.model.query.GroupByQuery
+import com.yahoo.bard.webservice.logging.blocks.BardBatchCacheInfo
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfo
 import com.yahoo.bard.webservice.logging.blocks.BardQueryInfoUtils
 import com.yahoo.bard.webservice.metadata.QuerySigningService
@@ -39,7 +43,8 @@ class QuerySignedCacheServiceSpec extends Specification {
     private static final SystemConfig SYSTEM_CONFIG = SystemConfigProvider.instance
 
     ResponseProcessor response
-    TupleDataCache<String, Long, String> dataCache
+    TupleDataCache<String, Long, byte[]> dataCache
+    CachedResponseCodec codec = new CachedResponseCodec()
     QuerySignedCacheService cacheService
     BardQueryInfo bardQueryInfo
     JsonNode json
@@ -103,27 +108,91 @@ class QuerySignedCacheServiceSpec extends Specification {
         bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 0
 
         when: "A query runs with a valid cache hit"
-        String cachedValue = cacheService.readCache(requestContext, groupByQuery)
+        JsonNode cachedValue = cacheService.readCachedResponse(requestContext, groupByQuery)
 
         then: "Check the cache and return valid json"
-        1 * dataCache.get(_) >> new MemTupleDataCache.DataEntry<String>("key1", 1234L, "value")
+        1 * dataCache.get({ it.key == cacheService.getKey(groupByQuery) }, 1234L) >>
+                new MemTupleDataCache.DataEntry<byte[]>(
+                        cacheService.getKey(groupByQuery),
+                        1234L,
+                        codec.encode(MAPPER.readTree('["value"]'))
+                )
 
         then: "The cahed value is retrieved"
-        cachedValue == "value"
+        cachedValue == MAPPER.readTree('["value"]')
 
         and: "The count of fact query cache hit is incremented by 1"
         bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 1
     }
 
+    def "The deprecated read returns the cached value as JSON text"() {
+        given:
+        dataCache.get(_, 1234L) >> new MemTupleDataCache.DataEntry<byte[]>(
+                cacheService.getKey(groupByQuery),
+                1234L,
+                codec.encode(MAPPER.readTree('["value"]'))
+        )
+
+        expect:
+        cacheService.readCache(requestContext, groupByQuery) == '["value"]'
+    }
+
+    def "A cache hit can be read as a stream of the cached tokens, without building a tree"() {
+        given:
+        dataCache.get(_, 1234L) >> new MemTupleDataCache.DataEntry<byte[]>(
+                cacheService.getKey(groupByQuery),
+                1234L,
+                codec.encode(MAPPER.readTree('[{"event":{"pageViews":10}}]'))
+        )
+
+        when:
+        JsonParser parser = cacheService.readCachedResponseParser(requestContext, cacheService.getCacheKey(groupByQuery))
+
+        then:
+        MAPPER.readTree(parser) == MAPPER.readTree('[{"event":{"pageViews":10}}]')
+        bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 1
+        requestContext.numberOfIncoming.get() == 0
+    }
+
+    def "A cache miss has no stream to read"() {
+        given:
+        dataCache.get(_, 1234L) >> null
+
+        expect:
+        cacheService.readCachedResponseParser(requestContext, cacheService.getCacheKey(groupByQuery)) == null
+        requestContext.numberOfIncoming.get() == 1
+    }
+
+    def "A cache service implementing only the deprecated read still reads responses as trees"() {
+        given:
+        CacheService legacy = new CacheService() {
+            @Override
+            String readCache(RequestContext context, DruidAggregationQuery<?> druidQuery) {
+                '["value"]'
+            }
+
+            @Override
+            void writeCache(ResponseProcessor processor, JsonNode value, DruidAggregationQuery<?> druidQuery) { }
+
+            @Override
+            boolean isCacheable(ResponseProcessor processor) {
+                false
+            }
+        }
+
+        expect:
+        legacy.readCachedResponse(requestContext, groupByQuery) == MAPPER.readTree('["value"]')
+    }
+
     def "Cache miss returns null value to the read request"() {
         expect: "The count of fact query cache hit is 0"
         bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 0
 
         when: "A request is sent that has a cache miss"
-        String cachedValue = cacheService.readCache(requestContext, groupByQuery)
+        JsonNode cachedValue = cacheService.readCachedResponse(requestContext, groupByQuery)
 
         then: "The cache is checked for a match and misses"
-        1 * dataCache.get(_) >> null
+        1 * dataCache.get(_, 1234L) >> null
 
         then: "The cache read returns null"
         cachedValue == null
@@ -137,10 +206,11 @@ class QuerySignedCacheServiceSpec extends Specification {
         bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 0
 
         when: "A request is sent that has a cache miss"
-        String cachedValue = cacheService.readCache(requestContext, groupByQuery)
+        JsonNode cachedValue = cacheService.readCachedResponse(requestContext, groupByQuery)
 
         then: "Check the cache and return a stale entry"
-        1 * dataCache.get(_) >> new MemTupleDataCache.DataEntry<String>("key1", 5678L, "[]")
+        1 * dataCache.get(_, 1234L) >>
+                new MemTupleDataCache.DataEntry<byte[]>(cacheService.getKey(groupByQuery), 5678L, codec.encode(json))
 
         then: "We delegate to the next handler, wrapping in a CacheV2ResponseProcessor"
         cachedValue == null
@@ -149,6 +219,64 @@ class QuerySignedCacheServiceSpec extends Specification {
         bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 0
     }
 
+    def "An entry stored under the same digest for another key is a miss"() {
+        when: "A request is sent whose digest collides with another query's"
+        JsonNode cachedValue = cacheService.readCachedResponse(requestContext, groupByQuery)
+
+        then: "The entry of the other query is not used"
+        1 * dataCache.get(_, 1234L) >> new MemTupleDataCache.DataEntry<byte[]>("otherQuery", 1234L, codec.encode(json))
+        cachedValue == null
+        bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 0
+    }
+
+    def "A batch read fetches all the keys together and logs one entry for the batch"() {
+        given:
+        CacheKey hit = new CacheKey("query|hit", 1234L)
+        CacheKey stale = new CacheKey("query|stale", 1234L)
+        CacheKey collided = new CacheKey("query|collided", 1234L)
+        CacheKey missing = new CacheKey("query|missing", 1234L)
+        byte[] value = codec.encode(MAPPER.readTree('["value"]'))
+
+        when:
+        Map<CacheKey, JsonNode> cachedValues = cacheService.readCachedResponses(
+                [hit, stale, collided, missing],
+                "query"
+        )
+
+        then: "The cache is read once for all the keys"
+        1 * dataCache.getAll([(hit): 1234L, (stale): 1234L, (collided): 1234L, (missing): 1234L]) >> [
+                (hit): new MemTupleDataCache.DataEntry<byte[]>("query|hit", 1234L, value),
+                (stale): new MemTupleDataCache.DataEntry<byte[]>("query|stale", 5678L, value),
+                (collided): new MemTupleDataCache.DataEntry<byte[]>("query|other", 1234L, value)
+        ]
+        0 * dataCache.get(_, _)
+
+        and: "Only the valid entry is returned"
+        cachedValues == [(hit): MAPPER.readTree('["value"]')]
+        bardQueryInfo.queryCounter.get(BardQueryInfo.FACT_QUERY_CACHE_HIT).get() == 1
+
+        and: "The batch is logged as a single entry"
+        bardQueryInfo.cacheStats.size() == 1
+        with(bardQueryInfo.cacheStats[0] as BardBatchCacheInfo) {
+            reads == 4
+            hits == 1
+            signatureMismatches == 1
+            readFailures == 0
+        }
+    }
+
+    def "The cache key holds the canonical query, its digest and its segment signature"() {
+        when:
+        CacheKey key = cacheService.getCacheKey(groupByQuery)
+
+        then:
+        key.key == cacheService.getKey(groupByQuery)
+        key.length == key.key.getBytes("UTF-8").length
+        key.digest == CacheKey.digest(key.key)
+        key.digest.length() == 22
+        key.segmentSetId == 1234L
+    }
+
     def "Cache write completes with good cache key"() {
         setup:
         GroupByQuery groupByQuery = Mock(GroupByQuery)
@@ -164,7 +292,7 @@ class QuerySignedCacheServiceSpec extends Specification {
         cacheService.writeCache(response, json, groupByQuery)
 
         then:
-        1 * dataCache.set(cacheKey, segmentId, '[]')
+        1 * dataCache.set(new CacheKey(cacheKey, 1234L), segmentId, { codec.decode(it) == json })
 
     }
 
@@ -201,4 +329,34 @@ class QuerySignedCacheServiceSpec extends Specification {
         cleanup: "Restore the original setting for max-length-to-cache"
         SYSTEM_CONFIG.resetProperty(max_druid_response_length_to_cache_key, oldMaxLength.toString())
     }
+
+    def "The max length to cache applies to the compressed value"() {
+        setup:
+        String max_druid_response_length_to_cache_key = SYSTEM_CONFIG.getPackageVariableName(
+                "druid_max_response_length_to_cache"
+        )
+        long oldMaxLength = SYSTEM_CONFIG.getLongProperty(max_druid_response_length_to_cache_key)
+        response.getResponseContext() >> responseContext
+
+        and: "A large, repetitive response"
+        JsonNode largeJson = MAPPER.valueToTree((1..500).collect { [event: [product: "product", pageViews: 100]] })
+        int textLength = MAPPER.writeValueAsString(largeJson).length()
+        int encodedLength = codec.encode(largeJson).length
+
+        and: "A max length between the compressed and the text length of the response"
+        SYSTEM_CONFIG.resetProperty(max_druid_response_length_to_cache_key, String.valueOf(encodedLength))
+        cacheService = new QuerySignedCacheService(dataCache, querySigningService, MAPPER)
+
+        expect:
+        encodedLength < textLength
+
+        when:
+        cacheService.writeCache(response, largeJson, groupByQuery)
+
+        then:
+        1 * dataCache.set(_ as CacheKey, 1234L, { it.length == encodedLength })
+
+        cleanup:
+        SYSTEM_CONFIG.resetProperty(max_druid_response_length_to_cache_key, oldMaxLength.toString())
+    }
 }
@@ -0,0 +1,83 @@
+// Copyright 2021 Oath Inc.
+// Licensed under the terms of the Apache license. Please see LICENSE.md file distributed with this work for terms.
+package com.yahoo.bard.webservice.web.util
+
+import com.yahoo.bard.webservice.application.ObjectMappersSuite
+import com.yahoo.bard.webservice.data.PreResponseDeserializer
+import com.yahoo.bard.webservice.data.cache.CacheKey
+import com.yahoo.bard.webservice.data.dimension.Dimension
+import com.yahoo.bard.webservice.druid.model.query.DruidAggregationQuery
+import com.yahoo.bard.webservice.web.apirequest.DataApiRequest
+import com.yahoo.bard.webservice.web.handlers.RequestContext
+
+import org.joda.time.DateTime
+
+import spock.lang.Specification
+
+import javax.ws.rs.core.UriBuilder
+
+class ResultSetCacheServiceSpec extends Specification {
+
+    QuerySignedCacheService querySignedCacheService = Mock(QuerySignedCacheService)
+    ResultSetCacheService resultSetCacheService = new ResultSetCacheService(
+            querySignedCacheService,
+            Mock(PreResponseDeserializer),
+            new ObjectMappersSuite().getMapper()
+    )
+
+    DruidAggregationQuery<?> druidQuery = Mock(DruidAggregationQuery)
+    Dimension dimension = Mock(Dimension)
+    DataApiRequest apiRequest = Mock(DataApiRequest)
+
+    def setup() {
+        querySignedCacheService.getCacheKey(druidQuery) >> new CacheKey('{"queryType":"groupBy"}', 1234L)
+        dimension.getApiName() >> "gender"
+        apiRequest.getDimensions() >> ([dimension] as Set)
+    }
+
+    RequestContext context(String uri) {
+        RequestContext context = Mock(RequestContext)
+        context.getUriBuilder() >> { UriBuilder.fromUri(uri) }
+        context
+    }
+
+    def "The key ignores the order of the query parameters and the parameters which don't change the result set"() {
+        given:
+        dimension.getLastUpdated() >> new DateTime("2014-06-10")
+
+        when:
+        CacheKey key1 = resultSetCacheService.getCacheKey(
+                context("http://host/v1/data/shapes/day/gender?metrics=height&dateTime=2014-06-10/P1D"),
+                apiRequest,
+                druidQuery
+        )
+        CacheKey key2 = resultSetCacheService.getCacheKey(
+                context(
+                        "http://host/v1/data/shapes/day/gender" +
+                                "?dateTime=2014-06-10/P1D&format=csv&_cache=false&metrics=height"
+                ),
+                apiRequest,
+                druidQuery
+        )
+
+        then:
+        key1.key == key2.key
+        key1.key.startsWith(ResultSetCacheService.KEY_PREFIX + "/v1/data/shapes/day/gender?dateTime=")
+        key1.segmentSetId == 1234L
+    }
+
+    def "The key changes when a grouped by dimension is updated"() {
+        given:
+        dimension.getLastUpdated() >>> [new DateTime("2014-06-10"), new DateTime("2014-06-11")]
+        RequestContext requestContext = context("http://host/v1/data/shapes/day/gender?metrics=height")
+
+        expect:
+        resultSetCacheService.getCacheKey(requestContext, apiRequest, druidQuery).key !=
+                resultSetCacheService.getCacheKey(requestContext, apiRequest, druidQuery).key
+    }
+
+    def "There is no key for a request without a URI"() {
+        expect:
+        resultSetCacheService.getCacheKey(new RequestContext(null, true), apiRequest, druidQuery) == null
+    }
+}